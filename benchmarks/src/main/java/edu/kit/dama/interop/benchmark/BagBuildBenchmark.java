@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.benchmark;
+
+import edu.kit.dama.interop.util.BagBuilder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of creating a bag from a synthetic payload folder. addPayload
+ * measures placing all payload files into a new bag while their checksums
+ * are created, write measures writing the manifests and all other tag files
+ * of a bag whose payload was added before. Each invocation works on a new
+ * bag, whose preparation is not measured.
+ *
+ * @author jejkal
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BagBuildBenchmark{
+
+  /**
+   * State providing a new, empty bag for each invocation.
+   */
+  @State(Scope.Thread)
+  public static class EmptyBag{
+
+    @Param({"MANY_SMALL", "FEW_HUGE"})
+    public SyntheticBagGenerator.LAYOUT layout;
+
+    @Param({"COPY", "TRANSFER"})
+    public BagBuilder.PAYLOAD_PLACEMENT placement;
+
+    SyntheticBagGenerator generator;
+    Path payload;
+    Path bagRoot;
+    BagBuilder builder;
+    private String profileLocation;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception{
+      profileLocation = SyntheticData.getProfileLocation();
+      generator = layout.generator();
+      payload = generator.getPayload();
+      bagRoot = SyntheticData.getWorkDirectory().resolve("bag-build-" + layout);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() throws Exception{
+      if(Files.exists(bagRoot)){
+        SyntheticBagGenerator.delete(bagRoot);
+      }
+      Files.createDirectories(bagRoot);
+      builder = BagBuilder.create(bagRoot.toAbsolutePath(), profileLocation).setPayloadPlacement(placement);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() throws Exception{
+      builder.releaseManifests();
+    }
+  }
+
+  /**
+   * State providing a new bag holding the entire payload for each
+   * invocation.
+   */
+  @State(Scope.Thread)
+  public static class FilledBag extends EmptyBag{
+
+    @Setup(Level.Invocation)
+    public void addPayload() throws Exception{
+      generator.addPayload(builder, payload);
+      builder.getBag().getMetadata().upsertPayloadOxum(builder.getPayloadOxum());
+    }
+  }
+
+  @Benchmark
+  public BagBuilder addPayload(EmptyBag bag) throws Exception{
+    return bag.generator.addPayload(bag.builder, bag.payload);
+  }
+
+  @Benchmark
+  public BagBuilder write(FilledBag bag) throws Exception{
+    bag.builder.write(bag.bagRoot);
+    return bag.builder;
+  }
+}
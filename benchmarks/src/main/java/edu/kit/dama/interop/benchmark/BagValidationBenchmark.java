@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.benchmark;
+
+import edu.kit.dama.interop.util.BagBuilder;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of loading and verifying a synthetic bag. quickVerify only
+ * compares the Payload-Oxum with the payload found on disk, whereas
+ * fullVerify reads all payload files and compares their checksums with all
+ * payload manifests.
+ *
+ * @author jejkal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BagValidationBenchmark{
+
+  @Param({"MANY_SMALL", "FEW_HUGE"})
+  public SyntheticBagGenerator.LAYOUT layout;
+
+  private Path bagRoot;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception{
+    bagRoot = SyntheticData.getWorkDirectory().resolve("bag-verify-" + layout).toAbsolutePath();
+    layout.generator().createBag(bagRoot, SyntheticData.getProfileLocation()).releaseManifests();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception{
+    SyntheticBagGenerator.delete(bagRoot);
+  }
+
+  @Benchmark
+  public BagBuilder quickVerify() throws Exception{
+    BagBuilder builder = BagBuilder.load(bagRoot);
+    try{
+      builder.validateChecksums(false);
+    } finally{
+      builder.releaseManifests();
+    }
+    return builder;
+  }
+
+  @Benchmark
+  public BagBuilder fullVerify() throws Exception{
+    BagBuilder builder = BagBuilder.load(bagRoot);
+    try{
+      builder.validateRemainingPayload();
+    } finally{
+      builder.releaseManifests();
+    }
+    return builder;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.benchmark;
+
+import edu.kit.dama.interop.util.ChecksumEngine;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark comparing the file access modes of the checksum engine for
+ * hashing local files of different sizes. The 10GB file requires according
+ * disk space in the working directory and can be skipped via '-p
+ * fileSize=1MB,100MB'.
+ *
+ * @author jejkal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChecksumFileAccessBenchmark{
+
+  @Param({"1MB", "100MB", "10GB"})
+  public String fileSize;
+
+  @Param({"STREAM", "DIRECT", "MAPPED"})
+  public ChecksumEngine.FILE_ACCESS fileAccess;
+
+  @Param({"MD5,SHA-256"})
+  public String algorithms;
+
+  @Param({"1048576"})
+  public int bufferSize;
+
+  @Param({"67108864"})
+  public int windowSize;
+
+  private Path file;
+  private List<String> digestNames;
+  private ChecksumEngine engine;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException{
+    file = SyntheticData.getFile("checksum-" + fileSize + ".bin", SyntheticData.parseSize(fileSize));
+    digestNames = Arrays.asList(algorithms.split(","));
+    engine = new ChecksumEngine(ChecksumEngine.DEFAULT_THREADS, bufferSize, fileAccess, windowSize);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown(){
+    engine.shutdown();
+  }
+
+  @Benchmark
+  public Map<String, String> digestFile() throws IOException{
+    return engine.digest(file, digestNames);
+  }
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.benchmark;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.kit.dama.interop.cl.command.ExportCommand;
+import edu.kit.dama.interop.cl.command.ImportCommand;
+import edu.kit.dama.interop.util.BagArchiveReader;
+import edu.kit.dama.interop.util.BagBuilder;
+import edu.kit.dama.interop.util.FetchEngine;
+import edu.kit.dama.interop.util.Metrics;
+import edu.kit.dama.util.ZipUtils;
+import edu.kit.jcommander.generic.status.CommandStatus;
+import gov.loc.repository.bagit.domain.FetchItem;
+import gov.loc.repository.bagit.util.PathUtils;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end throughput harness running all phases of creating, writing,
+ * loading, verifying and serializing a synthetic bag as well as exporting and
+ * importing a synthetic digital object. Exports and imports run against a
+ * {@link RepositoryStandIn}, fetch items are served by a local
+ * {@link RemoteFileServer}, so that no repository and no network access is
+ * needed. For each phase, the elapsed time, throughput in MB/s and files/s,
+ * the time spent in garbage collection and the peak resident set size and
+ * heap usage are reported. All results are written to a JSON report.
+ *
+ * Peak resident set size is only available on Linux. It is reset before each
+ * phase if the kernel supports it, otherwise it reflects the peak since the
+ * start of the process.
+ *
+ * @author jejkal
+ */
+public class EndToEndHarness{
+
+  private static final String OBJECT_ID = "synthetic-object";
+
+  /**
+   * Settings of the harness.
+   */
+  public static class Settings{
+
+    @Parameter(names = {"--files"}, description = "Total number of files including fetch items.")
+    public int files = 1000;
+    @Parameter(names = {"--fileSize"}, description = "Mean file size, e.g. 4KB, 1MB or 1GB.")
+    public String fileSize = "1MB";
+    @Parameter(names = {"--distribution"}, description = "Distribution of file sizes around the mean size.")
+    public SyntheticBagGenerator.SIZE_DISTRIBUTION distribution = SyntheticBagGenerator.SIZE_DISTRIBUTION.FIXED;
+    @Parameter(names = {"--depth"}, description = "Number of folder levels below the payload folder.")
+    public int depth = 2;
+    @Parameter(names = {"--fetchRatio"}, description = "Share of files added as fetch items between 0.0 and 1.0.")
+    public double fetchRatio = 0.0;
+    @Parameter(names = {"--placement"}, description = "Placement of payload files in the bag.")
+    public BagBuilder.PAYLOAD_PLACEMENT placement = BagBuilder.PAYLOAD_PLACEMENT.COPY;
+    @Parameter(names = {"--threads"}, description = "Number of threads used for adding payload, fetching and serving fetch items.")
+    public int threads = 4;
+    @Parameter(names = {"--streamImport"}, description = "Stream the payload of the exported bag to the staging location while importing.")
+    public boolean streamImport = false;
+    @Parameter(names = {"--skipClients"}, description = "Skip export and import via the repository stand-in.")
+    public boolean skipClients = false;
+    @Parameter(names = {"--report"}, description = "The JSON report file. By default, harness-report.json in the working directory is used.")
+    public String report = null;
+    @Parameter(names = {"-h", "--help"}, help = true, description = "Print usage.")
+    public boolean help = false;
+  }
+
+  /**
+   * Measurements of a single phase.
+   */
+  public static class Phase{
+
+    private final String name;
+    private final long nanos;
+    private final long bytes;
+    private final long files;
+    private final long gcMillis;
+    private final long gcCount;
+    private final long peakRssBytes;
+    private final long peakHeapBytes;
+
+    Phase(String name, long nanos, long bytes, long files, long gcMillis, long gcCount, long peakRssBytes, long peakHeapBytes){
+      this.name = name;
+      this.nanos = nanos;
+      this.bytes = bytes;
+      this.files = files;
+      this.gcMillis = gcMillis;
+      this.gcCount = gcCount;
+      this.peakRssBytes = peakRssBytes;
+      this.peakHeapBytes = peakHeapBytes;
+    }
+
+    public String getName(){
+      return name;
+    }
+
+    public double getSeconds(){
+      return nanos / 1.0e9;
+    }
+
+    public long getBytes(){
+      return bytes;
+    }
+
+    public long getFiles(){
+      return files;
+    }
+
+    public double getMegabytesPerSecond(){
+      return (nanos > 0) ? (bytes / (1024.0 * 1024.0)) / getSeconds() : 0.0;
+    }
+
+    public double getFilesPerSecond(){
+      return (nanos > 0) ? files / getSeconds() : 0.0;
+    }
+
+    public long getGcMillis(){
+      return gcMillis;
+    }
+
+    public long getGcCount(){
+      return gcCount;
+    }
+
+    /**
+     * Get the peak resident set size during the phase.
+     *
+     * @return The peak resident set size in bytes or -1 if not available.
+     */
+    public long getPeakRssBytes(){
+      return peakRssBytes;
+    }
+
+    public long getPeakHeapBytes(){
+      return peakHeapBytes;
+    }
+  }
+
+  /**
+   * Work performed by a phase.
+   */
+  private interface Task{
+
+    void run() throws Exception;
+  }
+
+  /**
+   * Amount of data processed by a phase, which is determined after the phase
+   * has finished.
+   */
+  private interface Amount{
+
+    long get() throws IOException;
+  }
+
+  private final Settings settings;
+  private final SyntheticBagGenerator generator;
+  private final List<Phase> phases = new ArrayList<>();
+  private BagBuilder builder;
+  private Path extractedBag;
+
+  /**
+   * Create a new harness.
+   *
+   * @param settings The settings.
+   */
+  public EndToEndHarness(Settings settings){
+    this.settings = settings;
+    this.generator = new SyntheticBagGenerator(settings.files, SyntheticData.parseSize(settings.fileSize), settings.distribution, settings.depth, settings.fetchRatio);
+  }
+
+  public static void main(String[] args) throws Exception{
+    Settings settings = new Settings();
+    JCommander jCommander = new JCommander(settings, args);
+    if(settings.help){
+      jCommander.usage();
+      return;
+    }
+    new EndToEndHarness(settings).run();
+  }
+
+  /**
+   * Run all phases, print a summary and write the JSON report.
+   *
+   * @return The measurements of all phases.
+   *
+   * @throws Exception If any phase fails.
+   */
+  public List<Phase> run() throws Exception{
+    final Path runDir = SyntheticData.getWorkDirectory().resolve("harness").toAbsolutePath();
+    if(Files.exists(runDir)){
+      SyntheticBagGenerator.delete(runDir);
+    }
+    Files.createDirectories(runDir);
+    final String profileLocation = SyntheticData.getProfileLocation();
+    final long payloadBytes = generator.getPayloadSize();
+    final long fetchBytes = generator.getFetchSize();
+    final int payloadFiles = generator.getFileCount();
+    final int fetchFiles = generator.getFetchCount();
+    final int allFiles = payloadFiles + fetchFiles;
+
+    measure("generate", () -> payloadBytes + fetchBytes, allFiles, () -> {
+      generator.getPayload();
+      generator.getRemotePayload();
+    });
+
+    try(RemoteFileServer server = new RemoteFileServer(generator.getRemotePayload(), settings.threads)){
+      final Path bagRoot = runDir.resolve("bag");
+      measure("create", () -> payloadBytes + fetchBytes, allFiles, () -> {
+        Files.createDirectories(bagRoot);
+        builder = BagBuilder.create(bagRoot, profileLocation).setPayloadPlacement(settings.placement);
+        generator.addPayload(builder, generator.getPayload());
+        generator.addFetchItems(builder, server.getBaseUrl());
+        builder.getBag().getMetadata().upsertPayloadOxum(PathUtils.generatePayloadOxum(PathUtils.getDataDir(builder.getBag().getVersion(), bagRoot)));
+      });
+      measure("write", () -> getTagFileSize(bagRoot), allFiles, () -> {
+        builder.write(bagRoot);
+        builder.releaseManifests();
+      });
+      measure("load", () -> getTagFileSize(bagRoot), allFiles, () -> {
+        builder = BagBuilder.load(bagRoot);
+      });
+      measure("verify-quick", () -> payloadBytes, payloadFiles, () -> {
+        builder.validateChecksums(false);
+      });
+      if(fetchFiles > 0){
+        measure("fetch", () -> fetchBytes, fetchFiles, () -> {
+          try(FetchEngine fetchEngine = new FetchEngine(builder, settings.threads, settings.threads)){
+            for(FetchItem item : builder.getBag().getItemsToFetch()){
+              fetchEngine.submit(item, item.getPath());
+            }
+            fetchEngine.await();
+          }
+        });
+      }
+      measure("verify-full", () -> payloadBytes, payloadFiles, () -> {
+        builder.validateTagManifests();
+        builder.validateRemainingPayload();
+        builder.releaseManifests();
+      });
+
+      final Path zipFile = runDir.resolve("bag.zip");
+      measure("zip", () -> Files.size(zipFile), allFiles, () -> {
+        ZipUtils.zip(new File[]{bagRoot.toFile()}, runDir.toString(), zipFile.toFile());
+      });
+      measure("unzip", () -> Files.size(zipFile), allFiles, () -> {
+        extractedBag = new BagArchiveReader(zipFile).extractAll(runDir.resolve("unzipped"));
+      });
+      measure("verify-unzipped", () -> payloadBytes + fetchBytes, allFiles, () -> {
+        BagBuilder extracted = BagBuilder.load(extractedBag.toAbsolutePath());
+        extracted.validateTagManifests();
+        extracted.validateRemainingPayload();
+        extracted.releaseManifests();
+      });
+
+      if(!settings.skipClients){
+        new RepositoryStandIn(runDir.resolve("staging")).install().addObject(OBJECT_ID, generator, server.getBaseUrl());
+        final Path exportRoot = runDir.resolve("export").resolve(OBJECT_ID);
+        measure("export", () -> payloadBytes + fetchBytes, allFiles, () -> {
+          ExportCommand export = new ExportCommand();
+          export.digitalObjectId = OBJECT_ID;
+          export.destination = exportRoot.toString();
+          export.profileUrl = profileLocation;
+          export.force = true;
+          export.zipOutput = true;
+          export.streamingMets = true;
+          export.threads = settings.threads;
+          export.placement = settings.placement;
+          checkStatus("export", export.executeCommand());
+        });
+        measure("import", () -> payloadBytes + fetchBytes, allFiles, () -> {
+          ImportCommand importCommand = new ImportCommand();
+          importCommand.source = exportRoot.resolveSibling(OBJECT_ID + ".zip").toString();
+          importCommand.investigationId = "1";
+          importCommand.userId = "admin";
+          importCommand.groupId = "USERS";
+          importCommand.allowOverwrite = true;
+          importCommand.noWait = true;
+          importCommand.streamPayload = settings.streamImport;
+          importCommand.fetchThreads = settings.threads;
+          checkStatus("import", importCommand.executeCommand());
+        });
+      }
+    }
+
+    printSummary();
+    writeReport((settings.report != null) ? Paths.get(settings.report) : SyntheticData.getWorkDirectory().resolve("harness-report.json"));
+    return phases;
+  }
+
+  /**
+   * Run and measure a single phase.
+   *
+   * @param name The phase name.
+   * @param bytes The amount of data processed, determined after the phase.
+   * @param files The number of files processed.
+   * @param task The work of the phase.
+   *
+   * @throws Exception If the phase fails.
+   */
+  private void measure(String name, Amount bytes, long files, Task task) throws Exception{
+    boolean rssReset = resetPeakRss();
+    List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+    for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+      if(MemoryType.HEAP.equals(pool.getType())){
+        pool.resetPeakUsage();
+        heapPools.add(pool);
+      }
+    }
+    long gcMillis = getGcMillis();
+    long gcCount = getGcCount();
+    long start = System.nanoTime();
+    task.run();
+    long nanos = System.nanoTime() - start;
+
+    long peakHeap = 0;
+    for(MemoryPoolMXBean pool : heapPools){
+      peakHeap += pool.getPeakUsage().getUsed();
+    }
+    Phase phase = new Phase(name, nanos, bytes.get(), files, getGcMillis() - gcMillis, getGcCount() - gcCount, getPeakRss(), peakHeap);
+    phases.add(phase);
+    System.out.println(String.format(Locale.ENGLISH, "Phase %s finished in %.3f s (%.1f MB/s, %.1f files/s%s).", name, phase.getSeconds(), phase.getMegabytesPerSecond(), phase.getFilesPerSecond(), rssReset ? "" : ", peak RSS not reset"));
+  }
+
+  /**
+   * Print a table of all phases.
+   */
+  private void printSummary(){
+    System.out.println(String.format(Locale.ENGLISH, "%-16s %10s %12s %12s %10s %8s %14s %14s", "Phase", "Seconds", "MB/s", "Files/s", "GC [ms]", "GCs", "Peak RSS [MB]", "Peak heap [MB]"));
+    for(Phase phase : phases){
+      System.out.println(String.format(Locale.ENGLISH, "%-16s %10.3f %12.1f %12.1f %10d %8d %14.1f %14.1f", phase.getName(), phase.getSeconds(), phase.getMegabytesPerSecond(), phase.getFilesPerSecond(), phase.getGcMillis(), phase.getGcCount(),
+              (phase.getPeakRssBytes() < 0) ? -1.0 : phase.getPeakRssBytes() / (1024.0 * 1024.0), phase.getPeakHeapBytes() / (1024.0 * 1024.0)));
+    }
+  }
+
+  /**
+   * Write the settings and the measurements of all phases to the provided
+   * file.
+   *
+   * @param reportFile The report file.
+   *
+   * @throws IOException If writing the report fails.
+   */
+  private void writeReport(Path reportFile) throws IOException{
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("files", settings.files);
+    report.put("meanFileSize", SyntheticData.parseSize(settings.fileSize));
+    report.put("distribution", settings.distribution);
+    report.put("depth", settings.depth);
+    report.put("fetchRatio", settings.fetchRatio);
+    report.put("placement", settings.placement);
+    report.put("threads", settings.threads);
+    report.put("payloadBytes", generator.getPayloadSize());
+    report.put("fetchBytes", generator.getFetchSize());
+    report.put("phases", phases);
+    report.put("metrics", Metrics.getInstance().createSummary());
+    new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(reportFile.toFile(), report);
+    System.out.println("Report written to " + reportFile.toAbsolutePath());
+  }
+
+  /**
+   * Fail if the provided command status is not successful.
+   *
+   * @param command The command name.
+   * @param status The command status.
+   *
+   * @throws Exception If the command has failed.
+   */
+  private static void checkStatus(String command, CommandStatus status) throws Exception{
+    if(!status.getStatus().isSuccess()){
+      throw new Exception("Command " + command + " has failed.", status.getException());
+    }
+  }
+
+  /**
+   * Get the total size of all files in the provided bag root except the
+   * payload.
+   *
+   * @param bagRoot The bag root.
+   *
+   * @return The size in bytes.
+   *
+   * @throws IOException If listing the bag root fails.
+   */
+  private static long getTagFileSize(Path bagRoot) throws IOException{
+    Path dataDir = bagRoot.resolve("data");
+    try(Stream<Path> files = Files.walk(bagRoot)){
+      return files.filter((file) -> !file.startsWith(dataDir) && Files.isRegularFile(file)).mapToLong((file) -> file.toFile().length()).sum();
+    }
+  }
+
+  private static long getGcMillis(){
+    long millis = 0;
+    for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+      millis += Math.max(0, collector.getCollectionTime());
+    }
+    return millis;
+  }
+
+  private static long getGcCount(){
+    long count = 0;
+    for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+      count += Math.max(0, collector.getCollectionCount());
+    }
+    return count;
+  }
+
+  /**
+   * Reset the peak resident set size of this process, which is supported by
+   * Linux since kernel 4.0.
+   *
+   * @return TRUE if the peak was reset.
+   */
+  private static boolean resetPeakRss(){
+    try{
+      Files.write(Paths.get("/proc/self/clear_refs"), "5".getBytes(StandardCharsets.US_ASCII));
+      return true;
+    } catch(IOException | SecurityException | UnsupportedOperationException ex){
+      return false;
+    }
+  }
+
+  /**
+   * Get the peak resident set size of this process.
+   *
+   * @return The peak resident set size in bytes or -1 if not available.
+   */
+  private static long getPeakRss(){
+    try{
+      for(String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.US_ASCII)){
+        if(line.startsWith("VmHWM:")){
+          return Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim()) * 1024;
+        }
+      }
+    } catch(IOException | NumberFormatException ex){
+      //not available, e.g. not running on Linux
+    }
+    return -1;
+  }
+}
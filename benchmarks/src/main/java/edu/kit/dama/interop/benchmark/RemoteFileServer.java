@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal HTTP server providing the files of a local folder via GET and HEAD
+ * requests on the loopback interface. It serves fetch items of synthetic bags,
+ * so that fetching and probing can be exercised without network access.
+ *
+ * @author jejkal
+ */
+public class RemoteFileServer implements AutoCloseable{
+
+  private final Path root;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /**
+   * Start a new server providing the content of the provided folder on a free
+   * port.
+   *
+   * @param root The folder to serve.
+   * @param threads The number of requests served concurrently.
+   *
+   * @throws IOException If the server cannot be started.
+   */
+  public RemoteFileServer(Path root, int threads) throws IOException{
+    this.root = root.toAbsolutePath().normalize();
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    executor = Executors.newFixedThreadPool(threads);
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+    server.start();
+  }
+
+  /**
+   * Get the URL of the served folder.
+   *
+   * @return The base URL ending with '/'.
+   */
+  public String getBaseUrl(){
+    return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+  }
+
+  /**
+   * Stop the server immediately.
+   */
+  @Override
+  public void close(){
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * Handle a single request. Only GET and HEAD are supported, ranges are
+   * ignored and the entire file is returned.
+   *
+   * @param exchange The request exchange.
+   *
+   * @throws IOException If sending the response fails.
+   */
+  private void handle(HttpExchange exchange) throws IOException{
+    try{
+      String method = exchange.getRequestMethod();
+      Path file = root.resolve(URLDecoder.decode(exchange.getRequestURI().getRawPath().substring(1), StandardCharsets.UTF_8.name())).normalize();
+      if(!file.startsWith(root) || !Files.isRegularFile(file)){
+        exchange.sendResponseHeaders(404, -1);
+      } else if("HEAD".equals(method)){
+        exchange.getResponseHeaders().set("Content-Length", Long.toString(Files.size(file)));
+        exchange.sendResponseHeaders(200, -1);
+      } else if("GET".equals(method)){
+        long size = Files.size(file);
+        //a length of zero announces a chunked response, empty bodies are announced by -1
+        exchange.sendResponseHeaders(200, (size == 0) ? -1 : size);
+        try(OutputStream out = exchange.getResponseBody()){
+          Files.copy(file, out);
+        }
+      } else{
+        exchange.sendResponseHeaders(405, -1);
+      }
+    } finally{
+      exchange.close();
+    }
+  }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.benchmark;
+
+import edu.kit.dama.authorization.entities.impl.AuthorizationContext;
+import edu.kit.dama.commons.types.DigitalObjectId;
+import edu.kit.dama.commons.types.ILFN;
+import edu.kit.dama.interop.util.RepositoryServices;
+import edu.kit.dama.mdm.base.DigitalObject;
+import edu.kit.dama.mdm.base.Investigation;
+import edu.kit.dama.mdm.base.UserData;
+import edu.kit.dama.mdm.core.IMetaDataManager;
+import edu.kit.dama.mdm.dataorganization.entity.core.ICollectionNode;
+import edu.kit.dama.mdm.dataorganization.entity.core.IDataOrganizationNode;
+import edu.kit.dama.mdm.dataorganization.entity.core.IFileNode;
+import edu.kit.dama.mdm.dataorganization.entity.core.IFileTree;
+import edu.kit.dama.mdm.dataorganization.service.core.DataOrganizer;
+import edu.kit.dama.staging.entities.TransferClientProperties;
+import edu.kit.dama.staging.entities.ingest.IngestInformation;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the services of a local KIT Data Manager repository, which
+ * allows to run exports and imports without database and staging service.
+ * Digital objects and their single view are kept in memory, ingests are
+ * staged into sub folders of a local staging folder and keep the status last
+ * set by the import. The metadata manager and data organizer are
+ * provided as dynamic proxies, which only implement the operations used by
+ * export and import and return default values otherwise.
+ *
+ * @author jejkal
+ */
+public class RepositoryStandIn implements RepositoryServices.IngestService{
+
+  /**
+   * The name of the only view of each digital object.
+   */
+  public static final String VIEW_NAME = "default";
+
+  /**
+   * Implementation of a single operation of a proxied interface.
+   */
+  private interface Operation{
+
+    Object invoke(Object[] args) throws Exception;
+  }
+
+  private final Path stagingRoot;
+  private final Map<String, DigitalObject> objects = new ConcurrentHashMap<>();
+  private final Map<String, IFileTree> trees = new ConcurrentHashMap<>();
+  private final Map<Long, IngestInformation> ingests = new ConcurrentHashMap<>();
+  private final AtomicLong baseIds = new AtomicLong(0);
+  private final AtomicLong ingestIds = new AtomicLong(0);
+  private volatile AuthorizationContext context = null;
+
+  /**
+   * Create a new stand-in.
+   *
+   * @param stagingRoot The folder ingests are staged to.
+   */
+  public RepositoryStandIn(Path stagingRoot){
+    this.stagingRoot = stagingRoot.toAbsolutePath();
+  }
+
+  /**
+   * Install this stand-in as replacement of all repository services. This
+   * must happen before any export or import is executed.
+   *
+   * @return This stand-in.
+   */
+  public RepositoryStandIn install(){
+    RepositoryServices.setMetaDataManager(createMetaDataManager());
+    RepositoryServices.setDataOrganizer(createDataOrganizer());
+    RepositoryServices.setIngestService(this);
+    return this;
+  }
+
+  /**
+   * Register a digital object whose default view contains all files of the
+   * provided generator. Files of the payload folder are referenced by file
+   * URLs, all other files by URLs below the provided remote base URL, so
+   * that they are exported as fetch items.
+   *
+   * @param identifier The digital object identifier.
+   * @param generator The generator providing the files.
+   * @param remoteBaseUrl The URL the remote folder of the generator is
+   * available at, ending with '/'.
+   *
+   * @return The digital object.
+   *
+   * @throws Exception If creating the payload fails.
+   */
+  public DigitalObject addObject(String identifier, SyntheticBagGenerator generator, String remoteBaseUrl) throws Exception{
+    String payloadUrl = generator.getPayload().toAbsolutePath().toUri().toString();
+    if(payloadUrl.indexOf("data") != payloadUrl.length() - "data/".length()){
+      //the export uses the first occurence of 'data' as repository archive root
+      throw new Exception("The working directory must not contain 'data' in its path, but it is " + payloadUrl);
+    }
+    UserData uploader = new UserData();
+    uploader.setFirstName("Jane");
+    uploader.setLastName("Doe");
+    uploader.setDistinguishedName("jdoe");
+    uploader.setEmail("jane.doe@example.org");
+    DigitalObject object = DigitalObject.factoryNewDigitalObject(identifier);
+    object.setLabel("Synthetic object " + identifier);
+    object.setUploadDate(new Date());
+    object.setUploader(uploader);
+    object.addExperimenter(uploader);
+    object.setBaseId(baseIds.incrementAndGet());
+
+    Map<String, String> files = new LinkedHashMap<>();
+    generator.getRelativePaths().forEach((path) -> files.put(path, payloadUrl + path));
+    generator.getFetchPaths().forEach((path) -> files.put(path, remoteBaseUrl + path));
+    objects.put(identifier, object);
+    trees.put(identifier, createTree(files));
+    return object;
+  }
+
+  @Override
+  public IngestInformation prepareIngest(DigitalObjectId objectId, TransferClientProperties properties, AuthorizationContext context) throws Exception{
+    Long id = ingestIds.incrementAndGet();
+    Path stagingPath = Files.createDirectories(stagingRoot.resolve("ingest-" + id));
+    IngestInformation ingest = new IngestInformation();
+    ingest.setId(id);
+    ingest.setDigitalObjectId(objectId.getStringRepresentation());
+    ingest.setStagingUrl(stagingPath.toUri().toString());
+    ingests.put(id, ingest);
+    return ingest;
+  }
+
+  @Override
+  public int updateStatus(Long ingestId, int status, String errorMessage, AuthorizationContext context) throws Exception{
+    IngestInformation ingest = ingests.get(ingestId);
+    if(ingest == null){
+      return 0;
+    }
+    ingest.setStatus(status);
+    ingest.setErrorMessage(errorMessage);
+    return 1;
+  }
+
+  @Override
+  public IngestInformation getIngestInformationById(Long ingestId, AuthorizationContext context) throws Exception{
+    return ingests.get(ingestId);
+  }
+
+  /**
+   * Get the staging folder of the provided ingest.
+   *
+   * @param ingestId The ingest id.
+   *
+   * @return The staging folder.
+   */
+  public Path getStagingPath(Long ingestId){
+    return stagingRoot.resolve("ingest-" + ingestId);
+  }
+
+  /**
+   * Get the ids of all ingests prepared so far.
+   *
+   * @return The ingest ids.
+   */
+  public Set<Long> getIngestIds(){
+    return Collections.unmodifiableSet(ingests.keySet());
+  }
+
+  /**
+   * Create the metadata manager answering queries for digital objects and
+   * investigations used by export and import. Each investigation is accepted
+   * as import destination and each object saved for the first time is
+   * assigned a new base id.
+   *
+   * @return The metadata manager.
+   */
+  private IMetaDataManager createMetaDataManager(){
+    Map<String, Operation> operations = new HashMap<>();
+    operations.put("setAuthorizationContext", (args) -> {
+      context = (AuthorizationContext) args[0];
+      return null;
+    });
+    operations.put("getAuthorizationContext", (args) -> context);
+    operations.put("findSingleResult", (args) -> {
+      Class<?> type = (Class<?>) args[2];
+      if(DigitalObject.class.equals(type)){
+        return objects.get(String.valueOf(((Object[]) args[1])[0]));
+      } else if(Investigation.class.equals(type)){
+        return new Investigation();
+      }
+      return null;
+    });
+    operations.put("findResultList", (args) -> {
+      Class<?> type = (Class<?>) args[2];
+      DigitalObject object = objects.get(String.valueOf(((Object[]) args[1])[0]));
+      if(DigitalObject.class.equals(type) && object != null){
+        return Collections.singletonList(object);
+      } else if(String.class.equals(type)){
+        return new ArrayList<>(objects.keySet());
+      }
+      return Collections.emptyList();
+    });
+    operations.put("save", (args) -> {
+      if(args[0] instanceof DigitalObject){
+        DigitalObject object = (DigitalObject) args[0];
+        if(object.getBaseId() == null){
+          object.setBaseId(baseIds.incrementAndGet());
+        }
+        objects.put(object.getDigitalObjectIdentifier(), object);
+      }
+      return args[0];
+    });
+    operations.put("remove", (args) -> {
+      if(args[0] instanceof DigitalObject){
+        objects.remove(((DigitalObject) args[0]).getDigitalObjectIdentifier());
+      }
+      return null;
+    });
+    return proxy(IMetaDataManager.class, operations);
+  }
+
+  /**
+   * Create the data organizer providing the default view of all registered
+   * objects.
+   *
+   * @return The data organizer.
+   */
+  private DataOrganizer createDataOrganizer(){
+    Map<String, Operation> operations = new HashMap<>();
+    operations.put("getViews", (args) -> {
+      return trees.containsKey(((DigitalObjectId) args[0]).getStringRepresentation()) ? Collections.singletonList(VIEW_NAME) : Collections.emptyList();
+    });
+    operations.put("loadFileTree", (args) -> trees.get(((DigitalObjectId) args[0]).getStringRepresentation()));
+    return proxy(DataOrganizer.class, operations);
+  }
+
+  /**
+   * Create the file tree of the default view containing the provided files.
+   *
+   * @param files Map of relative path and logical file name of all files.
+   *
+   * @return The file tree.
+   */
+  private static IFileTree createTree(Map<String, String> files){
+    Map<String, List<IDataOrganizationNode>> children = new HashMap<>();
+    children.put("", new ArrayList<>());
+    for(Map.Entry<String, String> file : files.entrySet()){
+      String[] elements = file.getKey().split("/");
+      String parent = "";
+      for(int i = 0; i < elements.length - 1; i++){
+        String path = parent + elements[i] + "/";
+        if(!children.containsKey(path)){
+          List<IDataOrganizationNode> nodes = new ArrayList<>();
+          children.put(path, nodes);
+          children.get(parent).add(createNode(ICollectionNode.class, elements[i], "getChildren", nodes));
+        }
+        parent = path;
+      }
+      ILFN lfn = proxy(ILFN.class, Collections.singletonMap("getStringRepresentation", (Operation) (args) -> file.getValue()));
+      children.get(parent).add(createNode(IFileNode.class, elements[elements.length - 1], "getLogicalFileName", lfn));
+    }
+    ICollectionNode root = createNode(ICollectionNode.class, VIEW_NAME, "getChildren", children.get(""));
+    return createNode(IFileTree.class, VIEW_NAME, "getRootNode", root);
+  }
+
+  /**
+   * Create a data organization node.
+   *
+   * @param <T> The node type.
+   * @param type The node interface.
+   * @param name The node name.
+   * @param operation The name of the additional operation, e.g. getChildren.
+   * @param value The result of the additional operation.
+   *
+   * @return The node.
+   */
+  private static <T extends IDataOrganizationNode> T createNode(Class<T> type, String name, String operation, Object value){
+    Map<String, Operation> operations = new HashMap<>();
+    operations.put("getName", (args) -> name);
+    operations.put("getViewName", (args) -> VIEW_NAME);
+    operations.put(operation, (args) -> value);
+    return proxy(type, operations);
+  }
+
+  /**
+   * Create a proxy of the provided interface. Operations not provided return
+   * zero, false, an empty collection or null depending on their return type.
+   *
+   * @param <T> The interface type.
+   * @param type The interface.
+   * @param operations Map of method name and implementation.
+   *
+   * @return The proxy.
+   */
+  private static <T> T proxy(Class<T> type, Map<String, Operation> operations){
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+      Operation operation = operations.get(method.getName());
+      if(operation != null){
+        return operation.invoke(args);
+      }
+      switch(method.getName()){
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+        default:
+          return getDefaultValue(method.getReturnType());
+      }
+    }));
+  }
+
+  /**
+   * Get the default value of the provided return type.
+   *
+   * @param type The return type.
+   *
+   * @return The default value.
+   */
+  private static Object getDefaultValue(Class<?> type){
+    if(boolean.class.equals(type)){
+      return Boolean.FALSE;
+    } else if(int.class.equals(type)){
+      return 0;
+    } else if(long.class.equals(type)){
+      return 0L;
+    } else if(short.class.equals(type)){
+      return (short) 0;
+    } else if(byte.class.equals(type)){
+      return (byte) 0;
+    } else if(double.class.equals(type)){
+      return 0.0;
+    } else if(float.class.equals(type)){
+      return 0.0f;
+    } else if(char.class.equals(type)){
+      return (char) 0;
+    } else if(Set.class.equals(type)){
+      return Collections.emptySet();
+    } else if(List.class.equals(type) || Collection.class.equals(type)){
+      return Collections.emptyList();
+    }
+    return null;
+  }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.benchmark;
+
+import edu.kit.dama.interop.util.BagBuilder;
+import gov.loc.repository.bagit.domain.FetchItem;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Generator of synthetic payload folders and bags. The payload consists of a
+ * fixed number of files, whose sizes follow the configured distribution
+ * around a mean size, distributed over a directory tree of the configured
+ * depth. A configurable share of the files is intended to be added as fetch
+ * items and is therefore placed in a separate remote folder. Sizes and
+ * content are derived from the file index, so that the same settings always
+ * result in the same payload. Payload folders are created once in the working
+ * directory and are reused as long as their settings are unchanged.
+ *
+ * @author jejkal
+ */
+public class SyntheticBagGenerator{
+
+  /**
+   * Predefined payload layouts.
+   */
+  public enum LAYOUT{
+    /**
+     * 10,000 files of 4KB each, distributed over three directory levels.
+     */
+    MANY_SMALL(10000, 4 * 1024, 3),
+    /**
+     * Four files of 256MB each in the payload root folder.
+     */
+    FEW_HUGE(4, 256 * 1024 * 1024, 0);
+
+    private final int fileCount;
+    private final long fileSize;
+    private final int depth;
+
+    LAYOUT(int fileCount, long fileSize, int depth){
+      this.fileCount = fileCount;
+      this.fileSize = fileSize;
+      this.depth = depth;
+    }
+
+    /**
+     * Create a generator for this layout.
+     *
+     * @return The generator.
+     */
+    public SyntheticBagGenerator generator(){
+      return new SyntheticBagGenerator(fileCount, fileSize, depth);
+    }
+  }
+
+  /**
+   * Distributions of the file sizes around the mean file size.
+   */
+  public enum SIZE_DISTRIBUTION{
+    /**
+     * All files have the mean size.
+     */
+    FIXED,
+    /**
+     * Sizes are distributed uniformly between zero and twice the mean size.
+     */
+    UNIFORM,
+    /**
+     * Sizes are distributed exponentially, resulting in many small and few
+     * large files.
+     */
+    EXPONENTIAL;
+
+    /**
+     * Get the size of a file.
+     *
+     * @param meanSize The mean file size.
+     * @param random The random number generator seeded with the file index.
+     *
+     * @return The file size in bytes.
+     */
+    long getSize(long meanSize, Random random){
+      switch(this){
+        case UNIFORM:
+          return (long) (random.nextDouble() * 2 * meanSize);
+        case EXPONENTIAL:
+          return (long) (-Math.log(1.0 - random.nextDouble()) * meanSize);
+        default:
+          return meanSize;
+      }
+    }
+  }
+
+  /**
+   * Number of sub folders per folder.
+   */
+  private static final int FAN_OUT = 10;
+
+  private final int fileCount;
+  private final long fileSize;
+  private final SIZE_DISTRIBUTION distribution;
+  private final int depth;
+  private final double fetchRatio;
+
+  /**
+   * Create a new generator for files of equal size without fetch items.
+   *
+   * @param fileCount The number of payload files.
+   * @param fileSize The size of each payload file in bytes.
+   * @param depth The number of folder levels below the payload root folder.
+   */
+  public SyntheticBagGenerator(int fileCount, long fileSize, int depth){
+    this(fileCount, fileSize, SIZE_DISTRIBUTION.FIXED, depth, 0.0);
+  }
+
+  /**
+   * Create a new generator.
+   *
+   * @param fileCount The total number of files including fetch items.
+   * @param meanFileSize The mean file size in bytes.
+   * @param distribution The distribution of the file sizes.
+   * @param depth The number of folder levels below the payload root folder.
+   * @param fetchRatio The share of files added as fetch items between 0.0
+   * and 1.0.
+   */
+  public SyntheticBagGenerator(int fileCount, long meanFileSize, SIZE_DISTRIBUTION distribution, int depth, double fetchRatio){
+    if(fetchRatio < 0.0 || fetchRatio > 1.0){
+      throw new IllegalArgumentException("Fetch ratio must be between 0.0 and 1.0, but is " + fetchRatio);
+    }
+    this.fileCount = fileCount;
+    this.fileSize = meanFileSize;
+    this.distribution = distribution;
+    this.depth = depth;
+    this.fetchRatio = fetchRatio;
+  }
+
+  /**
+   * Get the total size of all files placed in the payload folder.
+   *
+   * @return The payload size in bytes.
+   */
+  public long getPayloadSize(){
+    long size = 0;
+    for(int i = 0; i < fileCount; i++){
+      if(!isFetchItem(i)){
+        size += getFileSize(i);
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Get the total size of all files intended to be added as fetch items.
+   *
+   * @return The size of all fetch items in bytes.
+   */
+  public long getFetchSize(){
+    long size = 0;
+    for(int i = 0; i < fileCount; i++){
+      if(isFetchItem(i)){
+        size += getFileSize(i);
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Get the number of files placed in the payload folder.
+   *
+   * @return The file count.
+   */
+  public int getFileCount(){
+    return getRelativePaths().size();
+  }
+
+  /**
+   * Get the number of files intended to be added as fetch items.
+   *
+   * @return The fetch item count.
+   */
+  public int getFetchCount(){
+    return getFetchPaths().size();
+  }
+
+  /**
+   * Get the payload folder of this layout, which is created in the working
+   * directory together with the remote folder if it does not exist yet. The
+   * payload folder is named 'data', as the repository archive of KIT Data
+   * Manager.
+   *
+   * @return The payload folder.
+   *
+   * @throws IOException If creating the payload fails.
+   */
+  public Path getPayload() throws IOException{
+    return generate().resolve("data");
+  }
+
+  /**
+   * Get the folder containing all files intended to be added as fetch items,
+   * which is created in the working directory together with the payload
+   * folder if it does not exist yet.
+   *
+   * @return The remote folder.
+   *
+   * @throws IOException If creating the payload fails.
+   */
+  public Path getRemotePayload() throws IOException{
+    return generate().resolve("remote");
+  }
+
+  /**
+   * List all files of the payload folder relative to the payload folder.
+   *
+   * @return The list of relative paths using '/' as separator.
+   */
+  public List<String> getRelativePaths(){
+    List<String> paths = new ArrayList<>(fileCount);
+    for(int i = 0; i < fileCount; i++){
+      if(!isFetchItem(i)){
+        paths.add(getRelativePath(i));
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * List all files of the remote folder relative to the remote folder.
+   *
+   * @return The list of relative paths using '/' as separator.
+   */
+  public List<String> getFetchPaths(){
+    List<String> paths = new ArrayList<>();
+    for(int i = 0; i < fileCount; i++){
+      if(isFetchItem(i)){
+        paths.add(getRelativePath(i));
+      }
+    }
+    return paths;
+  }
+
+  /**
+   * Create a bag at the provided bag root containing all files of the
+   * payload folder. The payload is copied into the bag and a Payload-Oxum is
+   * added, so that the bag can be verified quickly.
+   *
+   * @param bagRoot The bag root folder, which is replaced if it exists.
+   * @param profileLocation The URL of the profile used to create the bag.
+   *
+   * @return The builder holding the written bag.
+   *
+   * @throws Exception If creating the bag fails.
+   */
+  public BagBuilder createBag(Path bagRoot, String profileLocation) throws Exception{
+    Path payload = getPayload();
+    if(Files.exists(bagRoot)){
+      delete(bagRoot);
+    }
+    Files.createDirectories(bagRoot);
+    BagBuilder builder = addPayload(BagBuilder.create(bagRoot.toAbsolutePath(), profileLocation), payload);
+    builder.getBag().getMetadata().upsertPayloadOxum(builder.getPayloadOxum());
+    builder.write(bagRoot);
+    return builder;
+  }
+
+  /**
+   * Add all files of the provided payload folder to the provided builder.
+   *
+   * @param builder The builder.
+   * @param payload The payload folder obtained via {@link #getPayload()}.
+   *
+   * @return The builder.
+   *
+   * @throws IOException If adding any file fails.
+   */
+  public BagBuilder addPayload(BagBuilder builder, Path payload) throws IOException{
+    for(String relativePath : getRelativePaths()){
+      builder.addPayload(payload, payload.resolve(relativePath).toUri(), relativePath);
+    }
+    return builder;
+  }
+
+  /**
+   * Add all files of the remote folder as fetch items to the provided
+   * builder. Each file is read once from its URL in order to create its
+   * checksums.
+   *
+   * @param builder The builder.
+   * @param baseUrl The URL the remote folder is available at, ending with
+   * '/'.
+   *
+   * @return The builder.
+   *
+   * @throws Exception If adding any fetch item fails.
+   */
+  public BagBuilder addFetchItems(BagBuilder builder, String baseUrl) throws Exception{
+    for(int i = 0; i < fileCount; i++){
+      if(isFetchItem(i)){
+        String relativePath = getRelativePath(i);
+        builder.addFetchItem(new FetchItem(new URL(baseUrl + relativePath), getFileSize(i), Paths.get("data", relativePath)));
+      }
+    }
+    return builder;
+  }
+
+  /**
+   * Delete the provided folder including its content.
+   *
+   * @param directory The folder.
+   *
+   * @throws IOException If listing the folder fails.
+   */
+  public static void delete(Path directory) throws IOException{
+    try(Stream<Path> files = Files.walk(directory)){
+      files.sorted(Comparator.reverseOrder())
+              .map(Path::toFile)
+              .forEach(File::delete);
+    }
+  }
+
+  /**
+   * Create the payload and remote folder of this layout in the working
+   * directory if they do not exist yet.
+   *
+   * @return The folder containing the payload and the remote folder.
+   *
+   * @throws IOException If creating any file fails.
+   */
+  private Path generate() throws IOException{
+    String layout = String.format(Locale.ENGLISH, "%d-%d-%s-%d-%.3f", fileCount, fileSize, distribution.toString().toLowerCase(Locale.ENGLISH), depth, fetchRatio);
+    Path root = SyntheticData.getWorkDirectory().resolve("payload-" + layout);
+    Path marker = SyntheticData.getWorkDirectory().resolve("payload-" + layout + ".complete");
+    if(!Files.exists(marker)){
+      if(Files.exists(root)){
+        delete(root);
+      }
+      for(int i = 0; i < fileCount; i++){
+        Path folder = root.resolve(isFetchItem(i) ? "remote" : "data");
+        SyntheticData.writeFile(folder.resolve(getRelativePath(i)), getFileSize(i), i);
+      }
+      Files.createDirectories(root.resolve("data"));
+      Files.createDirectories(root.resolve("remote"));
+      Files.write(marker, layout.getBytes(StandardCharsets.UTF_8));
+    }
+    return root;
+  }
+
+  /**
+   * Get the size of the file with the provided index.
+   *
+   * @param index The file index.
+   *
+   * @return The file size in bytes.
+   */
+  private long getFileSize(int index){
+    return distribution.getSize(fileSize, new Random(index));
+  }
+
+  /**
+   * Check whether the file with the provided index is a fetch item. Fetch
+   * items are spread evenly over all files.
+   *
+   * @param index The file index.
+   *
+   * @return TRUE if the file is intended to be added as fetch item.
+   */
+  private boolean isFetchItem(int index){
+    return (long) ((index + 1) * fetchRatio) > (long) (index * fetchRatio);
+  }
+
+  /**
+   * Get the relative path of the file with the provided index. Files are
+   * assigned round robin to the folders of the lowest level.
+   *
+   * @param index The file index.
+   *
+   * @return The relative path using '/' as separator.
+   */
+  private String getRelativePath(int index){
+    StringBuilder path = new StringBuilder();
+    int folder = index;
+    for(int level = 0; level < depth; level++){
+      path.append("d").append(folder % FAN_OUT).append("/");
+      folder /= FAN_OUT;
+    }
+    return path.append("f").append(index).append(".bin").toString();
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Helper creating synthetic input data for benchmarks. All data is created
+ * from a fixed seed, so that repeated runs work on identical content. Files
+ * are kept in a working directory across runs and are only created if they
+ * do not exist with the expected size.
+ *
+ * @author jejkal
+ */
+public final class SyntheticData{
+
+  /**
+   * System property holding the working directory.
+   */
+  public static final String WORK_DIR_PROPERTY = "benchmark.dir";
+
+  private static final int CHUNK_SIZE = 1024 * 1024;
+
+  /**
+   * Hidden constructor.
+   */
+  private SyntheticData(){
+  }
+
+  /**
+   * Get the working directory, which is taken from the system property
+   * {@link #WORK_DIR_PROPERTY} or is located in the temporary directory.
+   *
+   * @return The working directory, which exists.
+   *
+   * @throws IOException If the directory cannot be created.
+   */
+  public static Path getWorkDirectory() throws IOException{
+    String location = System.getProperty(WORK_DIR_PROPERTY);
+    Path directory = (location != null) ? Paths.get(location) : Paths.get(System.getProperty("java.io.tmpdir"), "kitdm-bagit-benchmarks");
+    return Files.createDirectories(directory);
+  }
+
+  /**
+   * Get the location of the BagIt profile used by all benchmarks, which is
+   * copied into the working directory, so that no network access is needed.
+   *
+   * @return The profile URL.
+   *
+   * @throws IOException If copying the profile fails.
+   */
+  public static String getProfileLocation() throws IOException{
+    Path profile = getWorkDirectory().resolve("benchmark-profile.json");
+    try(InputStream in = SyntheticData.class.getResourceAsStream("/benchmark-profile.json")){
+      Files.copy(in, profile, StandardCopyOption.REPLACE_EXISTING);
+    }
+    return profile.toUri().toString();
+  }
+
+  /**
+   * Parse a size like 512, 4KB, 100MB or 10GB. Units are binary, e.g. 1KB
+   * equals 1024 bytes.
+   *
+   * @param size The size.
+   *
+   * @return The size in bytes.
+   */
+  public static long parseSize(String size){
+    String value = size.trim().toUpperCase(Locale.ENGLISH);
+    long factor = 1;
+    if(value.endsWith("GB")){
+      factor = 1024L * 1024 * 1024;
+    } else if(value.endsWith("MB")){
+      factor = 1024L * 1024;
+    } else if(value.endsWith("KB")){
+      factor = 1024L;
+    }
+    if(factor > 1){
+      value = value.substring(0, value.length() - 2);
+    }
+    return Long.parseLong(value.trim()) * factor;
+  }
+
+  /**
+   * Get a file of the provided size filled with pseudo-random content, which
+   * is created if it does not exist yet.
+   *
+   * @param name The file name relative to the working directory.
+   * @param size The file size in bytes.
+   *
+   * @return The file.
+   *
+   * @throws IOException If creating the file fails.
+   */
+  public static Path getFile(String name, long size) throws IOException{
+    Path file = getWorkDirectory().resolve(name);
+    if(!Files.exists(file) || Files.size(file) != size){
+      writeFile(file, size, size);
+    }
+    return file;
+  }
+
+  /**
+   * Write a file of the provided size filled with pseudo-random content
+   * derived from the provided seed. Existing files are overwritten.
+   *
+   * @param file The file.
+   * @param size The file size in bytes.
+   * @param seed The seed of the content.
+   *
+   * @throws IOException If writing fails.
+   */
+  public static void writeFile(Path file, long size, long seed) throws IOException{
+    Files.createDirectories(file.toAbsolutePath().getParent());
+    Random random = new Random(seed);
+    byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, Math.max(1, size))];
+    try(OutputStream out = Files.newOutputStream(file)){
+      long remaining = size;
+      while(remaining > 0){
+        random.nextBytes(chunk);
+        int length = (int) Math.min(chunk.length, remaining);
+        out.write(chunk, 0, length);
+        remaining -= length;
+      }
+    }
+  }
+}
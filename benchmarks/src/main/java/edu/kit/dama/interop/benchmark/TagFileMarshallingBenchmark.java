@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.benchmark;
+
+import edu.kit.dama.interop.impl.BMDTagFileCreator;
+import edu.kit.dama.interop.impl.DataCiteTagFileCreator;
+import edu.kit.dama.interop.util.BagBuilder;
+import edu.kit.dama.mdm.base.DigitalObject;
+import edu.kit.dama.mdm.base.UserData;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import javax.xml.bind.Marshaller;
+import org.eclipse.persistence.jaxb.MarshallerProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of creating the base metadata and DataCite tag files of a
+ * synthetic digital object, which is dominated by JAXB marshalling. The tag
+ * files are written into an empty bag, which is reused for all invocations.
+ * For comparison with the shared contexts of the JaxbContextRegistry, the base
+ * metadata is also created the way it was done before, building a new JAXB
+ * context and marshaller for each tag file.
+ *
+ * @author jejkal
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TagFileMarshallingBenchmark{
+
+  private Path bagRoot;
+  private BagBuilder builder;
+  private DigitalObject object;
+  private BMDTagFileCreator bmdCreator;
+  private DataCiteTagFileCreator dataCiteCreator;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception{
+    bagRoot = SyntheticData.getWorkDirectory().resolve("bag-metadata").toAbsolutePath();
+    if(Files.exists(bagRoot)){
+      SyntheticBagGenerator.delete(bagRoot);
+    }
+    Files.createDirectories(bagRoot);
+    builder = BagBuilder.create(bagRoot, SyntheticData.getProfileLocation());
+
+    UserData uploader = new UserData();
+    uploader.setFirstName("Jane");
+    uploader.setLastName("Doe");
+    uploader.setDistinguishedName("jdoe");
+    uploader.setEmail("jane.doe@example.org");
+    object = DigitalObject.factoryNewDigitalObject("benchmark-object");
+    object.setLabel("Synthetic benchmark object");
+    object.setNote("Digital object used for benchmarking metadata creation.");
+    object.setUploadDate(new Date());
+    object.setUploader(uploader);
+    object.addExperimenter(uploader);
+
+    bmdCreator = BMDTagFileCreator.createInstance();
+    dataCiteCreator = DataCiteTagFileCreator.createInstance("benchmark");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception{
+    builder.releaseManifests();
+    SyntheticBagGenerator.delete(bagRoot);
+  }
+
+  @Benchmark
+  public BagBuilder baseMetadata() throws Exception{
+    bmdCreator.createAndAddTagFile(object, builder);
+    return builder;
+  }
+
+  @Benchmark
+  public BagBuilder baseMetadataNewContext() throws Exception{
+    Marshaller marshaller = org.eclipse.persistence.jaxb.JAXBContext.newInstance(DigitalObject.class).createMarshaller();
+    marshaller.setProperty(MarshallerProperties.OBJECT_GRAPH, "default");
+    Path bmdOutputPath = bmdCreator.getMetadataPath(builder.getBag()).resolve("bmd.xml");
+    try(OutputStream out = Files.newOutputStream(bmdOutputPath)){
+      marshaller.marshal(object, out);
+    }
+    builder.addTagfile(bmdOutputPath.toUri());
+    return builder;
+  }
+
+  @Benchmark
+  public BagBuilder dataCite() throws Exception{
+    dataCiteCreator.createAndAddTagFile(object, builder);
+    return builder;
+  }
+}
@@ -17,6 +17,9 @@ package edu.kit.dama.interop.cl;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
+import edu.kit.dama.interop.cl.command.BatchExportCommand;
+import edu.kit.dama.interop.cl.command.BatchImportCommand;
+import edu.kit.dama.interop.cl.command.CacheChecksumsCommand;
 import edu.kit.dama.interop.cl.command.ExportCommand;
 import edu.kit.dama.interop.cl.command.ImportCommand;
 import edu.kit.dama.interop.cl.command.ListCommand;
@@ -37,8 +40,11 @@ public class RepoInteropTool{
 
   static{
     COMMANDS.add(new ExportCommand());
+    COMMANDS.add(new BatchExportCommand());
     COMMANDS.add(new ImportCommand());
+    COMMANDS.add(new BatchImportCommand());
     COMMANDS.add(new ListCommand());
+    COMMANDS.add(new CacheChecksumsCommand());
   }
 
   public static void main(String[] args) throws Exception{
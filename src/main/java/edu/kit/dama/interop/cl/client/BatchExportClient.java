@@ -0,0 +1,283 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.cl.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.kit.dama.interop.cl.command.BatchExportCommand;
+import edu.kit.dama.interop.util.AnsiUtil;
+import edu.kit.dama.interop.util.ChecksumEngine;
+import edu.kit.dama.interop.util.ProfileCache;
+import edu.kit.dama.interop.util.StringUtils;
+import edu.kit.jcommander.generic.status.CommandStatus;
+import edu.kit.jcommander.generic.status.Status;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Client implementation for exporting many digital objects from KIT Data
+ * Manager-based repositories into BagIt bags within a single process. All
+ * exports share the repository access, the BagIt profile and the checksum
+ * engine. Failed exports do not stop the remaining exports and are listed
+ * together with all successful exports in a summary file.
+ *
+ * @author jejkal
+ */
+public class BatchExportClient{
+
+  private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.cl.client.MessageBundle");
+
+  /**
+   * Default name of the summary file written to the destination folder.
+   */
+  public static final String DEFAULT_SUMMARY_FILE = "export-summary.json";
+
+  /**
+   * Result of the export of a single digital object.
+   */
+  private static final class ExportResult{
+
+    private final String digitalObjectId;
+    private final Path destination;
+    private boolean success = false;
+    private String error = null;
+    private long duration = 0;
+
+    ExportResult(String digitalObjectId, Path destination){
+      this.digitalObjectId = digitalObjectId;
+      this.destination = destination;
+    }
+  }
+
+  public static CommandStatus execute(BatchExportCommand params){
+    CommandStatus status = new CommandStatus(Status.SUCCESSFUL);
+    boolean finished = false;
+    ChecksumEngine checksumEngine = null;
+    ExportClient client = null;
+    try{
+      MetricsReporter.start(params.jmx);
+      AnsiUtil.printInfo(MESSAGES.getString("init_repo_access"));
+      ExportClient.init();
+      if(!ExportClient.checkParameters(params)){
+        status.setStatusCode(Status.FAILED);
+        return status;
+      }
+
+      AnsiUtil.printInfo(MESSAGES.getString("collecting_digital_objects"));
+      Set<String> digitalObjectIds = collectDigitalObjectIds(params);
+      if(digitalObjectIds.isEmpty()){
+        AnsiUtil.printError(MESSAGES.getString("no_digital_objects_to_export"));
+        status.setStatusCode(Status.FAILED);
+        return status;
+      }
+
+      Path destination = Paths.get(params.destination);
+      Files.createDirectories(destination);
+      Path summaryFile = (params.summaryFile != null) ? Paths.get(params.summaryFile) : destination.resolve(DEFAULT_SUMMARY_FILE);
+
+      //obtain profile once before starting all exports
+      ProfileCache.getInstance().getProfile(params.profileUrl);
+      checksumEngine = new ChecksumEngine(params.checksumThreads, params.checksumBufferSize, params.checksumFileAccess, params.checksumWindowSize);
+      client = new ExportClient(params, checksumEngine);
+
+      AnsiUtil.printInfo(MESSAGES.getString("starting_batch_export"), Integer.toString(digitalObjectIds.size()), Integer.toString(params.parallelObjects));
+      final long start = System.currentTimeMillis();
+      List<ExportResult> results = exportAll(client, digitalObjectIds, destination, params.parallelObjects);
+      writeSummary(summaryFile, results, params.profileUrl, start);
+
+      long failed = results.stream().filter((result) -> !result.success).count();
+      AnsiUtil.printInfo(MESSAGES.getString("batch_export_finished"), Long.toString(results.size() - failed), Long.toString(failed), summaryFile.toAbsolutePath().toString());
+      if(failed > 0){
+        status = new CommandStatus(Status.FAILED, new Exception(StringUtils.substitute(MESSAGES.getString("batch_export_incomplete"), Long.toString(failed), summaryFile.toAbsolutePath().toString())), null);
+      }
+      finished = true;
+    } catch(Exception ex){
+      AnsiUtil.printError(MESSAGES.getString("batch_export_failed"), ex);
+      status = new CommandStatus(Status.FAILED, ex, null);
+    } finally{
+      if(client != null){
+        client.saveChecksumCache();
+      }
+      if(checksumEngine != null){
+        checksumEngine.shutdown();
+      }
+      ExportClient.destroy();
+      MetricsReporter.finish(params.metrics);
+      if(!finished){
+        //unhandled error
+        AnsiUtil.printError(MESSAGES.getString("unhandled_error"));
+        status = new CommandStatus(Status.FAILED);
+      }
+    }
+    return status;
+  }
+
+  /**
+   * Collect the identifiers of all objects to export from all provided
+   * sources. Duplicates are removed while keeping the order.
+   *
+   * @param params The command parameters.
+   *
+   * @return The set of digital object identifiers.
+   *
+   * @throws Exception If reading the identifier file or querying the
+   * repository fails.
+   */
+  private static Set<String> collectDigitalObjectIds(BatchExportCommand params) throws Exception{
+    Set<String> digitalObjectIds = new LinkedHashSet<>();
+    params.digitalObjectIds.stream().map(String::trim).filter((id) -> !id.isEmpty()).forEach(digitalObjectIds::add);
+    if(params.objectIdFile != null){
+      for(String line : Files.readAllLines(Paths.get(params.objectIdFile), StandardCharsets.UTF_8)){
+        String id = line.trim();
+        if(!id.isEmpty() && !id.startsWith("#")){
+          digitalObjectIds.add(id);
+        }
+      }
+    }
+    if(params.investigationId != null){
+      digitalObjectIds.addAll(ExportClient.findDigitalObjectIds(params.investigationId));
+    }
+    return digitalObjectIds;
+  }
+
+  /**
+   * Export all provided objects using the provided number of threads.
+   *
+   * @param client The client performing each export.
+   * @param digitalObjectIds The identifiers of all objects to export.
+   * @param destination The destination folder holding all bags.
+   * @param parallelObjects The number of objects exported concurrently.
+   *
+   * @return The export results in the order of digitalObjectIds.
+   *
+   * @throws InterruptedException If waiting for the exports is interrupted.
+   */
+  private static List<ExportResult> exportAll(final ExportClient client, Set<String> digitalObjectIds, Path destination, int parallelObjects) throws InterruptedException{
+    final List<ExportResult> results = new ArrayList<>();
+    final AtomicInteger counter = new AtomicInteger(0);
+    final int total = digitalObjectIds.size();
+    //folder names in lower case, so that collisions on case-insensitive file systems are detected, too
+    final Map<String, String> folderOwners = new HashMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelObjects));
+    try{
+      for(String digitalObjectId : digitalObjectIds){
+        final String folderName = toFolderName(digitalObjectId);
+        final ExportResult result = new ExportResult(digitalObjectId, destination.resolve(folderName));
+        results.add(result);
+        String owner = folderOwners.putIfAbsent(folderName.toLowerCase(Locale.ENGLISH), digitalObjectId);
+        if(owner != null){
+          //never export two objects into the same bag folder
+          result.error = StringUtils.substitute(MESSAGES.getString("bag_folder_collision"), result.destination.toString(), owner);
+          AnsiUtil.printError(MESSAGES.getString("bag_folder_collision"), result.destination.toString(), owner);
+          counter.incrementAndGet();
+          continue;
+        }
+        executor.execute(() -> {
+          AnsiUtil.printInfo(MESSAGES.getString("exporting_digital_object"), digitalObjectId, Integer.toString(counter.incrementAndGet()), Integer.toString(total), result.destination.toString());
+          final long start = System.currentTimeMillis();
+          try{
+            if(client.prepareDestination(result.destination)){
+              client.export(ExportClient.findDigitalObject(digitalObjectId), result.destination);
+              result.success = true;
+            } else{
+              result.error = StringUtils.substitute(MESSAGES.getString("bag_root_exists_overwrite_forbidden"), result.destination.toString());
+            }
+          } catch(Exception ex){
+            AnsiUtil.printError(MESSAGES.getString("digital_object_export_failed"), ex, digitalObjectId);
+            result.error = (ex.getMessage() != null) ? ex.getMessage() : ex.getClass().getName();
+          }
+          result.duration = System.currentTimeMillis() - start;
+        });
+      }
+    } finally{
+      executor.shutdown();
+    }
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    return results;
+  }
+
+  /**
+   * Get the name of the bag folder for the provided object identifier. All
+   * characters not allowed in file names on common file systems are replaced.
+   * If any character was replaced, a short hash of the identifier is
+   * appended, so that distinct identifiers like 'a/b' and 'a:b' are not
+   * mapped to the same folder.
+   *
+   * @param digitalObjectId The digital object identifier.
+   *
+   * @return The folder name.
+   */
+  static String toFolderName(String digitalObjectId){
+    String folderName = digitalObjectId.replaceAll("[^A-Za-z0-9._-]", "_");
+    if(folderName.equals(digitalObjectId)){
+      return folderName;
+    }
+    return folderName + "-" + DigestUtils.sha256Hex(digitalObjectId.getBytes(StandardCharsets.UTF_8)).substring(0, 8);
+  }
+
+  /**
+   * Write the summary of all exports in JSON format.
+   *
+   * @param summaryFile The summary file.
+   * @param results All export results.
+   * @param profileUrl The profile URL used for all exports.
+   * @param start The start time of the batch export.
+   *
+   * @throws IOException If writing the summary fails.
+   */
+  private static void writeSummary(Path summaryFile, List<ExportResult> results, String profileUrl, long start) throws IOException{
+    ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    ObjectNode summary = mapper.createObjectNode();
+    summary.put("profile", profileUrl);
+    summary.put("started", start);
+    summary.put("finished", System.currentTimeMillis());
+    summary.put("succeeded", results.stream().filter((result) -> result.success).count());
+    summary.put("failed", results.stream().filter((result) -> !result.success).count());
+    ArrayNode objects = summary.putArray("objects");
+    for(ExportResult result : results){
+      ObjectNode object = objects.addObject();
+      object.put("objectId", result.digitalObjectId);
+      object.put("status", result.success ? "SUCCEEDED" : "FAILED");
+      object.put("destination", result.destination.toAbsolutePath().toString());
+      object.put("durationMillis", result.duration);
+      if(result.error != null){
+        object.put("error", result.error);
+      }
+    }
+    if(summaryFile.toAbsolutePath().getParent() != null){
+      Files.createDirectories(summaryFile.toAbsolutePath().getParent());
+    }
+    mapper.writeValue(summaryFile.toFile(), summary);
+  }
+}
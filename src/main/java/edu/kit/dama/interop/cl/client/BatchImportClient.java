@@ -0,0 +1,257 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.cl.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.kit.dama.interop.cl.command.BatchImportCommand;
+import edu.kit.dama.interop.util.AnsiUtil;
+import edu.kit.dama.interop.util.BagArchiveReader;
+import edu.kit.dama.interop.util.StringUtils;
+import edu.kit.jcommander.generic.status.CommandStatus;
+import edu.kit.jcommander.generic.status.Status;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Client implementation for importing many BagIt bags into KIT Data
+ * Manager-based repositories within a single process. Bags are extracted,
+ * fetched, validated and staged concurrently. As soon as a bag is handed over
+ * to ingest, the next bag is staged while a single shared monitor tracks all
+ * pending ingests. Imports are completed one after another as their ingests
+ * finish. Failed imports do not stop the remaining imports and are listed
+ * together with all successful imports in a summary file.
+ *
+ * @author jejkal
+ */
+public class BatchImportClient{
+
+  private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.cl.client.MessageBundle");
+
+  /**
+   * Result of the import of a single bag.
+   */
+  private static final class ImportResult{
+
+    private final Path source;
+    private volatile String digitalObjectId = null;
+    private volatile Long ingestId = null;
+    private volatile boolean success = false;
+    private volatile boolean submitted = false;
+    private volatile String error = null;
+    private volatile long started = 0;
+    private volatile long duration = 0;
+
+    ImportResult(Path source){
+      this.source = source;
+    }
+  }
+
+  public static CommandStatus execute(BatchImportCommand params){
+    CommandStatus status = new CommandStatus(Status.SUCCESSFUL);
+    boolean finished = false;
+    try{
+      MetricsReporter.start(params.jmx);
+      AnsiUtil.printInfo(MESSAGES.getString("init_repo_access"));
+      ImportClient.init(params);
+
+      AnsiUtil.printInfo(MESSAGES.getString("collecting_bags"));
+      List<ImportResult> results = new ArrayList<>();
+      for(String source : params.sources){
+        collectBags(Paths.get(source.trim()), results);
+      }
+      if(results.isEmpty()){
+        AnsiUtil.printError(MESSAGES.getString("no_bags_to_import"));
+        status.setStatusCode(Status.FAILED);
+        return status;
+      }
+
+      ImportClient client = new ImportClient(params, ImportClient.findInvestigation(params.investigationId));
+      AnsiUtil.printInfo(MESSAGES.getString("starting_batch_import"), Integer.toString(results.size()), Integer.toString(params.parallelBags));
+      final long start = System.currentTimeMillis();
+      importAll(client, results, params);
+      Path summaryFile = Paths.get(params.summaryFile);
+      writeSummary(summaryFile, results, params.investigationId, start);
+
+      long failed = results.stream().filter((result) -> !result.success).count();
+      AnsiUtil.printInfo(MESSAGES.getString("batch_import_finished"), Long.toString(results.size() - failed), Long.toString(failed), summaryFile.toAbsolutePath().toString());
+      if(failed > 0){
+        status = new CommandStatus(Status.FAILED, new Exception(StringUtils.substitute(MESSAGES.getString("batch_import_incomplete"), Long.toString(failed), summaryFile.toAbsolutePath().toString())), null);
+      }
+      finished = true;
+    } catch(Exception ex){
+      AnsiUtil.printError(MESSAGES.getString("batch_import_failed"), ex);
+      status = new CommandStatus(Status.FAILED, ex, null);
+    } finally{
+      ImportClient.destroy();
+      MetricsReporter.finish(params.metrics);
+      if(!finished){
+        //unhandled error
+        AnsiUtil.printError(MESSAGES.getString("unhandled_error"));
+        status = new CommandStatus(Status.FAILED);
+      }
+    }
+    return status;
+  }
+
+  /**
+   * Add all bags located at source to the provided list. Source is either a
+   * bag folder, a serialized bag or a folder containing bag folders and
+   * serialized bags.
+   *
+   * @param source The source.
+   * @param results The list of results each bag is added to.
+   *
+   * @throws IOException If listing the content of source fails.
+   */
+  private static void collectBags(Path source, List<ImportResult> results) throws IOException{
+    if(!Files.exists(source)){
+      ImportResult result = new ImportResult(source);
+      result.error = StringUtils.substitute(MESSAGES.getString("source_not_exist"), source.toAbsolutePath().toString());
+      AnsiUtil.printError(result.error);
+      results.add(result);
+    } else if(!Files.isDirectory(source) || Files.exists(source.resolve("bagit.txt"))){
+      results.add(new ImportResult(source));
+    } else{
+      List<Path> children;
+      try(Stream<Path> stream = Files.list(source)){
+        children = stream.filter((child) -> Files.isDirectory(child) ? Files.exists(child.resolve("bagit.txt")) : BagArchiveReader.getFormat(child) != null).sorted().collect(Collectors.toList());
+      }
+      children.forEach((child) -> results.add(new ImportResult(child)));
+    }
+  }
+
+  /**
+   * Import all bags. Staging and completing each import is performed by
+   * separate threads, so that bags waiting for their ingest do not block
+   * staging of the remaining bags.
+   *
+   * @param client The client performing each import.
+   * @param results The results of all bags to import, which are updated
+   * according to the import outcome.
+   * @param params The import settings.
+   */
+  private static void importAll(final ImportClient client, List<ImportResult> results, BatchImportCommand params){
+    final AtomicInteger counter = new AtomicInteger(0);
+    final int total = results.size();
+    ExecutorService stagingWorkers = Executors.newFixedThreadPool(Math.max(1, params.parallelBags));
+    //restoring data organizations is performed sequentially, the metadata management is accessed anyway
+    ExecutorService completionWorker = Executors.newSingleThreadExecutor();
+    try(IngestMonitor monitor = ImportClient.createIngestMonitor(params)){
+      List<CompletableFuture<?>> imports = new ArrayList<>();
+      for(ImportResult result : results){
+        if(result.error != null){
+          //source not found
+          continue;
+        }
+        imports.add(CompletableFuture.supplyAsync(() -> {
+          result.started = System.currentTimeMillis();
+          AnsiUtil.printInfo(MESSAGES.getString("staging_bag"), result.source.toString(), Integer.toString(counter.incrementAndGet()), Integer.toString(total));
+          try{
+            return client.stage(result.source);
+          } catch(Exception ex){
+            throw new CompletionException(ex);
+          }
+        }, stagingWorkers).thenCompose((pending) -> {
+          result.digitalObjectId = pending.getDigitalObject().getDigitalObjectIdentifier();
+          result.ingestId = pending.getIngest().getId();
+          if(params.noWait){
+            client.reportSubmitted(pending);
+            result.submitted = true;
+            return CompletableFuture.completedFuture(null);
+          }
+          CompletableFuture<?> ingest = monitor.watch(pending.getIngest()).thenAcceptAsync((ingestInfo) -> {
+            try{
+              client.complete(pending, ingestInfo);
+            } catch(Exception ex){
+              throw new CompletionException(ex);
+            }
+          }, completionWorker);
+          AnsiUtil.printInfo(MESSAGES.getString("bag_handed_over_to_ingest"), result.source.toString(), result.ingestId.toString(), Integer.toString(monitor.getPendingCount()));
+          return ingest;
+        }).handle((value, error) -> {
+          result.duration = System.currentTimeMillis() - result.started;
+          if(error == null){
+            result.success = true;
+          } else{
+            Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+            AnsiUtil.printError(MESSAGES.getString("bag_import_failed"), cause, result.source.toString());
+            result.error = (cause.getMessage() != null) ? cause.getMessage() : cause.getClass().getName();
+          }
+          return null;
+        }));
+      }
+      CompletableFuture.allOf(imports.toArray(new CompletableFuture<?>[imports.size()])).join();
+    } finally{
+      stagingWorkers.shutdown();
+      completionWorker.shutdown();
+    }
+  }
+
+  /**
+   * Write the summary of all imports in JSON format.
+   *
+   * @param summaryFile The summary file.
+   * @param results All import results.
+   * @param investigationId The investigation all objects were imported into.
+   * @param start The start time of the batch import.
+   *
+   * @throws IOException If writing the summary fails.
+   */
+  private static void writeSummary(Path summaryFile, List<ImportResult> results, String investigationId, long start) throws IOException{
+    ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    ObjectNode summary = mapper.createObjectNode();
+    summary.put("investigationId", investigationId);
+    summary.put("started", start);
+    summary.put("finished", System.currentTimeMillis());
+    summary.put("succeeded", results.stream().filter((result) -> result.success).count());
+    summary.put("failed", results.stream().filter((result) -> !result.success).count());
+    ArrayNode bags = summary.putArray("bags");
+    for(ImportResult result : results){
+      ObjectNode bag = bags.addObject();
+      bag.put("source", result.source.toAbsolutePath().toString());
+      bag.put("status", result.success ? (result.submitted ? "SUBMITTED" : "SUCCEEDED") : "FAILED");
+      if(result.digitalObjectId != null){
+        bag.put("objectId", result.digitalObjectId);
+      }
+      if(result.ingestId != null){
+        bag.put("ingestId", result.ingestId);
+      }
+      bag.put("durationMillis", result.duration);
+      if(result.error != null){
+        bag.put("error", result.error);
+      }
+    }
+    if(summaryFile.toAbsolutePath().getParent() != null){
+      Files.createDirectories(summaryFile.toAbsolutePath().getParent());
+    }
+    mapper.writeValue(summaryFile.toFile(), summary);
+  }
+}
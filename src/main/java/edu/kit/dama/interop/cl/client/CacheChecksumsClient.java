@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.cl.client;
+
+import edu.kit.dama.interop.cl.command.CacheChecksumsCommand;
+import edu.kit.dama.interop.util.AnsiUtil;
+import edu.kit.dama.interop.util.ChecksumCache;
+import edu.kit.dama.interop.util.ChecksumEngine;
+import edu.kit.dama.interop.util.ProfileCache;
+import edu.kit.jcommander.generic.status.CommandStatus;
+import edu.kit.jcommander.generic.status.Status;
+import gov.loc.repository.bagit.hash.StandardSupportedAlgorithms;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Client implementation for filling the checksum cache used by exports with
+ * the checksums of all files below one or more folders, e.g. the archive of a
+ * repository. This allows to hash data once, e.g. at a time of low load,
+ * before it is exported using different profiles or destinations. No
+ * repository access is required.
+ *
+ * @author jejkal
+ */
+public class CacheChecksumsClient{
+
+  private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.cl.client.MessageBundle");
+
+  public static CommandStatus execute(CacheChecksumsCommand params){
+    CommandStatus status = new CommandStatus(Status.SUCCESSFUL);
+    boolean finished = false;
+    ChecksumEngine checksumEngine = null;
+    ChecksumCache cache = null;
+    try{
+      ProfileCache.getInstance().setOffline(params.offline).setTtl(params.profileCacheTtl);
+      Set<String> digestNames = getPayloadDigestNames(params);
+      cache = ChecksumCache.load(Paths.get(params.checksumCache), params.checksumCacheSize);
+      checksumEngine = new ChecksumEngine(params.checksumThreads, params.checksumBufferSize, params.checksumFileAccess, params.checksumWindowSize);
+      for(String source : params.sources){
+        Path directory = Paths.get(source);
+        if(!Files.isDirectory(directory)){
+          AnsiUtil.printError(MESSAGES.getString("checksum_source_not_found"), directory.toAbsolutePath().toString());
+          status.setStatusCode(Status.FAILED);
+          return status;
+        }
+        AnsiUtil.printInfo(MESSAGES.getString("caching_checksums"), String.join(", ", digestNames), directory.toAbsolutePath().toString());
+        long hashed = cache.prewarm(directory, digestNames, checksumEngine);
+        AnsiUtil.printInfo(MESSAGES.getString("checksums_cached"), Long.toString(hashed), directory.toAbsolutePath().toString());
+      }
+      finished = true;
+    } catch(Exception ex){
+      AnsiUtil.printError(MESSAGES.getString("caching_checksums_failed"), ex);
+      status = new CommandStatus(Status.FAILED, ex, null);
+    } finally{
+      if(cache != null){
+        //keep checksums created so far, also if hashing was aborted
+        try{
+          cache.save();
+        } catch(Exception ex){
+          AnsiUtil.printWarning(MESSAGES.getString("saving_checksum_cache_failed"), ex.getMessage());
+        }
+      }
+      if(checksumEngine != null){
+        checksumEngine.shutdown();
+      }
+      if(!finished){
+        //unhandled error
+        AnsiUtil.printError(MESSAGES.getString("unhandled_error"));
+        status = new CommandStatus(Status.FAILED);
+      }
+    }
+    return status;
+  }
+
+  /**
+   * Obtain the message digest names of all payload manifests required by any
+   * of the provided profiles.
+   *
+   * @param params The settings holding all profile URLs.
+   *
+   * @return The set of message digest names, e.g. MD5 or SHA-256.
+   *
+   * @throws Exception If any profile cannot be obtained or if it requires an
+   * unsupported algorithm.
+   */
+  private static Set<String> getPayloadDigestNames(CacheChecksumsCommand params) throws Exception{
+    Set<String> digestNames = new TreeSet<>();
+    for(String profileUrl : params.profileUrls){
+      for(String required : ProfileCache.getInstance().getProfile(profileUrl).getManifestTypesRequired()){
+        digestNames.add(StandardSupportedAlgorithms.valueOf(required.toUpperCase()).getMessageDigestName());
+      }
+    }
+    return digestNames;
+  }
+}
@@ -16,96 +16,149 @@
 package edu.kit.dama.interop.cl.client;
 
 import edu.kit.dama.authorization.entities.impl.AuthorizationContext;
+import edu.kit.dama.interop.cl.command.AbstractExportCommand;
 import edu.kit.dama.interop.cl.command.ExportCommand;
 import edu.kit.dama.interop.impl.BMDTagFileCreator;
 import edu.kit.dama.interop.impl.DCTagFileCreator;
 import edu.kit.dama.interop.impl.DataCiteTagFileCreator;
 import edu.kit.dama.interop.impl.METSTagFileCreator;
 import edu.kit.dama.interop.util.AnsiUtil;
+import edu.kit.dama.interop.util.BagArchiveWriter;
 import edu.kit.dama.interop.util.BagBuilder;
+import edu.kit.dama.interop.util.ChecksumCache;
+import edu.kit.dama.interop.util.ChecksumEngine;
+import edu.kit.dama.interop.util.Metrics;
+import edu.kit.dama.interop.util.ProfileCache;
+import edu.kit.dama.interop.util.RepositoryServices;
 import edu.kit.dama.interop.util.StringUtils;
 import edu.kit.dama.mdm.base.DigitalObject;
 import edu.kit.dama.mdm.core.IMetaDataManager;
-import edu.kit.dama.mdm.core.MetaDataManagement;
 import edu.kit.dama.mdm.core.exception.EntityNotFoundException;
 import edu.kit.dama.util.ZipUtils;
 import edu.kit.jcommander.generic.status.CommandStatus;
 import edu.kit.jcommander.generic.status.Status;
 import gov.loc.repository.bagit.util.PathUtils;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Properties;
 import java.util.ResourceBundle;
 import org.apache.commons.io.FileUtils;
 
 /**
  * Client implementation for exporting digital objects from KIT Data
- * Manager-based repositories into BagIt bags.
+ * Manager-based repositories into BagIt bags. An instance holds all export
+ * settings and can be used to export any number of digital objects, also
+ * concurrently. As the metadata management is shared by all exports, every
+ * access to it is serialized using the metadata manager as lock. This
+ * includes queries as well as the creation of all metadata tag files, which
+ * load relations of the exported object and its data organization on
+ * demand. Only copying and hashing of payload files and probing of remote
+ * files run concurrently.
  *
  * @author jejkal
  */
 public class ExportClient{
 
-  private final static IMetaDataManager MDM = MetaDataManagement.getMetaDataManagement().getMetaDataManager();
+  private final static IMetaDataManager MDM = RepositoryServices.getMetaDataManager();
   private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.cl.client.MessageBundle");
 
-  private static String digitalObjectId = null;
-  private static String profileUrl = null;
-  private static Path metadataFile = null;
-  private static Path destination;
-  private static boolean zipBag = false;
+  private final String profileUrl;
+  private final Properties metadata;
+  private final boolean force;
+  private final boolean zipBag;
+  private final boolean streamBag;
+  private final BagArchiveWriter.FORMAT archiveFormat;
+  private final ChecksumEngine checksumEngine;
+  private final int threads;
+  private final int probeThreads;
+  private final int probeThreadsPerHost;
+  private final boolean trustEtagMd5;
+  private final boolean streamingMets;
+  private final long manifestMemoryBudget;
+  private final BagBuilder.PAYLOAD_PLACEMENT placement;
+  private final BagBuilder.PAYLOAD_PLACEMENT placementFallback;
+  private final boolean incremental;
+  private final ChecksumCache checksumCache;
+  private final String creatorId;
+
+  /**
+   * Create a new client using the provided export settings. The repository
+   * access must be initialized before.
+   *
+   * @param params The export settings.
+   * @param checksumEngine The checksum engine shared by all exports.
+   *
+   * @throws IOException If the metadata file or the checksum cache cannot be
+   * read.
+   */
+  ExportClient(AbstractExportCommand params, ChecksumEngine checksumEngine) throws IOException{
+    this.profileUrl = params.profileUrl;
+    this.metadata = loadMetadata(params.metadataFile);
+    this.force = params.force;
+    this.zipBag = params.zipOutput;
+    this.streamBag = params.streamOutput;
+    this.archiveFormat = params.archiveFormat;
+    this.checksumEngine = checksumEngine;
+    this.threads = params.threads;
+    this.probeThreads = params.probeThreads;
+    this.probeThreadsPerHost = params.probeThreadsPerHost;
+    this.trustEtagMd5 = params.trustEtagMd5;
+    this.streamingMets = params.streamingMets;
+    this.manifestMemoryBudget = params.manifestMemoryBudget * 1024 * 1024;
+    this.placement = params.placement;
+    this.placementFallback = params.placementFallback;
+    this.incremental = params.incremental;
+    if(incremental && streamBag){
+      AnsiUtil.printWarning(MESSAGES.getString("incremental_ignored_for_streaming"));
+    }
+    this.checksumCache = (incremental || params.cacheChecksums) ? ChecksumCache.load(Paths.get(params.checksumCache), params.checksumCacheSize) : null;
+    this.creatorId = MDM.getAuthorizationContext().getUserId().toString();
+  }
 
   public static CommandStatus execute(ExportCommand params){
     CommandStatus status = new CommandStatus(Status.SUCCESSFUL);
     boolean finished = false;
+    ChecksumEngine checksumEngine = null;
+    ExportClient client = null;
     try{
+      MetricsReporter.start(params.jmx);
       AnsiUtil.printInfo(MESSAGES.getString("init_repo_access"));
       init();
-      profileUrl = params.profileUrl;
-      if(params.metadataFile != null){
-        metadataFile = Paths.get(params.metadataFile);
-      }
-
-      AnsiUtil.printInfo(MESSAGES.getString("checking_profile_url"), profileUrl);
-      AnsiUtil.printInfo(MESSAGES.getString("profile_url_valid"), new URL(profileUrl).toString());
-
-      if(!Files.exists(metadataFile) || !Files.isReadable(metadataFile)){
-        AnsiUtil.printError(MESSAGES.getString("metadata_not_found"), metadataFile.toAbsolutePath().toString());
+      if(!checkParameters(params)){
         status.setStatusCode(Status.FAILED);
         return status;
       }
 
-      destination = Paths.get(params.destination);
-      if(Files.exists(destination) && params.force){
-        AnsiUtil.printWarning(MESSAGES.getString("removing_existing_bag_root"), destination.toAbsolutePath().toString());
-        Files.walk(destination, FileVisitOption.FOLLOW_LINKS)
-                .sorted(Comparator.reverseOrder())
-                .map(Path::toFile)
-                .forEach(File::delete);
-      } else if(Files.exists(destination) && !params.force){
-        AnsiUtil.printError(MESSAGES.getString("bag_root_exists_overwrite_forbidden"), destination.toAbsolutePath().toString());
+      checksumEngine = new ChecksumEngine(params.checksumThreads, params.checksumBufferSize, params.checksumFileAccess, params.checksumWindowSize);
+      client = new ExportClient(params, checksumEngine);
+      Path destination = Paths.get(params.destination);
+      if(!client.prepareDestination(destination)){
         status.setStatusCode(Status.FAILED);
         return status;
       }
-      AnsiUtil.printInfo(MESSAGES.getString("creating_bag_root"), destination.toAbsolutePath().toString());
-      Files.createDirectories(destination);
-      digitalObjectId = params.digitalObjectId;
-      zipBag = params.zipOutput;
       AnsiUtil.printInfo(MESSAGES.getString("starting_export"));
-      export();
+      client.export(findDigitalObject(params.digitalObjectId), destination);
       finished = true;
     } catch(Exception ex){
       AnsiUtil.printError(MESSAGES.getString("export_failed"), ex);
       status = new CommandStatus(Status.FAILED, ex, null);
     } finally{
+      if(client != null){
+        client.saveChecksumCache();
+      }
+      if(checksumEngine != null){
+        checksumEngine.shutdown();
+      }
       destroy();
+      MetricsReporter.finish(params.metrics);
       if(!finished){
         //unhandled error
         AnsiUtil.printError(MESSAGES.getString("unhandled_error"));
@@ -116,17 +169,145 @@ public class ExportClient{
     return status;
   }
 
-  private static void init(){
+  static void init(){
     MDM.setAuthorizationContext(AuthorizationContext.factorySystemContext());
   }
 
-  private static void export() throws Exception{
+  /**
+   * Check the profile URL and the metadata file and configure the profile
+   * cache according to the provided settings.
+   *
+   * @param params The export settings.
+   *
+   * @return TRUE if all settings are valid, FALSE if the metadata file is not
+   * readable.
+   *
+   * @throws MalformedURLException If the profile URL is invalid.
+   */
+  static boolean checkParameters(AbstractExportCommand params) throws MalformedURLException{
+    AnsiUtil.printInfo(MESSAGES.getString("checking_profile_url"), params.profileUrl);
+    AnsiUtil.printInfo(MESSAGES.getString("profile_url_valid"), new URL(params.profileUrl).toString());
+
+    if(params.metadataFile != null){
+      Path metadataFile = Paths.get(params.metadataFile);
+      if(!Files.exists(metadataFile) || !Files.isReadable(metadataFile)){
+        AnsiUtil.printError(MESSAGES.getString("metadata_not_found"), metadataFile.toAbsolutePath().toString());
+        return false;
+      }
+    }
+    ProfileCache.getInstance().setOffline(params.offline).setTtl(params.profileCacheTtl);
+    return true;
+  }
+
+  /**
+   * Obtain the digital object with the provided identifier.
+   *
+   * @param digitalObjectId The digital object identifier.
+   *
+   * @return The digital object.
+   *
+   * @throws Exception If the object does not exist or if the query fails.
+   */
+  static DigitalObject findDigitalObject(String digitalObjectId) throws Exception{
     AnsiUtil.printInfo(MESSAGES.getString("obtaining_digital_object"), digitalObjectId);
-    DigitalObject toExport = MDM.findSingleResult("SELECT o FROM DigitalObject o WHERE o.digitalObjectIdentifier=?1", new Object[]{digitalObjectId}, DigitalObject.class);
+    DigitalObject toExport;
+    try(Metrics.Timer timer = Metrics.getInstance().start("export.lookup")){
+      synchronized(MDM){
+        toExport = MDM.findSingleResult("SELECT o FROM DigitalObject o WHERE o.digitalObjectIdentifier=?1", new Object[]{digitalObjectId}, DigitalObject.class);
+      }
+    }
     if(toExport == null){
       throw new EntityNotFoundException(StringUtils.substitute(MESSAGES.getString("digital_object_not_found"), digitalObjectId));
     }
+    return toExport;
+  }
+
+  /**
+   * Obtain the identifiers of all digital objects of one investigation.
+   *
+   * @param investigationId The investigation id.
+   *
+   * @return The list of digital object identifiers.
+   *
+   * @throws Exception If the query fails.
+   */
+  static List<String> findDigitalObjectIds(String investigationId) throws Exception{
+    AnsiUtil.printInfo(MESSAGES.getString("obtaining_investigation"), investigationId);
+    try(Metrics.Timer timer = Metrics.getInstance().start("export.lookup")){
+      synchronized(MDM){
+        return MDM.findResultList("SELECT o.digitalObjectIdentifier FROM DigitalObject o WHERE o.investigation.investigationId=?1", new Object[]{Long.parseLong(investigationId)}, String.class);
+      }
+    }
+  }
+
+  /**
+   * Prepare the provided bag root directory. An existing directory is removed
+   * if overwriting is allowed. For incremental exports, an existing bag is
+   * moved next to the bag root directory and is used as previous bag by {@link #export(edu.kit.dama.mdm.base.DigitalObject, java.nio.file.Path)
+   * }. A previous bag left by an interrupted incremental export is used
+   * again, while an incomplete bag at the bag root directory is removed.
+   *
+   * @param destination The bag root directory.
+   *
+   * @return TRUE if the directory was created, FALSE if it already exists and
+   * overwriting is not allowed.
+   *
+   * @throws IOException If removing, moving or creating the directory fails.
+   */
+  boolean prepareDestination(Path destination) throws IOException{
+    if(isIncremental()){
+      Path previousLocation = getPreviousBagLocation(destination);
+      if(Files.exists(destination.resolve("bagit.txt"))){
+        if(Files.exists(previousLocation)){
+          deleteDirectory(previousLocation);
+        }
+        AnsiUtil.printInfo(MESSAGES.getString("keeping_previous_bag"), destination.toAbsolutePath().toString(), previousLocation.toAbsolutePath().toString());
+        Files.move(destination, previousLocation);
+      } else if(Files.exists(previousLocation) && Files.exists(destination)){
+        AnsiUtil.printWarning(MESSAGES.getString("removing_incomplete_bag"), destination.toAbsolutePath().toString());
+        deleteDirectory(destination);
+      }
+    }
 
+    if(Files.exists(destination) && force){
+      AnsiUtil.printWarning(MESSAGES.getString("removing_existing_bag_root"), destination.toAbsolutePath().toString());
+      deleteDirectory(destination);
+    } else if(Files.exists(destination) && !force){
+      AnsiUtil.printError(MESSAGES.getString("bag_root_exists_overwrite_forbidden"), destination.toAbsolutePath().toString());
+      return false;
+    }
+    AnsiUtil.printInfo(MESSAGES.getString("creating_bag_root"), destination.toAbsolutePath().toString());
+    Files.createDirectories(destination);
+    return true;
+  }
+
+  /**
+   * Export the provided digital object into a bag at the provided bag root.
+   *
+   * @param toExport The digital object to export.
+   * @param destination The bag root directory.
+   *
+   * @throws Exception If the export fails.
+   */
+  void export(DigitalObject toExport, Path destination) throws Exception{
+    try(Metrics.Timer timer = Metrics.getInstance().start("export.object")){
+      timer.addBytes(exportObject(toExport, destination));
+    }
+    Metrics.getInstance().count("export.objects", 1);
+  }
+
+  /**
+   * Perform the export of the provided digital object.
+   *
+   * @param toExport The digital object to export.
+   * @param destination The bag root directory.
+   *
+   * @return The size of the exported payload in bytes.
+   *
+   * @throws Exception If the export fails.
+   */
+  private long exportObject(DigitalObject toExport, Path destination) throws Exception{
+    final String digitalObjectId = toExport.getDigitalObjectIdentifier();
     //bag root preparation
     if(!Files.exists(destination)){
       AnsiUtil.printInfo(MESSAGES.getString("creating_bag_root_directory"), destination.toAbsolutePath().toString());
@@ -138,50 +319,187 @@ public class ExportClient{
     //Create bag and base properties
     AnsiUtil.printInfo(MESSAGES.getString("creating_bag_at_root"), destination.toString());
     BagBuilder builder = BagBuilder.create(destination.toAbsolutePath(), profileUrl);
+    builder.setChecksumEngine(checksumEngine).setPayloadPlacement(placement, placementFallback).setManifestMemoryBudget(manifestMemoryBudget).setChecksumCache(checksumCache);
+
+    //optional: Take over unchanged payload files from the bag created by the last export
+    final Path previousLocation = getPreviousBagLocation(destination);
+    BagBuilder previousBag = null;
+    if(isIncremental() && Files.exists(previousLocation.resolve("bagit.txt"))){
+      AnsiUtil.printInfo(MESSAGES.getString("loading_previous_bag"), previousLocation.toAbsolutePath().toString());
+      previousBag = BagBuilder.load(previousLocation.toAbsolutePath());
+      builder.setPreviousBag(previousBag);
+    }
+
+    //optional: Stream payload directly into an archive next to the bag root, which then only holds tag files
+    final String bagName = destination.getName(destination.getNameCount() - 1).toString();
+    Path archiveDestination = null;
+    if(streamBag){
+      archiveDestination = Paths.get(destination.toString(), "../" + bagName + "." + archiveFormat.getExtension());
+      AnsiUtil.printInfo(MESSAGES.getString("streaming_bag_to"), archiveDestination.toAbsolutePath().toString());
+      if(!BagBuilder.PAYLOAD_PLACEMENT.COPY.equals(placement)){
+        AnsiUtil.printWarning(MESSAGES.getString("placement_ignored_for_streaming"), placement.toString());
+      }
+    }
+
+    try(BagArchiveWriter archiveWriter = (archiveDestination != null) ? new BagArchiveWriter(archiveDestination, bagName, archiveFormat) : null){
+      builder.setArchiveWriter(archiveWriter);
+
+      //add only external identifier as all other metadata elements must be added from the properties files provided via --metadata argument
+      builder = builder.addMetadata("External-Identifier", digitalObjectId);
+
+      //create and add metadata tagfiles, relations of the object are loaded via the shared metadata management meanwhile
+      synchronized(MDM){
+        DCTagFileCreator.createInstance().createAndAddTagFile(toExport, builder);
+        BMDTagFileCreator.createInstance().createAndAddTagFile(toExport, builder);
+      }
+      //add mets tagfile, which also includes adding all payload files outside of the lock
+      METSTagFileCreator.createInstance(threads).setProbeThreads(probeThreads, probeThreadsPerHost).setTrustEtagMd5(trustEtagMd5).setStreaming(streamingMets).setRepositoryLock(MDM).createAndAddTagFile(toExport, builder);
+      //finally, create datacite metadata (must be at the end as it contains information created in beforehand)
+      synchronized(MDM){
+        DataCiteTagFileCreator.createInstance(creatorId).createAndAddTagFile(toExport, builder);
+      }
+
+      //store profile to bag    
+      Path profilePath = Paths.get(builder.getBag().getRootDir().toAbsolutePath().toString(), "metadata", "profile", "profile.json");
+      AnsiUtil.printInfo(MESSAGES.getString("writing_profile"), profileUrl, profilePath.toString());
+      FileUtils.writeByteArrayToFile(profilePath.toFile(), ProfileCache.getInstance().getProfileData(profileUrl));
+      builder.addTagfile(profilePath.toUri());
+
+      //add payload oxum just for verification against profile, streamed payload is not available on disk
+      final String payloadOxum = (archiveWriter != null) ? builder.getPayloadOxum() : PathUtils.generatePayloadOxum(PathUtils.getDataDir(builder.getBag().getVersion(), destination));
+      builder.getBag().getMetadata().upsertPayloadOxum(payloadOxum);
+
+      if(metadata != null){
+        builder.validateAndAddMetadataProperties(metadata);
+      }
+
+      try(Metrics.Timer timer = Metrics.getInstance().start("export.validation")){
+        builder.validateProfileConformance();
+        if(archiveWriter == null){
+          builder.validateChecksums(false);
+        }
+      }
+      try(Metrics.Timer timer = Metrics.getInstance().start("export.write")){
+        if(archiveWriter != null){
+          //all checksums were created while payload was written to the archive
+          AnsiUtil.printWarning(MESSAGES.getString("skipping_checksum_validation_for_streaming"));
+          AnsiUtil.printInfo(MESSAGES.getString("writing_bag_to"), archiveDestination.toString());
+          builder.serialize(archiveWriter);
+        } else{
+          //write bag metadata to bag root
+          AnsiUtil.printInfo(MESSAGES.getString("writing_bag_to"), destination.toString());
+          builder.write(destination);
+        }
+      }
+    } catch(Exception ex){
+      if(archiveDestination != null){
+        //remove incomplete archive
+        Files.deleteIfExists(archiveDestination);
+      }
+      if(previousBag != null){
+        AnsiUtil.printWarning(MESSAGES.getString("restoring_previous_bag"), previousLocation.toAbsolutePath().toString(), destination.toAbsolutePath().toString());
+        deleteDirectory(destination);
+        Files.move(previousLocation, destination);
+      }
+      throw ex;
+    } finally{
+      builder.releaseManifests();
+    }
 
-    //add only external identifier as all other metadata elements must be added from the properties files provided via --metadata argument
-    builder = builder.addMetadata("External-Identifier", digitalObjectId);
-
-    //create and add metadata tagfiles
-    DCTagFileCreator.createInstance().createAndAddTagFile(toExport, builder);
-    BMDTagFileCreator.createInstance().createAndAddTagFile(toExport, builder);
-    //add mets tagfile, which also includes adding all payload files
-    METSTagFileCreator.createInstance().createAndAddTagFile(toExport, builder);
-    //finally, create datacite metadata (must be at the end as it contains information created in beforehand)
-    DataCiteTagFileCreator.createInstance(MDM.getAuthorizationContext().getUserId().toString()).createAndAddTagFile(toExport, builder);
-
-    //store profile to bag    
-    InputStream profileStream = new URL(profileUrl).openConnection().getInputStream();
-    Path profilePath = Paths.get(builder.getBag().getRootDir().toAbsolutePath().toString(), "metadata", "profile", "profile.json");
-    AnsiUtil.printInfo(MESSAGES.getString("writing_profile"), profileUrl, profilePath.toString());
-    FileUtils.copyInputStreamToFile(profileStream, profilePath.toFile());
-    builder.addTagfile(profilePath.toUri());
-
-    //add payload oxum just for verification against profile
-    final String payloadOxum = PathUtils.generatePayloadOxum(PathUtils.getDataDir(builder.getBag().getVersion(), destination));
-    builder.getBag().getMetadata().upsertPayloadOxum(payloadOxum);
-
-    if(metadataFile != null){
-      Properties props = new Properties();
-      props.load(Files.newInputStream(metadataFile));
-      builder.validateAndAddMetadataProperties(props);
-    }
-
-    builder.validateProfileConformance();
-    builder.validateChecksums(false);
-    //write bag metadata to bag root
-    AnsiUtil.printInfo(MESSAGES.getString("writing_bag_to"), destination.toString());
-    builder.write(destination);
-
-    //optional: Serialize bag to single zip file
-    if(zipBag){
-      Path zipDestination = Paths.get(destination.toString(), "../" + destination.getName(destination.getNameCount() - 1) + ".zip");
+    if(previousBag != null){
+      AnsiUtil.printInfo(MESSAGES.getString("payload_taken_over"), Long.toString(builder.getReusedPayloadCount()), previousLocation.toAbsolutePath().toString());
+      deleteDirectory(previousLocation);
+    }
+
+    if(streamBag){
+      //bag root only contains tag files already contained in the archive
+      AnsiUtil.printInfo(MESSAGES.getString("removing_staging_directory"), destination.toAbsolutePath().toString());
+      deleteDirectory(destination);
+    } else if(zipBag){
+      //optional: Serialize bag to single zip file
+      Path zipDestination = Paths.get(destination.toString(), "../" + bagName + ".zip");
       AnsiUtil.printInfo(MESSAGES.getString("serializing_bag_to"), zipDestination.toAbsolutePath().toString());
-      ZipUtils.zip(new File[]{destination.toFile()}, destination.toAbsolutePath().getParent().toString(), zipDestination.toFile());
+      try(Metrics.Timer timer = Metrics.getInstance().start("export.zip")){
+        ZipUtils.zip(new File[]{destination.toFile()}, destination.toAbsolutePath().getParent().toString(), zipDestination.toFile());
+        timer.addBytes(Files.size(zipDestination));
+      }
+    }
+    return builder.getPayloadSize();
+  }
+
+  /**
+   * Store the checksum cache, if used. Failing to store the
+   * cache only affects later exports and is therefore reported as warning.
+   */
+  void saveChecksumCache(){
+    if(checksumCache == null){
+      return;
+    }
+    try{
+      checksumCache.save();
+    } catch(IOException ex){
+      AnsiUtil.printWarning(MESSAGES.getString("saving_checksum_cache_failed"), ex.getMessage());
+    }
+  }
+
+  /**
+   * Check whether unchanged payload files are taken over from a previous bag,
+   * which is not supported if the bag is streamed into an archive.
+   *
+   * @return TRUE if exports are performed incrementally.
+   */
+  private boolean isIncremental(){
+    return incremental && !streamBag;
+  }
+
+  /**
+   * Get the location an existing bag is kept at during an incremental export.
+   *
+   * @param destination The bag root directory.
+   *
+   * @return The location of the previous bag next to the bag root directory.
+   */
+  private static Path getPreviousBagLocation(Path destination){
+    Path absolute = destination.toAbsolutePath().normalize();
+    return absolute.resolveSibling(absolute.getFileName().toString() + ".previous");
+  }
+
+  /**
+   * Delete the provided directory including its content. Links are not
+   * followed as payload may be linked into a bag.
+   *
+   * @param directory The directory.
+   *
+   * @throws IOException If listing the directory fails.
+   */
+  private static void deleteDirectory(Path directory) throws IOException{
+    Files.walk(directory)
+            .sorted(Comparator.reverseOrder())
+            .map(Path::toFile)
+            .forEach(File::delete);
+  }
+
+  /**
+   * Load the provided metadata file.
+   *
+   * @param metadataFile The metadata file or null.
+   *
+   * @return The metadata properties or null if no metadata file is provided.
+   *
+   * @throws IOException If reading the file fails.
+   */
+  private static Properties loadMetadata(String metadataFile) throws IOException{
+    if(metadataFile == null){
+      return null;
+    }
+    Properties props = new Properties();
+    try(InputStream in = Files.newInputStream(Paths.get(metadataFile))){
+      props.load(in);
     }
+    return props;
   }
 
-  private static void destroy(){
+  static void destroy(){
     MDM.close();
   }
 }
@@ -21,83 +21,145 @@ import edu.kit.dama.authorization.entities.UserId;
 import edu.kit.dama.authorization.entities.impl.AuthorizationContext;
 import edu.kit.dama.authorization.exceptions.EntityAlreadyExistsException;
 import edu.kit.dama.commons.types.DigitalObjectId;
+import edu.kit.dama.interop.cl.command.AbstractImportCommand;
 import edu.kit.dama.interop.cl.command.ImportCommand;
 import edu.kit.dama.interop.impl.BMDTagFileCreator;
 import edu.kit.dama.interop.impl.DataCiteTagFileCreator;
 import edu.kit.dama.interop.util.AnsiUtil;
+import edu.kit.dama.interop.util.BagArchiveReader;
 import edu.kit.dama.interop.util.BagBuilder;
+import edu.kit.dama.interop.util.FetchEngine;
+import edu.kit.dama.interop.util.Metrics;
+import edu.kit.dama.interop.util.ProfileCache;
+import edu.kit.dama.interop.util.RepositoryServices;
 import edu.kit.dama.interop.util.StringUtils;
 import edu.kit.dama.mdm.base.DigitalObject;
 import edu.kit.dama.mdm.base.Investigation;
 import edu.kit.dama.mdm.core.IMetaDataManager;
-import edu.kit.dama.mdm.core.MetaDataManagement;
 import edu.kit.dama.mdm.core.exception.EntityNotFoundException;
 import edu.kit.dama.mdm.dataorganization.entity.core.ICollectionNode;
 import edu.kit.dama.mdm.dataorganization.entity.core.IDataOrganizationNode;
 import edu.kit.dama.mdm.dataorganization.entity.core.IFileTree;
 import edu.kit.dama.mdm.dataorganization.entity.impl.client.FileTree;
 import edu.kit.dama.mdm.dataorganization.service.core.DataOrganizer;
-import edu.kit.dama.mdm.dataorganization.service.core.DataOrganizerFactory;
 import edu.kit.dama.staging.entities.TransferClientProperties;
 import edu.kit.dama.staging.entities.ingest.INGEST_STATUS;
 import edu.kit.dama.staging.entities.ingest.IngestInformation;
-import edu.kit.dama.staging.services.impl.ingest.IngestInformationServiceLocal;
 import edu.kit.dama.util.Constants;
-import edu.kit.dama.util.ZipUtils;
 import edu.kit.jcommander.generic.status.CommandStatus;
 import edu.kit.jcommander.generic.status.Status;
+import gov.loc.repository.bagit.domain.Bag;
 import gov.loc.repository.bagit.domain.FetchItem;
 import gov.loc.repository.bagit.domain.Manifest;
 import java.io.File;
-import java.io.InputStream;
+import java.io.IOException;
 import java.net.URI;
-import java.net.URL;
-import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.ResourceBundle;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.fusesource.jansi.Ansi;
-import static org.fusesource.jansi.Ansi.ansi;
 
 /**
+ * Client implementation for importing BagIt bags into KIT Data Manager-based
+ * repositories. An instance holds all import settings and can be used to import
+ * any number of bags, also concurrently. Each import is split into staging the
+ * bag, which ends when the bag content is handed over to ingest, and
+ * completing the import after the ingest has finished. All accesses to the
+ * metadata management are serialized, as it is shared by all imports.
  *
  * @author jejkal
  */
 public class ImportClient{
 
-  private final static IMetaDataManager MDM = MetaDataManagement.getMetaDataManagement().getMetaDataManager();
+  private final static IMetaDataManager MDM = RepositoryServices.getMetaDataManager();
   private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.cl.client.MessageBundle");
 
-  private static String investigationId = null;
-  private static String userId = Constants.WORLD_USER_ID;
-  private static String groupId = Constants.WORLD_GROUP_ID;
+  private final Investigation destination;
+  private final boolean allowOverwrite;
+  private final boolean streamPayload;
+  private final int fetchThreads;
+  private final int fetchThreadsPerHost;
+  private final int fetchRetries;
+  private final int fetchTimeout;
+  private Path verificationReport = null;
+
+  /**
+   * A bag handed over to ingest, whose import is completed after the ingest
+   * has finished.
+   */
+  static final class PendingIngest{
+
+    private final DigitalObject digitalObject;
+    private final boolean kitdmBag;
+    private final IngestInformation ingest;
+    private final long payloadSize;
+
+    PendingIngest(DigitalObject digitalObject, boolean kitdmBag, IngestInformation ingest, long payloadSize){
+      this.digitalObject = digitalObject;
+      this.kitdmBag = kitdmBag;
+      this.ingest = ingest;
+      this.payloadSize = payloadSize;
+    }
+
+    /**
+     * Get the digital object the bag is imported into.
+     *
+     * @return The digital object.
+     */
+    DigitalObject getDigitalObject(){
+      return digitalObject;
+    }
 
-  private static Path source;
+    /**
+     * Get the ingest information at the time the bag was handed over to
+     * ingest.
+     *
+     * @return The ingest information.
+     */
+    IngestInformation getIngest(){
+      return ingest;
+    }
+  }
 
-  private static boolean allowOverwrite = false;
+  /**
+   * Create a new client using the provided import settings. The repository
+   * access must be initialized before.
+   *
+   * @param params The import settings.
+   * @param destination The investigation all imported objects are assigned
+   * to.
+   */
+  ImportClient(AbstractImportCommand params, Investigation destination){
+    this.destination = destination;
+    this.allowOverwrite = params.allowOverwrite;
+    this.streamPayload = params.streamPayload;
+    this.fetchThreads = params.fetchThreads;
+    this.fetchThreadsPerHost = params.fetchThreadsPerHost;
+    this.fetchRetries = params.fetchRetries;
+    this.fetchTimeout = params.fetchTimeout;
+  }
 
   public static CommandStatus execute(ImportCommand params){
     CommandStatus status = new CommandStatus(Status.SUCCESSFUL);
 
     boolean finished = false;
     try{
-      userId = params.userId;
-      groupId = params.groupId;
+      MetricsReporter.start(params.jmx);
       AnsiUtil.printInfo(MESSAGES.getString("init_repo_access"));
 
       //System.out.println(ansi().fg(Ansi.Color.GREEN).a("Initializing repository access...").reset());
-      init();
-      source = Paths.get(params.source);
-      allowOverwrite = params.allowOverwrite;
+      init(params);
+      Path source = Paths.get(params.source);
 
       if(!Files.exists(source)){
         AnsiUtil.printInfo(MESSAGES.getString("source_not_exist"), source.toAbsolutePath().toString());
@@ -105,16 +167,27 @@ public class ImportClient{
         return status;
       }
 
-      investigationId = params.investigationId;
+      ImportClient client = new ImportClient(params, findInvestigation(params.investigationId));
+      if(params.verificationReport != null){
+        client.verificationReport = Paths.get(params.verificationReport);
+      }
 
       AnsiUtil.printInfo(MESSAGES.getString("starting_import"));
-      doImport();
+      PendingIngest pending = client.stage(source);
+      if(params.noWait){
+        client.reportSubmitted(pending);
+      } else{
+        try(IngestMonitor monitor = createIngestMonitor(params)){
+          client.complete(pending, waitForIngest(monitor, pending));
+        }
+      }
       finished = true;
     } catch(Exception ex){
       AnsiUtil.printError(MESSAGES.getString("import_failed"), ex);
       status = new CommandStatus(Status.FAILED, ex, null);
     } finally{
       destroy();
+      MetricsReporter.finish(params.metrics);
       if(!finished){
         //unhandled error
         AnsiUtil.printError(MESSAGES.getString("unhandled_error"));
@@ -125,74 +198,163 @@ public class ImportClient{
     return status;
   }
 
-  private static void init(){
-    MDM.setAuthorizationContext(new AuthorizationContext(new UserId(userId), new GroupId(groupId), Role.MANAGER));
+  /**
+   * Initialize the repository access and the profile cache.
+   *
+   * @param params The import settings.
+   */
+  static void init(AbstractImportCommand params){
+    MDM.setAuthorizationContext(new AuthorizationContext(new UserId(params.userId), new GroupId(params.groupId), Role.MANAGER));
+    ProfileCache.getInstance().setOffline(params.offline).setTtl(params.profileCacheTtl);
   }
 
-  private static void doImport() throws Exception{
+  /**
+   * Obtain the investigation with the provided id.
+   *
+   * @param investigationId The investigation id.
+   *
+   * @return The investigation.
+   *
+   * @throws Exception If the investigation does not exist or if the query
+   * fails.
+   */
+  static Investigation findInvestigation(String investigationId) throws Exception{
     AnsiUtil.printInfo(MESSAGES.getString("obtaining_investigation"), investigationId);
-    Investigation destination = MDM.findSingleResult("SELECT o FROM Investigation o WHERE o.investigationId=?1", new Object[]{Long.parseLong(investigationId)}, Investigation.class);
-    if(destination == null){
+    Investigation investigation;
+    try(Metrics.Timer timer = Metrics.getInstance().start("import.lookup")){
+      synchronized(MDM){
+        investigation = MDM.findSingleResult("SELECT o FROM Investigation o WHERE o.investigationId=?1", new Object[]{Long.parseLong(investigationId)}, Investigation.class);
+      }
+    }
+    if(investigation == null){
       throw new EntityNotFoundException(StringUtils.substitute(MESSAGES.getString("investigation_not_found"), investigationId));
     }
+    return investigation;
+  }
 
-    //obtain caller user
-    Path bagRoot = source;
-
-    if(!Files.isDirectory(source)){
-      String bagName = source.getName(source.getNameCount() - 1).toString();
-      bagName = bagName.substring(0, bagName.indexOf("."));
-      AnsiUtil.printInfo(MESSAGES.getString("import_from_zip"));
-      Path tempPath = Paths.get(".", "tmp");
-      if(Files.exists(tempPath)){
-        AnsiUtil.printWarning(MESSAGES.getString("temp_bag_location_already_exists"), tempPath.toString());
-        Files.walk(tempPath, FileVisitOption.FOLLOW_LINKS)
-                .sorted(Comparator.reverseOrder())
-                .map(Path::toFile)
-                .forEach(File::delete);
-      } else{
-        AnsiUtil.printInfo(MESSAGES.getString("create_temp_bag_location"), tempPath.toString());
-        Files.createDirectories(tempPath);
-      }
+  /**
+   * Stage the bag located at source and hand it over to ingest. Serialized
+   * bags are extracted to a temporary location, which is removed as soon as
+   * the bag is staged.
+   *
+   * @param source The bag folder or archive file.
+   *
+   * @return The pending ingest of the bag.
+   *
+   * @throws Exception If the bag cannot be staged.
+   */
+  PendingIngest stage(Path source) throws Exception{
+    try(Metrics.Timer timer = Metrics.getInstance().start("import.stage")){
+      PendingIngest pending = stageSource(source);
+      timer.addBytes(pending.payloadSize);
+      Metrics.getInstance().count("import.objects", 1);
+      return pending;
+    }
+  }
+
+  /**
+   * Stage the bag located at source, extracting serialized bags before.
+   *
+   * @param source The bag folder or archive file.
+   *
+   * @return The pending ingest of the bag.
+   *
+   * @throws Exception If the bag cannot be staged.
+   */
+  private PendingIngest stageSource(Path source) throws Exception{
+    if(Files.isDirectory(source)){
+      return stageBag(source, source, null);
+    }
 
-      AnsiUtil.printInfo(StringUtils.substitute(MESSAGES.getString("unzip_bag"), source.toString()));
-      ZipUtils.unzip(source.toFile(), tempPath.toFile());
-      bagRoot = Paths.get(tempPath.toString(), bagName + "/");
+    //use a separate temp location per import, which is removed afterwards
+    BagArchiveReader reader = new BagArchiveReader(source);
+    Path tempPath = Files.createTempDirectory("bag-import");
+    AnsiUtil.printInfo(MESSAGES.getString("create_temp_bag_location"), tempPath.toString());
+    try{
+      Path bagRoot;
+      try(Metrics.Timer timer = Metrics.getInstance().start("import.extract")){
+        if(streamPayload){
+          //only extract tag files, payload is streamed to the staging location later on
+          AnsiUtil.printInfo(MESSAGES.getString("import_from_archive_streaming"), source.toString());
+          bagRoot = reader.extractTagFiles(tempPath);
+        } else{
+          AnsiUtil.printInfo(MESSAGES.getString("import_from_zip"));
+          AnsiUtil.printInfo(MESSAGES.getString("unzip_bag"), source.toString());
+          bagRoot = reader.extractAll(tempPath);
+          timer.addBytes(Files.size(source));
+        }
+      }
+      return stageBag(source, bagRoot, streamPayload ? reader : null);
+    } finally{
+      AnsiUtil.printInfo(MESSAGES.getString("removing_temp_bag_location"), tempPath.toString());
+      Files.walk(tempPath)
+              .sorted(Comparator.reverseOrder())
+              .map(Path::toFile)
+              .forEach(File::delete);
     }
+  }
 
+  /**
+   * Stage the bag located at bagRoot into a new digital object and hand it
+   * over to ingest. If a payload source is provided, bagRoot only contains the
+   * tag files and all payload files are read from the payload source and
+   * written directly to the staging location while being verified. Fetch
+   * items are downloaded directly to the staging location in that case, too.
+   *
+   * @param source The bag folder or archive file the bag was obtained from.
+   * @param bagRoot The bag root directory.
+   * @param payloadSource The archive providing all payload files or null if
+   * the payload is located in bagRoot.
+   *
+   * @return The pending ingest of the bag.
+   *
+   * @throws Exception If the bag cannot be staged.
+   */
+  private PendingIngest stageBag(Path source, Path bagRoot, BagArchiveReader payloadSource) throws Exception{
     AnsiUtil.printInfo(MESSAGES.getString("load_bag_from_folder"), bagRoot.toString());
-    BagBuilder builder = BagBuilder.load(bagRoot.toAbsolutePath());
+    BagBuilder builder;
+    try(Metrics.Timer timer = Metrics.getInstance().start("import.load")){
+      builder = BagBuilder.load(bagRoot.toAbsolutePath());
+    }
+    final long payloadSize = getPayloadSize(builder.getBag());
 
     //quick check profile conformance before starting to fetch anything
     builder.validateProfileConformance();
 
     List<FetchItem> fetchItems = builder.getBag().getItemsToFetch();
-    if(!fetchItems.isEmpty()){
-      AnsiUtil.printInfo(MESSAGES.getString("fetching_items"), Integer.toString(fetchItems.size()));
-
-      for(FetchItem item : fetchItems){
-        //check for URL type ... HTTP can be fetched, others might be kept as they are
-        //make fetch optional? only check size?
-        AnsiUtil.printInfo(MESSAGES.getString("fetching_item"), item.getPath().toString());
-        URL fetchUrl = item.getUrl();
-        Path fileDestination = bagRoot.toAbsolutePath().getParent().resolve(item.getPath());
-        AnsiUtil.printInfo(MESSAGES.getString("creating_folder_structure"), fileDestination.getParent().toString());
-        Files.createDirectories(fileDestination.getParent());
-        AnsiUtil.printInfo(MESSAGES.getString("reading_data_from_url"), fetchUrl.toString());
-        InputStream in = fetchUrl.openConnection().getInputStream();
-        java.nio.file.Files.copy(
-                in,
-                fileDestination,
-                StandardCopyOption.REPLACE_EXISTING);
-        AnsiUtil.printInfo(MESSAGES.getString("file_fetched"));
-        IOUtils.closeQuietly(in);
+    if(payloadSource == null){
+      if(!fetchItems.isEmpty()){
+        AnsiUtil.printInfo(MESSAGES.getString("fetching_items"), Integer.toString(fetchItems.size()));
+        try(Metrics.Timer timer = Metrics.getInstance().start("import.fetch"); FetchEngine fetchEngine = createFetchEngine(builder)){
+          for(FetchItem item : fetchItems){
+            fetchEngine.submit(item, item.getPath());
+          }
+          fetchEngine.await();
+        }
       }
-    }
 
-    //detailed validation of checksums after fetching all data
-    AnsiUtil.printInfo(MESSAGES.getString("validating_bag"));
-    builder.validateChecksums(true);
-    AnsiUtil.printInfo(MESSAGES.getString("validation_successful"));
+      AnsiUtil.printInfo(MESSAGES.getString("validating_bag"));
+      try(Metrics.Timer timer = Metrics.getInstance().start("import.validation")){
+        builder.validateTagManifests();
+        if(!fetchItems.isEmpty()){
+          //fetch items were verified while downloading, only verify all other payload files from disk
+          builder.validateRemainingPayload();
+          timer.addBytes(payloadSize);
+        } else{
+          //nothing was downloaded, check the payload via Payload-Oxum if possible
+          builder.validateChecksums(false);
+        }
+      }
+      AnsiUtil.printInfo(MESSAGES.getString("validation_successful"));
+      reportVerification(builder);
+    } else{
+      //payload and fetch items are verified while being transferred to the staging location
+      AnsiUtil.printInfo(MESSAGES.getString("validating_tag_files"));
+      try(Metrics.Timer timer = Metrics.getInstance().start("import.validation")){
+        builder.validateTagManifests();
+      }
+      AnsiUtil.printInfo(MESSAGES.getString("validation_successful"));
+    }
 
     Path bmdPath = null;
     Path datacitePath = null;
@@ -233,21 +395,28 @@ public class ImportClient{
       throw new Exception(MESSAGES.getString("no_consumable_metadata_found"));
     }
 
+    DigitalObject result;
     if(theObject != null){
-      //set existing object 
-      if(!MDM.findResultList("SELECT o FROM DigitalObject o WHERE o.digitalObjectIdentifier=?1", new Object[]{theObject.getDigitalObjectIdentifier()}, DigitalObject.class).isEmpty()){
-        if(allowOverwrite){
-          AnsiUtil.printWarning(MESSAGES.getString("duplicate_object_identifier"));
-          theObject.setDigitalObjectId(new DigitalObjectId(UUID.randomUUID().toString()));
-          AnsiUtil.printWarning(MESSAGES.getString("alternate_object_identifier_assigned"), theObject.getDigitalObjectIdentifier());
-        } else{
-          throw new EntityAlreadyExistsException(StringUtils.substitute(MESSAGES.getString("identifier_overwrite_disabled"), theObject.getDigitalObjectIdentifier()));
+      //check and save atomically, as concurrent imports may contain the same object
+      try(Metrics.Timer timer = Metrics.getInstance().start("import.database")){
+        synchronized(MDM){
+          //set existing object 
+          if(!MDM.findResultList("SELECT o FROM DigitalObject o WHERE o.digitalObjectIdentifier=?1", new Object[]{theObject.getDigitalObjectIdentifier()}, DigitalObject.class).isEmpty()){
+            if(allowOverwrite){
+              AnsiUtil.printWarning(MESSAGES.getString("duplicate_object_identifier"));
+              theObject.setDigitalObjectId(new DigitalObjectId(UUID.randomUUID().toString()));
+              AnsiUtil.printWarning(MESSAGES.getString("alternate_object_identifier_assigned"), theObject.getDigitalObjectIdentifier());
+            } else{
+              throw new EntityAlreadyExistsException(StringUtils.substitute(MESSAGES.getString("identifier_overwrite_disabled"), theObject.getDigitalObjectIdentifier()));
+            }
+          }
+          theObject.setInvestigation(destination);
+          //keep object invisible until its content is completely staged
+          theObject.setVisible(Boolean.FALSE);
+          AnsiUtil.printWarning(MESSAGES.getString("writing_digital_object_to_database"));
+          result = MDM.save(theObject);
         }
       }
-      theObject.setInvestigation(destination);
-      theObject.setVisible(Boolean.TRUE);
-      AnsiUtil.printWarning(MESSAGES.getString("writing_digital_object_to_database"));
-      DigitalObject result = MDM.save(theObject);
       if(result.getBaseId() == null){
         throw new Exception(MESSAGES.getString("failed_to_write_digital_object_to_database"));
       }
@@ -261,7 +430,13 @@ public class ImportClient{
     //@TODO configured localstaging AP necessary
     props.setStagingAccessPointId("localstaging");
 
-    IngestInformation ingestInfo = IngestInformationServiceLocal.getSingleton().prepareIngest(theObject.getDigitalObjectId(), props, MDM.getAuthorizationContext());
+    IngestInformation ingestInfo;
+    try(Metrics.Timer timer = Metrics.getInstance().start("import.ingest.prepare")){
+      ingestInfo = RepositoryServices.getIngestService().prepareIngest(theObject.getDigitalObjectId(), props, MDM.getAuthorizationContext());
+    } catch(Exception ex){
+      removeDigitalObject(result);
+      throw ex;
+    }
 
     //have base Url
     String stagingUrl = ingestInfo.getStagingUrl();
@@ -275,56 +450,180 @@ public class ImportClient{
     Path bagPayload = bagRoot.resolve("data");
     Path bagMetadata = bagRoot.resolve("metadata");
 
-    AnsiUtil.printInfo(MESSAGES.getString("copy_payload_to_data_location"), bagPayload.toString(), dataPath.toString());
-    FileUtils.copyDirectory(bagPayload.toFile(), dataPath.toFile());
-    AnsiUtil.printInfo(MESSAGES.getString("copy_metadata_to_generated_location"), bagMetadata.toString(), generatedPath.toString());
-    FileUtils.copyDirectory(bagMetadata.toFile(), generatedPath.toFile());
+    try(Metrics.Timer timer = Metrics.getInstance().start("import.staging")){
+      if(payloadSource == null){
+        AnsiUtil.printInfo(MESSAGES.getString("copy_payload_to_data_location"), bagPayload.toString(), dataPath.toString());
+        FileUtils.copyDirectory(bagPayload.toFile(), dataPath.toFile());
+      } else{
+        try(FetchEngine fetchEngine = createFetchEngine(builder)){
+          //download fetch items while payload is streamed from the archive
+          if(!fetchItems.isEmpty()){
+            AnsiUtil.printInfo(MESSAGES.getString("fetching_items"), Integer.toString(fetchItems.size()));
+            for(FetchItem item : fetchItems){
+              String relativePath = bagPayload.toAbsolutePath().relativize(item.getPath()).toString();
+              fetchEngine.submit(item, resolveInDataPath(dataPath, relativePath));
+            }
+          }
+          AnsiUtil.printInfo(MESSAGES.getString("stream_payload_to_data_location"), source.toString(), dataPath.toString());
+          final BagBuilder theBuilder = builder;
+          payloadSource.readPayload((relativePath, stream) -> {
+            theBuilder.copyAndVerifyPayload(bagPayload.toAbsolutePath().resolve(relativePath), stream, resolveInDataPath(dataPath, relativePath));
+          });
+          fetchEngine.await();
+        }
+        builder.validateRemainingPayload();
+        reportVerification(builder);
+      }
+      AnsiUtil.printInfo(MESSAGES.getString("copy_metadata_to_generated_location"), bagMetadata.toString(), generatedPath.toString());
+      FileUtils.copyDirectory(bagMetadata.toFile(), generatedPath.toFile());
+      timer.addBytes(payloadSize);
+    } catch(Exception ex){
+      //leave no pending ingest behind
+      AnsiUtil.printError(MESSAGES.getString("setting_file_transfer_failed"), ex.getMessage());
+      RepositoryServices.getIngestService().updateStatus(ingestInfo.getId(), INGEST_STATUS.PRE_INGEST_FAILED.getId(), ex.getMessage(), MDM.getAuthorizationContext());
+      //leave no digital object behind, which would block importing the bag again
+      removeDigitalObject(result);
+      throw ex;
+    }
     AnsiUtil.printInfo(MESSAGES.getString("setting_file_transfer_finished"));
 
-    int affectedEntities = IngestInformationServiceLocal.getSingleton().updateStatus(ingestInfo.getId(), INGEST_STATUS.PRE_INGEST_FINISHED.getId(), null, MDM.getAuthorizationContext());
+    int affectedEntities;
+    synchronized(MDM){
+      //content is staged completely, publish object before the ingest takes it over, so that no later save overwrites changes of the ingest
+      try{
+        result.setVisible(Boolean.TRUE);
+        result = MDM.save(result);
+      } catch(Exception ex){
+        AnsiUtil.printError(MESSAGES.getString("setting_file_transfer_failed"), ex.getMessage());
+        RepositoryServices.getIngestService().updateStatus(ingestInfo.getId(), INGEST_STATUS.PRE_INGEST_FAILED.getId(), ex.getMessage(), MDM.getAuthorizationContext());
+        removeDigitalObject(result);
+        throw ex;
+      }
+      affectedEntities = RepositoryServices.getIngestService().updateStatus(ingestInfo.getId(), INGEST_STATUS.PRE_INGEST_FINISHED.getId(), null, MDM.getAuthorizationContext());
+    }
 
     if(affectedEntities != 1){
       AnsiUtil.printError(MESSAGES.getString("failed_to_update_ingest_status"));
     } else{
       AnsiUtil.printInfo(MESSAGES.getString("pre_ingest_complete"), INGEST_STATUS.PRE_INGEST_FINISHED.toString());
     }
+    return new PendingIngest(result, isKitdmBag, ingestInfo, payloadSize);
+  }
 
-    ingestInfo = IngestInformationServiceLocal.getSingleton().getIngestInformationById(ingestInfo.getId(), MDM.getAuthorizationContext());
-
-    System.out.print(ansi().fg(Ansi.Color.GREEN).a(MESSAGES.getString("ingest_running")));
-    long counter = 30;
-    while(!ingestInfo.getStatusEnum().isFinalState()){
-      try{
-        Thread.sleep(1000);
-      } catch(InterruptedException ex){
+  /**
+   * Remove a digital object created for a bag whose content could not be
+   * staged, so that importing the bag can be retried using the same
+   * identifier. Failing to remove the object is only reported, as the
+   * original failure is more relevant.
+   *
+   * @param digitalObject The digital object to remove.
+   */
+  private static void removeDigitalObject(DigitalObject digitalObject){
+    AnsiUtil.printWarning(MESSAGES.getString("removing_digital_object"), digitalObject.getDigitalObjectIdentifier());
+    try{
+      synchronized(MDM){
+        MDM.remove(digitalObject);
       }
+    } catch(Exception ex){
+      AnsiUtil.printError(MESSAGES.getString("removing_digital_object_failed"), digitalObject.getDigitalObjectIdentifier(), ex.getMessage());
+    }
+  }
 
-      counter--;
-      System.out.print(ansi().a("."));
-      ingestInfo = IngestInformationServiceLocal.getSingleton().getIngestInformationById(ingestInfo.getId(), MDM.getAuthorizationContext());
-      if(counter == 0){
+  /**
+   * Create the monitor used to wait for ingests according to the provided
+   * settings.
+   *
+   * @param params The import settings.
+   *
+   * @return The ingest monitor.
+   */
+  static IngestMonitor createIngestMonitor(AbstractImportCommand params){
+    return new IngestMonitor(MDM.getAuthorizationContext()).setPollIntervals(params.ingestPollInitial, params.ingestPollMax).setTimeout(TimeUnit.SECONDS.toMillis(params.ingestTimeout));
+  }
+
+  /**
+   * Wait for the provided ingest to reach a final state.
+   *
+   * @param monitor The monitor watching the ingest.
+   * @param pending The pending ingest.
+   *
+   * @return The final ingest information.
+   *
+   * @throws Exception If obtaining the ingest status fails or if the ingest
+   * does not finish within the timeout.
+   */
+  private static IngestInformation waitForIngest(IngestMonitor monitor, PendingIngest pending) throws Exception{
+    AnsiUtil.printInfo(MESSAGES.getString("ingest_running"), pending.getIngest().getId().toString());
+    CompletableFuture<IngestInformation> result = monitor.watch(pending.getIngest());
+    try(Metrics.Timer timer = Metrics.getInstance().start("import.ingest.wait")){
+      try{
+        return result.get(30, TimeUnit.SECONDS);
+      } catch(TimeoutException ex){
         AnsiUtil.printWarning(MESSAGES.getString("long_running_ingest_detected"));
+        return result.get();
       }
+    } catch(ExecutionException ex){
+      throw (ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : ex;
     }
+  }
 
-    System.out.println();
+  /**
+   * Report a bag handed over to ingest whose import is not completed by this
+   * process.
+   *
+   * @param pending The pending ingest.
+   */
+  void reportSubmitted(PendingIngest pending){
+    AnsiUtil.printInfo(MESSAGES.getString("ingest_submitted"), pending.getIngest().getId().toString(), pending.getDigitalObject().getDigitalObjectIdentifier());
+    if(pending.kitdmBag){
+      AnsiUtil.printWarning(MESSAGES.getString("views_not_restored_without_waiting"), pending.getDigitalObject().getDigitalObjectIdentifier());
+    }
+  }
 
+  /**
+   * Complete the import of a staged bag after its ingest has reached a final
+   * state. For bags exported from KIT Data Manager, all views of the data
+   * organization are restored.
+   *
+   * @param pending The pending ingest.
+   * @param ingestInfo The final ingest information.
+   *
+   * @throws Exception If the ingest has failed or if restoring the data
+   * organization fails.
+   */
+  void complete(PendingIngest pending, IngestInformation ingestInfo) throws Exception{
     if(!ingestInfo.getStatusEnum().isErrorState()){
       AnsiUtil.printInfo(MESSAGES.getString("ingest_finished"));
     } else{
       throw new Exception(StringUtils.substitute(MESSAGES.getString("ingest_failed"), ingestInfo.getErrorMessage(), ingestInfo.getStatusEnum().toString()));
     }
 
-    if(isKitdmBag){
+    if(pending.kitdmBag){
       AnsiUtil.printInfo(MESSAGES.getString("restoring_data_organization"));
-      DataOrganizer organizer = DataOrganizerFactory.getInstance().getDataOrganizer();
+      restoreViews(pending);
+    }
+
+    AnsiUtil.printInfo(MESSAGES.getString("import_completed"), pending.digitalObject.getDigitalObjectIdentifier());
+  }
 
-      IFileTree defaultView = organizer.loadFileTree(theObject.getDigitalObjectId(), Constants.DEFAULT_VIEW);
+  /**
+   * Restore all views of the data organization of a KIT Data Manager bag
+   * from the children of the default view created during ingest.
+   *
+   * @param pending The pending ingest.
+   *
+   * @throws Exception If restoring the data organization fails.
+   */
+  private void restoreViews(PendingIngest pending) throws Exception{
+    try(Metrics.Timer timer = Metrics.getInstance().start("import.restore")){
+      DataOrganizer organizer = RepositoryServices.getDataOrganizer();
+
+      IFileTree defaultView = organizer.loadFileTree(pending.digitalObject.getDigitalObjectId(), Constants.DEFAULT_VIEW);
 
       for(IDataOrganizationNode child : defaultView.getRootNode().getChildren()){
         AnsiUtil.printInfo(MESSAGES.getString("restoring_view"), child.getName());
         IFileTree viewTree = new FileTree();
-        viewTree.setDigitalObjectId(theObject.getDigitalObjectId());
+        viewTree.setDigitalObjectId(pending.digitalObject.getDigitalObjectId());
         viewTree.setViewName(child.getName());
         if(child instanceof ICollectionNode){
           ((ICollectionNode) child).getChildren().forEach((childChild) -> {
@@ -337,11 +636,74 @@ public class ImportClient{
         }
       }
     }
+  }
+
+  /**
+   * Print the verification report of the provided bag and write it to the
+   * report file if requested.
+   *
+   * @param builder The builder of the imported bag.
+   *
+   * @throws IOException If writing the report file fails.
+   */
+  private void reportVerification(BagBuilder builder) throws IOException{
+    builder.getVerificationReport().print();
+    if(verificationReport != null){
+      builder.getVerificationReport().write(verificationReport, builder.getBag().getRootDir());
+    }
+  }
+
+  /**
+   * Create the engine used to download all fetch items of the provided bag.
+   *
+   * @param builder The builder of the imported bag.
+   *
+   * @return The fetch engine.
+   */
+  private FetchEngine createFetchEngine(BagBuilder builder){
+    return new FetchEngine(builder, fetchThreads, fetchThreadsPerHost).setTimeout(fetchTimeout).setRetries(fetchRetries, FetchEngine.DEFAULT_RETRY_DELAY);
+  }
 
-    AnsiUtil.printInfo(MESSAGES.getString("import_completed"), theObject.getDigitalObjectIdentifier());
+  /**
+   * Get the size of all payload files stored in the provided bag according to
+   * its Payload-Oxum, which excludes fetch items.
+   *
+   * @param bag The bag.
+   *
+   * @return The payload size in bytes or 0 if no valid Payload-Oxum is
+   * available.
+   */
+  private static long getPayloadSize(Bag bag){
+    List<String> oxum = bag.getMetadata().get("Payload-Oxum");
+    if(oxum == null || oxum.isEmpty()){
+      return 0;
+    }
+    try{
+      return Long.parseLong(oxum.get(0).split("\\.")[0].trim());
+    } catch(NumberFormatException ex){
+      return 0;
+    }
+  }
+
+  /**
+   * Resolve a payload path inside the staging data location.
+   *
+   * @param dataPath The staging data location.
+   * @param relativePath The path relative to the bag payload directory.
+   *
+   * @return The resolved path.
+   *
+   * @throws IOException If relativePath points outside of dataPath.
+   */
+  private static Path resolveInDataPath(Path dataPath, String relativePath) throws IOException{
+    Path target = dataPath.resolve(relativePath).normalize();
+    if(!target.startsWith(dataPath.normalize())){
+      throw new IOException(StringUtils.substitute(MESSAGES.getString("payload_outside_data_location"), relativePath, dataPath.toString()));
+    }
+    return target;
   }
 
-  private static void destroy(){
+  static void destroy(){
     MDM.close();
   }
 }
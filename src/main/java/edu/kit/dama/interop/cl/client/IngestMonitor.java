@@ -0,0 +1,228 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.cl.client;
+
+import edu.kit.dama.authorization.entities.impl.AuthorizationContext;
+import edu.kit.dama.interop.util.RepositoryServices;
+import edu.kit.dama.interop.util.StringUtils;
+import edu.kit.dama.staging.entities.ingest.IngestInformation;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Monitor tracking the state of any number of pending ingests using a single
+ * polling thread. Each watched ingest is represented by a future, which is
+ * completed as soon as the ingest has reached a final state, so that callers
+ * do not have to block a thread per ingest. The status of each ingest is
+ * checked quickly at first to detect small ingests early. Afterwards, the
+ * time between two checks is doubled up to a maximum, so that long running
+ * ingests cause only few queries. If a component is notified about status
+ * changes, it can trigger an immediate check via
+ * {@link #notifyStatusChanged(java.lang.Long)}.
+ *
+ * @author jejkal
+ */
+public class IngestMonitor implements AutoCloseable{
+
+  private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.cl.client.MessageBundle");
+
+  /**
+   * Default time in milliseconds until the first status check.
+   */
+  public static final long DEFAULT_INITIAL_POLL_INTERVAL = 100;
+  /**
+   * Default max. time in milliseconds between two status checks.
+   */
+  public static final long DEFAULT_MAX_POLL_INTERVAL = 10000;
+
+  /**
+   * A single watched ingest.
+   */
+  private static final class Watch{
+
+    private final Long ingestId;
+    private final CompletableFuture<IngestInformation> future = new CompletableFuture<>();
+    private final long timeout;
+    private final long deadline;
+    private long interval;
+    private ScheduledFuture<?> nextCheck = null;
+
+    Watch(Long ingestId, long interval, long timeout){
+      this.ingestId = ingestId;
+      this.interval = interval;
+      this.timeout = timeout;
+      this.deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+    }
+  }
+
+  private final AuthorizationContext context;
+  private final Map<Long, Watch> pending = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService poller;
+  private long initialPollInterval = DEFAULT_INITIAL_POLL_INTERVAL;
+  private long maxPollInterval = DEFAULT_MAX_POLL_INTERVAL;
+  private long timeout = 0;
+
+  /**
+   * Create a new monitor.
+   *
+   * @param context The context used to query the ingest status.
+   */
+  public IngestMonitor(AuthorizationContext context){
+    this.context = context;
+    poller = Executors.newSingleThreadScheduledExecutor((r) -> {
+      Thread t = new Thread(r, "ingest-monitor");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Set the time until the first status check and the max. time between two
+   * status checks of newly watched ingests.
+   *
+   * @param initialPollInterval The time in milliseconds until the first
+   * status check.
+   * @param maxPollInterval The max. time in milliseconds between two status
+   * checks.
+   *
+   * @return This IngestMonitor instance.
+   */
+  public IngestMonitor setPollIntervals(long initialPollInterval, long maxPollInterval){
+    this.initialPollInterval = Math.max(1, initialPollInterval);
+    this.maxPollInterval = Math.max(this.initialPollInterval, maxPollInterval);
+    return this;
+  }
+
+  /**
+   * Set the time after which newly watched ingests are no longer watched.
+   *
+   * @param timeout The timeout in milliseconds or 0 to wait without limit.
+   *
+   * @return This IngestMonitor instance.
+   */
+  public IngestMonitor setTimeout(long timeout){
+    this.timeout = timeout;
+    return this;
+  }
+
+  /**
+   * Start watching the provided ingest.
+   *
+   * @param ingest The ingest to watch.
+   *
+   * @return A future completed with the final ingest information. The future
+   * is completed exceptionally with a TimeoutException if the ingest does not
+   * reach a final state within the timeout or with the respective exception if
+   * the status cannot be obtained.
+   */
+  public CompletableFuture<IngestInformation> watch(IngestInformation ingest){
+    Watch watch = pending.computeIfAbsent(ingest.getId(), (id) -> {
+      Watch created = new Watch(id, initialPollInterval, timeout);
+      schedule(created, initialPollInterval);
+      return created;
+    });
+    return watch.future;
+  }
+
+  /**
+   * Notify this monitor that the status of the provided ingest may have
+   * changed. The status is checked immediately and the time between two
+   * status checks is reset.
+   *
+   * @param ingestId The ingest id.
+   */
+  public void notifyStatusChanged(Long ingestId){
+    Watch watch = pending.get(ingestId);
+    if(watch != null){
+      poller.execute(() -> {
+        watch.interval = initialPollInterval;
+        schedule(watch, 0);
+      });
+    }
+  }
+
+  /**
+   * Get the number of ingests that have not reached a final state, yet.
+   *
+   * @return The number of pending ingests.
+   */
+  public int getPendingCount(){
+    return pending.size();
+  }
+
+  /**
+   * Schedule the next status check of the provided ingest. Any scheduled
+   * check is cancelled.
+   *
+   * @param watch The watched ingest.
+   * @param delay The delay in milliseconds.
+   */
+  private void schedule(Watch watch, long delay){
+    synchronized(watch){
+      if(watch.nextCheck != null){
+        watch.nextCheck.cancel(false);
+      }
+      watch.nextCheck = poller.schedule(() -> check(watch), delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Check the status of the provided ingest. If the ingest is not in a final
+   * state, the next check is scheduled with doubled interval.
+   *
+   * @param watch The watched ingest.
+   */
+  private void check(Watch watch){
+    if(watch.future.isDone()){
+      return;
+    }
+    try{
+      IngestInformation ingest = RepositoryServices.getIngestService().getIngestInformationById(watch.ingestId, context);
+      if(ingest.getStatusEnum().isFinalState()){
+        pending.remove(watch.ingestId);
+        watch.future.complete(ingest);
+      } else if(System.currentTimeMillis() >= watch.deadline){
+        pending.remove(watch.ingestId);
+        watch.future.completeExceptionally(new TimeoutException(StringUtils.substitute(MESSAGES.getString("ingest_timeout"), watch.ingestId.toString(), Long.toString(TimeUnit.MILLISECONDS.toSeconds(watch.timeout)))));
+      } else{
+        watch.interval = Math.min(watch.interval * 2, maxPollInterval);
+        schedule(watch, Math.min(watch.interval, Math.max(0, watch.deadline - System.currentTimeMillis())));
+      }
+    } catch(Throwable t){
+      //an exception must not prevent checking the remaining ingests
+      pending.remove(watch.ingestId);
+      watch.future.completeExceptionally(t);
+    }
+  }
+
+  /**
+   * Stop watching. All ingests still pending are completed exceptionally.
+   */
+  @Override
+  public void close(){
+    poller.shutdownNow();
+    pending.values().forEach((watch) -> watch.future.completeExceptionally(new CancellationException()));
+    pending.clear();
+  }
+}
@@ -15,6 +15,8 @@
  */
 package edu.kit.dama.interop.cl.client;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import edu.kit.dama.authorization.entities.GroupId;
 import edu.kit.dama.authorization.entities.Role;
 import edu.kit.dama.authorization.entities.UserId;
@@ -27,7 +29,10 @@ import edu.kit.dama.mdm.base.Investigation;
 import edu.kit.dama.mdm.core.IMetaDataManager;
 import edu.kit.dama.mdm.core.MetaDataManagement;
 import edu.kit.dama.mdm.core.exception.EntityNotFoundException;
+import edu.kit.dama.mdm.dataorganization.entity.core.IAttribute;
 import edu.kit.dama.mdm.dataorganization.entity.core.ICollectionNode;
+import edu.kit.dama.mdm.dataorganization.entity.core.IDataOrganizationNode;
+import edu.kit.dama.mdm.dataorganization.entity.core.IFileNode;
 import edu.kit.dama.mdm.dataorganization.entity.core.IFileTree;
 import edu.kit.dama.mdm.dataorganization.service.core.DataOrganizer;
 import edu.kit.dama.mdm.dataorganization.service.core.DataOrganizerFactory;
@@ -35,12 +40,28 @@ import edu.kit.dama.staging.util.DataOrganizationUtils;
 import edu.kit.dama.util.Constants;
 import edu.kit.jcommander.generic.status.CommandStatus;
 import edu.kit.jcommander.generic.status.Status;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
 import java.util.List;
 import java.util.ResourceBundle;
+import org.apache.commons.io.FileUtils;
 import org.fusesource.jansi.Ansi;
 import static org.fusesource.jansi.Ansi.ansi;
 
 /**
+ * Client implementation for listing the digital objects of one investigation.
+ * Objects are read page by page, each page using a new metadata manager, and
+ * each object is written as soon as it is read, so that the memory consumption
+ * does not depend on the number of objects. Besides colored text output, the
+ * listing can be written as JSON Lines or CSV for further processing.
  *
  * @author jejkal
  */
@@ -48,12 +69,50 @@ public class ListClient{
 
   private final static IMetaDataManager MDM = MetaDataManagement.getMetaDataManagement().getMetaDataManager();
   private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.cl.client.MessageBundle");
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /**
+   * Supported output formats.
+   */
+  public enum OUTPUT_FORMAT{
+    /**
+     * Colored text including the file tree of each object.
+     */
+    TEXT,
+    /**
+     * One JSON document per object and line.
+     */
+    JSONL,
+    /**
+     * Comma-separated values with header line.
+     */
+    CSV;
+  }
+
+  /**
+   * Default number of objects read per page.
+   */
+  public static final int DEFAULT_PAGE_SIZE = 100;
+
+  private static final String SIZE_ATTRIBUTE = "size";
 
   private static String investigationId = null;
   private static String userId = Constants.WORLD_USER_ID;
   private static String groupId = Constants.WORLD_GROUP_ID;
+  private static boolean summaryOnly = false;
+  private static int pageSize = DEFAULT_PAGE_SIZE;
+  private static OUTPUT_FORMAT format = OUTPUT_FORMAT.TEXT;
+  private static String labelPattern = null;
+  private static Date uploadedFrom = null;
+  private static Date uploadedUntil = null;
+  private static Path output = null;
 
   public static CommandStatus execute(ListCommand params){
+    if(OUTPUT_FORMAT.TEXT.equals(params.format) && params.output != null){
+      //colored text output is only written to STDOUT
+      AnsiUtil.printError(MESSAGES.getString("text_output_to_file_not_supported"), params.output);
+      return new CommandStatus(Status.FAILED);
+    }
     CommandStatus status = new CommandStatus(Status.SUCCESSFUL);
 
     boolean finished = false;
@@ -61,14 +120,27 @@ public class ListClient{
       userId = params.userId;
       groupId = params.groupId;
       investigationId = params.investigationId;
-      AnsiUtil.printInfo(MESSAGES.getString("init_repo_access"));
+      summaryOnly = params.summaryOnly;
+      pageSize = Math.max(1, params.pageSize);
+      format = params.format;
+      labelPattern = params.labelPattern;
+      if(params.uploadedFrom != null){
+        uploadedFrom = toDate(LocalDate.parse(params.uploadedFrom));
+      }
+      if(params.uploadedUntil != null){
+        //include the entire last day
+        uploadedUntil = toDate(LocalDate.parse(params.uploadedUntil).plusDays(1));
+      }
+      if(params.output != null){
+        output = Paths.get(params.output);
+      }
+      printInfo(MESSAGES.getString("init_repo_access"));
 
       init();
 
       doListing();
       finished = true;
     } catch(Exception ex){
-      ex.printStackTrace();
       AnsiUtil.printError(MESSAGES.getString("list_failed"), ex);
       status = new CommandStatus(Status.FAILED, ex, null);
     } finally{
@@ -87,30 +159,224 @@ public class ListClient{
   }
 
   private static void doListing() throws Exception{
-    AnsiUtil.printInfo(MESSAGES.getString("obtaining_investigation"), investigationId);
+    printInfo(MESSAGES.getString("obtaining_investigation"), investigationId);
     Investigation destination = MDM.findSingleResult("SELECT o FROM Investigation o WHERE o.investigationId=?1", new Object[]{Long.parseLong(investigationId)}, Investigation.class);
     if(destination == null){
       throw new EntityNotFoundException(StringUtils.substitute(MESSAGES.getString("investigation_not_found"), investigationId));
     }
 
-    List<DigitalObject> listing = MDM.findResultList("SELECT o FROM DigitalObject o WHERE o.investigation.investigationId=?1", new Object[]{destination.getInvestigationId()}, DigitalObject.class);
-    AnsiUtil.printTextColored(MESSAGES.getString("listing_header"), Ansi.Color.WHITE, Integer.toString(listing.size()), Long.toString(destination.getInvestigationId()));
+    //build filter criteria
+    List<Object> args = new ArrayList<>();
+    args.add(destination.getInvestigationId());
+    StringBuilder criteria = new StringBuilder("o.investigation.investigationId=?1");
+    if(labelPattern != null){
+      args.add(labelPattern);
+      criteria.append(" AND o.label LIKE ?").append(args.size());
+    }
+    if(uploadedFrom != null){
+      args.add(uploadedFrom);
+      criteria.append(" AND o.uploadDate>=?").append(args.size());
+    }
+    if(uploadedUntil != null){
+      args.add(uploadedUntil);
+      criteria.append(" AND o.uploadDate<?").append(args.size());
+    }
+
+    if(OUTPUT_FORMAT.TEXT.equals(format)){
+      Long count = MDM.findSingleResult("SELECT COUNT(o) FROM DigitalObject o WHERE " + criteria, args.toArray(), Long.class);
+      AnsiUtil.printTextColored(MESSAGES.getString("listing_header"), Ansi.Color.WHITE, Long.toString(count), Long.toString(destination.getInvestigationId()));
+    }
+
+    //pages start after the last object of the previous page, which avoids skipping over all previous objects for each page
+    args.add(Long.MIN_VALUE);
+    final int lastBaseIdIndex = args.size() - 1;
+    final String query = "SELECT o FROM DigitalObject o WHERE " + criteria + " AND o.baseId>?" + args.size() + " ORDER BY o.baseId";
     DataOrganizer org = DataOrganizerFactory.getInstance().getDataOrganizer();
 
-    for(DigitalObject object : listing){
-      IFileTree tree = org.loadFileTree(object.getDigitalObjectId(), Constants.DEFAULT_VIEW);
-      tree.setDigitalObjectId(object.getDigitalObjectId());
-      AnsiUtil.printInfo(MESSAGES.getString("object_listing_line"), Long.toString(object.getBaseId()), object.getLabel());
-      System.out.println(ansi().fg(Ansi.Color.WHITE));
-      if(tree != null){
-        IFileTree root = DataOrganizationUtils.copyTree(tree);
-        DataOrganizationUtils.printTree(root.getRootNode(), true, System.out);
-      } else{
-        System.out.println("- No data associated, yet - ");
+    PrintStream out = (output != null) ? new PrintStream(Files.newOutputStream(output), false, "UTF-8") : System.out;
+    try{
+      if(OUTPUT_FORMAT.CSV.equals(format)){
+        out.println("baseId,objectId,label,uploadDate" + (summaryOnly ? ",files,size" : ""));
+      }
+      int pageLength;
+      do{
+        //use a new manager per page, so that read objects are not kept in its persistence context
+        IMetaDataManager pageManager = MetaDataManagement.getMetaDataManagement().getMetaDataManager();
+        pageManager.setAuthorizationContext(MDM.getAuthorizationContext());
+        try{
+          List<DigitalObject> page = pageManager.findResultList(query, args.toArray(), DigitalObject.class, 0, pageSize);
+          for(DigitalObject object : page){
+            printObject(object, org, out);
+            args.set(lastBaseIdIndex, object.getBaseId());
+          }
+          pageLength = page.size();
+        } finally{
+          pageManager.close();
+        }
+        out.flush();
+      } while(pageLength == pageSize);
+    } finally{
+      if(output != null){
+        out.close();
+        printInfo(MESSAGES.getString("listing_written"), output.toAbsolutePath().toString());
+      }
+    }
+  }
+
+  /**
+   * Write a single object according to the output format. The file tree of
+   * the object is only loaded if it is printed or summarized.
+   *
+   * @param object The digital object.
+   * @param org The data organizer used to load the file tree.
+   * @param out The stream machine-readable output is written to.
+   *
+   * @throws Exception If loading the file tree fails.
+   */
+  private static void printObject(DigitalObject object, DataOrganizer org, PrintStream out) throws Exception{
+    IFileTree tree = null;
+    if(OUTPUT_FORMAT.TEXT.equals(format) || summaryOnly){
+      tree = org.loadFileTree(object.getDigitalObjectId(), Constants.DEFAULT_VIEW);
+    }
+    long[] summary = summaryOnly ? summarize(tree) : null;
+    String uploadDate = (object.getUploadDate() != null) ? object.getUploadDate().toInstant().toString() : null;
+    switch(format){
+      case JSONL:
+        ObjectNode node = MAPPER.createObjectNode();
+        node.put("baseId", object.getBaseId());
+        node.put("objectId", object.getDigitalObjectIdentifier());
+        node.put("label", object.getLabel());
+        node.put("uploadDate", uploadDate);
+        if(summary != null){
+          node.put("files", summary[0]);
+          node.put("size", summary[1]);
+        }
+        out.println(MAPPER.writeValueAsString(node));
+        break;
+      case CSV:
+        StringBuilder line = new StringBuilder();
+        line.append(object.getBaseId()).append(",").append(toCsv(object.getDigitalObjectIdentifier())).append(",").append(toCsv(object.getLabel())).append(",").append(toCsv(uploadDate));
+        if(summary != null){
+          line.append(",").append(summary[0]).append(",").append(summary[1]);
+        }
+        out.println(line);
+        break;
+      default:
+        if(summary != null){
+          AnsiUtil.printInfo(MESSAGES.getString("object_summary_line"), Long.toString(object.getBaseId()), object.getLabel(), Long.toString(summary[0]), FileUtils.byteCountToDisplaySize(summary[1]));
+        } else{
+          printTree(object, tree);
+        }
+    }
+  }
+
+  /**
+   * Print the provided object together with its file tree.
+   *
+   * @param object The digital object.
+   * @param tree The file tree of the object or null if no data is associated.
+   */
+  private static void printTree(DigitalObject object, IFileTree tree){
+    AnsiUtil.printInfo(MESSAGES.getString("object_listing_line"), Long.toString(object.getBaseId()), object.getLabel());
+    System.out.println(ansi().fg(Ansi.Color.WHITE));
+    if(tree != null){
+      //the loaded tree is printed directly, it is neither modified nor kept
+      DataOrganizationUtils.printTree(tree.getRootNode(), true, System.out);
+    } else{
+      System.out.println("- No data associated, yet - ");
+    }
+    System.out.println(ansi().reset());
+  }
+
+  /**
+   * Obtain the number and the total size of all files in the provided file
+   * tree.
+   *
+   * @param tree The file tree or null if no data is associated.
+   *
+   * @return An array containing the number of files and the total size in
+   * bytes.
+   */
+  private static long[] summarize(IFileTree tree){
+    long files = 0;
+    long size = 0;
+    if(tree != null){
+      //walk the tree iteratively, deep trees must not exhaust the stack
+      Deque<IDataOrganizationNode> nodes = new ArrayDeque<>();
+      nodes.push(tree.getRootNode());
+      while(!nodes.isEmpty()){
+        IDataOrganizationNode node = nodes.pop();
+        if(node instanceof ICollectionNode){
+          ((ICollectionNode) node).getChildren().forEach(nodes::push);
+        } else if(node instanceof IFileNode){
+          files++;
+          size += getSize(node);
+        }
+      }
+    }
+    return new long[]{files, size};
+  }
+
+  /**
+   * Get the size of the provided file node from its attributes.
+   *
+   * @param node The file node.
+   *
+   * @return The size in bytes or 0 if the size is unknown.
+   */
+  private static long getSize(IDataOrganizationNode node){
+    for(IAttribute attribute : node.getAttributes()){
+      if(SIZE_ATTRIBUTE.equals(attribute.getKey())){
+        try{
+          return Long.parseLong(attribute.getValue());
+        } catch(NumberFormatException ex){
+          return 0;
+        }
       }
-      System.out.println(ansi().reset());
     }
+    return 0;
+  }
+
+  /**
+   * Quote the provided value for CSV output if necessary.
+   *
+   * @param value The value or null.
+   *
+   * @return The CSV value.
+   */
+  private static String toCsv(String value){
+    if(value == null){
+      return "";
+    }
+    if(value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")){
+      return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+    return value;
+  }
 
+  /**
+   * Convert the provided day into a date at the start of the day in the local
+   * time zone.
+   *
+   * @param day The day.
+   *
+   * @return The date.
+   */
+  private static Date toDate(LocalDate day){
+    return Date.from(day.atStartOfDay(ZoneId.systemDefault()).toInstant());
+  }
+
+  /**
+   * Print an info message unless machine-readable output is written to
+   * STDOUT, which must not contain anything else.
+   *
+   * @param message The message.
+   * @param highlighted The highlighted message arguments.
+   */
+  private static void printInfo(String message, String... highlighted){
+    if(OUTPUT_FORMAT.TEXT.equals(format) || output != null){
+      AnsiUtil.printInfo(message, highlighted);
+    }
   }
 
   private static void destroy(){
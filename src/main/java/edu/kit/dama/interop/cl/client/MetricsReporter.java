@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.cl.client;
+
+import edu.kit.dama.interop.util.AnsiUtil;
+import edu.kit.dama.interop.util.Metrics;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ResourceBundle;
+import javax.management.JMException;
+
+/**
+ * Helper publishing the metrics recorded by export and import clients. Metrics
+ * are only a by-product of a run, so that failing to publish them is reported
+ * as warning and does not affect the result of the run.
+ *
+ * @author jejkal
+ */
+final class MetricsReporter{
+
+  private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.cl.client.MessageBundle");
+
+  /**
+   * Hidden constructor.
+   */
+  private MetricsReporter(){
+  }
+
+  /**
+   * Register the metrics registry at the platform MBean server if requested.
+   *
+   * @param jmx TRUE to register the metrics registry via JMX.
+   */
+  static void start(boolean jmx){
+    if(!jmx){
+      return;
+    }
+    try{
+      Metrics.registerMBean();
+      AnsiUtil.printInfo(MESSAGES.getString("metrics_mbean_registered"), Metrics.OBJECT_NAME);
+    } catch(JMException ex){
+      AnsiUtil.printWarning(MESSAGES.getString("registering_metrics_mbean_failed"), ex.getMessage());
+    }
+  }
+
+  /**
+   * Write the summary of all recorded metrics to the provided file.
+   *
+   * @param metricsFile The destination file or null to skip writing metrics.
+   */
+  static void finish(String metricsFile){
+    if(metricsFile == null){
+      return;
+    }
+    Path destination = Paths.get(metricsFile);
+    try{
+      Metrics.getInstance().writeSummary(destination);
+      AnsiUtil.printInfo(MESSAGES.getString("metrics_written"), destination.toAbsolutePath().toString());
+    } catch(IOException ex){
+      AnsiUtil.printWarning(MESSAGES.getString("writing_metrics_failed"), destination.toAbsolutePath().toString(), ex.getMessage());
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.cl.command;
+
+import com.beust.jcommander.Parameter;
+import edu.kit.dama.interop.util.BagArchiveWriter;
+import edu.kit.dama.interop.util.BagBuilder;
+import edu.kit.dama.interop.util.ChecksumCache;
+import edu.kit.dama.interop.util.ChecksumEngine;
+import edu.kit.dama.interop.util.FetchItemProber;
+import edu.kit.dama.interop.util.Metrics;
+import edu.kit.dama.interop.util.ProfileCache;
+import edu.kit.jcommander.generic.parameter.CommandLineParameters;
+
+/**
+ * Base class of all export commands holding the options shared by exports of
+ * single and multiple digital objects.
+ *
+ * @author jejkal
+ */
+public abstract class AbstractExportCommand extends CommandLineParameters{
+
+  @Parameter(names = {"-m", "--metadataFile"}, description = "Additional metadata file in standard properties format <key>:<value> written into bag-info.txt. This file must contain all metadata fields that are required by the used profile. "
+          + "If at least one required property is missing, the export will fail. If the used profile does not require any mandatory properties, this argument can be skipped. ", required = false)
+  public String metadataFile = null;
+
+  @Parameter(names = {"-f", "--force"}, description = "Force the creation of the bag at the provided destination. Otherwise, the export will not be performed if destination exists.", required = false)
+  public boolean force = false;
+
+  @Parameter(names = {"-p", "--profile"}, description = "URL of the profile used to validate the exported bag.", required = false)
+  public String profileUrl = BagBuilder.BAGIT_PROFILE_LOCATION;
+
+  @Parameter(names = {"-z", "--zip"}, description = "Serialize the bag into a zip file.", required = false)
+  public boolean zipOutput = false;
+
+  @Parameter(names = {"-s", "--stream"}, description = "Serialize the bag directly into an archive file next to the destination folder while payload files are copied and hashed. "
+          + "Payload files are never stored in the destination folder, which is removed after serialization. Payload placement modes are ignored.", required = false)
+  public boolean streamOutput = false;
+
+  @Parameter(names = {"--format"}, description = "Archive format used with --stream, which is one of ZIP, TAR or TAR_GZ.", required = false)
+  public BagArchiveWriter.FORMAT archiveFormat = BagArchiveWriter.FORMAT.ZIP;
+
+  @Parameter(names = {"-t", "--threads"}, description = "Number of payload files copied and hashed concurrently.", required = false)
+  public int threads = 1;
+
+  @Parameter(names = {"--placement"}, description = "Mode used to place payload files into the bag. COPY copies and hashes each file in a single pass, TRANSFER hashes the source file and copies it via the operating system afterwards. "
+          + "HARDLINK and SYMLINK hash the source file and create a hard or symbolic link to it, which requires repository archive and bag to share the same file system.", required = false)
+  public BagBuilder.PAYLOAD_PLACEMENT placement = BagBuilder.PAYLOAD_PLACEMENT.COPY;
+
+  @Parameter(names = {"--placementFallback"}, description = "Mode used to place a payload file if creating a link according to --placement fails, e.g. SYMLINK or COPY. By default, the export fails in that case.", required = false)
+  public BagBuilder.PAYLOAD_PLACEMENT placementFallback = null;
+
+  @Parameter(names = {"--checksumThreads"}, description = "Number of threads used to create the checksums of each file concurrently. By default, the number of available processors is used.", required = false)
+  public int checksumThreads = ChecksumEngine.DEFAULT_THREADS;
+
+  @Parameter(names = {"--checksumBufferSize"}, description = "Size of the read buffer in bytes used while creating checksums.", required = false)
+  public int checksumBufferSize = ChecksumEngine.DEFAULT_BUFFER_SIZE;
+
+  @Parameter(names = {"--checksumFileAccess"}, description = "Mode used to read local files while creating checksums. STREAM reads via heap buffers, DIRECT reads into reused direct buffers of --checksumBufferSize "
+          + "and MAPPED maps each file into memory in windows of --checksumWindowSize. Remote files are always read as stream.", required = false)
+  public ChecksumEngine.FILE_ACCESS checksumFileAccess = ChecksumEngine.DEFAULT_FILE_ACCESS;
+
+  @Parameter(names = {"--checksumWindowSize"}, description = "Size in bytes of each memory-mapped window used with --checksumFileAccess MAPPED.", required = false)
+  public int checksumWindowSize = ChecksumEngine.DEFAULT_WINDOW_SIZE;
+
+  @Parameter(names = {"--probeThreads"}, description = "Number of remote files probed concurrently for length and advertised checksums. Remote files without advertised checksums are downloaded and hashed using the same threads.", required = false)
+  public int probeThreads = FetchItemProber.DEFAULT_THREADS;
+
+  @Parameter(names = {"--probeThreadsPerHost"}, description = "Number of remote files probed concurrently on the same host.", required = false)
+  public int probeThreadsPerHost = FetchItemProber.DEFAULT_THREADS_PER_HOST;
+
+  @Parameter(names = {"--trustEtagMd5"}, description = "Take strong ETags of 32 hex characters advertised for remote files as MD5 checksums instead of downloading the files. Only use this option if all servers use the MD5 checksum as ETag, otherwise the created bag is invalid.", required = false)
+  public boolean trustEtagMd5 = false;
+
+  @Parameter(names = {"--streamingMets"}, description = "Write the METS document while walking the data organization and hand each payload file to the bag immediately, instead of building the entire document in memory. Recommended for objects with very many files.", required = false)
+  public boolean streamingMets = false;
+
+  @Parameter(names = {"--manifestMemoryBudget"}, description = "Memory in MiB the payload manifests may allocate outside of the Java heap. Beyond this budget or half of the max. direct memory of the JVM (-XX:MaxDirectMemorySize), manifest entries are stored in a temporary file.", required = false)
+  public long manifestMemoryBudget = BagBuilder.DEFAULT_MANIFEST_MEMORY_BUDGET / (1024 * 1024);
+
+  @Parameter(names = {"--incremental"}, description = "Re-export into an existing bag at the destination. Payload files whose source is unchanged according to the checksum cache are taken over from the existing bag without reading the source. "
+          + "All other files are placed and hashed as usual. The existing bag is restored if the export fails. Not supported with --stream.", required = false)
+  public boolean incremental = false;
+
+  @Parameter(names = {"--cacheChecksums"}, description = "Look up the checksums of payload source files in the checksum cache before hashing them and store new checksums in the cache. "
+          + "Source files exported before, e.g. using another profile, are only hashed for algorithms not cached yet. Implied by --incremental.", required = false)
+  public boolean cacheChecksums = false;
+
+  @Parameter(names = {"--checksumCache"}, description = "File caching the checksums of payload source files, used with --cacheChecksums and --incremental.", required = false)
+  public String checksumCache = ChecksumCache.DEFAULT_CACHE_FILE.toString();
+
+  @Parameter(names = {"--checksumCacheSize"}, description = "Max. number of files in the checksum cache. If exceeded, the least recently used files are removed from the cache. Each cached file takes about 400 bytes of heap.", required = false)
+  public int checksumCacheSize = ChecksumCache.DEFAULT_MAX_ENTRIES;
+
+  @Parameter(names = {"--offline"}, description = "Only use BagIt profiles available in the local profile cache and never access the network for obtaining profiles.", required = false)
+  public boolean offline = false;
+
+  @Parameter(names = {"--profileCacheTtl"}, description = "Time in seconds a cached BagIt profile is used without revalidating it.", required = false)
+  public long profileCacheTtl = ProfileCache.DEFAULT_TTL;
+
+  @Parameter(names = {"--metrics"}, description = "File the timing and throughput metrics of all export phases are written to as JSON document at the end of the run.", required = false)
+  public String metrics = null;
+
+  @Parameter(names = {"--jmx"}, description = "Register the metrics of the running export as MXBean '" + Metrics.OBJECT_NAME + "' at the platform MBean server.", required = false)
+  public boolean jmx = false;
+
+  /**
+   * Default constructor.
+   *
+   * @param commandName The command name.
+   */
+  public AbstractExportCommand(String commandName){
+    super(commandName);
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.cl.command;
+
+import com.beust.jcommander.Parameter;
+import edu.kit.dama.interop.cl.client.IngestMonitor;
+import edu.kit.dama.interop.util.FetchEngine;
+import edu.kit.dama.interop.util.Metrics;
+import edu.kit.dama.interop.util.ProfileCache;
+import edu.kit.jcommander.generic.parameter.CommandLineParameters;
+
+/**
+ * Base class of all import commands holding the options shared by imports of
+ * single and multiple bags.
+ *
+ * @author jejkal
+ */
+public abstract class AbstractImportCommand extends CommandLineParameters{
+
+  @Parameter(names = {"-i", "--investigationId"}, description = "Parent investigation id the object will be assigned to.", required = true)
+  public String investigationId = null;
+  @Parameter(names = {"-u", "--userId"}, description = "The user id of the importing user.", required = true)
+  public String userId = null;
+  @Parameter(names = {"-g", "--groupId"}, description = "The group id the object will be associated with.", required = true)
+  public String groupId = null;
+  @Parameter(names = {"-o", "--allowOverwrite"}, description = "Allow overwriting the digital object identifier with a new (internally) unique identifier if an object with the same identifier already exists in the repository. This feature is intended to be used only for debugging.", required = false)
+  public boolean allowOverwrite = false;
+  @Parameter(names = {"--stream"}, description = "If the source is a zip, tar or tar.gz file, only tag files are extracted to a temporary location. Payload files and fetch items are written directly to the staging location and verified while being transferred.", required = false)
+  public boolean streamPayload = false;
+  @Parameter(names = {"--fetchThreads"}, description = "Max. number of fetch items downloaded concurrently.", required = false)
+  public int fetchThreads = FetchEngine.DEFAULT_THREADS;
+  @Parameter(names = {"--fetchThreadsPerHost"}, description = "Max. number of fetch items downloaded concurrently from the same host.", required = false)
+  public int fetchThreadsPerHost = FetchEngine.DEFAULT_THREADS_PER_HOST;
+  @Parameter(names = {"--fetchRetries"}, description = "Number of retries of a failed download. Partial downloads are resumed if supported by the server.", required = false)
+  public int fetchRetries = FetchEngine.DEFAULT_RETRIES;
+  @Parameter(names = {"--fetchTimeout"}, description = "Connect and read timeout in milliseconds used for downloading fetch items.", required = false)
+  public int fetchTimeout = FetchEngine.DEFAULT_TIMEOUT;
+  @Parameter(names = {"--offline"}, description = "Only use BagIt profiles available in the local profile cache and never access the network for obtaining profiles.", required = false)
+  public boolean offline = false;
+  @Parameter(names = {"--profileCacheTtl"}, description = "Time in seconds a cached BagIt profile is used without revalidating it.", required = false)
+  public long profileCacheTtl = ProfileCache.DEFAULT_TTL;
+  @Parameter(names = {"--ingestPollInitial"}, description = "Time in milliseconds until the ingest status is checked for the first time. Afterwards, the time between two checks is doubled up to --ingestPollMax.", required = false)
+  public long ingestPollInitial = IngestMonitor.DEFAULT_INITIAL_POLL_INTERVAL;
+  @Parameter(names = {"--ingestPollMax"}, description = "Max. time in milliseconds between two checks of the ingest status.", required = false)
+  public long ingestPollMax = IngestMonitor.DEFAULT_MAX_POLL_INTERVAL;
+  @Parameter(names = {"--ingestTimeout"}, description = "Time in seconds to wait for an ingest to finish. The ingest continues after the timeout, but the import is not completed. By default, there is no timeout.", required = false)
+  public long ingestTimeout = 0;
+  @Parameter(names = {"--noWait"}, description = "Return as soon as the bag is handed over to ingest and print the ingest id for later status checks. Views of the data organization of KIT Data Manager bags are not restored in that case.", required = false)
+  public boolean noWait = false;
+  @Parameter(names = {"--metrics"}, description = "File the timing and throughput metrics of all import phases are written to as JSON document at the end of the run.", required = false)
+  public String metrics = null;
+  @Parameter(names = {"--jmx"}, description = "Register the metrics of the running import as MXBean '" + Metrics.OBJECT_NAME + "' at the platform MBean server.", required = false)
+  public boolean jmx = false;
+
+  /**
+   * Default constructor.
+   *
+   * @param commandName The command name.
+   */
+  public AbstractImportCommand(String commandName){
+    super(commandName);
+  }
+}
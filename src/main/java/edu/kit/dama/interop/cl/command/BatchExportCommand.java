@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.cl.command;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import edu.kit.dama.interop.cl.client.BatchExportClient;
+import edu.kit.jcommander.generic.status.CommandStatus;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author jejkal
+ */
+@Parameters(commandNames = "batch-export", commandDescription = "Performs the export of multiple digital objects from a local repository within a single process.")
+public class BatchExportCommand extends AbstractExportCommand{
+
+  @Parameter(names = {"-i", "--objectIds"}, description = "Comma-separated list of digital object identifiers of the objects to export.", required = false)
+  public List<String> digitalObjectIds = new ArrayList<>();
+
+  @Parameter(names = {"--objectIdFile"}, description = "Text file containing one digital object identifier per line. Empty lines and lines starting with # are ignored.", required = false)
+  public String objectIdFile = null;
+
+  @Parameter(names = {"--investigationId"}, description = "Export all digital objects of the investigation with the provided id.", required = false)
+  public String investigationId = null;
+
+  @Parameter(names = {"-o", "--destination"}, description = "The destination folder. Each bag is stored in a sub folder named like the digital object identifier.", required = true)
+  public String destination = null;
+
+  @Parameter(names = {"--parallelObjects"}, description = "Number of digital objects exported concurrently.", required = false)
+  public int parallelObjects = 1;
+
+  @Parameter(names = {"--summary"}, description = "File the summary of all exported and failed objects is written to in JSON format. By default, the summary is written to export-summary.json in the destination folder.", required = false)
+  public String summaryFile = null;
+
+  /**
+   * Default constructor.
+   */
+  public BatchExportCommand(){
+    super("batch-export");
+  }
+
+  @Override
+  public CommandStatus executeCommand(){
+    return BatchExportClient.execute(this);
+  }
+}
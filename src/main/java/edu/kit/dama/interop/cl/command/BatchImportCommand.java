@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.cl.command;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import edu.kit.dama.interop.cl.client.BatchImportClient;
+import edu.kit.jcommander.generic.status.CommandStatus;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author jejkal
+ */
+@Parameters(commandNames = "batch-import", commandDescription = "Performs the import of multiple bags into digital objects in a local repository within a single process.")
+public class BatchImportCommand extends AbstractImportCommand{
+
+  @Parameter(names = {"-s", "--sources"}, description = "Comma-separated list of bags to import. Each element is either a bag folder, a zip, tar or tar.gz file containing a bag or a folder whose bag folders and bag files are imported.", required = true)
+  public List<String> sources = new ArrayList<>();
+  @Parameter(names = {"--parallelBags"}, description = "Number of bags extracted, fetched, validated and staged concurrently. Bags handed over to ingest do not occupy any of these slots.", required = false)
+  public int parallelBags = 2;
+  @Parameter(names = {"--summary"}, description = "File the summary of all imported and failed bags is written to in JSON format.", required = false)
+  public String summaryFile = "import-summary.json";
+
+  /**
+   * Default constructor.
+   */
+  public BatchImportCommand(){
+    super("batch-import");
+  }
+
+  @Override
+  public CommandStatus executeCommand(){
+    return BatchImportClient.execute(this);
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.cl.command;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import edu.kit.dama.interop.cl.client.CacheChecksumsClient;
+import edu.kit.dama.interop.util.BagBuilder;
+import edu.kit.dama.interop.util.ChecksumCache;
+import edu.kit.dama.interop.util.ChecksumEngine;
+import edu.kit.dama.interop.util.ProfileCache;
+import edu.kit.jcommander.generic.parameter.CommandLineParameters;
+import edu.kit.jcommander.generic.status.CommandStatus;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ * @author jejkal
+ */
+@Parameters(commandNames = "cache-checksums", commandDescription = "Creates the checksums of all files below one or more folders, e.g. the repository archive, and stores them in the checksum cache used by later exports.")
+public class CacheChecksumsCommand extends CommandLineParameters{
+
+  @Parameter(names = {"-s", "--source"}, description = "Comma-separated list of folders whose files are hashed.", required = true)
+  public List<String> sources = new ArrayList<>();
+
+  @Parameter(names = {"-p", "--profile"}, description = "Comma-separated list of URLs of the profiles later used for exporting. Checksums are created for all payload manifest algorithms required by any of the profiles.", required = false)
+  public List<String> profileUrls = new ArrayList<>(Collections.singletonList(BagBuilder.BAGIT_PROFILE_LOCATION));
+
+  @Parameter(names = {"--checksumCache"}, description = "File caching the checksums of payload source files.", required = false)
+  public String checksumCache = ChecksumCache.DEFAULT_CACHE_FILE.toString();
+
+  @Parameter(names = {"--checksumCacheSize"}, description = "Max. number of files in the checksum cache. If exceeded, the least recently used files are removed from the cache. Each cached file takes about 400 bytes of heap.", required = false)
+  public int checksumCacheSize = ChecksumCache.DEFAULT_MAX_ENTRIES;
+
+  @Parameter(names = {"--checksumThreads"}, description = "Number of threads used to create the checksums of each file concurrently. By default, the number of available processors is used.", required = false)
+  public int checksumThreads = ChecksumEngine.DEFAULT_THREADS;
+
+  @Parameter(names = {"--checksumBufferSize"}, description = "Size of the read buffer in bytes used while creating checksums.", required = false)
+  public int checksumBufferSize = ChecksumEngine.DEFAULT_BUFFER_SIZE;
+
+  @Parameter(names = {"--checksumFileAccess"}, description = "Mode used to read local files while creating checksums. STREAM reads via heap buffers, DIRECT reads into reused direct buffers of --checksumBufferSize "
+          + "and MAPPED maps each file into memory in windows of --checksumWindowSize. Remote files are always read as stream.", required = false)
+  public ChecksumEngine.FILE_ACCESS checksumFileAccess = ChecksumEngine.DEFAULT_FILE_ACCESS;
+
+  @Parameter(names = {"--checksumWindowSize"}, description = "Size in bytes of each memory-mapped window used with --checksumFileAccess MAPPED.", required = false)
+  public int checksumWindowSize = ChecksumEngine.DEFAULT_WINDOW_SIZE;
+
+  @Parameter(names = {"--offline"}, description = "Only use BagIt profiles available in the local profile cache and never access the network for obtaining profiles.", required = false)
+  public boolean offline = false;
+
+  @Parameter(names = {"--profileCacheTtl"}, description = "Time in seconds a cached BagIt profile is used without revalidating it.", required = false)
+  public long profileCacheTtl = ProfileCache.DEFAULT_TTL;
+
+  /**
+   * Default constructor.
+   */
+  public CacheChecksumsCommand(){
+    super("cache-checksums");
+  }
+
+  @Override
+  public CommandStatus executeCommand(){
+    return CacheChecksumsClient.execute(this);
+  }
+}
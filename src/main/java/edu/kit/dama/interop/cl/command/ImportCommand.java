@@ -18,7 +18,6 @@ package edu.kit.dama.interop.cl.command;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
 import edu.kit.dama.interop.cl.client.ImportClient;
-import edu.kit.jcommander.generic.parameter.CommandLineParameters;
 import edu.kit.jcommander.generic.status.CommandStatus;
 
 /**
@@ -26,18 +25,12 @@ import edu.kit.jcommander.generic.status.CommandStatus;
  * @author jejkal
  */
 @Parameters(commandNames = "import", commandDescription = "Performs the import of a bag into a digital object in a local repository.")
-public class ImportCommand extends CommandLineParameters{
+public class ImportCommand extends AbstractImportCommand{
 
-  @Parameter(names = {"-i", "--investigationId"}, description = "Parent investigation id the object will be assigned to.", required = true)
-  public String investigationId = null;
-  @Parameter(names = {"-u", "--userId"}, description = "The user id of the importing user.", required = true)
-  public String userId = null;
-  @Parameter(names = {"-g", "--groupId"}, description = "The group id the object will be associated with.", required = true)
-  public String groupId = null;
   @Parameter(names = {"-s", "--source"}, description = "The source folder or file containing the bag to import.", required = true)
   public String source = null;
-  @Parameter(names = {"-o", "--allowOverwrite"}, description = "Allow overwriting the digital object identifier with a new (internally) unique identifier if an object with the same identifier already exists in the repository. This feature is intended to be used only for debugging.", required = false)
-  public boolean allowOverwrite = false;
+  @Parameter(names = {"--verificationReport"}, description = "Optional file the verification report is written to. Each line contains the place a file was verified at, which is DOWNLOAD, TRANSFER or DISK, and the file path relative to the bag root. If a bag without fetch items is not imported via --stream, its payload is only checked against the Payload-Oxum and is not listed.", required = false)
+  public String verificationReport = null;
 
   /**
    * Default constructor.
@@ -34,6 +34,20 @@ public class ListCommand extends CommandLineParameters{
   public String userId = null;
   @Parameter(names = {"-g", "--groupId"}, description = "The group id used for access.", required = true)
   public String groupId = null;
+  @Parameter(names = {"--summary"}, description = "Only print the number and the total size of all files of each object instead of the file tree.", required = false)
+  public boolean summaryOnly = false;
+  @Parameter(names = {"--pageSize"}, description = "Number of objects read from the database at once.", required = false)
+  public int pageSize = ListClient.DEFAULT_PAGE_SIZE;
+  @Parameter(names = {"--format"}, description = "Output format, which is one of TEXT, JSONL or CSV. JSONL and CSV contain one object per line and file counts and sizes if --summary is provided.", required = false)
+  public ListClient.OUTPUT_FORMAT format = ListClient.OUTPUT_FORMAT.TEXT;
+  @Parameter(names = {"--output"}, description = "File JSONL or CSV output is written to. By default, the output is written to STDOUT. Not supported for format TEXT.", required = false)
+  public String output = null;
+  @Parameter(names = {"--labelPattern"}, description = "Only list objects whose label matches the provided pattern, where % matches any number of characters and _ matches a single character.", required = false)
+  public String labelPattern = null;
+  @Parameter(names = {"--uploadedFrom"}, description = "Only list objects uploaded at or after the provided day in format yyyy-MM-dd.", required = false)
+  public String uploadedFrom = null;
+  @Parameter(names = {"--uploadedUntil"}, description = "Only list objects uploaded at or before the provided day in format yyyy-MM-dd.", required = false)
+  public String uploadedUntil = null;
 
   /**
    * Default constructor.
@@ -17,6 +17,7 @@ package edu.kit.dama.interop.impl;
 
 import edu.kit.dama.interop.util.AnsiUtil;
 import edu.kit.dama.interop.util.BagBuilder;
+import edu.kit.dama.interop.util.Metrics;
 import edu.kit.dama.mdm.base.DigitalObject;
 import gov.loc.repository.bagit.domain.Bag;
 import java.io.IOException;
@@ -38,14 +39,25 @@ public abstract class AbstractTagFileCreator{
 
   public void createAndAddTagFile(DigitalObject theObject, BagBuilder theBagBuilder) throws Exception{
     AnsiUtil.printInfo(MESSAGES.getString("creating_metadata"), getMetadataType());
-    Path tagFile = createTagFile(theObject, theBagBuilder);
+    Path tagFile;
+    if(isCreationTimed()){
+      tagFile = createTagFile(theObject, theBagBuilder);
+    } else{
+      try(Metrics.Timer timer = startCreationTimer()){
+        tagFile = createTagFile(theObject, theBagBuilder);
+        timer.addBytes(Files.size(tagFile));
+      }
+    }
     AnsiUtil.printInfo(MESSAGES.getString("adding_tag_file"), tagFile.toString());
     theBagBuilder.addTagfile(tagFile.toUri());
   }
 
   public DigitalObject parseObjectFromTagFile(Path tagFile, Bag theBag) throws Exception{
     AnsiUtil.printInfo(MESSAGES.getString("reading_digital_object_from_tag_file"), tagFile.toString());
-    return createDigitalObject(tagFile, theBag);
+    try(Metrics.Timer timer = Metrics.getInstance().start("metadata.parse." + getMetadataType())){
+      timer.addBytes(Files.size(tagFile));
+      return createDigitalObject(tagFile, theBag);
+    }
   }
 
   abstract Path createTagFile(DigitalObject theObject, BagBuilder theBag) throws Exception;
@@ -54,6 +66,27 @@ public abstract class AbstractTagFileCreator{
 
   abstract String getMetadataType();
 
+  /**
+   * Check whether createTagFile() records the time of creating the tag file
+   * itself, e.g. because adding payload files or fetch items is part of it
+   * and is recorded as separate phase.
+   *
+   * @return TRUE if the creator records the time itself.
+   */
+  boolean isCreationTimed(){
+    return false;
+  }
+
+  /**
+   * Start measuring the creation of the tag file as phase
+   * 'metadata.create.&lt;type&gt;'.
+   *
+   * @return The timer.
+   */
+  Metrics.Timer startCreationTimer(){
+    return Metrics.getInstance().start("metadata.create." + getMetadataType());
+  }
+
   public String normalizePath(Path path){
     return FilenameUtils.normalize(path.toAbsolutePath().toString());
   }
@@ -16,13 +16,15 @@
 package edu.kit.dama.interop.impl;
 
 import edu.kit.dama.interop.util.BagBuilder;
+import edu.kit.dama.interop.util.JaxbContextRegistry;
 import edu.kit.dama.mdm.base.DigitalObject;
 import gov.loc.repository.bagit.domain.Bag;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import org.eclipse.persistence.jaxb.MarshallerProperties;
 
 /**
@@ -42,18 +44,23 @@ public class BMDTagFileCreator extends AbstractTagFileCreator{
 
   @Override
   Path createTagFile(DigitalObject theObject, BagBuilder theBagBuilder) throws Exception{
-    Marshaller marshaller = org.eclipse.persistence.jaxb.JAXBContext.newInstance(DigitalObject.class).createMarshaller();
-    marshaller.setProperty(MarshallerProperties.OBJECT_GRAPH, "default");
     Path bmdOutputPath = Paths.get(getMetadataPath(theBagBuilder.getBag()).toString(), "bmd.xml");
-    marshaller.marshal(theObject, Files.newOutputStream(bmdOutputPath));
+    try(JaxbContextRegistry.PooledMarshaller marshaller = JaxbContextRegistry.acquireMarshaller(DigitalObject.class);
+            OutputStream out = Files.newOutputStream(bmdOutputPath)){
+      marshaller.get().setProperty(MarshallerProperties.OBJECT_GRAPH, "default");
+      marshaller.get().setProperty(Marshaller.JAXB_FRAGMENT, Boolean.FALSE);
+      marshaller.get().marshal(theObject, out);
+    }
     theBagBuilder.addTagfile(bmdOutputPath.toUri());
     return bmdOutputPath;
   }
 
   @Override
   DigitalObject createDigitalObject(Path tagFile, Bag theBag) throws Exception{
-    Unmarshaller unmarshaller = org.eclipse.persistence.jaxb.JAXBContext.newInstance(DigitalObject.class).createUnmarshaller();
-    return (DigitalObject) unmarshaller.unmarshal(Files.newInputStream(tagFile));
+    try(JaxbContextRegistry.PooledUnmarshaller unmarshaller = JaxbContextRegistry.acquireUnmarshaller(DigitalObject.class);
+            InputStream in = Files.newInputStream(tagFile)){
+      return (DigitalObject) unmarshaller.get().unmarshal(in);
+    }
   }
 
 }
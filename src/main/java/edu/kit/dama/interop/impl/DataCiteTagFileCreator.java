@@ -23,10 +23,12 @@ import edu.kit.dama.entities.dc40.User;
 import edu.kit.dama.interop.util.AnsiUtil;
 import edu.kit.dama.interop.util.BagBuilder;
 import edu.kit.dama.interop.util.DataCiteResourceHelper;
+import edu.kit.dama.interop.util.JaxbContextRegistry;
 import edu.kit.dama.mdm.base.DigitalObject;
 import edu.kit.dama.util.Constants;
 import edu.kit.dama.util.DCTransformationHelper;
 import gov.loc.repository.bagit.domain.Bag;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -38,7 +40,6 @@ import java.util.List;
 import java.util.ResourceBundle;
 import java.util.UUID;
 import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import org.apache.commons.io.FileUtils;
 import org.datacite.schema.kernel_4.Resource;
 
@@ -49,6 +50,12 @@ import org.datacite.schema.kernel_4.Resource;
 public class DataCiteTagFileCreator extends AbstractTagFileCreator{
 
   private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.impl.MessageBundle");
+  private static final NamespacePrefixMapper NAMESPACE_PREFIX_MAPPER = new NamespacePrefixMapper(){
+    @Override
+    public String getPreferredPrefix(String uri, String arg1, boolean arg2){
+      return "";//return uri.equals("http://datacite.org/schema/kernel-4") ? "" : "";
+    }
+  };
 
   private final String creatorId;
 
@@ -96,25 +103,25 @@ public class DataCiteTagFileCreator extends AbstractTagFileCreator{
     dataResource.getSize().add(FileUtils.byteCountToDisplaySize(theBagBuilder.getPayloadSize()));
 
     Resource dcResource = DCTransformationHelper.toDataCite(dataResource);
-    Marshaller marshaller = org.eclipse.persistence.jaxb.JAXBContext.newInstance(Resource.class).createMarshaller();
-    marshaller.setProperty(javax.xml.bind.Marshaller.JAXB_ENCODING, "UTF-8");
-    marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-    marshaller.setProperty("com.sun.xml.bind.namespacePrefixMapper", new NamespacePrefixMapper(){
-      @Override
-      public String getPreferredPrefix(String uri, String arg1, boolean arg2){
-        return "";//return uri.equals("http://datacite.org/schema/kernel-4") ? "" : "";
-      }
-    });
-    marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
     Path dataciteOutputPath = Paths.get(getMetadataPath(theBagBuilder.getBag()).toString(), "datacite.xml");
-    marshaller.marshal(dcResource, Files.newOutputStream(dataciteOutputPath));
+    try(JaxbContextRegistry.PooledMarshaller pooled = JaxbContextRegistry.acquireMarshaller(Resource.class);
+            OutputStream out = Files.newOutputStream(dataciteOutputPath)){
+      Marshaller marshaller = pooled.get();
+      marshaller.setProperty(javax.xml.bind.Marshaller.JAXB_ENCODING, "UTF-8");
+      marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+      marshaller.setProperty("com.sun.xml.bind.namespacePrefixMapper", NAMESPACE_PREFIX_MAPPER);
+      marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+      marshaller.marshal(dcResource, out);
+    }
     return dataciteOutputPath;
   }
 
   @Override
   DigitalObject createDigitalObject(Path tagFile, Bag theBag) throws Exception{
-    Unmarshaller unmarshaller = org.eclipse.persistence.jaxb.JAXBContext.newInstance(Resource.class).createUnmarshaller();
-    Resource resource = (Resource) unmarshaller.unmarshal(tagFile.toFile());
+    Resource resource;
+    try(JaxbContextRegistry.PooledUnmarshaller unmarshaller = JaxbContextRegistry.acquireUnmarshaller(Resource.class)){
+      resource = (Resource) unmarshaller.get().unmarshal(tagFile.toFile());
+    }
 
     String identifier = DataCiteResourceHelper.getIdentifier(resource);
     if(identifier == null){
@@ -155,4 +162,5 @@ public class DataCiteTagFileCreator extends AbstractTagFileCreator{
     //object.setUploader(UserData.WORLD_USER);
     return object;
   }
+
 }
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.impl;
+
+import edu.kit.dama.interop.util.JaxbContextRegistry;
+import edu.kit.dama.mdm.base.DigitalObject;
+import edu.kit.dama.mdm.base.UserData;
+import edu.kit.dama.mdm.content.util.DublinCoreHelper;
+import edu.kit.dama.mdm.dataorganization.entity.core.ICollectionNode;
+import edu.kit.dama.mdm.dataorganization.entity.core.IDataOrganizationNode;
+import edu.kit.dama.mdm.dataorganization.entity.core.IFileNode;
+import edu.kit.dama.mdm.dataorganization.entity.core.IFileTree;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stax.StAXResult;
+import org.eclipse.persistence.jaxb.MarshallerProperties;
+
+/**
+ * Writer creating a METS document via StAX while walking the data
+ * organization trees of a digital object. In contrast to the MetsBuilder, no
+ * document is kept in memory. Each file node is written to the file section as
+ * soon as it is visited and its location is obtained from a callback, which
+ * may hand the file directly to the bag. The structural map is written in a
+ * second walk of the same trees, assigning the same file identifiers.
+ *
+ * @author jejkal
+ */
+class METSStreamWriter implements AutoCloseable{
+
+  private static final String METS_NAMESPACE = "http://www.loc.gov/METS/";
+  private static final String XLINK_NAMESPACE = "http://www.w3.org/1999/xlink";
+
+  /**
+   * Callback providing the location of a file node written to the file
+   * section.
+   */
+  interface FileLocator{
+
+    /**
+     * Get the location of the provided file node.
+     *
+     * @param node The file node.
+     * @param viewName The name of the view the node belongs to.
+     * @param path The path of the node relative to the tree root.
+     *
+     * @return The location written to the METS document.
+     *
+     * @throws Exception If the file cannot be handled.
+     */
+    String locate(IFileNode node, String viewName, String path) throws Exception;
+  }
+
+  private final OutputStream out;
+  private final XMLStreamWriter writer;
+
+  /**
+   * Create a new writer and start the METS document.
+   *
+   * @param out The stream the document is written to, which is closed
+   * together with this writer.
+   *
+   * @throws XMLStreamException If the document cannot be started.
+   */
+  METSStreamWriter(OutputStream out) throws XMLStreamException{
+    this.out = new BufferedOutputStream(out);
+    writer = XMLOutputFactory.newInstance().createXMLStreamWriter(this.out, "UTF-8");
+    writer.writeStartDocument("UTF-8", "1.0");
+    writer.setPrefix("mets", METS_NAMESPACE);
+    writer.setPrefix("xlink", XLINK_NAMESPACE);
+  }
+
+  /**
+   * Write the METS root element, the header and the descriptive and
+   * administrative sections containing DublinCore and base metadata of the
+   * provided object.
+   *
+   * @param object The digital object.
+   *
+   * @throws Exception If writing fails.
+   */
+  void writeHeader(DigitalObject object) throws Exception{
+    writer.writeStartElement(METS_NAMESPACE, "mets");
+    writer.writeNamespace("mets", METS_NAMESPACE);
+    writer.writeNamespace("xlink", XLINK_NAMESPACE);
+    writer.writeAttribute("OBJID", object.getDigitalObjectIdentifier());
+    if(object.getLabel() != null){
+      writer.writeAttribute("LABEL", object.getLabel());
+    }
+
+    writer.writeStartElement(METS_NAMESPACE, "metsHdr");
+    writer.writeAttribute("CREATEDATE", Instant.now().toString());
+    writer.writeEndElement();
+
+    //DublinCore metadata
+    writer.writeStartElement(METS_NAMESPACE, "dmdSec");
+    writer.writeAttribute("ID", "DUBLIN-CORE");
+    startMetadataWrap("DC", null);
+    TransformerFactory.newInstance().newTransformer().transform(new DOMSource(DublinCoreHelper.createDublinCoreDocument(object, UserData.WORLD_USER).getDocumentElement()), new StAXResult(writer));
+    endMetadataWrap();
+    writer.writeEndElement();
+
+    //base metadata
+    writer.writeStartElement(METS_NAMESPACE, "amdSec");
+    writer.writeAttribute("ID", "KIT-DM-AMD");
+    writer.writeStartElement(METS_NAMESPACE, "techMD");
+    writer.writeAttribute("ID", "KIT-DM-BASEMETADATA");
+    startMetadataWrap("OTHER", "KIT-DM-BASEMETADATA");
+    try(JaxbContextRegistry.PooledMarshaller pooled = JaxbContextRegistry.acquireMarshaller(DigitalObject.class)){
+      Marshaller marshaller = pooled.get();
+      marshaller.setProperty(MarshallerProperties.OBJECT_GRAPH, "default");
+      marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+      marshaller.marshal(object, writer);
+    }
+    endMetadataWrap();
+    writer.writeEndElement();
+    writer.writeEndElement();
+  }
+
+  /**
+   * Write the file section containing one file group per view. The location
+   * of each file is obtained from the provided locator while the trees are
+   * walked.
+   *
+   * @param views Map of view name and file tree in the order of the file
+   * groups.
+   * @param locator The locator providing the location of each file.
+   *
+   * @throws Exception If writing fails or if the locator fails.
+   */
+  void writeFileSection(Map<String, IFileTree> views, FileLocator locator) throws Exception{
+    writer.writeStartElement(METS_NAMESPACE, "fileSec");
+    int viewIndex = 0;
+    for(Map.Entry<String, IFileTree> view : views.entrySet()){
+      final String viewName = view.getKey();
+      final String idPrefix = "FILE-" + viewIndex + "-";
+      writer.writeStartElement(METS_NAMESPACE, "fileGrp");
+      writer.writeAttribute("ID", "FILE-GROUP-" + viewIndex);
+      writer.writeAttribute("USE", viewName);
+      walk(view.getValue(), new TreeVisitor(){
+        private long fileIndex = 0;
+
+        @Override
+        public void visitFile(IFileNode node, String path) throws Exception{
+          String location = locator.locate(node, viewName, path);
+          writer.writeStartElement(METS_NAMESPACE, "file");
+          writer.writeAttribute("ID", idPrefix + fileIndex++);
+          writer.writeEmptyElement(METS_NAMESPACE, "FLocat");
+          writer.writeAttribute("LOCTYPE", "URL");
+          writer.writeAttribute(XLINK_NAMESPACE, "href", location);
+          writer.writeEndElement();
+        }
+      });
+      writer.writeEndElement();
+      writer.flush();
+      viewIndex++;
+    }
+    writer.writeEndElement();
+  }
+
+  /**
+   * Write one structural map per view, in which collection and file nodes
+   * are represented by nested divisions pointing to the file section.
+   *
+   * @param views Map of view name and file tree in the same order as used
+   * for writing the file section.
+   *
+   * @throws Exception If writing fails.
+   */
+  void writeStructMaps(Map<String, IFileTree> views) throws Exception{
+    int viewIndex = 0;
+    for(Map.Entry<String, IFileTree> view : views.entrySet()){
+      final String viewName = view.getKey();
+      final String idPrefix = "FILE-" + viewIndex + "-";
+      writer.writeStartElement(METS_NAMESPACE, "structMap");
+      writer.writeAttribute("TYPE", "LOGICAL");
+      writer.writeAttribute("LABEL", viewName);
+      walk(view.getValue(), new TreeVisitor(){
+        private long fileIndex = 0;
+
+        @Override
+        public void enterCollection(ICollectionNode node, String path) throws Exception{
+          writer.writeStartElement(METS_NAMESPACE, "div");
+          writer.writeAttribute("TYPE", "collection");
+          writer.writeAttribute("LABEL", (path == null) ? viewName : node.getName());
+        }
+
+        @Override
+        public void leaveCollection(ICollectionNode node) throws Exception{
+          writer.writeEndElement();
+        }
+
+        @Override
+        public void visitFile(IFileNode node, String path) throws Exception{
+          writer.writeStartElement(METS_NAMESPACE, "div");
+          writer.writeAttribute("TYPE", "file");
+          writer.writeAttribute("LABEL", node.getName());
+          writer.writeEmptyElement(METS_NAMESPACE, "fptr");
+          writer.writeAttribute("FILEID", idPrefix + fileIndex++);
+          writer.writeEndElement();
+        }
+      });
+      writer.writeEndElement();
+      writer.flush();
+      viewIndex++;
+    }
+  }
+
+  /**
+   * Finish the document and close the underlying stream.
+   *
+   * @throws IOException If closing fails.
+   */
+  @Override
+  public void close() throws IOException{
+    try{
+      writer.writeEndDocument();
+      writer.close();
+    } catch(XMLStreamException ex){
+      throw new IOException(ex.getMessage(), ex);
+    } finally{
+      out.close();
+    }
+  }
+
+  private void startMetadataWrap(String type, String otherType) throws XMLStreamException{
+    writer.writeStartElement(METS_NAMESPACE, "mdWrap");
+    writer.writeAttribute("MDTYPE", type);
+    if(otherType != null){
+      writer.writeAttribute("OTHERMDTYPE", otherType);
+    }
+    writer.writeStartElement(METS_NAMESPACE, "xmlData");
+  }
+
+  private void endMetadataWrap() throws XMLStreamException{
+    writer.writeEndElement();
+    writer.writeEndElement();
+  }
+
+  /**
+   * Walk the provided tree in depth-first order without recursion, so that
+   * deep trees do not exhaust the stack. Children are visited in their
+   * original order.
+   *
+   * @param tree The tree.
+   * @param visitor The visitor called for each node.
+   *
+   * @throws Exception If the visitor fails.
+   */
+  private static void walk(IFileTree tree, TreeVisitor visitor) throws Exception{
+    Deque<Step> steps = new ArrayDeque<>();
+    steps.push(new Step(tree.getRootNode(), null, false));
+    while(!steps.isEmpty()){
+      Step step = steps.pop();
+      if(step.node instanceof ICollectionNode){
+        ICollectionNode collection = (ICollectionNode) step.node;
+        if(step.leave){
+          visitor.leaveCollection(collection);
+          continue;
+        }
+        visitor.enterCollection(collection, step.path);
+        steps.push(new Step(collection, step.path, true));
+        String prefix = (step.path == null) ? "" : step.path + "/";
+        List<? extends IDataOrganizationNode> children = collection.getChildren();
+        for(int i = children.size() - 1; i >= 0; i--){
+          IDataOrganizationNode child = children.get(i);
+          steps.push(new Step(child, prefix + child.getName(), false));
+        }
+      } else if(step.node instanceof IFileNode){
+        visitor.visitFile((IFileNode) step.node, step.path);
+      }
+    }
+  }
+
+  /**
+   * Visitor of the nodes of a tree.
+   */
+  private interface TreeVisitor{
+
+    default void enterCollection(ICollectionNode node, String path) throws Exception{
+    }
+
+    default void leaveCollection(ICollectionNode node) throws Exception{
+    }
+
+    void visitFile(IFileNode node, String path) throws Exception;
+  }
+
+  /**
+   * Single step of walking a tree, which is either visiting a node or leaving
+   * a collection node.
+   */
+  private static final class Step{
+
+    private final IDataOrganizationNode node;
+    private final String path;
+    private final boolean leave;
+
+    Step(IDataOrganizationNode node, String path, boolean leave){
+      this.node = node;
+      this.path = path;
+      this.leave = leave;
+    }
+  }
+}
@@ -18,30 +18,37 @@ package edu.kit.dama.interop.impl;
 import edu.kit.dama.commons.types.DigitalObjectId;
 import edu.kit.dama.interop.util.AnsiUtil;
 import edu.kit.dama.interop.util.BagBuilder;
+import edu.kit.dama.interop.util.FetchItemProber;
+import edu.kit.dama.interop.util.Metrics;
+import edu.kit.dama.interop.util.PayloadPipeline;
+import edu.kit.dama.interop.util.RepositoryServices;
 import edu.kit.dama.mdm.base.DigitalObject;
 import edu.kit.dama.mdm.base.UserData;
 import edu.kit.dama.mdm.content.mets.util.MetsBuilder;
+import edu.kit.dama.mdm.dataorganization.entity.core.IAttribute;
 import edu.kit.dama.mdm.dataorganization.entity.core.ICollectionNode;
 import edu.kit.dama.mdm.dataorganization.entity.core.IDataOrganizationNode;
 import edu.kit.dama.mdm.dataorganization.entity.core.IFileNode;
 import edu.kit.dama.mdm.dataorganization.entity.core.IFileTree;
 import edu.kit.dama.mdm.dataorganization.service.core.DataOrganizer;
-import edu.kit.dama.mdm.dataorganization.service.core.DataOrganizerFactory;
 import gov.loc.repository.bagit.domain.Bag;
-import gov.loc.repository.bagit.domain.FetchItem;
+import java.io.OutputStream;
 import java.net.URI;
-import java.net.URL;
-import java.net.URLConnection;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
@@ -51,8 +58,90 @@ public class METSTagFileCreator extends AbstractTagFileCreator{
 
   private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.impl.MessageBundle");
 
+  private final int concurrency;
+  private int probeThreads = FetchItemProber.DEFAULT_THREADS;
+  private int probeThreadsPerHost = FetchItemProber.DEFAULT_THREADS_PER_HOST;
+  private boolean trustEtagMd5 = false;
+  private boolean streaming = false;
+  private Object repositoryLock = new Object();
+
+  METSTagFileCreator(int concurrency){
+    this.concurrency = concurrency;
+  }
+
   public static METSTagFileCreator createInstance(){
-    return new METSTagFileCreator();
+    return new METSTagFileCreator(1);
+  }
+
+  /**
+   * Create a new instance adding payload files concurrently.
+   *
+   * @param concurrency The number of payload files copied and hashed at the
+   * same time.
+   *
+   * @return The new instance.
+   */
+  public static METSTagFileCreator createInstance(int concurrency){
+    return new METSTagFileCreator(concurrency);
+  }
+
+  /**
+   * Set the number of remote files probed concurrently while creating fetch
+   * items.
+   *
+   * @param threads The max. number of concurrent requests.
+   * @param threadsPerHost The max. number of concurrent requests to the same
+   * host.
+   *
+   * @return This METSTagFileCreator instance.
+   */
+  public METSTagFileCreator setProbeThreads(int threads, int threadsPerHost){
+    this.probeThreads = threads;
+    this.probeThreadsPerHost = threadsPerHost;
+    return this;
+  }
+
+  /**
+   * Enable or disable taking strong ETags of 32 hex characters advertised for
+   * remote files as MD5 checksums instead of downloading the files.
+   *
+   * @param trustEtagMd5 TRUE to take such ETags as MD5 checksums.
+   *
+   * @return This METSTagFileCreator instance.
+   */
+  public METSTagFileCreator setTrustEtagMd5(boolean trustEtagMd5){
+    this.trustEtagMd5 = trustEtagMd5;
+    return this;
+  }
+
+  /**
+   * Enable or disable streaming METS creation. If enabled, the METS document
+   * is written while the file trees are walked and payload files and fetch
+   * items are handed to the bag as soon as they are visited, instead of
+   * building the entire document in memory.
+   *
+   * @param streaming TRUE to enable streaming METS creation.
+   *
+   * @return This METSTagFileCreator instance.
+   */
+  public METSTagFileCreator setStreaming(boolean streaming){
+    this.streaming = streaming;
+    return this;
+  }
+
+  /**
+   * Set the lock held while the object metadata and the data organization are
+   * read, which is required if the object is managed by a metadata manager
+   * shared by concurrent exports. Payload files are added without holding the
+   * lock.
+   *
+   * @param lock The lock object, e.g. the shared metadata manager.
+   *
+   * @return This METSTagFileCreator instance.
+   */
+  public METSTagFileCreator setRepositoryLock(Object lock){
+    this.repositoryLock = lock;
+    return this;
   }
 
   @Override
@@ -60,106 +149,276 @@ public class METSTagFileCreator extends AbstractTagFileCreator{
     return "METS";
   }
 
+  @Override
+  boolean isCreationTimed(){
+    //only the document is measured as metadata creation, payload and fetch items are separate phases
+    return true;
+  }
+
   @Override
   Path createTagFile(DigitalObject theObject, BagBuilder theBagBuilder) throws Exception{
+    if(streaming){
+      return createTagFileStreaming(theObject, theBagBuilder);
+    }
     final List<PayloadElement> payloadElements = new ArrayList<>();
 
     final Map<String, URI> fetchMap = new HashMap<>();
-    MetsBuilder metsBuilder = MetsBuilder.init(theObject).
-            createBMDSection(true).
-            createDCSection(UserData.WORLD_USER).
-            createDOSection((t) -> {
-              if(t instanceof IFileNode){
-                String lfn = ((IFileNode) t).getLogicalFileName().getStringRepresentation();
-                URI fileUri = URI.create(lfn);
-                if("file".equals(fileUri.getScheme())){
-                  String baseUri = lfn.substring(0, lfn.indexOf("data") + 5);
-                  String dataLocation = t.getViewName() + "/" + lfn.substring(baseUri.length());
-                  payloadElements.add(new PayloadElement(lfn, baseUri, dataLocation));
-                  return "bag:///data/" + dataLocation;
-                } else{
-                  String dataLocation = t.getViewName() + "/" + t.getName();
-                  try{
-                    dataLocation = getNodePath(theObject.getDigitalObjectId(), fileUri.toURL().toString(), t.getViewName());
-                  } catch(Exception e){
-                    AnsiUtil.printError(MESSAGES.getString("failed_to_determine_data_location"), e, theObject.getDigitalObjectIdentifier(), t.getName(), t.getViewName());
+    final Map<String, Map<String, String>> knownChecksums = new HashMap<>();
+    final Set<String> digestNames = theBagBuilder.getRequiredPayloadManifestTypes();
+    final NodePathIndex nodePaths = new NodePathIndex(theObject.getDigitalObjectId());
+    final Path metsOutputPath = Paths.get(getMetadataPath(theBagBuilder.getBag()).toString(), "mets.xml");
+    //build and write the document while holding the lock, as relations of the object and the data organization are loaded meanwhile
+    try(Metrics.Timer timer = startCreationTimer()){
+      synchronized(repositoryLock){
+        MetsBuilder metsBuilder = MetsBuilder.init(theObject).
+                createBMDSection(true).
+                createDCSection(UserData.WORLD_USER).
+                createDOSection((t) -> {
+                  if(t instanceof IFileNode){
+                    String lfn = ((IFileNode) t).getLogicalFileName().getStringRepresentation();
+                    URI fileUri = URI.create(lfn);
+                    if("file".equals(fileUri.getScheme())){
+                      PayloadElement element = createPayloadElement(lfn, t.getViewName());
+                      payloadElements.add(element);
+                      return "bag:///data/" + element.getBagDataPath();
+                    } else{
+                      String dataLocation = t.getViewName() + "/" + t.getName();
+                      try{
+                        String nodePath = nodePaths.getPath(fileUri.toURL().toString(), t.getViewName());
+                        if(nodePath != null){
+                          dataLocation = nodePath;
+                        }
+                      } catch(Exception e){
+                        AnsiUtil.printError(MESSAGES.getString("failed_to_determine_data_location"), e, theObject.getDigitalObjectIdentifier(), t.getName(), t.getViewName());
+                      }
+                      fetchMap.put("data/" + dataLocation, fileUri);
+                      knownChecksums.put("data/" + dataLocation, getKnownChecksums(t, digestNames));
+                      return lfn;
+                    }
                   }
-                  fetchMap.put("data/" + dataLocation, fileUri);
-                  return lfn;
-                }
-              }
-              return null;
-            });
+                  return null;
+                });
 
-    Path metsOutputPath = Paths.get(getMetadataPath(theBagBuilder.getBag()).toString(), "mets.xml");
-    metsBuilder.write(Files.newOutputStream(metsOutputPath));
+        try(OutputStream out = Files.newOutputStream(metsOutputPath)){
+          metsBuilder.write(out);
+        }
+      }
+      timer.addBytes(Files.size(metsOutputPath));
+    }
 
     //Adding collected payload elements to bag
-    AnsiUtil.printInfo(MESSAGES.getString("adding_payload_elements"), Integer.toString(payloadElements.size()));
-    for(PayloadElement element : payloadElements){
-      AnsiUtil.printInfo(MESSAGES.getString("adding_payload_element"), element.getPayloadPath());
-
-      theBagBuilder = theBagBuilder.addPayload(Paths.get(URI.create(element.getBasePath())), URI.create(element.getPayloadPath()), element.getBagDataPath());
+    AnsiUtil.printInfo(MESSAGES.getString("adding_payload_elements"), Integer.toString(payloadElements.size()), Integer.toString(concurrency));
+    final long payloadSize = theBagBuilder.getPayloadSize();
+    try(Metrics.Timer timer = Metrics.getInstance().start("export.payload"); PayloadPipeline pipeline = new PayloadPipeline(theBagBuilder, concurrency)){
+      for(PayloadElement element : payloadElements){
+        AnsiUtil.printInfo(MESSAGES.getString("adding_payload_element"), element.getPayloadPath());
+        pipeline.submit(Paths.get(URI.create(element.getBasePath())), URI.create(element.getPayloadPath()), element.getBagDataPath());
+      }
+      pipeline.await();
+      timer.addBytes(theBagBuilder.getPayloadSize() - payloadSize);
     }
 
-    //adding created fetch elements to bag
+    //adding created fetch elements to bag, probing remote files concurrently
     Set<Map.Entry<String, URI>> fetchEntries = fetchMap.entrySet();
     AnsiUtil.printInfo(MESSAGES.getString("adding_fetch_items"), Integer.toString(fetchEntries.size()));
-    for(Map.Entry<String, URI> entry : fetchEntries){
-      URL fileUrl = entry.getValue().toURL();
-      AnsiUtil.printInfo(MESSAGES.getString("adding_fetch_item"), entry.getKey(), fileUrl.toString());
-      URLConnection connection = fileUrl.openConnection();
-      long contentLength = Long.parseLong(connection.getHeaderField("Content-Length"));
+    if(!fetchEntries.isEmpty()){
+      try(Metrics.Timer timer = Metrics.getInstance().start("export.fetch"); FetchItemProber prober = new FetchItemProber(theBagBuilder.getChecksumEngine(), digestNames, probeThreads, probeThreadsPerHost).setTrustEtagMd5(trustEtagMd5)){
+        for(Map.Entry<String, URI> entry : fetchEntries){
+          prober.submit(entry.getValue().toURL(), Paths.get(entry.getKey()), knownChecksums.get(entry.getKey()));
+        }
+        for(FetchItemProber.ProbeResult result : prober.await()){
+          AnsiUtil.printInfo(MESSAGES.getString("adding_fetch_item"), result.getItem().getPath().toString(), result.getItem().getUrl().toString());
+          theBagBuilder = theBagBuilder.addFetchItem(result.getItem(), result.getChecksums());
+        }
+      }
+    }
+    return metsOutputPath;
+  }
 
-      theBagBuilder = theBagBuilder.addFetchItem(new FetchItem(fileUrl, contentLength, Paths.get(entry.getKey())));
+  /**
+   * Create the METS document while walking the file trees of all views of
+   * the provided object. Payload files are submitted to the payload pipeline
+   * and remote files to the fetch item prober as soon as they are visited.
+   *
+   * @param theObject The digital object.
+   * @param theBagBuilder The bag builder.
+   *
+   * @return The path of the METS document.
+   *
+   * @throws Exception If creating the document or adding any file fails.
+   */
+  private Path createTagFileStreaming(DigitalObject theObject, BagBuilder theBagBuilder) throws Exception{
+    final AtomicLong payloadCount = new AtomicLong(0);
+    final AtomicLong fetchCount = new AtomicLong(0);
+    final Path metsOutputPath = Paths.get(getMetadataPath(theBagBuilder.getBag()).toString(), "mets.xml");
+    //the document is measured from loading the file trees until it is written
+    try(Metrics.Timer metsTimer = startCreationTimer()){
+      Map<String, IFileTree> views = new LinkedHashMap<>();
+      synchronized(repositoryLock){
+        DataOrganizer organizer = RepositoryServices.getDataOrganizer();
+        for(String viewName : organizer.getViews(theObject.getDigitalObjectId())){
+          views.put(viewName, organizer.loadFileTree(theObject.getDigitalObjectId(), viewName));
+        }
+      }
+
+      final Set<String> digestNames = theBagBuilder.getRequiredPayloadManifestTypes();
+      AnsiUtil.printInfo(MESSAGES.getString("streaming_mets"), Integer.toString(views.size()), Integer.toString(concurrency));
+      final long payloadSize = theBagBuilder.getPayloadSize();
+      //payload files are added while the document is written, so that both phases overlap
+      try(Metrics.Timer payloadTimer = Metrics.getInstance().start("export.payload");
+              PayloadPipeline pipeline = new PayloadPipeline(theBagBuilder, concurrency);
+              FetchItemProber prober = new FetchItemProber(theBagBuilder.getChecksumEngine(), digestNames, probeThreads, probeThreadsPerHost).setTrustEtagMd5(trustEtagMd5)){
+        try(METSStreamWriter writer = new METSStreamWriter(Files.newOutputStream(metsOutputPath))){
+          synchronized(repositoryLock){
+            writer.writeHeader(theObject);
+          }
+          writer.writeFileSection(views, (node, viewName, path) -> {
+            String lfn = node.getLogicalFileName().getStringRepresentation();
+            URI fileUri = URI.create(lfn);
+            if("file".equals(fileUri.getScheme())){
+              PayloadElement element = createPayloadElement(lfn, viewName);
+              AnsiUtil.printInfo(MESSAGES.getString("adding_payload_element"), element.getPayloadPath());
+              pipeline.submit(Paths.get(URI.create(element.getBasePath())), URI.create(element.getPayloadPath()), element.getBagDataPath());
+              payloadCount.incrementAndGet();
+              return "bag:///data/" + element.getBagDataPath();
+            }
+            prober.submit(fileUri.toURL(), Paths.get("data", viewName, path), getKnownChecksums(node, digestNames));
+            fetchCount.incrementAndGet();
+            return lfn;
+          });
+          writer.writeStructMaps(views);
+        }
+        views.clear();
+        metsTimer.addBytes(Files.size(metsOutputPath)).close();
+
+        pipeline.await();
+        payloadTimer.addBytes(theBagBuilder.getPayloadSize() - payloadSize).close();
+        AnsiUtil.printInfo(MESSAGES.getString("adding_fetch_items"), Long.toString(fetchCount.get()));
+        if(fetchCount.get() > 0){
+          //remote files are probed in the background as soon as they are visited, only the remaining time is measured
+          try(Metrics.Timer fetchTimer = Metrics.getInstance().start("export.fetch")){
+            for(FetchItemProber.ProbeResult result : prober.await()){
+              AnsiUtil.printInfo(MESSAGES.getString("adding_fetch_item"), result.getItem().getPath().toString(), result.getItem().getUrl().toString());
+              theBagBuilder = theBagBuilder.addFetchItem(result.getItem(), result.getChecksums());
+            }
+          }
+        }
+      }
     }
+    AnsiUtil.printInfo(MESSAGES.getString("mets_streamed"), Long.toString(payloadCount.get()), Long.toString(fetchCount.get()));
     return metsOutputPath;
   }
 
+  /**
+   * Create the payload element of a local file. The location inside the bag
+   * is the path of the file below the data folder of the repository archive,
+   * prefixed by the view name.
+   *
+   * @param lfn The logical file name, which is a file URI.
+   * @param viewName The view name.
+   *
+   * @return The payload element.
+   */
+  private static PayloadElement createPayloadElement(String lfn, String viewName){
+    String baseUri = lfn.substring(0, lfn.indexOf("data") + 5);
+    String dataLocation = viewName + "/" + lfn.substring(baseUri.length());
+    return new PayloadElement(lfn, baseUri, dataLocation);
+  }
+
+  /**
+   * Get all checksums stored as attributes of the provided node, whose
+   * attribute key equals the message digest name of a required checksum,
+   * e.g. MD5 or SHA-256.
+   *
+   * @param node The file node.
+   * @param digestNames The message digest names of all required checksums.
+   *
+   * @return A map of message digest name and hex-encoded checksum.
+   */
+  private static Map<String, String> getKnownChecksums(IDataOrganizationNode node, Set<String> digestNames){
+    Map<String, String> checksums = new HashMap<>();
+    for(IAttribute attribute : node.getAttributes()){
+      for(String digestName : digestNames){
+        if(digestName.equalsIgnoreCase(attribute.getKey()) && attribute.getValue() != null){
+          checksums.put(digestName, attribute.getValue().toLowerCase(Locale.ENGLISH));
+        }
+      }
+    }
+    return checksums;
+  }
+
   @Override
   DigitalObject createDigitalObject(Path tagFile, Bag theBag) throws Exception{
     throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
   }
 
-  private String getNodePath(DigitalObjectId doi, String lfn, String viewName) throws Exception{
-    DataOrganizer organizer = DataOrganizerFactory.getInstance().getDataOrganizer();
-    IFileTree tree = organizer.loadFileTree(doi);
-    Stack<String> path = new Stack<>();
-    checkNode(tree.getRootNode(), lfn, path);
-    StringBuilder builder = new StringBuilder();
-    while(!path.isEmpty()){
-      String element = path.pop();
-      if(element == null){
-        //element is null, so it is the tree root...thus, use the bag data folder as root
-        element = viewName;
-      }
-      if(builder.length() != 0){
-        builder = builder.insert(0, element + "/");
-      } else{
-        builder = builder.append(element);
-      }
-    }
-    return builder.toString();
+}
+
+/**
+ * Index of the paths of all file nodes of a digital object by their logical
+ * file name. The file tree is loaded and walked only once, when the first path
+ * is requested, so that resolving the path of a file is independent of the
+ * number of files.
+ */
+class NodePathIndex{
+
+  private final DigitalObjectId objectId;
+  private Map<String, String> paths = null;
+
+  NodePathIndex(DigitalObjectId objectId){
+    this.objectId = objectId;
   }
 
-  private boolean checkNode(IDataOrganizationNode node, String lfn, Stack<String> path){
-    boolean result = false;
-    if(node instanceof ICollectionNode){
-      path.push(node.getName());
-      for(IDataOrganizationNode child : ((ICollectionNode) node).getChildren()){
-        result = checkNode(child, lfn, path);
+  /**
+   * Get the path of the file node with the provided logical file name. The
+   * path starts with the provided view name followed by the names of all
+   * collection nodes below the tree root and the name of the file node.
+   *
+   * @param lfn The logical file name.
+   * @param viewName The view name used as first path element.
+   *
+   * @return The path or null if no file node has the provided logical file
+   * name.
+   *
+   * @throws Exception If the file tree could not be loaded on first access.
+   */
+  String getPath(String lfn, String viewName) throws Exception{
+    if(paths == null){
+      //never retry loading the tree for each file, failures are reported only once
+      paths = new HashMap<>();
+      paths = index(RepositoryServices.getDataOrganizer().loadFileTree(objectId));
+    }
+    String path = paths.get(lfn);
+    return (path != null) ? viewName + "/" + path : null;
+  }
 
-        if(result){
-          break;
+  /**
+   * Walk the provided tree once and collect the paths of all file nodes
+   * relative to the tree root. If multiple file nodes share a logical file
+   * name, the first one in depth-first order is kept.
+   *
+   * @param tree The file tree.
+   *
+   * @return A map of logical file names and relative paths.
+   */
+  private static Map<String, String> index(IFileTree tree){
+    Map<String, String> result = new HashMap<>();
+    Deque<Map.Entry<String, IDataOrganizationNode>> nodes = new ArrayDeque<>();
+    nodes.push(new AbstractMap.SimpleImmutableEntry<>(null, tree.getRootNode()));
+    while(!nodes.isEmpty()){
+      Map.Entry<String, IDataOrganizationNode> entry = nodes.pop();
+      IDataOrganizationNode node = entry.getValue();
+      if(node instanceof ICollectionNode){
+        //the root has no path, its children are located directly in the view folder
+        String prefix = (entry.getKey() == null) ? "" : entry.getKey() + "/";
+        List<? extends IDataOrganizationNode> children = ((ICollectionNode) node).getChildren();
+        //push in reverse order to visit children in their original order
+        for(int i = children.size() - 1; i >= 0; i--){
+          IDataOrganizationNode child = children.get(i);
+          nodes.push(new AbstractMap.SimpleImmutableEntry<>(prefix + child.getName(), child));
         }
-      }
-      if(!result){
-        path.pop();
-      }
-    } else if(node instanceof IFileNode){
-      if(((IFileNode) node).getLogicalFileName().getStringRepresentation().equals(lfn)){
-        path.push(node.getName());
-        result = true;
+      } else if(node instanceof IFileNode){
+        result.putIfAbsent(((IFileNode) node).getLogicalFileName().getStringRepresentation(), entry.getKey());
       }
     }
     return result;
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.ResourceBundle;
+import java.util.function.Predicate;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+/**
+ * Reader for bags serialized into a single archive file as written by
+ * {@link BagArchiveWriter} or by zipping the bag root directory. All entries
+ * are expected to be located below a single folder named like the bag. Tag
+ * files and payload files can be read separately, which allows to extract only
+ * the small tag files to a temporary location and to stream the payload
+ * directly to its final location afterwards. For zip archives, only the
+ * selected entries are read, for tar archives all other entries are skipped
+ * while reading the archive sequentially.
+ *
+ * @author jejkal
+ */
+public class BagArchiveReader{
+
+  private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.util.MessageBundle");
+
+  /**
+   * Handler for a single archive entry.
+   */
+  public interface EntryHandler{
+
+    /**
+     * Handle a single entry.
+     *
+     * @param relativePath The entry path relative to the bag root, using '/'
+     * as separator.
+     * @param stream The entry content, which must not be closed by the
+     * handler.
+     *
+     * @throws Exception If handling the entry fails.
+     */
+    void handle(String relativePath, InputStream stream) throws Exception;
+  }
+
+  private final Path archiveFile;
+  private final BagArchiveWriter.FORMAT format;
+  private String bagName = null;
+
+  /**
+   * Create a new reader. The archive format is obtained from the file
+   * extension.
+   *
+   * @param archiveFile The archive file.
+   *
+   * @throws IOException If the file extension does not match any supported
+   * format.
+   */
+  public BagArchiveReader(Path archiveFile) throws IOException{
+    this.archiveFile = archiveFile;
+    this.format = getFormat(archiveFile);
+    if(format == null){
+      throw new IOException(StringUtils.substitute(MESSAGES.getString("unsupported_archive_format"), archiveFile.toString()));
+    }
+  }
+
+  /**
+   * Get the archive format of the provided file according to its file
+   * extension.
+   *
+   * @param archiveFile The archive file.
+   *
+   * @return The format or null if the extension is not supported.
+   */
+  public static BagArchiveWriter.FORMAT getFormat(Path archiveFile){
+    final String fileName = archiveFile.getFileName().toString().toLowerCase();
+    if(fileName.endsWith(".tgz")){
+      return BagArchiveWriter.FORMAT.TAR_GZ;
+    }
+    for(BagArchiveWriter.FORMAT candidate : BagArchiveWriter.FORMAT.values()){
+      if(fileName.endsWith("." + candidate.getExtension())){
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the name of the bag folder all entries are located in. The name is
+   * available after reading any entry.
+   *
+   * @return The bag name or null if no entry was read yet.
+   */
+  public String getBagName(){
+    return bagName;
+  }
+
+  /**
+   * Extract all tag files, i.e. all entries not located in the payload
+   * directory, to the provided destination.
+   *
+   * @param destination The destination directory, which will contain the bag
+   * folder afterwards.
+   *
+   * @return The bag root directory below destination.
+   *
+   * @throws Exception If reading the archive or writing any file fails.
+   */
+  public Path extractTagFiles(Path destination) throws Exception{
+    readEntries((relativePath) -> !isPayload(relativePath), createExtractor(destination));
+    return getBagRoot(destination);
+  }
+
+  /**
+   * Extract all entries to the provided destination.
+   *
+   * @param destination The destination directory, which will contain the bag
+   * folder afterwards.
+   *
+   * @return The bag root directory below destination.
+   *
+   * @throws Exception If reading the archive or writing any file fails.
+   */
+  public Path extractAll(Path destination) throws Exception{
+    readEntries((relativePath) -> true, createExtractor(destination));
+    return getBagRoot(destination);
+  }
+
+  /**
+   * Read all payload entries. The provided handler receives the entry path
+   * relative to the payload directory.
+   *
+   * @param handler The handler receiving each payload entry.
+   *
+   * @throws Exception If reading the archive fails or if the handler fails.
+   */
+  public void readPayload(EntryHandler handler) throws Exception{
+    readEntries((relativePath) -> isPayload(relativePath), (relativePath, stream) -> {
+      handler.handle(relativePath.substring("data/".length()), stream);
+    });
+  }
+
+  /**
+   * Read all file entries accepted by the provided filter. Directory entries
+   * are ignored.
+   *
+   * @param filter The filter receiving the entry path relative to the bag
+   * root.
+   * @param handler The handler receiving all accepted entries.
+   *
+   * @throws Exception If reading the archive fails, if any entry is not
+   * located in the bag folder or if the handler fails.
+   */
+  public void readEntries(Predicate<String> filter, EntryHandler handler) throws Exception{
+    if(BagArchiveWriter.FORMAT.ZIP.equals(format)){
+      try(ZipFile zip = new ZipFile(archiveFile.toFile(), "UTF-8")){
+        Enumeration<ZipArchiveEntry> entries = zip.getEntriesInPhysicalOrder();
+        while(entries.hasMoreElements()){
+          ZipArchiveEntry entry = entries.nextElement();
+          String relativePath = getRelativePath(entry);
+          if(relativePath != null && filter.test(relativePath)){
+            try(InputStream in = zip.getInputStream(entry)){
+              handler.handle(relativePath, in);
+            }
+          }
+        }
+      }
+    } else{
+      InputStream stream = new BufferedInputStream(Files.newInputStream(archiveFile));
+      if(BagArchiveWriter.FORMAT.TAR_GZ.equals(format)){
+        stream = new GzipCompressorInputStream(stream);
+      }
+      try(TarArchiveInputStream tar = new TarArchiveInputStream(stream, "UTF-8")){
+        ArchiveEntry entry;
+        while((entry = tar.getNextEntry()) != null){
+          String relativePath = getRelativePath(entry);
+          if(relativePath != null && filter.test(relativePath)){
+            //entries not read completely are skipped by the next call of getNextEntry()
+            handler.handle(relativePath, tar);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the bag root directory below the provided extraction destination.
+   *
+   * @param destination The extraction destination.
+   *
+   * @return The bag root directory.
+   *
+   * @throws IOException If the archive contains no file entry.
+   */
+  private Path getBagRoot(Path destination) throws IOException{
+    if(bagName == null){
+      throw new IOException(StringUtils.substitute(MESSAGES.getString("archive_empty"), archiveFile.toString()));
+    }
+    return destination.resolve(bagName);
+  }
+
+  /**
+   * Check whether the provided path relative to the bag root is a payload
+   * path.
+   *
+   * @param relativePath The path relative to the bag root.
+   *
+   * @return TRUE if the path is located in the payload directory.
+   */
+  private static boolean isPayload(String relativePath){
+    return relativePath.startsWith("data/");
+  }
+
+  /**
+   * Get the path of a file entry relative to the bag folder.
+   *
+   * @param entry The entry.
+   *
+   * @return The relative path or null if entry is a directory.
+   *
+   * @throws IOException If the entry is not located in the same bag folder as
+   * all other entries.
+   */
+  private String getRelativePath(ArchiveEntry entry) throws IOException{
+    if(entry.isDirectory()){
+      return null;
+    }
+    String name = entry.getName().replace('\\', '/');
+    int separator = name.indexOf('/');
+    if(separator <= 0 || (bagName != null && !bagName.equals(name.substring(0, separator)))){
+      throw new IOException(StringUtils.substitute(MESSAGES.getString("archive_entry_outside_bag"), entry.getName(), archiveFile.toString()));
+    }
+    bagName = name.substring(0, separator);
+    return name.substring(separator + 1);
+  }
+
+  /**
+   * Create a handler extracting each entry below destination/bagName.
+   *
+   * @param destination The destination directory.
+   *
+   * @return The handler.
+   */
+  private EntryHandler createExtractor(Path destination){
+    final Path root = destination.toAbsolutePath().normalize();
+    return (relativePath, stream) -> {
+      Path bagRoot = root.resolve(bagName);
+      Path target = bagRoot.resolve(relativePath).normalize();
+      if(!target.startsWith(bagRoot)){
+        //prevent writing outside the destination, e.g. for entries containing '..'
+        throw new IOException(StringUtils.substitute(MESSAGES.getString("archive_entry_outside_bag"), relativePath, archiveFile.toString()));
+      }
+      Files.createDirectories(target.getParent());
+      Files.copy(stream, target, StandardCopyOption.REPLACE_EXISTING);
+    };
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.ResourceBundle;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+
+/**
+ * Writer serializing a bag directly into a single archive file. All entries
+ * are placed below a folder named like the bag, which is the same layout
+ * obtained by zipping the bag root directory. Payload files are written via
+ * {@link #addFile(java.lang.String, java.nio.file.Path, edu.kit.dama.interop.util.ChecksumEngine, java.util.Collection)
+ * }, which creates all checksums while the data is written, so that each
+ * payload file is read exactly once and is never stored in the bag root
+ * directory. As archive entries are written sequentially, all methods are
+ * synchronized and concurrent callers are served one after another.
+ *
+ * @author jejkal
+ */
+public class BagArchiveWriter implements AutoCloseable{
+
+  private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.util.MessageBundle");
+
+  /**
+   * Supported archive formats.
+   */
+  public enum FORMAT{
+    /**
+     * Deflated zip archive, using Zip64 extensions if required.
+     */
+    ZIP("zip"),
+    /**
+     * Uncompressed POSIX tar archive.
+     */
+    TAR("tar"),
+    /**
+     * Gzip-compressed POSIX tar archive.
+     */
+    TAR_GZ("tar.gz");
+
+    private final String extension;
+
+    FORMAT(String extension){
+      this.extension = extension;
+    }
+
+    /**
+     * Get the file extension of this format without leading dot.
+     *
+     * @return The file extension.
+     */
+    public String getExtension(){
+      return extension;
+    }
+  }
+
+  private final Path archiveFile;
+  private final String prefix;
+  private final FORMAT format;
+  private final ArchiveOutputStream out;
+
+  /**
+   * Create a new writer. The archive file is created immediately and existing
+   * files are overwritten.
+   *
+   * @param archiveFile The archive file to create.
+   * @param bagName The name of the folder all entries are placed in.
+   * @param format The archive format.
+   *
+   * @throws IOException If the archive file cannot be created.
+   */
+  public BagArchiveWriter(Path archiveFile, String bagName, FORMAT format) throws IOException{
+    this.archiveFile = archiveFile;
+    this.prefix = bagName + "/";
+    this.format = format;
+    switch(format){
+      case ZIP:
+        //writing to a file allows to update the entry headers after each entry instead of using data descriptors
+        ZipArchiveOutputStream zip = new ZipArchiveOutputStream(archiveFile.toFile());
+        zip.setUseZip64(Zip64Mode.AsNeeded);
+        zip.setEncoding("UTF-8");
+        out = zip;
+        break;
+      case TAR:
+        out = createTarStream(new BufferedOutputStream(Files.newOutputStream(archiveFile)));
+        break;
+      default:
+        out = createTarStream(new GzipCompressorOutputStream(new BufferedOutputStream(Files.newOutputStream(archiveFile))));
+        break;
+    }
+  }
+
+  /**
+   * Get the archive file written by this writer.
+   *
+   * @return The archive file.
+   */
+  public Path getArchiveFile(){
+    return archiveFile;
+  }
+
+  /**
+   * Get the archive format.
+   *
+   * @return The format.
+   */
+  public FORMAT getFormat(){
+    return format;
+  }
+
+  /**
+   * Write the content of the provided file as new archive entry and create one
+   * checksum for each provided digest name while the data is written.
+   *
+   * @param relativePath The path relative to the bag root, using '/' as
+   * separator.
+   * @param source The file to write.
+   * @param engine The engine used to create all checksums.
+   * @param digestNames The message digest names, e.g. MD5 or SHA-256.
+   *
+   * @return A map of digest name and hex-encoded checksum.
+   *
+   * @throws IOException If reading source or writing the archive fails, or if
+   * the size of source changes while it is written.
+   */
+  public synchronized Map<String, String> addFile(String relativePath, Path source, ChecksumEngine engine, Collection<String> digestNames) throws IOException{
+    final long size = Files.size(source);
+    AnsiUtil.printInfo(MESSAGES.getString("streaming_file_to_archive"), source.toString(), relativePath, Integer.toString(digestNames.size()));
+    out.putArchiveEntry(createEntry(relativePath, size));
+    //the channel wrapping the archive stream is never closed, as the entry has to be closed instead
+    Map<String, String> checksums = engine.digest(source, Channels.newChannel(out), digestNames);
+    out.closeArchiveEntry();
+    return checksums;
+  }
+
+  /**
+   * Write the content of the provided file as new archive entry.
+   *
+   * @param relativePath The path relative to the bag root, using '/' as
+   * separator.
+   * @param source The file to write.
+   *
+   * @throws IOException If reading source or writing the archive fails.
+   */
+  public synchronized void addFile(String relativePath, Path source) throws IOException{
+    out.putArchiveEntry(createEntry(relativePath, Files.size(source)));
+    Files.copy(source, out);
+    out.closeArchiveEntry();
+  }
+
+  /**
+   * Write the provided content as new archive entry.
+   *
+   * @param relativePath The path relative to the bag root, using '/' as
+   * separator.
+   * @param content The entry content.
+   *
+   * @throws IOException If writing the archive fails.
+   */
+  public synchronized void addEntry(String relativePath, byte[] content) throws IOException{
+    out.putArchiveEntry(createEntry(relativePath, content.length));
+    out.write(content);
+    out.closeArchiveEntry();
+  }
+
+  /**
+   * Finish and close the archive.
+   *
+   * @throws IOException If writing the archive trailer fails.
+   */
+  @Override
+  public synchronized void close() throws IOException{
+    try{
+      out.finish();
+    } finally{
+      out.close();
+    }
+  }
+
+  /**
+   * Create a new archive entry according to the archive format.
+   *
+   * @param relativePath The path relative to the bag root.
+   * @param size The entry size in bytes.
+   *
+   * @return The entry.
+   */
+  private ArchiveEntry createEntry(String relativePath, long size){
+    if(FORMAT.ZIP.equals(format)){
+      ZipArchiveEntry entry = new ZipArchiveEntry(prefix + relativePath);
+      entry.setSize(size);
+      entry.setTime(System.currentTimeMillis());
+      return entry;
+    }
+    TarArchiveEntry entry = new TarArchiveEntry(prefix + relativePath);
+    entry.setSize(size);
+    entry.setModTime(new Date());
+    return entry;
+  }
+
+  /**
+   * Create a tar stream supporting long paths and large files.
+   *
+   * @param stream The underlying stream.
+   *
+   * @return The tar stream.
+   */
+  private static TarArchiveOutputStream createTarStream(OutputStream stream){
+    TarArchiveOutputStream tar = new TarArchiveOutputStream(stream, "UTF-8");
+    tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+    tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+    return tar;
+  }
+}
@@ -15,12 +15,9 @@
  */
 package edu.kit.dama.interop.util;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.module.SimpleModule;
 import gov.loc.repository.bagit.conformance.BagProfileChecker;
 import gov.loc.repository.bagit.conformance.profile.BagInfoRequirement;
 import gov.loc.repository.bagit.conformance.profile.BagitProfile;
-import gov.loc.repository.bagit.conformance.profile.BagitProfileDeserializer;
 import gov.loc.repository.bagit.domain.Bag;
 import gov.loc.repository.bagit.domain.FetchItem;
 import gov.loc.repository.bagit.domain.Manifest;
@@ -32,28 +29,36 @@ import gov.loc.repository.bagit.reader.BagReader;
 import gov.loc.repository.bagit.verify.BagVerifier;
 import gov.loc.repository.bagit.verify.QuickVerifier;
 import gov.loc.repository.bagit.writer.BagWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
-import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.security.MessageDigest;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.Set;
-import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.codec.digest.DigestUtils;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 import org.apache.commons.io.FileUtils;
 
 /**
@@ -75,6 +80,45 @@ public class BagBuilder{
     RDA_METADATA;
   }
 
+  /**
+   * Modes for placing payload files from outside the bag into the bag payload
+   * directory.
+   */
+  public enum PAYLOAD_PLACEMENT{
+    /**
+     * Copy the file and create all checksums while the data is copied. Each
+     * byte is read and written exactly once.
+     */
+    COPY,
+    /**
+     * Create all checksums from the source file and copy the file afterwards
+     * using FileChannel.transferTo(), which allows the operating system to copy
+     * the data without passing it through the JVM.
+     */
+    TRANSFER,
+    /**
+     * Create all checksums from the source file and create a hard link to the
+     * source file in the bag. This requires source and bag to be located on
+     * the same file system.
+     */
+    HARDLINK,
+    /**
+     * Create all checksums from the source file and create a symbolic link to
+     * the absolute source path in the bag. The bag remains valid only as long
+     * as the source file is not modified or moved.
+     */
+    SYMLINK;
+
+    /**
+     * Check whether this mode places links instead of copies.
+     *
+     * @return TRUE for HARDLINK and SYMLINK.
+     */
+    public boolean isLink(){
+      return HARDLINK.equals(this) || SYMLINK.equals(this);
+    }
+  }
+
   /**
    * The bag holding all information added by the builder.
    */
@@ -108,11 +152,66 @@ public class BagBuilder{
   /**
    * The current bag size.
    */
-  private long bagSize = 0;
+  private final AtomicLong bagSize = new AtomicLong(0);
   /**
    * The current size of all payload items.
    */
-  private long payloadSize = 0;
+  private final AtomicLong payloadSize = new AtomicLong(0);
+  /**
+   * The engine used to create all checksums.
+   */
+  private ChecksumEngine checksumEngine = ChecksumEngine.getDefault();
+  /**
+   * The mode used for placing payload files into the bag.
+   */
+  private PAYLOAD_PLACEMENT payloadPlacement = PAYLOAD_PLACEMENT.COPY;
+  /**
+   * The mode used if placing a link fails, or null if link failures are
+   * errors.
+   */
+  private PAYLOAD_PLACEMENT payloadPlacementFallback = null;
+  /**
+   * The writer payload files are streamed to, or null if payload files are
+   * placed into the bag root directory.
+   */
+  private BagArchiveWriter archiveWriter = null;
+  /**
+   * The number of payload files stored in the bag, excluding fetch items.
+   */
+  private final AtomicLong localPayloadCount = new AtomicLong(0);
+  /**
+   * The size of all payload files stored in the bag, excluding fetch items.
+   */
+  private final AtomicLong localPayloadSize = new AtomicLong(0);
+  /**
+   * All files verified via {@link #verifyPayload(java.nio.file.Path, java.util.Map, edu.kit.dama.interop.util.VerificationReport.SOURCE)
+   * }, {@link #validateTagManifests()} or {@link #validateRemainingPayload()}.
+   */
+  private final VerificationReport verificationReport = new VerificationReport();
+  /**
+   * Compact storage of the payload manifests of created bags.
+   */
+  private CompactManifestStore manifestStore = null;
+  /**
+   * Cache providing and receiving the checksums of payload source files, or
+   * null if no cache is used.
+   */
+  private ChecksumCache checksumCache = null;
+  /**
+   * A previous version of this bag unchanged payload files are taken over
+   * from, or null if all payload files are placed from their sources.
+   */
+  private Bag previousBag = null;
+  /**
+   * The number of payload files taken over from the previous bag.
+   */
+  private final AtomicLong reusedPayloadCount = new AtomicLong(0);
+
+  /**
+   * Default number of bytes payload manifests of created bags may allocate
+   * outside of the Java heap before they are spilled to a temporary file.
+   */
+  public static final long DEFAULT_MANIFEST_MEMORY_BUDGET = CompactManifestStore.DEFAULT_MEMORY_BUDGET;
 
   /**
    * Hidden default constructor used by {@link #create(java.nio.file.Path, java.lang.String)
@@ -127,25 +226,27 @@ public class BagBuilder{
     theBag = new Bag(new Version(0, 97));
     theBag.setRootDir(rootDir);
     theBag.setFileEncoding(Charset.forName("UTF-8"));
+    profileLocation = profileUrl;
     bagMetadata = new Metadata();
     bagMetadata.add("BagIt-Profile-Identifier", profileLocation);
     theBag.setMetadata(bagMetadata);
-    //load profile
-    profile = parseBagitProfile(new URL(profileLocation).openStream());
+    //load profile, which is downloaded at most once per profile URL
+    profile = ProfileCache.getInstance().getProfile(profileLocation);
     //build set of required payload manifests
     List<String> payloadMmanifestsRequired = profile.getManifestTypesRequired();
-    payloadMmanifestsRequired.stream().map((required) -> new Manifest(StandardSupportedAlgorithms.valueOf(required.toUpperCase()))).map((manifestType) -> {
-      manifestType.setFileToChecksumMap(new HashMap<>());
-      return manifestType;
-    }).forEachOrdered((manifestType) -> {
+    manifestStore = new CompactManifestStore(DEFAULT_MANIFEST_MEMORY_BUDGET);
+    for(String required : payloadMmanifestsRequired){
+      Manifest manifestType = new Manifest(StandardSupportedAlgorithms.valueOf(required.toUpperCase()));
+      //sorted, thread-safe and compact in order to allow concurrent adding of payload, to obtain stable manifests and to support very many files
+      manifestType.setFileToChecksumMap(manifestStore.createMap(manifestType.getAlgorithm().getMessageDigestName()));
       payloadManifests.add(manifestType);
-    });
+    }
     theBag.setPayLoadManifests(payloadManifests);
 
     //build set of required tag manifests
     List<String> tagManifestsRequired = profile.getTagManifestTypesRequired();
     tagManifestsRequired.stream().map((required) -> new Manifest(StandardSupportedAlgorithms.valueOf(required.toUpperCase()))).map((manifestType) -> {
-      manifestType.setFileToChecksumMap(new HashMap<>());
+      manifestType.setFileToChecksumMap(new ConcurrentSkipListMap<>());
       return manifestType;
     }).forEachOrdered((manifestType) -> {
       tagManifests.add(manifestType);
@@ -153,7 +254,7 @@ public class BagBuilder{
     theBag.setTagManifests(tagManifests);
 
     if(profile.isFetchFileAllowed()){
-      fetchItems = new ArrayList<>();
+      fetchItems = Collections.synchronizedList(new ArrayList<>());
       //set fetch item list
       theBag.setItemsToFetch(fetchItems);
     }
@@ -232,7 +333,9 @@ public class BagBuilder{
    * used hash algorithm is not supported.
    */
   public static BagBuilder load(Path rootDir) throws Exception{
-    return new BagBuilder(new BagReader(new StandardBagitAlgorithmNameToSupportedAlgorithmMapping()).read(rootDir));
+    try(Metrics.Timer timer = Metrics.getInstance().start("bag.load")){
+      return new BagBuilder(new BagReader(new StandardBagitAlgorithmNameToSupportedAlgorithmMapping()).read(rootDir));
+    }
   }
 
   /**
@@ -312,6 +415,143 @@ public class BagBuilder{
     return manifestTypes;
   }
 
+  /**
+   * Set the engine used to create the checksums of all payload files, tag
+   * files and fetch items added afterwards. By default, the shared engine
+   * obtained via {@link ChecksumEngine#getDefault()} is used.
+   *
+   * @param engine The checksum engine.
+   *
+   * @return This BagBuilder instance.
+   */
+  public BagBuilder setChecksumEngine(ChecksumEngine engine){
+    this.checksumEngine = engine;
+    return this;
+  }
+
+  /**
+   * Set the number of bytes the payload manifests of a created bag may
+   * allocate outside of the Java heap for storing file names and checksums.
+   * Beyond this budget, manifest data is stored in a temporary file mapped
+   * into memory. This setting has no effect on loaded bags.
+   *
+   * @param budget The memory budget in bytes.
+   *
+   * @return This BagBuilder instance.
+   */
+  public BagBuilder setManifestMemoryBudget(long budget){
+    if(manifestStore != null){
+      manifestStore.setMemoryBudget(budget);
+    }
+    return this;
+  }
+
+  /**
+   * Set the cache consulted before the checksums of payload files added
+   * afterwards are created. Only checksums not cached for the unchanged
+   * source file are created and stored in the cache afterwards. If all
+   * checksums are cached, the file is placed into the bag without hashing it.
+   * Together with a previous bag set via {@link #setPreviousBag(edu.kit.dama.interop.util.BagBuilder)
+   * }, the cache allows to detect unchanged source files without reading
+   * them at all.
+   *
+   * @param cache The checksum cache or null to use no cache.
+   *
+   * @return This BagBuilder instance.
+   */
+  public BagBuilder setChecksumCache(ChecksumCache cache){
+    this.checksumCache = cache;
+    return this;
+  }
+
+  /**
+   * Set a previous version of this bag, e.g. created by an earlier export of
+   * the same object. A payload file added afterwards is taken over from the
+   * previous bag by a hard link, or by a copy if linking fails, if the
+   * checksum cache holds checksums for the unchanged source file and if the
+   * previous bag contains a file with the same size at the same location,
+   * whose checksums in all common payload manifests are equal. In this case,
+   * the source file is not read at all. The previous bag must not be modified
+   * or removed while files are added.
+   *
+   * @param previous The BagBuilder holding the previous bag, e.g. obtained via
+   * {@link #load(java.nio.file.Path)}, or null to place all payload files from
+   * their sources.
+   *
+   * @return This BagBuilder instance.
+   */
+  public BagBuilder setPreviousBag(BagBuilder previous){
+    this.previousBag = (previous != null) ? previous.theBag : null;
+    return this;
+  }
+
+  /**
+   * Get the number of payload files taken over from the previous bag.
+   *
+   * @return The number of reused payload files.
+   */
+  public long getReusedPayloadCount(){
+    return reusedPayloadCount.get();
+  }
+
+  /**
+   * Get the engine used to create all checksums.
+   *
+   * @return The checksum engine.
+   */
+  public ChecksumEngine getChecksumEngine(){
+    return checksumEngine;
+  }
+
+  /**
+   * Set the mode used for placing payload files added afterwards via {@link #addPayload(java.nio.file.Path, java.net.URI, java.lang.String)
+   * } into the bag. By default, PAYLOAD_PLACEMENT.COPY is used.
+   *
+   * @param placement The payload placement mode.
+   *
+   * @return This BagBuilder instance.
+   */
+  public BagBuilder setPayloadPlacement(PAYLOAD_PLACEMENT placement){
+    return setPayloadPlacement(placement, null);
+  }
+
+  /**
+   * Set the mode used for placing payload files added afterwards via {@link #addPayload(java.nio.file.Path, java.net.URI, java.lang.String)
+   * } into the bag and the mode used if creating a link fails, e.g. because
+   * the source file is located on another file system. The fallback is only
+   * used if placement is HARDLINK or SYMLINK. In all cases, the checksums are
+   * created from the source file.
+   *
+   * @param placement The payload placement mode.
+   * @param fallback The fallback mode or null if failing to create a link
+   * should cause an error.
+   *
+   * @return This BagBuilder instance.
+   */
+  public BagBuilder setPayloadPlacement(PAYLOAD_PLACEMENT placement, PAYLOAD_PLACEMENT fallback){
+    this.payloadPlacement = placement;
+    this.payloadPlacementFallback = fallback;
+    return this;
+  }
+
+  /**
+   * Set the writer all payload files added afterwards via {@link #addPayload(java.nio.file.Path, java.net.URI, java.lang.String)
+   * } are streamed to. If set, payload files are written into the archive
+   * while their checksums are created and are never placed into the bag root
+   * directory, so that the payload placement mode is ignored. Tag files are
+   * still placed into the bag root directory and are added to the archive by
+   * {@link #serialize(edu.kit.dama.interop.util.BagArchiveWriter)}.
+   *
+   * @param writer The archive writer or null to place payload files into the
+   * bag root directory.
+   *
+   * @return This BagBuilder instance.
+   */
+  public BagBuilder setArchiveWriter(BagArchiveWriter writer){
+    this.archiveWriter = writer;
+    return this;
+  }
+
   /**
    * Add a metadata field and its value later written to bag-info.txt. This
    * method only adds metadata fields. If there is already a field for the
@@ -356,15 +596,17 @@ public class BagBuilder{
    * directory.
    */
   public BagBuilder addPayload(URI fileUri) throws IOException{
-    return addFile(fileUri, FILE_TYPE.PAYLOAD);
+    try(Metrics.Timer timer = Metrics.getInstance().start("bag.payload.add")){
+      return addFile(fileUri, FILE_TYPE.PAYLOAD, timer);
+    }
   }
 
   /**
    * Add a new payload entry located a fileUri relative to rootPath. The file
    * will be copied to the bag payload directory to inDataLocation. If
    * inDataLocation is null, the path of fileUri relative to rootPath will be
-   * used as payload path.
-   *
+   * used as payload path. This method can be called concurrently for different
+   * payload files, e.g. by a {@link PayloadPipeline}.
    *
    * @param rootPath The root path where fileUri is located.
    * @param fileUri The absolute path of the payload.
@@ -377,7 +619,9 @@ public class BagBuilder{
    * inDataLocation is specified and fileUri is not withing rootPath.
    */
   public BagBuilder addPayload(Path rootPath, URI fileUri, String inDataLocation) throws IOException{
-    return addFile(rootPath, fileUri, inDataLocation, FILE_TYPE.PAYLOAD);
+    try(Metrics.Timer timer = Metrics.getInstance().start("bag.payload.add")){
+      return addFile(rootPath, fileUri, inDataLocation, FILE_TYPE.PAYLOAD, timer);
+    }
   }
 
   /**
@@ -398,7 +642,9 @@ public class BagBuilder{
    * inDataLocation is specified and fileUri is not withing rootPath.
    */
   public BagBuilder addTagfile(Path rootPath, URI fileUri, String inDataLocation) throws IOException{
-    return addFile(rootPath, fileUri, inDataLocation, FILE_TYPE.TAGFILE);
+    try(Metrics.Timer timer = Metrics.getInstance().start("bag.tagfile.add")){
+      return addFile(rootPath, fileUri, inDataLocation, FILE_TYPE.TAGFILE, timer);
+    }
   }
 
   /**
@@ -415,7 +661,9 @@ public class BagBuilder{
    * directory.
    */
   public BagBuilder addTagfile(URI fileUri) throws IOException{
-    return addFile(fileUri, FILE_TYPE.TAGFILE);
+    try(Metrics.Timer timer = Metrics.getInstance().start("bag.tagfile.add")){
+      return addFile(fileUri, FILE_TYPE.TAGFILE, timer);
+    }
   }
 
   /**
@@ -424,7 +672,9 @@ public class BagBuilder{
    * only contains checksums and destination information of the file to fetch.
    * Fetching is only available for payload elements and must be allowed by the
    * BagIt profile associated to the bag. In order to create the checkums of the
-   * fetch file, the file must be opened and read. If you want to avoid reading
+   * fetch file, the file must be opened and read using
+   * {@link FetchEngine#DEFAULT_TIMEOUT} as connect and read timeout. If you
+   * want to avoid reading
    * the fetch files, you may use {@link #addFetchItem(gov.loc.repository.bagit.domain.FetchItem, java.util.Map)
    * } and provide all requested checksums manually. You can obtain the list of
    * required checksums by calling {@link #getRequiredPayloadManifestTypes()} or {@link #getRequiredTagManifestTypes()
@@ -441,11 +691,17 @@ public class BagBuilder{
     if(fetchItems == null){
       throw new Exception(MESSAGES.getString("fetching_not_allowed"));
     }
-    payloadSize += item.getLength();
+    payloadSize.addAndGet(item.getLength());
     Path thePath = theBag.getRootDir().resolve(item.getPath());
     fetchItems.add(new FetchItem(item.getUrl(), item.getLength(), thePath));
 
-    generateChecksums(thePath, item.getUrl().openConnection().getInputStream(), FILE_TYPE.PAYLOAD);
+    try(Metrics.Timer timer = Metrics.getInstance().start("bag.fetch.hash")){
+      URLConnection connection = item.getUrl().openConnection();
+      connection.setConnectTimeout(FetchEngine.DEFAULT_TIMEOUT);
+      connection.setReadTimeout(FetchEngine.DEFAULT_TIMEOUT);
+      generateChecksums(thePath, connection.getInputStream(), FILE_TYPE.PAYLOAD);
+      timer.addBytes(Math.max(0, item.getLength()));
+    }
     return this;
   }
 
@@ -469,7 +725,7 @@ public class BagBuilder{
     if(fetchItems == null){
       throw new Exception(MESSAGES.getString("fetching_not_allowed"));
     }
-    payloadSize += item.getLength();
+    payloadSize.addAndGet(item.getLength());
     Path thePath = theBag.getRootDir().resolve(item.getPath());
 
     fetchItems.add(new FetchItem(item.getUrl(), item.getLength(), thePath));
@@ -491,9 +747,11 @@ public class BagBuilder{
    * @throws Exception If the bag is not compliant to the specified profile.
    */
   public void validateProfileConformance() throws Exception{
-    AnsiUtil.printInfo(MESSAGES.getString("performing_profile_check"), profileLocation);
-    BagProfileChecker.bagConformsToProfile(new URL(profileLocation).openStream(), theBag);
-    AnsiUtil.printInfo(MESSAGES.getString("profile_check_successful"), profileLocation);
+    try(Metrics.Timer timer = Metrics.getInstance().start("bag.verify.profile")){
+      AnsiUtil.printInfo(MESSAGES.getString("performing_profile_check"), profileLocation);
+      BagProfileChecker.bagConformsToProfile(new ByteArrayInputStream(ProfileCache.getInstance().getProfileData(profileLocation)), theBag);
+      AnsiUtil.printInfo(MESSAGES.getString("profile_check_successful"), profileLocation);
+    }
   }
 
   /**
@@ -512,21 +770,167 @@ public class BagBuilder{
    * @throws Exception If any of the checksums in any bag manifest is not valid.
    */
   public void validateChecksums(boolean fetchFilesDownloaded) throws Exception{
-    AnsiUtil.printInfo(MESSAGES.getString("checking_quick_verify_support"));
-    if(BagVerifier.canQuickVerify(theBag)){
-      AnsiUtil.printInfo(MESSAGES.getString("performing_quick_verify"));
-      QuickVerifier.quicklyVerify(theBag);
-    } else{
-      if(fetchFilesDownloaded){
-        AnsiUtil.printWarning(MESSAGES.getString("quick_verify_not_supported_but_files_fetched"));
-        new BagVerifier(new StandardBagitAlgorithmNameToSupportedAlgorithmMapping()).isValid(theBag, true);
+    try(Metrics.Timer timer = Metrics.getInstance().start("bag.verify.checksums")){
+      AnsiUtil.printInfo(MESSAGES.getString("checking_quick_verify_support"));
+      if(BagVerifier.canQuickVerify(theBag)){
+        AnsiUtil.printInfo(MESSAGES.getString("performing_quick_verify"));
+        QuickVerifier.quicklyVerify(theBag);
       } else{
-        AnsiUtil.printWarning(MESSAGES.getString("quick_verify_not_supported"));
+        if(fetchFilesDownloaded){
+          AnsiUtil.printWarning(MESSAGES.getString("quick_verify_not_supported_but_files_fetched"));
+          new BagVerifier(new StandardBagitAlgorithmNameToSupportedAlgorithmMapping()).isValid(theBag, true);
+        } else{
+          AnsiUtil.printWarning(MESSAGES.getString("quick_verify_not_supported"));
+        }
+      }
+      AnsiUtil.printInfo(MESSAGES.getString("verification_successful"));
+    }
+  }
+
+  /**
+   * Validate all tag files listed in the tag manifests of the bag against
+   * their checksums. In contrast to {@link #validateChecksums(boolean)}, the
+   * payload files are not accessed, which allows to validate bags whose
+   * payload is not located in the bag root directory, e.g. while importing a
+   * serialized bag.
+   *
+   * @throws Exception If any tag file is missing or if any checksum is not
+   * valid.
+   */
+  public void validateTagManifests() throws Exception{
+    try(Metrics.Timer timer = Metrics.getInstance().start("bag.verify.tagfiles")){
+      Set<Path> tagFiles = new TreeSet<>();
+      theBag.getTagManifests().forEach((manifest) -> {
+        tagFiles.addAll(manifest.getFileToChecksumMap().keySet());
+      });
+      for(Path tagFile : tagFiles){
+        if(!Files.exists(tagFile)){
+          throw new Exception(StringUtils.substitute(MESSAGES.getString("manifest_file_missing"), tagFile.toString()));
+        }
+        AnsiUtil.printInfo(MESSAGES.getString("generating_checksums"), tagFile.toString());
+        Map<String, String> checksums = checksumEngine.digest(tagFile, getRequiredTagManifestTypes());
+        verifyChecksums(tagFile, checksums, theBag.getTagManifests());
+        verificationReport.add(tagFile, VerificationReport.SOURCE.DISK);
+      }
+      AnsiUtil.printInfo(MESSAGES.getString("verification_successful"));
+    }
+  }
+
+  /**
+   * Copy a payload file of this bag from the provided stream to the provided
+   * destination outside of the bag and verify its checksums against all
+   * payload manifests while the data is copied. If verification fails,
+   * destination is removed. This method can be called concurrently for
+   * different payload files.
+   *
+   * @param filePath The absolute path of the payload file in the bag as
+   * listed in the payload manifests.
+   * @param stream The stream providing the file content, which is not closed
+   * by this method.
+   * @param destination The destination file, which is overwritten if it
+   * exists.
+   *
+   * @throws Exception If filePath is not listed in all payload manifests, if
+   * copying fails or if any checksum is not valid.
+   */
+  public void copyAndVerifyPayload(Path filePath, InputStream stream, Path destination) throws Exception{
+    checkListedInPayloadManifests(filePath);
+    Files.createDirectories(destination.getParent());
+    Set<String> digestNames = getRequiredPayloadManifestTypes();
+    AnsiUtil.printInfo(MESSAGES.getString("copying_file_with_checksums"), filePath.toString(), destination.toString(), Integer.toString(digestNames.size()));
+    Map<String, String> checksums;
+    long fileSize;
+    try(Metrics.Timer timer = Metrics.getInstance().start("bag.payload.transfer")){
+      try(OutputStream out = Files.newOutputStream(destination)){
+        checksums = checksumEngine.digest(stream, out, digestNames);
+      }
+      fileSize = Files.size(destination);
+      timer.addBytes(fileSize);
+    }
+    try{
+      verifyPayload(filePath, checksums, VerificationReport.SOURCE.TRANSFER);
+    } catch(Exception ex){
+      Files.deleteIfExists(destination);
+      throw ex;
+    }
+    addSize(fileSize, FILE_TYPE.PAYLOAD);
+  }
+
+  /**
+   * Verify the checksums of a payload file of this bag, which were created
+   * elsewhere, e.g. while downloading a fetch item, against all payload
+   * manifests. Successfully verified files are added to the verification
+   * report and are skipped by {@link #validateRemainingPayload()}. This method
+   * can be called concurrently for different payload files.
+   *
+   * @param filePath The absolute path of the payload file in the bag as
+   * listed in the payload manifests.
+   * @param checksums The map of digest name and hex-encoded checksum.
+   * @param source The place where the checksums were created.
+   *
+   * @throws Exception If filePath is not listed in all payload manifests or if
+   * any checksum is not valid.
+   */
+  public void verifyPayload(Path filePath, Map<String, String> checksums, VerificationReport.SOURCE source) throws Exception{
+    checkListedInPayloadManifests(filePath);
+    verifyChecksums(filePath, checksums, theBag.getPayLoadManifests());
+    verificationReport.add(filePath, source);
+  }
+
+  /**
+   * Validate all payload files listed in the payload manifests that were not
+   * verified yet, e.g. while being downloaded or transferred, by reading them
+   * from disk. Afterwards, it is ensured that all payload files were verified
+   * and that the payload directory contains no files missing in the payload
+   * manifests. In contrast to {@link #validateChecksums(boolean)}, payload
+   * files already verified are not read again.
+   *
+   * @throws Exception If any payload file is missing, not listed in the
+   * manifests or if any checksum is not valid.
+   */
+  public void validateRemainingPayload() throws Exception{
+    Set<Path> payloadFiles = new TreeSet<>();
+    theBag.getPayLoadManifests().forEach((manifest) -> {
+      payloadFiles.addAll(manifest.getFileToChecksumMap().keySet());
+    });
+    for(Path filePath : payloadFiles){
+      if(verificationReport.contains(filePath)){
+        continue;
+      }
+      if(!Files.isRegularFile(filePath)){
+        throw new Exception(StringUtils.substitute(MESSAGES.getString("manifest_file_missing"), filePath.toString()));
+      }
+      AnsiUtil.printInfo(MESSAGES.getString("generating_checksums"), filePath.toString());
+      Map<String, String> checksums;
+      try(Metrics.Timer timer = Metrics.getInstance().start("bag.verify.payload")){
+        checksums = checksumEngine.digest(filePath, getRequiredPayloadManifestTypes());
+        timer.addBytes(Files.size(filePath));
+      }
+      verifyPayload(filePath, checksums, VerificationReport.SOURCE.DISK);
+    }
+
+    Path dataDir = theBag.getRootDir().resolve("data");
+    if(Files.isDirectory(dataDir)){
+      try(Stream<Path> files = Files.walk(dataDir)){
+        Optional<Path> unlisted = files.filter((file) -> Files.isRegularFile(file) && !payloadFiles.contains(file)).findFirst();
+        if(unlisted.isPresent()){
+          throw new Exception(StringUtils.substitute(MESSAGES.getString("payload_file_not_listed"), unlisted.get().toString()));
+        }
       }
     }
     AnsiUtil.printInfo(MESSAGES.getString("verification_successful"));
   }
 
+  /**
+   * Get the report of all files verified via {@link #verifyPayload(java.nio.file.Path, java.util.Map, edu.kit.dama.interop.util.VerificationReport.SOURCE)
+   * }, {@link #validateTagManifests()} or {@link #validateRemainingPayload()}.
+   *
+   * @return The verification report.
+   */
+  public VerificationReport getVerificationReport(){
+    return verificationReport;
+  }
+
   /**
    * Write the bag to its root directory. Typically, most of the content should
    * be already located relative to the bag root directory. Files that are not
@@ -545,7 +949,9 @@ public class BagBuilder{
   /**
    * Write the bag to the provided destination. Files that are not already there
    * are copied. Furthermore, all missing metadata files are created and written
-   * to disk.
+   * to disk. If destination is the bag root directory, only the metadata files
+   * are written and payload files are left untouched, e.g. if they are placed
+   * as links.
    *
    * @param destination The bag destination directory.
    *
@@ -555,7 +961,83 @@ public class BagBuilder{
    * unsupported checksum algorithm used for any of the manifests.
    */
   public void write(Path destination) throws IOException, NoSuchAlgorithmException{
-    BagWriter.write(getBag(), destination.toAbsolutePath());
+    try(Metrics.Timer timer = Metrics.getInstance().start("bag.write")){
+      final Path target = destination.toAbsolutePath().normalize();
+      if(target.equals(theBag.getRootDir().toAbsolutePath().normalize())){
+        TagFileWriter.writeTagFiles(getBag(), new TagFileWriter.Sink(){
+          @Override
+          public void write(String relativePath, byte[] content) throws IOException{
+            Files.write(target.resolve(relativePath), content);
+          }
+
+          @Override
+          public void write(String relativePath, TagFileWriter.Content content) throws IOException{
+            try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(target.resolve(relativePath)))){
+              content.writeTo(out);
+            }
+          }
+        });
+      } else{
+        BagWriter.write(getBag(), target);
+      }
+    }
+  }
+
+  /**
+   * Finish a bag whose payload was streamed to the provided archive writer.
+   * All tag files contained in the tag manifests are copied from the bag root
+   * directory into the archive, followed by all tag files created from the
+   * bag, i.e. bagit.txt, bag-info.txt, manifests, fetch.txt and tag
+   * manifests. The writer is not closed by this method.
+   *
+   * @param writer The writer all payload files were streamed to.
+   *
+   * @throws IOException If reading any tag file or writing the archive fails.
+   */
+  public void serialize(BagArchiveWriter writer) throws IOException{
+    try(Metrics.Timer timer = Metrics.getInstance().start("bag.serialize")){
+      final Path rootDir = theBag.getRootDir().toAbsolutePath();
+      Set<Path> tagFiles = new TreeSet<>();
+      theBag.getTagManifests().forEach((manifest) -> {
+        tagFiles.addAll(manifest.getFileToChecksumMap().keySet());
+      });
+      for(Path tagFile : tagFiles){
+        writer.addFile(TagFileWriter.formatPath(rootDir, tagFile), tagFile);
+      }
+      TagFileWriter.writeTagFiles(getBag(), new TagFileWriter.Sink(){
+        @Override
+        public void write(String relativePath, byte[] content) throws IOException{
+          writer.addEntry(relativePath, content);
+        }
+
+        @Override
+        public void write(String relativePath, TagFileWriter.Content content) throws IOException{
+          //archive entries require their size in advance, thus large tag files are written to a temporary file first
+          Path tempFile = Files.createTempFile("tagfile-", ".txt");
+          try{
+            try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempFile))){
+              content.writeTo(out);
+            }
+            writer.addFile(relativePath, tempFile);
+          } finally{
+            Files.deleteIfExists(tempFile);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Release the storage of the payload manifests of a created bag, including
+   * any temporary file. The manifests must not be accessed afterwards, i.e.
+   * this method should be called after the bag was written or serialized.
+   *
+   * @throws IOException If deleting the temporary file fails.
+   */
+  public void releaseManifests() throws IOException{
+    if(manifestStore != null){
+      manifestStore.close();
+    }
   }
 
   /**
@@ -567,7 +1049,7 @@ public class BagBuilder{
     if(bagMetadata.contains("Bag-Size")){
       bagMetadata.remove("Bag-Size");
     }
-    bagMetadata.add("Bag-Size", FileUtils.byteCountToDisplaySize(bagSize));
+    bagMetadata.add("Bag-Size", FileUtils.byteCountToDisplaySize(bagSize.get()));
 
     return theBag;
   }
@@ -578,7 +1060,7 @@ public class BagBuilder{
    * @return The bag size.
    */
   public long getBagSize(){
-    return bagSize;
+    return bagSize.get();
   }
 
   /**
@@ -587,29 +1069,27 @@ public class BagBuilder{
    * @return The bag size.
    */
   public long getPayloadSize(){
-    return payloadSize;
+    return payloadSize.get();
   }
 
   /**
-   * Parse a BagIt profile from an InputStream.
-   *
-   * @param jsonProfile The input stream.
+   * Get the Payload-Oxum of all payload files stored in the bag, which
+   * excludes fetch items. In contrast to PathUtils.generatePayloadOxum(), the
+   * value is obtained from the files added by this builder and is also
+   * available if payload files are streamed to an archive.
    *
-   * @return The BagItProfile.
-   *
-   * @throws IOException if the profile cannot be read or has no valid format.
+   * @return The Payload-Oxum as &lt;octet count&gt;.&lt;file count&gt;
    */
-  private BagitProfile parseBagitProfile(final InputStream jsonProfile) throws IOException{
-    final ObjectMapper mapper = new ObjectMapper();
-    final SimpleModule module = new SimpleModule();
-    module.addDeserializer(BagitProfile.class, new BagitProfileDeserializer());
-    mapper.registerModule(module);
-
-    return mapper.readValue(jsonProfile, BagitProfile.class);
+  public String getPayloadOxum(){
+    return localPayloadSize.get() + "." + localPayloadCount.get();
   }
 
   /**
-   * Add file helper for external files not located relative to bag root.
+   * Add file helper for external files not located relative to bag root. The
+   * file is placed into the bag and all checksums are created from the data
+   * read during placement, so that the placed file has not to be read again.
+   * Payload files are placed according to the configured payload placement
+   * mode, all other files are always copied.
    *
    * @param rootPath The root path of the file to add.
    * @param fileUri The absolute file URI starting with rootPath.
@@ -618,13 +1098,14 @@ public class BagBuilder{
    * root (TAGFILE), relative to the payload data directory (PAYLOAD) or
    * relative to the metadata directory (RDA_METADATA).
    * @param type The file type defining the file location within the bag.
+   * @param timer The timer the size of the added file is recorded with.
    *
    * @return This BagBuilder instance.
    *
    * @throws IOException If filePath is not accessible or if inBagLocation is
    * not provided and fileUri is not relative to rootPath.
    */
-  private BagBuilder addFile(Path rootPath, URI fileUri, String inBagLocation, FILE_TYPE type) throws IOException{
+  private BagBuilder addFile(Path rootPath, URI fileUri, String inBagLocation, FILE_TYPE type, Metrics.Timer timer) throws IOException{
     Path filePath = Paths.get(fileUri);
 
     if(inBagLocation != null && !filePath.startsWith(rootPath)){
@@ -659,17 +1140,204 @@ public class BagBuilder{
         break;
     }
 
+    Set<String> digestNames = FILE_TYPE.PAYLOAD.equals(type) ? getRequiredPayloadManifestTypes() : getRequiredTagManifestTypes();
+    BasicFileAttributes sourceAttributes = null;
+    Map<String, String> cachedChecksums = Collections.emptyMap();
+    if(FILE_TYPE.PAYLOAD.equals(type) && checksumCache != null){
+      //obtain attributes before reading, so that modifications while reading invalidate the cache entry
+      sourceAttributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+      cachedChecksums = checksumCache.get(filePath, sourceAttributes, digestNames);
+      if(archiveWriter == null && previousBag != null && cachedChecksums.size() == digestNames.size() && reusePreviousFile(destination, cachedChecksums, sourceAttributes.size())){
+        addSize(sourceAttributes.size(), type);
+        timer.addBytes(sourceAttributes.size());
+        addChecksums(destination, cachedChecksums, type);
+        return this;
+      }
+    }
+    //only create checksums not obtained from the cache
+    Set<String> missingDigestNames = new HashSet<>(digestNames);
+    missingDigestNames.removeAll(cachedChecksums.keySet());
+
+    Map<String, String> checksums;
+    if(FILE_TYPE.PAYLOAD.equals(type) && archiveWriter != null){
+      //write to archive and hash in a single pass, nothing is placed into the bag root directory
+      checksums = archiveWriter.addFile(TagFileWriter.formatPath(theBag.getRootDir().toAbsolutePath(), destination.toAbsolutePath()), filePath, checksumEngine, missingDigestNames);
+      long fileSize = Files.size(filePath);
+      addSize(fileSize, type);
+      timer.addBytes(fileSize);
+      cacheChecksums(filePath, sourceAttributes, checksums);
+      checksums.putAll(cachedChecksums);
+      addChecksums(destination, checksums, type);
+      return this;
+    }
+
     //create folder structure before copy operation
-    if(!Files.exists(destination)){
-      Files.createDirectories(destination);
+    Files.createDirectories(destination.getParent());
+    Files.deleteIfExists(destination);
+
+    if(FILE_TYPE.PAYLOAD.equals(type) && (!PAYLOAD_PLACEMENT.COPY.equals(payloadPlacement) || missingDigestNames.isEmpty())){
+      //hash source if needed, place file afterwards without passing data through the JVM
+      if(missingDigestNames.isEmpty()){
+        checksums = new HashMap<>();
+      } else{
+        AnsiUtil.printInfo(MESSAGES.getString("generating_checksums"), filePath.toString());
+        checksums = checksumEngine.digest(filePath, missingDigestNames);
+      }
+      PAYLOAD_PLACEMENT placement = PAYLOAD_PLACEMENT.COPY.equals(payloadPlacement) ? PAYLOAD_PLACEMENT.TRANSFER : payloadPlacement;
+      try{
+        placeFile(filePath, destination, placement);
+      } catch(IOException | UnsupportedOperationException ex){
+        if(!placement.isLink() || payloadPlacementFallback == null){
+          throw ex;
+        }
+        AnsiUtil.printWarning(MESSAGES.getString("link_failed_using_fallback"), destination.toString(), ex.getMessage(), payloadPlacementFallback.toString());
+        Files.deleteIfExists(destination);
+        placeFile(filePath, destination, payloadPlacementFallback);
+      }
+    } else{
+      //copy and hash in a single pass
+      AnsiUtil.printInfo(MESSAGES.getString("copying_file_with_checksums"), filePath.toString(), destination.toString(), Integer.toString(missingDigestNames.size()));
+      try(FileChannel out = FileChannel.open(destination, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)){
+        checksums = checksumEngine.digest(filePath, out, missingDigestNames);
+      }
     }
-    //copy file
-    Files.copy(filePath, destination, StandardCopyOption.REPLACE_EXISTING);
 
-    addFile(destination.toUri(), type);
+    long fileSize = Files.size(destination);
+    addSize(fileSize, type);
+    timer.addBytes(fileSize);
+    cacheChecksums(filePath, sourceAttributes, checksums);
+    checksums.putAll(cachedChecksums);
+    addChecksums(destination, checksums, type);
     return this;
   }
 
+  /**
+   * Take over a payload file from the previous bag if it is located at the
+   * same position in the previous bag and if its size and its checksums in
+   * all payload manifests common to both bags match. The file is hard linked
+   * into this bag or copied if linking fails.
+   *
+   * @param destination The destination of the file in this bag.
+   * @param checksums The cached checksums of the unchanged source file.
+   * @param size The size of the source file.
+   *
+   * @return TRUE if the file was taken over, FALSE if it has to be placed
+   * from its source.
+   *
+   * @throws IOException If taking over the file fails.
+   */
+  private boolean reusePreviousFile(Path destination, Map<String, String> checksums, long size) throws IOException{
+    Path previousFile = previousBag.getRootDir().resolve(theBag.getRootDir().relativize(destination)).normalize();
+    if(!Files.isRegularFile(previousFile) || Files.size(previousFile) != size){
+      return false;
+    }
+    int matches = 0;
+    for(Manifest manifest : previousBag.getPayLoadManifests()){
+      String checksum = checksums.get(manifest.getAlgorithm().getMessageDigestName());
+      if(checksum == null){
+        //not required for this bag
+        continue;
+      }
+      String previousChecksum = manifest.getFileToChecksumMap().get(previousFile);
+      if(previousChecksum == null || !previousChecksum.equalsIgnoreCase(checksum)){
+        return false;
+      }
+      matches++;
+    }
+    if(matches == 0){
+      return false;
+    }
+
+    Files.createDirectories(destination.getParent());
+    Files.deleteIfExists(destination);
+    AnsiUtil.printInfo(MESSAGES.getString("reusing_previous_file"), destination.toString(), previousFile.toString());
+    try{
+      Files.createLink(destination, previousFile);
+    } catch(IOException | UnsupportedOperationException ex){
+      Files.deleteIfExists(destination);
+      transferFile(previousFile, destination);
+    }
+    reusedPayloadCount.incrementAndGet();
+    Metrics.getInstance().count("bag.payload.reused", 1);
+    return true;
+  }
+
+  /**
+   * Store the checksums of a payload source file in the checksum cache, if a
+   * cache is used.
+   *
+   * @param source The source file.
+   * @param attributes The attributes of the source file obtained before it was
+   * read, or null if no cache is used.
+   * @param checksums The checksums of the file.
+   */
+  private void cacheChecksums(Path source, BasicFileAttributes attributes, Map<String, String> checksums){
+    if(attributes != null && !checksums.isEmpty()){
+      checksumCache.put(source, attributes, checksums);
+    }
+  }
+
+  /**
+   * Place a file whose checksums are already known into the bag according to
+   * the provided placement mode.
+   *
+   * @param source The source file.
+   * @param destination The destination file, which must not exist.
+   * @param placement The placement mode.
+   *
+   * @throws IOException If placing the file fails.
+   */
+  private void placeFile(Path source, Path destination, PAYLOAD_PLACEMENT placement) throws IOException{
+    switch(placement){
+      case HARDLINK:
+        AnsiUtil.printInfo(MESSAGES.getString("linking_file"), destination.toString(), source.toString(), "hard");
+        Files.createLink(destination, source);
+        break;
+      case SYMLINK:
+        AnsiUtil.printInfo(MESSAGES.getString("linking_file"), destination.toString(), source.toString(), "symbolic");
+        Files.createSymbolicLink(destination, source.toAbsolutePath());
+        break;
+      default:
+        AnsiUtil.printInfo(MESSAGES.getString("transferring_file"), source.toString(), destination.toString());
+        transferFile(source, destination);
+        break;
+    }
+  }
+
+  /**
+   * Copy a file using FileChannel.transferTo().
+   *
+   * @param source The source file.
+   * @param destination The destination file, which must not exist.
+   *
+   * @throws IOException If the transfer fails.
+   */
+  private void transferFile(Path source, Path destination) throws IOException{
+    try(FileChannel in = FileChannel.open(source, StandardOpenOption.READ); FileChannel out = FileChannel.open(destination, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)){
+      long size = in.size();
+      long position = 0;
+      while(position < size){
+        position += in.transferTo(position, size - position, out);
+      }
+    }
+  }
+
+  /**
+   * Add the size of a file to the bag size and, if it is a payload file, to the
+   * payload size and the Payload-Oxum.
+   *
+   * @param fileSize The file size in bytes.
+   * @param type The file type.
+   */
+  private void addSize(long fileSize, FILE_TYPE type){
+    bagSize.addAndGet(fileSize);
+    if(FILE_TYPE.PAYLOAD.equals(type)){
+      payloadSize.addAndGet(fileSize);
+      localPayloadSize.addAndGet(fileSize);
+      localPayloadCount.incrementAndGet();
+    }
+  }
+
   /**
    * Add file helper for files that are already located relative to bag root.
    * This method creates the checksums of the file and adds the file path
@@ -679,22 +1347,21 @@ public class BagBuilder{
    *
    * @param fileUri The absolute file Uri relative to the bag root directory.
    * @param type The file type defining the manifest the file will be added to.
+   * @param timer The timer the size of the added file is recorded with.
    *
    * @return This BagBuilder instance.
    *
    * @throws IOException If creating any checksum of fileUri fails.
    */
-  private BagBuilder addFile(URI fileUri, FILE_TYPE type) throws IOException{
+  private BagBuilder addFile(URI fileUri, FILE_TYPE type, Metrics.Timer timer) throws IOException{
     Path filePath = Paths.get(fileUri);
     long fileSize = FileUtils.sizeOf(filePath.toFile());
-    bagSize += fileSize;
-    if(FILE_TYPE.PAYLOAD.equals(type)){
-      payloadSize += fileSize;
-    }
+    addSize(fileSize, type);
+    timer.addBytes(fileSize);
 
     if(filePath.toAbsolutePath().startsWith(theBag.getRootDir().toAbsolutePath())){
       //file relative to root: hash separately
-      generateChecksums(filePath, Files.newInputStream(filePath), type);
+      generateChecksums(filePath, type);
     } else{
       throw new IOException("File path " + filePath + " is not relative to bag root path " + theBag.getRootDir() + ".");
     }
@@ -726,7 +1393,8 @@ public class BagBuilder{
    * Depending on the provide type, the checksum(s) are added either to the
    * payload manifest(s) or the tagfile manifest(s). In order to generate the
    * checksum(s), the entire file has to be read once using the provided input
-   * stream.
+   * stream. All checksums are created at once by the checksum engine of this
+   * builder and the stream is closed afterwards.
    *
    * @param filePath The absolute file path relative to the bag root.
    * @param stream The input stream which is either the stream to filePath or a
@@ -738,55 +1406,91 @@ public class BagBuilder{
    * @throws IOException if nothing can be read from the input stream.
    */
   private void generateChecksums(Path filePath, InputStream stream, FILE_TYPE type) throws IOException{
-    int read;
-    byte[] data = new byte[100 * (int) FileUtils.ONE_KB];
-    Map<String, MessageDigest> digestMap = new HashMap<>();
+    Set<String> digestNames = FILE_TYPE.PAYLOAD.equals(type) ? getRequiredPayloadManifestTypes() : getRequiredTagManifestTypes();
 
     AnsiUtil.printInfo(MESSAGES.getString("generating_checksums"), filePath.toString());
-    switch(type){
-      case PAYLOAD: {
-        theBag.getPayLoadManifests().stream().map((manifest) -> manifest.getAlgorithm().getMessageDigestName()).forEachOrdered((digestName) -> {
-          digestMap.put(digestName, DigestUtils.getDigest(digestName));
-        });
-        break;
-      }
-      default: {
-        theBag.getTagManifests().stream().map((manifest) -> manifest.getAlgorithm().getMessageDigestName()).forEachOrdered((digestName) -> {
-          digestMap.put(digestName, DigestUtils.getDigest(digestName));
-        });
-        break;
-      }
+    AnsiUtil.printInfo(MESSAGES.getString("creating_checksums_from_stream"), Integer.toString(digestNames.size()));
+    Map<String, String> checksums;
+    try(InputStream in = stream){
+      checksums = checksumEngine.digest(in, digestNames);
     }
+    addChecksums(filePath, checksums, type);
+  }
 
-    AnsiUtil.printInfo(MESSAGES.getString("creating_checksums_from_stream"), Integer.toString(digestMap.size()));
-    while((read = stream.read(data)) > -1){
-      for(Entry<String, MessageDigest> digest : digestMap.entrySet()){
-        digest.getValue().update(data, 0, read);
+  /**
+   * Generate and add all checksums required by the used BagIt profile for a
+   * file located in the bag. In contrast to {@link #generateChecksums(java.nio.file.Path, java.io.InputStream, edu.kit.dama.interop.util.BagBuilder.FILE_TYPE)
+   * }, the file is read according to the file access mode of the checksum
+   * engine, e.g. via direct buffers or memory-mapped windows.
+   *
+   * @param filePath The absolute file path relative to the bag root.
+   * @param type The file type defining to which manifest the checksums are
+   * written.
+   *
+   * @throws IOException if the file cannot be read.
+   */
+  private void generateChecksums(Path filePath, FILE_TYPE type) throws IOException{
+    Set<String> digestNames = FILE_TYPE.PAYLOAD.equals(type) ? getRequiredPayloadManifestTypes() : getRequiredTagManifestTypes();
+
+    AnsiUtil.printInfo(MESSAGES.getString("generating_checksums"), filePath.toString());
+    addChecksums(filePath, checksumEngine.digest(filePath, digestNames), type);
+  }
+
+  /**
+   * Check that a payload file is listed in all payload manifests.
+   *
+   * @param filePath The absolute file path relative to the bag root.
+   *
+   * @throws Exception If filePath is not listed in any payload manifest.
+   */
+  private void checkListedInPayloadManifests(Path filePath) throws Exception{
+    for(Manifest manifest : theBag.getPayLoadManifests()){
+      if(!manifest.getFileToChecksumMap().containsKey(filePath)){
+        throw new Exception(StringUtils.substitute(MESSAGES.getString("payload_not_in_manifest"), filePath.toString(), manifest.getAlgorithm().getBagitName()));
       }
-      data = new byte[100 * (int) FileUtils.ONE_KB];
     }
+  }
 
-    switch(type){
-      case PAYLOAD: {
-        theBag.getPayLoadManifests().forEach((manifest) -> {
-          final String digestName = manifest.getAlgorithm().getMessageDigestName();
-          final MessageDigest digest = digestMap.get(manifest.getAlgorithm().getMessageDigestName());
-          final String checksum = Hex.encodeHexString(digest.digest());
-          AnsiUtil.printInfo(MESSAGES.getString("adding_checksum_to_manifest"), digestName, checksum, "payload");
-          manifest.getFileToChecksumMap().put(filePath, checksum);
-        });
-        break;
-      }
-      default: {
-        theBag.getTagManifests().forEach((manifest) -> {
-          final String digestName = manifest.getAlgorithm().getMessageDigestName();
-          final MessageDigest digest = digestMap.get(manifest.getAlgorithm().getMessageDigestName());
-          final String checksum = Hex.encodeHexString(digest.digest());
-          AnsiUtil.printInfo(MESSAGES.getString("adding_checksum_to_manifest"), digestName, checksum, "tag");
-          manifest.getFileToChecksumMap().put(filePath, checksum);
-        });
+  /**
+   * Compare created checksums of a single file with the checksums listed in
+   * the provided manifests.
+   *
+   * @param filePath The absolute file path relative to the bag root.
+   * @param checksums The map of digest name and hex-encoded checksum.
+   * @param manifests The manifests listing the expected checksums.
+   *
+   * @throws Exception If any checksum does not match.
+   */
+  private void verifyChecksums(Path filePath, Map<String, String> checksums, Set<Manifest> manifests) throws Exception{
+    for(Manifest manifest : manifests){
+      final String digestName = manifest.getAlgorithm().getMessageDigestName();
+      final String expected = manifest.getFileToChecksumMap().get(filePath);
+      final String actual = checksums.get(digestName);
+      if(expected == null || !expected.equalsIgnoreCase(actual)){
+        throw new Exception(StringUtils.substitute(MESSAGES.getString("checksum_mismatch"), digestName, filePath.toString(), expected, actual));
       }
     }
   }
 
+  /**
+   * Add already generated checksums of a single file to the manifests
+   * according to the provided type.
+   *
+   * @param filePath The absolute file path relative to the bag root.
+   * @param checksums The map of digest name and hex-encoded checksum.
+   * @param type The file type defining to which manifest the checksums are
+   * written, which is either the tag-manifest (type TAGFILE or RDA_METADATA) or
+   * the payload manifest (type PAYLOAD).
+   */
+  private void addChecksums(Path filePath, Map<String, String> checksums, FILE_TYPE type){
+    final boolean isPayload = FILE_TYPE.PAYLOAD.equals(type);
+    final Set<Manifest> manifests = isPayload ? theBag.getPayLoadManifests() : theBag.getTagManifests();
+    manifests.forEach((manifest) -> {
+      final String digestName = manifest.getAlgorithm().getMessageDigestName();
+      final String checksum = checksums.get(digestName);
+      AnsiUtil.printInfo(MESSAGES.getString("adding_checksum_to_manifest"), digestName, checksum, isPayload ? "payload" : "tag");
+      manifest.getFileToChecksumMap().put(filePath, checksum);
+    });
+  }
+
 }
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Persistent cache of the checksums of source files. Entries are keyed by the
+ * absolute file path and are only valid as long as size, modification time
+ * and file key, e.g. the inode, of the file are unchanged. Each entry holds
+ * the checksums of all algorithms created so far, so that a file exported
+ * with different profiles is hashed at most once per algorithm. Checksums are
+ * kept in binary form and are returned as lower-case hex strings. The number
+ * of entries is bounded and the least recently used entries are evicted first.
+ * The cache is stored as one JSON document per line, ordered from least to
+ * most recently used, and is written atomically by {@link #save()}.
+ *
+ * @author jejkal
+ */
+public class ChecksumCache{
+
+  private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.util.MessageBundle");
+
+  /**
+   * Default cache file.
+   */
+  public static final Path DEFAULT_CACHE_FILE = Paths.get(System.getProperty("user.home"), ".kitdm-bagit-tool", "checksums.jsonl");
+
+  /**
+   * Default max. number of cached files. Each entry takes about 400 bytes of
+   * heap, depending on the length of the path and the number of algorithms,
+   * which is about 40 MiB for the default.
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+  /**
+   * Cached checksums of a single file together with the file identity they
+   * were created for.
+   */
+  private static final class CachedChecksums{
+
+    private final long size;
+    private final long lastModified;
+    private final String fileKey;
+    //digest names are interned and shared by all entries
+    private final String[] digestNames;
+    private final byte[][] digests;
+
+    CachedChecksums(long size, long lastModified, String fileKey, Map<String, String> checksums){
+      this.size = size;
+      this.lastModified = lastModified;
+      this.fileKey = fileKey;
+      List<String> names = new ArrayList<>();
+      List<byte[]> values = new ArrayList<>();
+      checksums.forEach((digestName, checksum) -> {
+        byte[] digest = decode(checksum);
+        if(digest != null){
+          names.add(digestName.intern());
+          values.add(digest);
+        }
+      });
+      digestNames = names.toArray(new String[names.size()]);
+      digests = values.toArray(new byte[values.size()][]);
+    }
+
+    /**
+     * Get the checksum of the provided type.
+     *
+     * @param digestName The message digest name.
+     *
+     * @return The hex-encoded checksum or null if it is not cached.
+     */
+    String get(String digestName){
+      for(int i = 0; i < digestNames.length; i++){
+        if(digestNames[i].equals(digestName)){
+          return Hex.encodeHexString(digests[i]);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Get all cached checksums.
+     *
+     * @return A map of message digest name and hex-encoded checksum.
+     */
+    Map<String, String> getChecksums(){
+      Map<String, String> checksums = new HashMap<>();
+      for(int i = 0; i < digestNames.length; i++){
+        checksums.put(digestNames[i], Hex.encodeHexString(digests[i]));
+      }
+      return checksums;
+    }
+
+    boolean matches(BasicFileAttributes attributes){
+      return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis() && fileKeyMatches(fileKey, attributes);
+    }
+  }
+
+  private final Path cacheFile;
+  private final int maxEntries;
+  /**
+   * All entries in access order, guarded by this cache.
+   */
+  private final LinkedHashMap<String, CachedChecksums> entries;
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong evictions = new AtomicLong(0);
+
+  /**
+   * Create a new, empty cache stored in the provided file.
+   *
+   * @param cacheFile The cache file.
+   * @param maxEntries The max. number of cached files.
+   */
+  ChecksumCache(Path cacheFile, int maxEntries){
+    this.cacheFile = cacheFile;
+    this.maxEntries = Math.max(1, maxEntries);
+    entries = new LinkedHashMap<String, CachedChecksums>(16, 0.75f, true){
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedChecksums> eldest){
+        if(size() > ChecksumCache.this.maxEntries){
+          evictions.incrementAndGet();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Load the cache from the provided file holding at most
+   * {@link #DEFAULT_MAX_ENTRIES} files.
+   *
+   * @param cacheFile The cache file.
+   *
+   * @return The cache.
+   *
+   * @throws IOException If reading the file fails.
+   */
+  public static ChecksumCache load(Path cacheFile) throws IOException{
+    return load(cacheFile, DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Load the cache from the provided file. If the file does not exist, an
+   * empty cache is returned. Malformed entries are skipped. If the file holds
+   * more than maxEntries files, the least recently used entries are dropped.
+   *
+   * @param cacheFile The cache file.
+   * @param maxEntries The max. number of cached files.
+   *
+   * @return The cache.
+   *
+   * @throws IOException If reading the file fails.
+   */
+  public static ChecksumCache load(Path cacheFile, int maxEntries) throws IOException{
+    ChecksumCache cache = new ChecksumCache(cacheFile, maxEntries);
+    if(Files.exists(cacheFile)){
+      ObjectMapper mapper = ProfileCache.getObjectMapper();
+      try(BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)){
+        String line;
+        while((line = reader.readLine()) != null){
+          try{
+            JsonNode node = mapper.readTree(line);
+            Map<String, String> checksums = new HashMap<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = node.get("checksums").fields();
+            while(fields.hasNext()){
+              Map.Entry<String, JsonNode> field = fields.next();
+              checksums.put(field.getKey(), field.getValue().asText());
+            }
+            JsonNode fileKey = node.get("fileKey");
+            cache.entries.put(node.get("path").asText(), new CachedChecksums(node.get("size").asLong(), node.get("lastModified").asLong(), (fileKey == null || fileKey.isNull()) ? null : fileKey.asText(), checksums));
+          } catch(IOException | RuntimeException ex){
+            AnsiUtil.printWarning(MESSAGES.getString("skipping_invalid_checksum_cache_entry"), cacheFile.toString(), ex.getMessage());
+          }
+        }
+      }
+      cache.evictions.set(0);
+      AnsiUtil.printInfo(MESSAGES.getString("checksum_cache_loaded"), Integer.toString(cache.entries.size()), cacheFile.toString());
+    }
+    return cache;
+  }
+
+  /**
+   * Get the cached checksums of the provided file if size, modification time
+   * and file key are unchanged. Only checksums of the requested types are
+   * returned, which may be less than requested. A lookup is counted as hit if
+   * all requested checksums are cached.
+   *
+   * @param file The file.
+   * @param attributes The current attributes of the file, which should be
+   * obtained before the file is read.
+   * @param digestNames The message digest names of all requested checksums.
+   *
+   * @return A map of message digest name and hex-encoded checksum, which is
+   * empty if no checksum is cached for the file in its current state.
+   */
+  public Map<String, String> get(Path file, BasicFileAttributes attributes, Collection<String> digestNames){
+    CachedChecksums cached;
+    synchronized(this){
+      cached = entries.get(getKey(file));
+    }
+    Map<String, String> result = new HashMap<>();
+    if(cached != null && cached.matches(attributes)){
+      for(String digestName : digestNames){
+        String checksum = cached.get(digestName);
+        if(checksum != null){
+          result.put(digestName, checksum);
+        }
+      }
+    }
+    if(result.size() == digestNames.size()){
+      hits.incrementAndGet();
+    } else{
+      misses.incrementAndGet();
+    }
+    return result;
+  }
+
+  /**
+   * Add the checksums of the provided file. Checksums of other types cached
+   * for the same, unchanged file are kept.
+   *
+   * @param file The file.
+   * @param attributes The attributes of the file obtained before the file was
+   * read.
+   * @param checksums A map of message digest name and hex-encoded checksum.
+   */
+  public synchronized void put(Path file, BasicFileAttributes attributes, Map<String, String> checksums){
+    String key = getKey(file);
+    CachedChecksums cached = entries.get(key);
+    Map<String, String> merged = new HashMap<>();
+    if(cached != null && cached.matches(attributes)){
+      merged.putAll(cached.getChecksums());
+    }
+    merged.putAll(checksums);
+    entries.put(key, new CachedChecksums(attributes.size(), attributes.lastModifiedTime().toMillis(), getFileKey(attributes), merged));
+  }
+
+  /**
+   * Create all missing checksums of all regular files below the provided
+   * directory, e.g. of the archive of a repository before exporting its
+   * objects. Files whose checksums of all requested types are cached are not
+   * read. Symbolic links are not followed.
+   *
+   * @param directory The directory.
+   * @param digestNames The message digest names of all checksums to cache.
+   * @param engine The engine used to create the checksums.
+   *
+   * @return The number of files read.
+   *
+   * @throws IOException If listing the directory or reading any file fails.
+   */
+  public long prewarm(Path directory, Collection<String> digestNames, ChecksumEngine engine) throws IOException{
+    List<Path> files;
+    try(Stream<Path> stream = Files.walk(directory)){
+      files = stream.filter((file) -> Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)).collect(Collectors.toList());
+    }
+    long hashed = 0;
+    for(Path file : files){
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      Set<String> missing = new HashSet<>(digestNames);
+      missing.removeAll(get(file, attributes, digestNames).keySet());
+      if(missing.isEmpty()){
+        continue;
+      }
+      AnsiUtil.printInfo(MESSAGES.getString("generating_checksums"), file.toString());
+      put(file, attributes, engine.digest(file, missing));
+      hashed++;
+    }
+    return hashed;
+  }
+
+  /**
+   * Get the number of cached files.
+   *
+   * @return The number of entries.
+   */
+  public synchronized int size(){
+    return entries.size();
+  }
+
+  /**
+   * Get the max. number of cached files.
+   *
+   * @return The max. number of entries.
+   */
+  public int getMaxEntries(){
+    return maxEntries;
+  }
+
+  /**
+   * Get the number of lookups answered from the cache.
+   *
+   * @return The number of hits.
+   */
+  public long getHits(){
+    return hits.get();
+  }
+
+  /**
+   * Get the number of lookups not answered from the cache.
+   *
+   * @return The number of misses.
+   */
+  public long getMisses(){
+    return misses.get();
+  }
+
+  /**
+   * Get the number of entries evicted since the cache was loaded.
+   *
+   * @return The number of evicted entries.
+   */
+  public long getEvictions(){
+    return evictions.get();
+  }
+
+  /**
+   * Write the cache to its file. The file is replaced atomically, so that a
+   * failure while writing leaves the previous cache intact.
+   *
+   * @throws IOException If writing fails.
+   */
+  public synchronized void save() throws IOException{
+    Path parent = cacheFile.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path tempFile = Files.createTempFile(parent, "checksums-", ".tmp");
+    try{
+      ObjectMapper mapper = ProfileCache.getObjectMapper();
+      try(BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)){
+        for(Map.Entry<String, CachedChecksums> entry : entries.entrySet()){
+          CachedChecksums cached = entry.getValue();
+          ObjectNode node = mapper.createObjectNode();
+          node.put("path", entry.getKey());
+          node.put("size", cached.size);
+          node.put("lastModified", cached.lastModified);
+          node.put("fileKey", cached.fileKey);
+          ObjectNode checksums = node.putObject("checksums");
+          cached.getChecksums().forEach(checksums::put);
+          writer.write(mapper.writeValueAsString(node));
+          writer.newLine();
+        }
+      }
+      Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally{
+      Files.deleteIfExists(tempFile);
+    }
+    AnsiUtil.printInfo(MESSAGES.getString("checksum_cache_saved"), Integer.toString(entries.size()), cacheFile.toString(), Long.toString(hits.get()), Long.toString(misses.get()), Long.toString(evictions.get()));
+  }
+
+  private static String getKey(Path file){
+    return file.toAbsolutePath().normalize().toString();
+  }
+
+  /**
+   * Decode a hex-encoded checksum.
+   *
+   * @param checksum The checksum.
+   *
+   * @return The binary checksum or null if the checksum is no hex string.
+   */
+  private static byte[] decode(String checksum){
+    if(checksum == null){
+      return null;
+    }
+    try{
+      return Hex.decodeHex(checksum.toCharArray());
+    } catch(DecoderException ex){
+      return null;
+    }
+  }
+
+  private static String getFileKey(BasicFileAttributes attributes){
+    Object fileKey = attributes.fileKey();
+    return (fileKey != null) ? fileKey.toString() : null;
+  }
+
+  private static boolean fileKeyMatches(String fileKey, BasicFileAttributes attributes){
+    String current = getFileKey(attributes);
+    return (fileKey == null) ? current == null : fileKey.equals(current);
+  }
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Engine creating multiple checksums of a single data stream at once. The
+ * stream is read exactly once into two alternating buffers allocated per call.
+ * While one buffer is read from the stream, the content of the other buffer is
+ * fed into all message digests concurrently using a bounded pool of worker
+ * threads shared by all callers of this engine. If only one checksum is
+ * requested or if the engine has only one worker, all digests are updated on
+ * the caller's thread. Optionally, all data can be written to an output stream
+ * while being hashed, which allows to copy and hash a file in a single pass.
+ *
+ * Local files are read via a FileChannel according to the configured file
+ * access mode, either into direct buffers reused across calls or as
+ * memory-mapped windows, so that their content does not pass through the
+ * Java heap. Streams, e.g. of remote resources, are always read into heap
+ * buffers.
+ *
+ * @author jejkal
+ */
+public class ChecksumEngine{
+
+  /**
+   * Modes for reading local files.
+   */
+  public enum FILE_ACCESS{
+    /**
+     * Read files via an InputStream into heap buffers like any other stream.
+     */
+    STREAM,
+    /**
+     * Read files via a FileChannel into two alternating direct buffers of the
+     * configured buffer size, which are reused across calls.
+     */
+    DIRECT,
+    /**
+     * Map files into memory window by window and feed each window into all
+     * digests. Mapped windows are released by the garbage collector.
+     */
+    MAPPED;
+  }
+
+  /**
+   * Default size of the read buffer in bytes.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = (int) FileUtils.ONE_MB;
+  /**
+   * Default mode for reading local files.
+   */
+  public static final FILE_ACCESS DEFAULT_FILE_ACCESS = FILE_ACCESS.DIRECT;
+  /**
+   * Default size of each memory-mapped window in bytes.
+   */
+  public static final int DEFAULT_WINDOW_SIZE = (int) (64 * FileUtils.ONE_MB);
+  /**
+   * Max. number of idle direct buffer pairs kept for reuse.
+   */
+  private static final int MAX_POOLED_BUFFERS = 16;
+  /**
+   * Default number of worker threads, which is the number of available
+   * processors.
+   */
+  public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+  private static ChecksumEngine defaultInstance = null;
+
+  private final int bufferSize;
+  private final int threads;
+  private final FILE_ACCESS fileAccess;
+  private final int windowSize;
+  private final ExecutorService workers;
+  private final BlockingQueue<ByteBuffer[]> directBuffers = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+  /**
+   * Create a new engine reading local files according to
+   * {@link #DEFAULT_FILE_ACCESS}.
+   *
+   * @param threads The max. number of worker threads updating digests
+   * concurrently. Values smaller than 2 disable concurrent updates.
+   * @param bufferSize The size of each read buffer in bytes.
+   */
+  public ChecksumEngine(int threads, int bufferSize){
+    this(threads, bufferSize, DEFAULT_FILE_ACCESS, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * Create a new engine.
+   *
+   * @param threads The max. number of worker threads updating digests
+   * concurrently. Values smaller than 2 disable concurrent updates.
+   * @param bufferSize The size of each read buffer in bytes.
+   * @param fileAccess The mode for reading local files.
+   * @param windowSize The size of each memory-mapped window in bytes, only
+   * used with FILE_ACCESS.MAPPED.
+   */
+  public ChecksumEngine(int threads, int bufferSize, FILE_ACCESS fileAccess, int windowSize){
+    if(bufferSize <= 0){
+      throw new IllegalArgumentException("Argument 'bufferSize' must be positive.");
+    }
+    if(windowSize <= 0){
+      throw new IllegalArgumentException("Argument 'windowSize' must be positive.");
+    }
+    this.bufferSize = bufferSize;
+    this.fileAccess = fileAccess;
+    this.windowSize = windowSize;
+    this.threads = Math.max(1, threads);
+    if(this.threads > 1){
+      final AtomicInteger counter = new AtomicInteger(0);
+      workers = Executors.newFixedThreadPool(this.threads, (r) -> {
+        Thread t = new Thread(r, "checksum-worker-" + counter.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+    } else{
+      workers = null;
+    }
+  }
+
+  /**
+   * Get the shared engine instance using {@link #DEFAULT_THREADS} and
+   * {@link #DEFAULT_BUFFER_SIZE}.
+   *
+   * @return The default engine.
+   */
+  public static synchronized ChecksumEngine getDefault(){
+    if(defaultInstance == null){
+      defaultInstance = new ChecksumEngine(DEFAULT_THREADS, DEFAULT_BUFFER_SIZE);
+    }
+    return defaultInstance;
+  }
+
+  /**
+   * Get the size of the read buffer.
+   *
+   * @return The buffer size in bytes.
+   */
+  public int getBufferSize(){
+    return bufferSize;
+  }
+
+  /**
+   * Get the max. number of worker threads.
+   *
+   * @return The number of threads.
+   */
+  public int getThreads(){
+    return threads;
+  }
+
+  /**
+   * Get the mode for reading local files.
+   *
+   * @return The file access mode.
+   */
+  public FILE_ACCESS getFileAccess(){
+    return fileAccess;
+  }
+
+  /**
+   * Get the size of each memory-mapped window.
+   *
+   * @return The window size in bytes.
+   */
+  public int getWindowSize(){
+    return windowSize;
+  }
+
+  /**
+   * Read the provided stream until its end and create one checksum for each
+   * provided digest name. The stream is not closed by this method.
+   *
+   * @param stream The stream to read.
+   * @param digestNames The message digest names, e.g. MD5 or SHA-256.
+   *
+   * @return A map of digest name and hex-encoded checksum.
+   *
+   * @throws IOException If reading the stream fails or if the operation was
+   * interrupted.
+   */
+  public Map<String, String> digest(InputStream stream, Collection<String> digestNames) throws IOException{
+    return digest(stream, null, digestNames);
+  }
+
+  /**
+   * Read the provided stream until its end, write all data to the provided
+   * output stream and create one checksum for each provided digest name. Each
+   * chunk is written on the caller's thread while the digests are updated by
+   * the worker threads. None of the streams is closed by this method.
+   *
+   * @param stream The stream to read.
+   * @param copy The stream receiving all data read from stream or null if the
+   * data should only be hashed.
+   * @param digestNames The message digest names, e.g. MD5 or SHA-256.
+   *
+   * @return A map of digest name and hex-encoded checksum.
+   *
+   * @throws IOException If reading or writing fails or if the operation was
+   * interrupted.
+   */
+  public Map<String, String> digest(InputStream stream, OutputStream copy, Collection<String> digestNames) throws IOException{
+    final Map<String, MessageDigest> digestMap = new LinkedHashMap<>();
+    digestNames.forEach((digestName) -> {
+      digestMap.put(digestName, DigestUtils.getDigest(digestName));
+    });
+    final List<MessageDigest> digests = new ArrayList<>(digestMap.values());
+
+    if(workers == null || digests.size() < 2){
+      byte[] data = new byte[bufferSize];
+      int read;
+      while((read = fill(stream, data)) > 0){
+        for(MessageDigest digest : digests){
+          digest.update(data, 0, read);
+        }
+        if(copy != null){
+          copy.write(data, 0, read);
+        }
+      }
+    } else{
+      byte[][] buffers = new byte[][]{new byte[bufferSize], new byte[bufferSize]};
+      int index = 0;
+      int read = fill(stream, buffers[index]);
+      while(read > 0){
+        final byte[] chunk = buffers[index];
+        final int length = read;
+        List<Future<?>> tasks = new ArrayList<>(digests.size());
+        for(MessageDigest digest : digests){
+          tasks.add(workers.submit(() -> digest.update(chunk, 0, length)));
+        }
+        //write the chunk and read the next chunk into the other buffer while digests are updated
+        index ^= 1;
+        try{
+          if(copy != null){
+            copy.write(chunk, 0, length);
+          }
+          read = fill(stream, buffers[index]);
+        } finally{
+          await(tasks);
+        }
+      }
+    }
+
+    Map<String, String> result = new LinkedHashMap<>();
+    for(Entry<String, MessageDigest> entry : digestMap.entrySet()){
+      result.put(entry.getKey(), Hex.encodeHexString(entry.getValue().digest()));
+    }
+    return result;
+  }
+
+  /**
+   * Read the provided local file and create one checksum for each provided
+   * digest name.
+   *
+   * @param file The file to read.
+   * @param digestNames The message digest names, e.g. MD5 or SHA-256.
+   *
+   * @return A map of digest name and hex-encoded checksum.
+   *
+   * @throws IOException If reading the file fails or if the operation was
+   * interrupted.
+   */
+  public Map<String, String> digest(Path file, Collection<String> digestNames) throws IOException{
+    return digest(file, null, digestNames);
+  }
+
+  /**
+   * Read the provided local file, write all data to the provided channel and
+   * create one checksum for each provided digest name. The file is read
+   * according to the file access mode of this engine. The channel is not
+   * closed by this method.
+   *
+   * @param file The file to read.
+   * @param copy The channel receiving the file content or null if the file
+   * should only be hashed.
+   * @param digestNames The message digest names, e.g. MD5 or SHA-256.
+   *
+   * @return A map of digest name and hex-encoded checksum.
+   *
+   * @throws IOException If reading or writing fails or if the operation was
+   * interrupted.
+   */
+  public Map<String, String> digest(Path file, WritableByteChannel copy, Collection<String> digestNames) throws IOException{
+    if(FILE_ACCESS.STREAM.equals(fileAccess)){
+      try(InputStream in = Files.newInputStream(file)){
+        return digest(in, (copy != null) ? Channels.newOutputStream(copy) : null, digestNames);
+      }
+    }
+
+    final Map<String, MessageDigest> digestMap = new LinkedHashMap<>();
+    digestNames.forEach((digestName) -> {
+      digestMap.put(digestName, DigestUtils.getDigest(digestName));
+    });
+    final List<MessageDigest> digests = new ArrayList<>(digestMap.values());
+
+    try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)){
+      if(FILE_ACCESS.MAPPED.equals(fileAccess)){
+        final long size = in.size();
+        long position = 0;
+        while(position < size){
+          final long length = Math.min(windowSize, size - position);
+          MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+          List<Future<?>> tasks = update(digests, window);
+          try{
+            if(copy != null){
+              write(copy, window.duplicate());
+            }
+          } finally{
+            await(tasks);
+          }
+          position += length;
+        }
+      } else{
+        ByteBuffer[] buffers = directBuffers.poll();
+        if(buffers == null){
+          buffers = new ByteBuffer[]{ByteBuffer.allocateDirect(bufferSize), ByteBuffer.allocateDirect(bufferSize)};
+        }
+        try{
+          int index = 0;
+          int read = fill(in, buffers[index]);
+          while(read > 0){
+            final ByteBuffer chunk = buffers[index];
+            List<Future<?>> tasks = update(digests, chunk);
+            //write the chunk and read the next chunk into the other buffer while digests are updated
+            index ^= 1;
+            try{
+              if(copy != null){
+                write(copy, chunk.duplicate());
+              }
+              read = fill(in, buffers[index]);
+            } finally{
+              await(tasks);
+            }
+          }
+        } finally{
+          directBuffers.offer(buffers);
+        }
+      }
+    }
+
+    Map<String, String> result = new LinkedHashMap<>();
+    for(Entry<String, MessageDigest> entry : digestMap.entrySet()){
+      result.put(entry.getKey(), Hex.encodeHexString(entry.getValue().digest()));
+    }
+    return result;
+  }
+
+  /**
+   * Stop all worker threads of this engine. The default engine should not be
+   * shut down.
+   */
+  public void shutdown(){
+    if(workers != null){
+      workers.shutdown();
+    }
+  }
+
+  /**
+   * Read from the stream until the buffer is full or the end of the stream is
+   * reached.
+   *
+   * @param stream The stream to read from.
+   * @param buffer The buffer to fill.
+   *
+   * @return The number of bytes read, which is 0 at the end of the stream.
+   *
+   * @throws IOException If reading the stream fails.
+   */
+  private int fill(InputStream stream, byte[] buffer) throws IOException{
+    int offset = 0;
+    int read;
+    while(offset < buffer.length && (read = stream.read(buffer, offset, buffer.length - offset)) > -1){
+      offset += read;
+    }
+    return offset;
+  }
+
+  /**
+   * Read from the channel until the buffer is full or the end of the file is
+   * reached. The buffer is flipped afterwards, so that it is ready for being
+   * consumed.
+   *
+   * @param channel The channel to read from.
+   * @param buffer The buffer to fill.
+   *
+   * @return The number of bytes read, which is 0 at the end of the file.
+   *
+   * @throws IOException If reading the channel fails.
+   */
+  private int fill(FileChannel channel, ByteBuffer buffer) throws IOException{
+    buffer.clear();
+    while(buffer.hasRemaining() && channel.read(buffer) > -1){
+      //continue reading
+    }
+    buffer.flip();
+    return buffer.remaining();
+  }
+
+  /**
+   * Write the remaining content of the provided buffer to the channel.
+   *
+   * @param channel The channel to write to.
+   * @param buffer The buffer to write.
+   *
+   * @throws IOException If writing fails.
+   */
+  private void write(WritableByteChannel channel, ByteBuffer buffer) throws IOException{
+    while(buffer.hasRemaining()){
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Feed the remaining content of the provided buffer into all digests. Each
+   * digest consumes its own view of the buffer, so that the buffer itself is
+   * not modified. If more than one digest is updated and worker threads are
+   * available, the digests are updated concurrently.
+   *
+   * @param digests The digests to update.
+   * @param buffer The buffer holding the data.
+   *
+   * @return The tasks updating the digests, which have to be awaited before
+   * the buffer is modified, or an empty list if all digests were updated on
+   * the caller's thread.
+   */
+  private List<Future<?>> update(List<MessageDigest> digests, ByteBuffer buffer){
+    if(workers == null || digests.size() < 2){
+      for(MessageDigest digest : digests){
+        digest.update(buffer.duplicate());
+      }
+      return Collections.emptyList();
+    }
+    List<Future<?>> tasks = new ArrayList<>(digests.size());
+    for(MessageDigest digest : digests){
+      final ByteBuffer view = buffer.duplicate();
+      tasks.add(workers.submit(() -> digest.update(view)));
+    }
+    return tasks;
+  }
+
+  /**
+   * Wait for all provided digest update tasks.
+   *
+   * @param tasks The tasks to wait for.
+   *
+   * @throws IOException If any task failed or if waiting was interrupted.
+   */
+  private void await(List<Future<?>> tasks) throws IOException{
+    for(Future<?> task : tasks){
+      try{
+        task.get();
+      } catch(InterruptedException ex){
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for checksum computation.");
+      } catch(ExecutionException ex){
+        throw new IOException("Failed to update message digest.", ex.getCause());
+      }
+    }
+  }
+}
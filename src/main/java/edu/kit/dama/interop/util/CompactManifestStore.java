@@ -0,0 +1,634 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Compact storage of the manifests of a bag with very many files. All
+ * manifests created by one store share a single path table, in which each path
+ * is stored once, consisting of an interned parent directory and the UTF-8
+ * encoded file name. Checksums are stored in binary form per manifest. File
+ * names and checksums are kept outside of the Java heap in fixed-size blocks,
+ * which are allocated as direct buffers up to the configured memory budget and
+ * mapped from a temporary file afterwards, so that the operating system may
+ * page them out. The budget is limited to half of the max. direct memory of
+ * the JVM and if a direct buffer cannot be allocated nevertheless, all further
+ * blocks are mapped from the temporary file. On the heap, only a few primitive
+ * values per path remain.
+ *
+ * The maps created by this store are thread-safe and iterate in the natural
+ * order of their paths, like the sorted maps used for small bags. Checksums
+ * are returned exactly as they were put. Only lower-case hex strings of the
+ * expected length, as created by the checksum engine, are stored in binary
+ * form, all other values are kept as strings.
+ *
+ * @author jejkal
+ */
+final class CompactManifestStore implements Closeable{
+
+  /**
+   * Default number of bytes allocated outside of the Java heap before blocks
+   * are mapped from a temporary file.
+   */
+  static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+  private static final int BLOCK_SIZE = 1024 * 1024;
+  private static final int NO_PARENT = 0;
+  /**
+   * Max. number of bytes allocated as direct buffers independent of the
+   * memory budget, leaving the other half of the direct memory to the
+   * checksum engine and to I/O.
+   */
+  private static final long DIRECT_MEMORY_LIMIT = getMaxDirectMemory() / 2;
+
+  private long memoryBudget;
+  private long allocated = 0;
+  private Path spillFile = null;
+  private FileChannel spillChannel = null;
+  private long spillSize = 0;
+
+  //path table
+  private FileSystem fileSystem = null;
+  private final List<Path> directories = new ArrayList<>();
+  private final List<byte[]> directoryPrefixes = new ArrayList<>();
+  private final Map<Path, Integer> directoryIds = new HashMap<>();
+  private final List<ByteBuffer> nameBlocks = new ArrayList<>();
+  private int nameBlockPosition = BLOCK_SIZE;
+  private long[] nameOffsets = new long[1024];
+  private int[] parents = new int[1024];
+  private int[] hashes = new int[1024];
+  private int pathCount = 0;
+  private int[] table = new int[2048];
+
+  /**
+   * Create a new store.
+   *
+   * @param memoryBudget The number of bytes allocated outside of the Java heap
+   * before blocks are mapped from a temporary file.
+   */
+  CompactManifestStore(long memoryBudget){
+    this.memoryBudget = memoryBudget;
+    Arrays.fill(table, -1);
+    //parent of paths without parent
+    directories.add(null);
+    directoryPrefixes.add(new byte[0]);
+  }
+
+  /**
+   * Set the number of bytes allocated outside of the Java heap before blocks
+   * are mapped from a temporary file. Blocks already allocated are not
+   * affected.
+   *
+   * @param memoryBudget The memory budget in bytes.
+   */
+  synchronized void setMemoryBudget(long memoryBudget){
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * Create a new, empty manifest map sharing the path table of this store.
+   *
+   * @param digestName The message digest name of the checksums stored in the
+   * map, e.g. MD5 or SHA-256.
+   *
+   * @return The map.
+   *
+   * @throws NoSuchAlgorithmException If the digest is not supported.
+   */
+  Map<Path, String> createMap(String digestName) throws NoSuchAlgorithmException{
+    return new ManifestMap(MessageDigest.getInstance(digestName).getDigestLength());
+  }
+
+  /**
+   * Release all blocks and delete the temporary file, if any. Maps created by
+   * this store must not be used afterwards.
+   *
+   * @throws IOException If closing the temporary file fails.
+   */
+  @Override
+  public synchronized void close() throws IOException{
+    nameBlocks.clear();
+    if(spillChannel != null){
+      spillChannel.close();
+      spillChannel = null;
+      Files.deleteIfExists(spillFile);
+    }
+  }
+
+  /**
+   * Get the number of bytes stored in the temporary file.
+   *
+   * @return The number of bytes or 0 if all blocks are direct buffers.
+   */
+  synchronized long getSpillSize(){
+    return spillSize;
+  }
+
+  /**
+   * Get the max. number of bytes the JVM may allocate as direct buffers,
+   * which is the value of -XX:MaxDirectMemorySize if provided and the max.
+   * heap size otherwise.
+   *
+   * @return The number of bytes.
+   */
+  static long getMaxDirectMemory(){
+    long maxDirectMemory = Runtime.getRuntime().maxMemory();
+    for(String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()){
+      if(argument.startsWith("-XX:MaxDirectMemorySize=")){
+        String value = argument.substring(argument.indexOf('=') + 1).trim().toLowerCase(Locale.ENGLISH);
+        long factor = 1;
+        if(value.endsWith("k")){
+          factor = 1024;
+        } else if(value.endsWith("m")){
+          factor = 1024 * 1024;
+        } else if(value.endsWith("g")){
+          factor = 1024 * 1024 * 1024;
+        } else if(value.endsWith("t")){
+          factor = 1024L * 1024 * 1024 * 1024;
+        }
+        try{
+          long size = Long.parseLong((factor == 1) ? value : value.substring(0, value.length() - 1)) * factor;
+          if(size > 0){
+            maxDirectMemory = size;
+          }
+        } catch(NumberFormatException ex){
+          //keep the default
+        }
+      }
+    }
+    return maxDirectMemory;
+  }
+
+  /**
+   * Allocate a new block, which is a direct buffer within the memory budget
+   * or a region of the temporary file otherwise.
+   *
+   * @return The block.
+   */
+  private ByteBuffer allocateBlock(){
+    try{
+      if(allocated + BLOCK_SIZE <= Math.min(memoryBudget, DIRECT_MEMORY_LIMIT)){
+        try{
+          ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+          allocated += BLOCK_SIZE;
+          return block;
+        } catch(OutOfMemoryError ex){
+          //direct memory exhausted by other buffers, continue with the temporary file
+          memoryBudget = allocated;
+        }
+      }
+      if(spillChannel == null){
+        spillFile = Files.createTempFile("manifest-", ".bin");
+        spillFile.toFile().deleteOnExit();
+        spillChannel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      }
+      ByteBuffer block = spillChannel.map(FileChannel.MapMode.READ_WRITE, spillSize, BLOCK_SIZE);
+      spillSize += BLOCK_SIZE;
+      return block;
+    } catch(IOException ex){
+      throw new IllegalStateException(ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Get the id of the provided path.
+   *
+   * @param path The path.
+   * @param create TRUE to add the path if it is not known, yet.
+   *
+   * @return The id or -1 if the path is not known and create is FALSE.
+   */
+  private int getPathId(Path path, boolean create){
+    if(fileSystem == null){
+      fileSystem = path.getFileSystem();
+    }
+    Path parent = path.getParent();
+    Integer parentId = (parent == null) ? Integer.valueOf(NO_PARENT) : directoryIds.get(parent);
+    if(parentId == null){
+      if(!create){
+        return -1;
+      }
+      parentId = directories.size();
+      directories.add(parent);
+      String prefix = parent.toString();
+      if(!prefix.endsWith(fileSystem.getSeparator())){
+        prefix += fileSystem.getSeparator();
+      }
+      directoryPrefixes.add(prefix.getBytes(StandardCharsets.UTF_8));
+      directoryIds.put(parent, parentId);
+    }
+    Path fileName = path.getFileName();
+    byte[] name = (fileName == null) ? new byte[0] : fileName.toString().getBytes(StandardCharsets.UTF_8);
+    int hash = 31 * parentId + Arrays.hashCode(name);
+    int mask = table.length - 1;
+    for(int slot = mix(hash) & mask;; slot = (slot + 1) & mask){
+      int id = table[slot];
+      if(id < 0){
+        if(!create){
+          return -1;
+        }
+        return addPath(slot, parentId, name, hash);
+      }
+      if(hashes[id] == hash && parents[id] == parentId && nameEquals(id, name)){
+        return id;
+      }
+    }
+  }
+
+  /**
+   * Add a new path to the path table.
+   *
+   * @param slot The free slot in the hash table.
+   * @param parentId The id of the parent directory.
+   * @param name The encoded file name.
+   * @param hash The hash of the path.
+   *
+   * @return The id of the new path.
+   */
+  private int addPath(int slot, int parentId, byte[] name, int hash){
+    if(name.length + 2 > BLOCK_SIZE || name.length > 0xFFFF){
+      throw new IllegalArgumentException("File name too long: " + new String(name, StandardCharsets.UTF_8));
+    }
+    if(nameBlockPosition + name.length + 2 > BLOCK_SIZE){
+      nameBlocks.add(allocateBlock());
+      nameBlockPosition = 0;
+    }
+    ByteBuffer block = nameBlocks.get(nameBlocks.size() - 1);
+    block.putShort(nameBlockPosition, (short) name.length);
+    for(int i = 0; i < name.length; i++){
+      block.put(nameBlockPosition + 2 + i, name[i]);
+    }
+
+    int id = pathCount++;
+    if(id == parents.length){
+      int capacity = parents.length * 2;
+      parents = Arrays.copyOf(parents, capacity);
+      hashes = Arrays.copyOf(hashes, capacity);
+      nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+    }
+    parents[id] = parentId;
+    hashes[id] = hash;
+    nameOffsets[id] = (long) (nameBlocks.size() - 1) * BLOCK_SIZE + nameBlockPosition;
+    nameBlockPosition += name.length + 2;
+    table[slot] = id;
+
+    if(pathCount * 2 > table.length){
+      //keep the load factor below 0.5
+      int[] newTable = new int[table.length * 2];
+      Arrays.fill(newTable, -1);
+      int mask = newTable.length - 1;
+      for(int i = 0; i < pathCount; i++){
+        int s = mix(hashes[i]) & mask;
+        while(newTable[s] >= 0){
+          s = (s + 1) & mask;
+        }
+        newTable[s] = i;
+      }
+      table = newTable;
+    }
+    return id;
+  }
+
+  private boolean nameEquals(int id, byte[] name){
+    ByteBuffer block = nameBlocks.get((int) (nameOffsets[id] / BLOCK_SIZE));
+    int position = (int) (nameOffsets[id] % BLOCK_SIZE);
+    if((block.getShort(position) & 0xFFFF) != name.length){
+      return false;
+    }
+    for(int i = 0; i < name.length; i++){
+      if(block.get(position + 2 + i) != name[i]){
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private byte[] getName(int id){
+    ByteBuffer block = nameBlocks.get((int) (nameOffsets[id] / BLOCK_SIZE));
+    int position = (int) (nameOffsets[id] % BLOCK_SIZE);
+    byte[] name = new byte[block.getShort(position) & 0xFFFF];
+    for(int i = 0; i < name.length; i++){
+      name[i] = block.get(position + 2 + i);
+    }
+    return name;
+  }
+
+  private Path getPath(int id){
+    Path parent = directories.get(parents[id]);
+    String name = new String(getName(id), StandardCharsets.UTF_8);
+    return (parent == null) ? fileSystem.getPath(name) : parent.resolve(name);
+  }
+
+  /**
+   * Compare two paths by the bytes of their string representation, which
+   * equals the natural order of paths on Unix file systems.
+   *
+   * @param a The id of the first path.
+   * @param b The id of the second path.
+   *
+   * @return A negative value, zero or a positive value if a is less than,
+   * equal to or greater than b.
+   */
+  private int comparePaths(int a, int b){
+    byte[] nameA = getName(a);
+    byte[] nameB = getName(b);
+    if(parents[a] == parents[b]){
+      return compareBytes(nameA, 0, nameA.length, nameB, 0, nameB.length);
+    }
+    byte[] prefixA = directoryPrefixes.get(parents[a]);
+    byte[] prefixB = directoryPrefixes.get(parents[b]);
+    int lengthA = prefixA.length + nameA.length;
+    int lengthB = prefixB.length + nameB.length;
+    for(int i = 0; i < Math.min(lengthA, lengthB); i++){
+      int byteA = ((i < prefixA.length) ? prefixA[i] : nameA[i - prefixA.length]) & 0xFF;
+      int byteB = ((i < prefixB.length) ? prefixB[i] : nameB[i - prefixB.length]) & 0xFF;
+      if(byteA != byteB){
+        return byteA - byteB;
+      }
+    }
+    return lengthA - lengthB;
+  }
+
+  private static int compareBytes(byte[] a, int offsetA, int lengthA, byte[] b, int offsetB, int lengthB){
+    for(int i = 0; i < Math.min(lengthA, lengthB); i++){
+      int diff = (a[offsetA + i] & 0xFF) - (b[offsetB + i] & 0xFF);
+      if(diff != 0){
+        return diff;
+      }
+    }
+    return lengthA - lengthB;
+  }
+
+  /**
+   * Sort the provided path ids by their paths using a merge sort.
+   *
+   * @param ids The ids to sort.
+   */
+  private void sortByPath(int[] ids){
+    int[] buffer = new int[ids.length];
+    for(int width = 1; width < ids.length; width *= 2){
+      for(int low = 0; low < ids.length - width; low += 2 * width){
+        int middle = low + width;
+        int high = Math.min(low + 2 * width, ids.length);
+        int i = low, j = middle, k = low;
+        while(i < middle && j < high){
+          buffer[k++] = (comparePaths(ids[i], ids[j]) <= 0) ? ids[i++] : ids[j++];
+        }
+        while(i < middle){
+          buffer[k++] = ids[i++];
+        }
+        while(j < high){
+          buffer[k++] = ids[j++];
+        }
+        System.arraycopy(buffer, low, ids, low, high - low);
+      }
+    }
+  }
+
+  private static int mix(int hash){
+    int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Manifest map storing binary checksums of fixed length by path id.
+   * Checksums which are no hex strings of the expected length are kept as
+   * strings.
+   */
+  private final class ManifestMap extends AbstractMap<Path, String>{
+
+    private final int digestLength;
+    private final int digestsPerBlock;
+    private final List<ByteBuffer> digestBlocks = new ArrayList<>();
+    private final BitSet present = new BitSet();
+    private final Map<Integer, String> irregular = new HashMap<>();
+    private int size = 0;
+
+    ManifestMap(int digestLength){
+      this.digestLength = digestLength;
+      this.digestsPerBlock = BLOCK_SIZE / digestLength;
+    }
+
+    @Override
+    public String get(Object key){
+      synchronized(CompactManifestStore.this){
+        if(!(key instanceof Path)){
+          return null;
+        }
+        int id = getPathId((Path) key, false);
+        return (id >= 0 && present.get(id)) ? getChecksum(id) : null;
+      }
+    }
+
+    @Override
+    public boolean containsKey(Object key){
+      synchronized(CompactManifestStore.this){
+        if(!(key instanceof Path)){
+          return false;
+        }
+        int id = getPathId((Path) key, false);
+        return id >= 0 && present.get(id);
+      }
+    }
+
+    @Override
+    public String put(Path key, String value){
+      synchronized(CompactManifestStore.this){
+        int id = getPathId(key, true);
+        String previous = present.get(id) ? getChecksum(id) : null;
+        byte[] digest = decode(value);
+        if(digest != null){
+          irregular.remove(id);
+          int block = id / digestsPerBlock;
+          while(digestBlocks.size() <= block){
+            digestBlocks.add(null);
+          }
+          if(digestBlocks.get(block) == null){
+            digestBlocks.set(block, allocateBlock());
+          }
+          int position = (id % digestsPerBlock) * digestLength;
+          ByteBuffer buffer = digestBlocks.get(block);
+          for(int i = 0; i < digestLength; i++){
+            buffer.put(position + i, digest[i]);
+          }
+        } else{
+          irregular.put(id, value);
+        }
+        if(!present.get(id)){
+          present.set(id);
+          size++;
+        }
+        return previous;
+      }
+    }
+
+    @Override
+    public String remove(Object key){
+      synchronized(CompactManifestStore.this){
+        if(!(key instanceof Path)){
+          return null;
+        }
+        int id = getPathId((Path) key, false);
+        if(id < 0 || !present.get(id)){
+          return null;
+        }
+        String previous = getChecksum(id);
+        present.clear(id);
+        irregular.remove(id);
+        size--;
+        return previous;
+      }
+    }
+
+    @Override
+    public void clear(){
+      synchronized(CompactManifestStore.this){
+        present.clear();
+        irregular.clear();
+        size = 0;
+      }
+    }
+
+    @Override
+    public int size(){
+      synchronized(CompactManifestStore.this){
+        return size;
+      }
+    }
+
+    /**
+     * Get a view of all entries, which iterates over a snapshot of the
+     * contained paths in their natural order. Removing entries via the
+     * iterator is supported.
+     *
+     * @return The entry set.
+     */
+    @Override
+    public Set<Map.Entry<Path, String>> entrySet(){
+      return new AbstractSet<Map.Entry<Path, String>>(){
+        @Override
+        public int size(){
+          return ManifestMap.this.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<Path, String>> iterator(){
+          final int[] ids;
+          synchronized(CompactManifestStore.this){
+            ids = present.stream().toArray();
+            sortByPath(ids);
+          }
+          return new Iterator<Map.Entry<Path, String>>(){
+            private int index = 0;
+            private Path last = null;
+
+            @Override
+            public boolean hasNext(){
+              return index < ids.length;
+            }
+
+            @Override
+            public Map.Entry<Path, String> next(){
+              if(!hasNext()){
+                throw new NoSuchElementException();
+              }
+              synchronized(CompactManifestStore.this){
+                int id = ids[index++];
+                last = getPath(id);
+                return new AbstractMap.SimpleImmutableEntry<>(last, present.get(id) ? getChecksum(id) : null);
+              }
+            }
+
+            @Override
+            public void remove(){
+              if(last == null){
+                throw new IllegalStateException();
+              }
+              ManifestMap.this.remove(last);
+              last = null;
+            }
+          };
+        }
+      };
+    }
+
+    private String getChecksum(int id){
+      String value = irregular.get(id);
+      if(value != null || irregular.containsKey(id)){
+        return value;
+      }
+      ByteBuffer buffer = digestBlocks.get(id / digestsPerBlock);
+      int position = (id % digestsPerBlock) * digestLength;
+      byte[] digest = new byte[digestLength];
+      for(int i = 0; i < digestLength; i++){
+        digest[i] = buffer.get(position + i);
+      }
+      return Hex.encodeHexString(digest);
+    }
+
+    /**
+     * Decode a checksum into its binary form. Only lower-case hex strings of
+     * the expected length are decoded, so that encoding the result yields the
+     * original string.
+     *
+     * @param value The checksum.
+     *
+     * @return The binary checksum or null if the value is kept as string.
+     */
+    private byte[] decode(String value){
+      if(value == null || value.length() != digestLength * 2){
+        return null;
+      }
+      for(int i = 0; i < value.length(); i++){
+        char c = value.charAt(i);
+        if(!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))){
+          return null;
+        }
+      }
+      try{
+        return Hex.decodeHex(value.toCharArray());
+      } catch(DecoderException ex){
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import gov.loc.repository.bagit.domain.FetchItem;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Queue;
+import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.ProxyInputStream;
+
+/**
+ * Engine downloading the fetch items of a bag concurrently. A fixed number of
+ * worker threads limits the total number of open connections and a separate
+ * limit applies per host, where items of a saturated host are queued without
+ * occupying a worker thread. Each download is verified against the payload
+ * manifests of the bag while the data is written, using the checksum engine
+ * of the provided builder. Failed downloads are retried with exponential
+ * backoff, while the delay does not count against the host limit. If a partially downloaded file exists, e.g. from a previous attempt,
+ * only the missing part is requested using an HTTP Range request and the
+ * existing part is hashed from disk. Complete files are only verified and not
+ * downloaded again. While downloading, the progress is reported periodically.
+ *
+ * @author jejkal
+ */
+public class FetchEngine implements AutoCloseable{
+
+  private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.util.MessageBundle");
+
+  /**
+   * Default number of concurrent downloads.
+   */
+  public static final int DEFAULT_THREADS = 4;
+  /**
+   * Default number of concurrent downloads per host.
+   */
+  public static final int DEFAULT_THREADS_PER_HOST = 2;
+  /**
+   * Default number of retries per item.
+   */
+  public static final int DEFAULT_RETRIES = 3;
+  /**
+   * Default connect and read timeout in milliseconds.
+   */
+  public static final int DEFAULT_TIMEOUT = 30000;
+  /**
+   * Default delay before the first retry in milliseconds, which is doubled for
+   * each further retry.
+   */
+  public static final long DEFAULT_RETRY_DELAY = 1000;
+  /**
+   * Default interval of progress reports in seconds.
+   */
+  public static final long DEFAULT_REPORT_INTERVAL = 10;
+
+  private final BagBuilder builder;
+  private final ExecutorService workers;
+  private final ScheduledExecutorService timer;
+  private final HostScheduler scheduler;
+  private final Queue<Future<?>> tasks = new ConcurrentLinkedQueue<>();
+  private final Queue<Exception> failures = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger itemsSubmitted = new AtomicInteger(0);
+  private final AtomicInteger itemsFinished = new AtomicInteger(0);
+  private final AtomicLong bytesFetched = new AtomicLong(0);
+  private final long startTime = System.currentTimeMillis();
+  private int timeout = DEFAULT_TIMEOUT;
+  private int retries = DEFAULT_RETRIES;
+  private long retryDelay = DEFAULT_RETRY_DELAY;
+
+  /**
+   * Create a new engine.
+   *
+   * @param builder The builder of the bag the fetch items belong to.
+   * @param threads The max. number of concurrent downloads.
+   * @param threadsPerHost The max. number of concurrent downloads from the
+   * same host.
+   */
+  public FetchEngine(BagBuilder builder, int threads, int threadsPerHost){
+    this(builder, threads, threadsPerHost, DEFAULT_REPORT_INTERVAL);
+  }
+
+  /**
+   * Create a new engine.
+   *
+   * @param builder The builder of the bag the fetch items belong to.
+   * @param threads The max. number of concurrent downloads.
+   * @param threadsPerHost The max. number of concurrent downloads from the
+   * same host.
+   * @param reportInterval The interval of progress reports in seconds or 0 to
+   * disable progress reports.
+   */
+  public FetchEngine(BagBuilder builder, int threads, int threadsPerHost, long reportInterval){
+    this.builder = builder;
+    final AtomicInteger counter = new AtomicInteger(0);
+    workers = Executors.newFixedThreadPool(Math.max(1, threads), (r) -> {
+      Thread t = new Thread(r, "fetch-worker-" + counter.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    scheduler = new HostScheduler(workers, threadsPerHost);
+    //timer for progress reports and delayed retries
+    timer = Executors.newSingleThreadScheduledExecutor((r) -> {
+      Thread t = new Thread(r, "fetch-timer");
+      t.setDaemon(true);
+      return t;
+    });
+    if(reportInterval > 0){
+      timer.scheduleAtFixedRate(this::report, reportInterval, reportInterval, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Set the connect and read timeout of each connection.
+   *
+   * @param timeout The timeout in milliseconds.
+   *
+   * @return This FetchEngine instance.
+   */
+  public FetchEngine setTimeout(int timeout){
+    this.timeout = timeout;
+    return this;
+  }
+
+  /**
+   * Set the number of retries per item and the delay before the first retry,
+   * which is doubled for each further retry.
+   *
+   * @param retries The number of retries.
+   * @param retryDelay The delay in milliseconds.
+   *
+   * @return This FetchEngine instance.
+   */
+  public FetchEngine setRetries(int retries, long retryDelay){
+    this.retries = Math.max(0, retries);
+    this.retryDelay = Math.max(0, retryDelay);
+    return this;
+  }
+
+  /**
+   * Submit a fetch item for being downloaded to the provided destination.
+   * Submitting does not block.
+   *
+   * @param item The fetch item, whose path must be listed in the payload
+   * manifests of the bag.
+   * @param destination The destination file.
+   */
+  public void submit(FetchItem item, Path destination){
+    itemsSubmitted.incrementAndGet();
+    CompletableFuture<Void> task = new CompletableFuture<>();
+    tasks.add(task);
+    schedule(item, destination, 0, task);
+  }
+
+  /**
+   * Wait until all submitted items are processed and report the result.
+   * Failing items do not stop the download of other items.
+   *
+   * @throws Exception If any item could not be downloaded and verified.
+   */
+  public void await() throws Exception{
+    for(Future<?> task : tasks){
+      try{
+        task.get();
+      } catch(InterruptedException ex){
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for fetch items.");
+      } catch(ExecutionException ex){
+        failures.add(ex);
+      }
+    }
+    report();
+    if(!failures.isEmpty()){
+      throw new Exception(StringUtils.substitute(MESSAGES.getString("fetching_failed"), Integer.toString(failures.size()), Integer.toString(itemsSubmitted.get())), failures.peek());
+    }
+  }
+
+  /**
+   * Get the number of bytes downloaded so far.
+   *
+   * @return The number of bytes.
+   */
+  public long getBytesFetched(){
+    return bytesFetched.get();
+  }
+
+  /**
+   * Stop all worker threads and the progress report. Items not downloaded yet
+   * are discarded.
+   */
+  @Override
+  public void close(){
+    workers.shutdownNow();
+    timer.shutdownNow();
+  }
+
+  /**
+   * Schedule a single download attempt of an item respecting the per-host
+   * limit. If the attempt fails and retries are left, the next attempt is
+   * scheduled after the retry delay, during which the host slot is free.
+   * Otherwise, the provided task is completed.
+   *
+   * @param item The fetch item.
+   * @param destination The destination file.
+   * @param attempt The number of the attempt starting with 0.
+   * @param task The task completed as soon as the item is finished.
+   */
+  private void schedule(FetchItem item, Path destination, int attempt, CompletableFuture<Void> task){
+    scheduler.execute(HostScheduler.hostOf(item.getUrl()), () -> {
+      try{
+        try{
+          fetch(item, destination);
+        } catch(IOException ex){
+          if(attempt < retries && !(ex instanceof HttpStatusException && !((HttpStatusException) ex).isRetryable())){
+            long delay = retryDelay << Math.min(attempt, 16);
+            Metrics.getInstance().count("fetch.retries", 1);
+            AnsiUtil.printWarning(MESSAGES.getString("retrying_fetch_item"), item.getUrl().toString(), ex.getMessage(), Long.toString(delay), Integer.toString(attempt + 1), Integer.toString(retries));
+            timer.schedule(() -> schedule(item, destination, attempt + 1, task), delay, TimeUnit.MILLISECONDS);
+            return;
+          }
+          throw ex;
+        }
+        itemsFinished.incrementAndGet();
+        task.complete(null);
+      } catch(Exception ex){
+        AnsiUtil.printError(MESSAGES.getString("fetch_item_failed"), item.getUrl().toString(), ex.getMessage());
+        failures.add(ex);
+        itemsFinished.incrementAndGet();
+        task.complete(null);
+      } catch(Throwable t){
+        itemsFinished.incrementAndGet();
+        task.completeExceptionally(t);
+      }
+    });
+  }
+
+  /**
+   * Perform a single attempt to download and verify an item.
+   *
+   * @param item The fetch item.
+   * @param destination The destination file.
+   *
+   * @throws IOException If the download fails or the downloaded content is
+   * invalid.
+   */
+  private void fetch(FetchItem item, Path destination) throws IOException{
+    Files.createDirectories(destination.getParent());
+    Map<String, String> checksums;
+    try(Metrics.Timer phase = Metrics.getInstance().start("fetch.download")){
+      checksums = download(item.getUrl(), item.getLength(), destination);
+      phase.addBytes(Files.size(destination));
+    }
+    try{
+      builder.verifyPayload(item.getPath(), checksums, VerificationReport.SOURCE.DOWNLOAD);
+    } catch(Exception ex){
+      //corrupt content cannot be resumed
+      Files.deleteIfExists(destination);
+      throw new IOException(ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Perform a single download attempt. If destination exists and is smaller
+   * than the expected length, only the remaining bytes are requested. If it
+   * has the expected length, it is only hashed.
+   *
+   * @param url The source URL.
+   * @param length The expected length or null if unknown.
+   * @param destination The destination file.
+   *
+   * @return A map of digest name and hex-encoded checksum of the complete
+   * file.
+   *
+   * @throws IOException If the download fails.
+   */
+  private Map<String, String> download(URL url, Long length, Path destination) throws IOException{
+    final ChecksumEngine engine = builder.getChecksumEngine();
+    long offset = Files.exists(destination) ? Files.size(destination) : 0;
+    if(length != null && offset > length){
+      Files.delete(destination);
+      offset = 0;
+    }
+    if(length != null && offset == length){
+      AnsiUtil.printInfo(MESSAGES.getString("fetch_item_already_complete"), destination.toString());
+      try(InputStream in = Files.newInputStream(destination)){
+        return engine.digest(in, builder.getRequiredPayloadManifestTypes());
+      }
+    }
+
+    URLConnection connection = url.openConnection();
+    connection.setConnectTimeout(timeout);
+    connection.setReadTimeout(timeout);
+    if(connection instanceof HttpURLConnection){
+      HttpURLConnection http = (HttpURLConnection) connection;
+      if(offset > 0){
+        http.setRequestProperty("Range", "bytes=" + offset + "-");
+      }
+      int status = http.getResponseCode();
+      if(status == HttpURLConnection.HTTP_PARTIAL){
+        String range = http.getHeaderField("Content-Range");
+        if(range == null || !range.startsWith("bytes " + offset + "-")){
+          http.disconnect();
+          Files.deleteIfExists(destination);
+          throw new HttpStatusException(StringUtils.substitute(MESSAGES.getString("unexpected_content_range"), String.valueOf(range), Long.toString(offset)), true);
+        }
+      } else if(status == HttpURLConnection.HTTP_OK){
+        //range not supported, start over
+        offset = 0;
+      } else{
+        http.disconnect();
+        if(status == 416){
+          //local file cannot be resumed
+          Files.deleteIfExists(destination);
+        }
+        throw new HttpStatusException(StringUtils.substitute(MESSAGES.getString("unexpected_http_status"), Integer.toString(status), url.toString()), status >= 500 || status == 408 || status == 416 || status == 429);
+      }
+    } else{
+      offset = 0;
+    }
+
+    if(offset > 0){
+      AnsiUtil.printInfo(MESSAGES.getString("resuming_fetch_item"), url.toString(), Long.toString(offset));
+    } else{
+      AnsiUtil.printInfo(MESSAGES.getString("fetching_from_url"), url.toString());
+    }
+    final long prefixLength = offset;
+    Map<String, String> checksums;
+    try(InputStream remote = new ProxyInputStream(connection.getInputStream()){
+      @Override
+      protected void afterRead(int n){
+        if(n > 0){
+          bytesFetched.addAndGet(n);
+        }
+      }
+    }; InputStream prefix = (prefixLength > 0) ? new BoundedInputStream(Files.newInputStream(destination), prefixLength) : null;
+            OutputStream out = (prefixLength > 0) ? Files.newOutputStream(destination, StandardOpenOption.APPEND) : Files.newOutputStream(destination)){
+      if(prefix != null){
+        //hash the existing part from disk and append only the new part
+        checksums = engine.digest(new SequenceInputStream(prefix, remote), new SkippingOutputStream(out, prefixLength), builder.getRequiredPayloadManifestTypes());
+      } else{
+        checksums = engine.digest(remote, out, builder.getRequiredPayloadManifestTypes());
+      }
+    }
+
+    long size = Files.size(destination);
+    if(length != null && size != length){
+      if(size > length){
+        Files.delete(destination);
+      }
+      throw new IOException(StringUtils.substitute(MESSAGES.getString("fetch_item_size_mismatch"), url.toString(), Long.toString(size), length.toString()));
+    }
+    return checksums;
+  }
+
+  /**
+   * Print the current progress.
+   */
+  private void report(){
+    long seconds = Math.max(1, (System.currentTimeMillis() - startTime) / 1000);
+    AnsiUtil.printInfo(MESSAGES.getString("fetch_progress"), Integer.toString(itemsFinished.get() - failures.size()), Integer.toString(itemsSubmitted.get()), Integer.toString(failures.size()), FileUtils.byteCountToDisplaySize(bytesFetched.get()), FileUtils.byteCountToDisplaySize(bytesFetched.get() / seconds));
+  }
+
+  /**
+   * Output stream discarding a fixed number of leading bytes, which is used
+   * to append to a partial file while all of its content is hashed.
+   */
+  private static class SkippingOutputStream extends OutputStream{
+
+    private final OutputStream out;
+    private long skip;
+
+    SkippingOutputStream(OutputStream out, long skip){
+      this.out = out;
+      this.skip = skip;
+    }
+
+    @Override
+    public void write(int b) throws IOException{
+      if(skip > 0){
+        skip--;
+      } else{
+        out.write(b);
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException{
+      int skipped = (int) Math.min(skip, len);
+      skip -= skipped;
+      if(len > skipped){
+        out.write(b, off + skipped, len - skipped);
+      }
+    }
+  }
+
+  /**
+   * Exception signaling an unexpected HTTP response.
+   */
+  private static class HttpStatusException extends IOException{
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean retryable;
+
+    HttpStatusException(String message, boolean retryable){
+      super(message);
+      this.retryable = retryable;
+    }
+
+    boolean isRetryable(){
+      return retryable;
+    }
+  }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import gov.loc.repository.bagit.domain.FetchItem;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Prober creating the fetch items of a bag concurrently. For each remote file
+ * a HEAD request is issued in order to obtain its length and all checksums the
+ * server advertises, which are the Digest header (RFC 3230, requested via
+ * Want-Digest) and the Content-MD5 header. Optionally, a strong ETag consisting
+ * of 32 hex characters is taken as MD5 checksum, as done by many object
+ * stores. As other servers derive ETags from arbitrary data, this has to be
+ * enabled explicitly for trusted servers. Checksums already known, e.g. from
+ * repository metadata, are used as well. Only if not all required checksums
+ * are available, the file is downloaded and hashed. Connections are kept
+ * alive and reused by the HTTP implementation of the JDK, while a fixed
+ * number of worker threads limits the total number of open connections and a
+ * separate limit applies per host, where files of a saturated host are queued
+ * without occupying a worker thread.
+ *
+ * @author jejkal
+ */
+public class FetchItemProber implements AutoCloseable{
+
+  private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.util.MessageBundle");
+
+  /**
+   * Default number of concurrent requests.
+   */
+  public static final int DEFAULT_THREADS = FetchEngine.DEFAULT_THREADS;
+  /**
+   * Default number of concurrent requests per host.
+   */
+  public static final int DEFAULT_THREADS_PER_HOST = FetchEngine.DEFAULT_THREADS_PER_HOST;
+
+  /**
+   * Mapping of RFC 3230 digest algorithms to message digest names.
+   */
+  private static final Map<String, String> DIGEST_ALGORITHMS = new HashMap<>();
+
+  static{
+    DIGEST_ALGORITHMS.put("MD5", "MD5");
+    DIGEST_ALGORITHMS.put("SHA", "SHA-1");
+    DIGEST_ALGORITHMS.put("SHA-256", "SHA-256");
+    DIGEST_ALGORITHMS.put("SHA-512", "SHA-512");
+  }
+
+  private final ChecksumEngine checksumEngine;
+  private final Set<String> digestNames;
+  private final ExecutorService workers;
+  private final HostScheduler scheduler;
+  private final List<Future<ProbeResult>> tasks = new ArrayList<>();
+  private final AtomicInteger downloads = new AtomicInteger(0);
+  private int timeout = FetchEngine.DEFAULT_TIMEOUT;
+  private boolean trustEtagMd5 = false;
+
+  /**
+   * Create a new prober.
+   *
+   * @param checksumEngine The engine used to hash files which have to be
+   * downloaded.
+   * @param digestNames The message digest names of all required checksums.
+   * @param threads The max. number of concurrent requests.
+   * @param threadsPerHost The max. number of concurrent requests to the same
+   * host.
+   */
+  public FetchItemProber(ChecksumEngine checksumEngine, Collection<String> digestNames, int threads, int threadsPerHost){
+    this.checksumEngine = checksumEngine;
+    this.digestNames = new HashSet<>(digestNames);
+    final AtomicInteger counter = new AtomicInteger(0);
+    workers = Executors.newFixedThreadPool(Math.max(1, threads), (r) -> {
+      Thread t = new Thread(r, "fetch-prober-" + counter.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    scheduler = new HostScheduler(workers, threadsPerHost);
+  }
+
+  /**
+   * Set the connect and read timeout of each connection.
+   *
+   * @param timeout The timeout in milliseconds.
+   *
+   * @return This FetchItemProber instance.
+   */
+  public FetchItemProber setTimeout(int timeout){
+    this.timeout = timeout;
+    return this;
+  }
+
+  /**
+   * Enable or disable taking strong ETags consisting of 32 hex characters as
+   * MD5 checksums. As the value is not verified, this should only be enabled
+   * if all servers are known to use the MD5 checksum as ETag.
+   *
+   * @param trustEtagMd5 TRUE to take such ETags as MD5 checksums.
+   *
+   * @return This FetchItemProber instance.
+   */
+  public FetchItemProber setTrustEtagMd5(boolean trustEtagMd5){
+    this.trustEtagMd5 = trustEtagMd5;
+    return this;
+  }
+
+  /**
+   * Submit a remote file for being probed. Submitting does not block.
+   *
+   * @param url The URL of the remote file.
+   * @param path The path of the fetch item relative to the bag root.
+   * @param knownChecksums Map of message digest name and hex-encoded checksum
+   * of all checksums already known or an empty map.
+   */
+  public void submit(URL url, Path path, Map<String, String> knownChecksums){
+    CompletableFuture<ProbeResult> task = new CompletableFuture<>();
+    tasks.add(task);
+    scheduler.execute(HostScheduler.hostOf(url), () -> {
+      try{
+        task.complete(probe(url, path, knownChecksums));
+      } catch(Throwable t){
+        task.completeExceptionally(t);
+      }
+    });
+  }
+
+  /**
+   * Wait until all submitted files are probed. Failing files do not stop
+   * probing other files.
+   *
+   * @return The results in the order the files were submitted.
+   *
+   * @throws Exception If any file could not be probed.
+   */
+  public List<ProbeResult> await() throws Exception{
+    List<ProbeResult> results = new ArrayList<>();
+    Exception failure = null;
+    int failures = 0;
+    for(Future<ProbeResult> task : tasks){
+      try{
+        results.add(task.get());
+      } catch(InterruptedException ex){
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for fetch items.");
+      } catch(ExecutionException ex){
+        AnsiUtil.printError(MESSAGES.getString("probing_fetch_item_failed"), ex.getCause().getMessage());
+        failure = (failure == null) ? ex : failure;
+        failures++;
+      }
+    }
+    AnsiUtil.printInfo(MESSAGES.getString("fetch_items_probed"), Integer.toString(tasks.size() - failures), Integer.toString(tasks.size() - failures - downloads.get()), Integer.toString(downloads.get()));
+    if(failure != null){
+      throw new Exception(StringUtils.substitute(MESSAGES.getString("probing_failed"), Integer.toString(failures), Integer.toString(tasks.size())), failure.getCause());
+    }
+    return results;
+  }
+
+  /**
+   * Stop all worker threads. Files not probed yet are discarded.
+   */
+  @Override
+  public void close(){
+    workers.shutdownNow();
+  }
+
+  /**
+   * Probe a single file.
+   *
+   * @param url The URL of the remote file.
+   * @param path The path of the fetch item relative to the bag root.
+   * @param knownChecksums The checksums already known.
+   *
+   * @return The result.
+   *
+   * @throws Exception If the file could not be probed.
+   */
+  private ProbeResult probe(URL url, Path path, Map<String, String> knownChecksums) throws Exception{
+    Map<String, String> checksums = new HashMap<>(knownChecksums);
+    URLConnection connection = openConnection(url, "HEAD");
+    if(connection instanceof HttpURLConnection){
+      int status = ((HttpURLConnection) connection).getResponseCode();
+      if(status == HttpURLConnection.HTTP_BAD_METHOD || status == HttpURLConnection.HTTP_NOT_IMPLEMENTED){
+        //HEAD not supported, read the headers of a GET request which is downloaded if needed
+        connection = openConnection(url, "GET");
+        status = ((HttpURLConnection) connection).getResponseCode();
+      }
+      if(status != HttpURLConnection.HTTP_OK){
+        ((HttpURLConnection) connection).disconnect();
+        throw new IOException(StringUtils.substitute(MESSAGES.getString("unexpected_http_status"), Integer.toString(status), url.toString()));
+      }
+    }
+    long length = connection.getContentLengthLong();
+    collectAdvertisedChecksums(connection, checksums, trustEtagMd5);
+
+    if(!checksums.keySet().containsAll(digestNames)){
+      //not all checksums known, download and hash
+      downloads.incrementAndGet();
+      AnsiUtil.printInfo(MESSAGES.getString("fetching_from_url"), url.toString());
+      if(!"GET".equals(getRequestMethod(connection))){
+        connection = openConnection(url, "GET");
+      }
+      Map<String, String> created;
+      try(InputStream in = connection.getInputStream()){
+        created = checksumEngine.digest(in, digestNames);
+      }
+      checksums.putAll(created);
+      if(length < 0){
+        length = connection.getContentLengthLong();
+      }
+    } else if("GET".equals(getRequestMethod(connection))){
+      //close without reading the body
+      ((HttpURLConnection) connection).disconnect();
+    } else{
+      //consume the empty HEAD response, so that the connection can be reused
+      connection.getInputStream().close();
+    }
+    if(length < 0){
+      throw new IOException(StringUtils.substitute(MESSAGES.getString("fetch_item_length_unknown"), url.toString()));
+    }
+    return new ProbeResult(new FetchItem(url, length, path), checksums);
+  }
+
+  /**
+   * Open a new connection using the configured timeout.
+   *
+   * @param url The URL.
+   * @param method The HTTP request method.
+   *
+   * @return The connection.
+   *
+   * @throws IOException If the connection cannot be opened.
+   */
+  private URLConnection openConnection(URL url, String method) throws IOException{
+    URLConnection connection = url.openConnection();
+    connection.setConnectTimeout(timeout);
+    connection.setReadTimeout(timeout);
+    if(connection instanceof HttpURLConnection){
+      HttpURLConnection http = (HttpURLConnection) connection;
+      http.setRequestMethod(method);
+      http.setRequestProperty("Want-Digest", "SHA-512;q=1, SHA-256;q=0.9, SHA;q=0.5, MD5;q=0.3");
+    }
+    return connection;
+  }
+
+  /**
+   * Get the request method of the provided connection.
+   *
+   * @param connection The connection.
+   *
+   * @return The request method or null if the connection is no HTTP
+   * connection.
+   */
+  private static String getRequestMethod(URLConnection connection){
+    return (connection instanceof HttpURLConnection) ? ((HttpURLConnection) connection).getRequestMethod() : null;
+  }
+
+  /**
+   * Add all checksums advertised by the response headers of the provided
+   * connection to the provided map, unless a checksum of the same type is
+   * already contained.
+   *
+   * @param connection The connection.
+   * @param checksums Map of message digest name and hex-encoded checksum.
+   * @param trustEtagMd5 TRUE to take an ETag of 32 hex characters as MD5
+   * checksum.
+   */
+  private static void collectAdvertisedChecksums(URLConnection connection, Map<String, String> checksums, boolean trustEtagMd5){
+    String digest = connection.getHeaderField("Digest");
+    if(digest != null){
+      for(String instance : digest.split(",")){
+        int separator = instance.indexOf('=');
+        if(separator > 0){
+          String name = DIGEST_ALGORITHMS.get(instance.substring(0, separator).trim().toUpperCase(Locale.ENGLISH));
+          if(name != null){
+            putBase64(checksums, name, instance.substring(separator + 1).trim());
+          }
+        }
+      }
+    }
+    String contentMd5 = connection.getHeaderField("Content-MD5");
+    if(contentMd5 != null){
+      putBase64(checksums, "MD5", contentMd5.trim());
+    }
+    String etag = connection.getHeaderField("ETag");
+    if(trustEtagMd5 && etag != null && !etag.startsWith("W/")){
+      //only strong ETags consisting of 32 hex characters are considered to be MD5 checksums
+      String value = etag.replace("\"", "").trim();
+      if(value.matches("[0-9a-fA-F]{32}")){
+        checksums.putIfAbsent("MD5", value.toLowerCase(Locale.ENGLISH));
+      }
+    }
+  }
+
+  /**
+   * Decode a base64-encoded checksum and add it hex-encoded to the provided
+   * map, if no checksum of this type is contained, yet. Invalid values are
+   * ignored.
+   *
+   * @param checksums Map of message digest name and hex-encoded checksum.
+   * @param name The message digest name.
+   * @param value The base64-encoded checksum.
+   */
+  private static void putBase64(Map<String, String> checksums, String name, String value){
+    try{
+      checksums.putIfAbsent(name, Hex.encodeHexString(Base64.getDecoder().decode(value)));
+    } catch(IllegalArgumentException ex){
+      AnsiUtil.printWarning(MESSAGES.getString("invalid_advertised_checksum"), name, value);
+    }
+  }
+
+  /**
+   * Result of probing a single remote file.
+   */
+  public static final class ProbeResult{
+
+    private final FetchItem item;
+    private final Map<String, String> checksums;
+
+    ProbeResult(FetchItem item, Map<String, String> checksums){
+      this.item = item;
+      this.checksums = Collections.unmodifiableMap(checksums);
+    }
+
+    /**
+     * Get the fetch item containing URL, length and path.
+     *
+     * @return The fetch item.
+     */
+    public FetchItem getItem(){
+      return item;
+    }
+
+    /**
+     * Get the checksums of the remote file.
+     *
+     * @return Map of message digest name and hex-encoded checksum.
+     */
+    public Map<String, String> getChecksums(){
+      return checksums;
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Scheduler limiting the number of tasks running concurrently per host. Tasks
+ * exceeding the limit of their host are queued per host and are handed over
+ * to the executor as soon as a running task of the same host has finished.
+ * Thus, no thread of the executor is ever blocked waiting for a host, and
+ * tasks of other hosts can proceed while one host is saturated.
+ *
+ * @author jejkal
+ */
+final class HostScheduler{
+
+  private final Executor executor;
+  private final int limitPerHost;
+  private final Map<String, Host> hosts = new HashMap<>();
+
+  /**
+   * Tasks running and waiting for a single host.
+   */
+  private static final class Host{
+
+    private int running = 0;
+    private final Queue<Runnable> pending = new ArrayDeque<>();
+  }
+
+  /**
+   * Create a new scheduler.
+   *
+   * @param executor The executor running the tasks.
+   * @param limitPerHost The max. number of tasks running concurrently for the
+   * same host.
+   */
+  HostScheduler(Executor executor, int limitPerHost){
+    this.executor = executor;
+    this.limitPerHost = Math.max(1, limitPerHost);
+  }
+
+  /**
+   * Get the host key of the provided URL.
+   *
+   * @param url The URL.
+   *
+   * @return The authority of the URL or an empty string if there is none.
+   */
+  static String hostOf(URL url){
+    return (url.getAuthority() == null) ? "" : url.getAuthority();
+  }
+
+  /**
+   * Run the provided task as soon as the limit of the provided host allows.
+   * This method never blocks.
+   *
+   * @param host The host the task connects to.
+   * @param task The task.
+   */
+  void execute(String host, Runnable task){
+    synchronized(this){
+      Host state = hosts.computeIfAbsent(host, (k) -> new Host());
+      if(state.running >= limitPerHost){
+        state.pending.add(task);
+        return;
+      }
+      state.running++;
+    }
+    dispatch(host, task);
+  }
+
+  /**
+   * Hand over a task to the executor, which already counts as running for
+   * its host.
+   *
+   * @param host The host.
+   * @param task The task.
+   */
+  private void dispatch(String host, Runnable task){
+    executor.execute(() -> {
+      try{
+        task.run();
+      } finally{
+        finished(host);
+      }
+    });
+  }
+
+  /**
+   * Start the next pending task of the provided host or release its slot if
+   * there is none.
+   *
+   * @param host The host.
+   */
+  private void finished(String host){
+    Runnable next;
+    synchronized(this){
+      Host state = hosts.get(host);
+      next = state.pending.poll();
+      if(next == null){
+        state.running--;
+        return;
+      }
+    }
+    dispatch(host, next);
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * Registry of JAXB contexts shared by the entire process. Each context is
+ * created once, on first use of its root class, as creating a context is
+ * expensive while it can be used concurrently afterwards. Marshallers and
+ * unmarshallers are not thread-safe, but cheap to keep. Thus, they are handed
+ * out exclusively and are returned into a small pool per root class when the
+ * caller closes them, e.g.
+ *
+ * <pre>
+ * try(JaxbContextRegistry.PooledMarshaller m = JaxbContextRegistry.acquireMarshaller(Resource.class)){
+ *   m.get().marshal(resource, out);
+ * }
+ * </pre>
+ *
+ * Properties set by a previous user are kept. Therefore, callers should set
+ * all properties they rely on.
+ *
+ * @author jejkal
+ */
+public final class JaxbContextRegistry{
+
+  /**
+   * Max. number of idle marshallers and unmarshallers kept per root class.
+   */
+  public static final int MAX_POOL_SIZE = 16;
+
+  private static final Map<Class<?>, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+  /**
+   * Hidden constructor.
+   */
+  private JaxbContextRegistry(){
+  }
+
+  /**
+   * Get the context of the provided root class, which is created on first
+   * use.
+   *
+   * @param type The root class.
+   *
+   * @return The JAXB context.
+   *
+   * @throws JAXBException If creating the context fails.
+   */
+  public static JAXBContext getContext(Class<?> type) throws JAXBException{
+    return getEntry(type).getContext();
+  }
+
+  /**
+   * Obtain a marshaller for the provided root class, which must be closed
+   * after use.
+   *
+   * @param type The root class.
+   *
+   * @return The pooled marshaller.
+   *
+   * @throws JAXBException If creating the context or marshaller fails.
+   */
+  public static PooledMarshaller acquireMarshaller(Class<?> type) throws JAXBException{
+    Entry entry = getEntry(type);
+    Marshaller marshaller = entry.marshallers.poll();
+    if(marshaller == null){
+      marshaller = entry.getContext().createMarshaller();
+    }
+    return new PooledMarshaller(entry, marshaller);
+  }
+
+  /**
+   * Obtain an unmarshaller for the provided root class, which must be closed
+   * after use.
+   *
+   * @param type The root class.
+   *
+   * @return The pooled unmarshaller.
+   *
+   * @throws JAXBException If creating the context or unmarshaller fails.
+   */
+  public static PooledUnmarshaller acquireUnmarshaller(Class<?> type) throws JAXBException{
+    Entry entry = getEntry(type);
+    Unmarshaller unmarshaller = entry.unmarshallers.poll();
+    if(unmarshaller == null){
+      unmarshaller = entry.getContext().createUnmarshaller();
+    }
+    return new PooledUnmarshaller(entry, unmarshaller);
+  }
+
+  /**
+   * Get the registry entry of the provided root class.
+   *
+   * @param type The root class.
+   *
+   * @return The entry.
+   */
+  private static Entry getEntry(Class<?> type){
+    return ENTRIES.computeIfAbsent(type, Entry::new);
+  }
+
+  /**
+   * Registry entry holding the context and idle marshallers and unmarshallers
+   * of one root class.
+   */
+  private static final class Entry{
+
+    private final Class<?> type;
+    private final BlockingQueue<Marshaller> marshallers = new ArrayBlockingQueue<>(MAX_POOL_SIZE);
+    private final BlockingQueue<Unmarshaller> unmarshallers = new ArrayBlockingQueue<>(MAX_POOL_SIZE);
+    private volatile JAXBContext context = null;
+
+    Entry(Class<?> type){
+      this.type = type;
+    }
+
+    JAXBContext getContext() throws JAXBException{
+      JAXBContext result = context;
+      if(result == null){
+        synchronized(this){
+          result = context;
+          if(result == null){
+            result = org.eclipse.persistence.jaxb.JAXBContext.newInstance(type);
+            context = result;
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Marshaller handed out exclusively until it is closed.
+   */
+  public static final class PooledMarshaller implements AutoCloseable{
+
+    private final Entry entry;
+    private final Marshaller marshaller;
+
+    PooledMarshaller(Entry entry, Marshaller marshaller){
+      this.entry = entry;
+      this.marshaller = marshaller;
+    }
+
+    /**
+     * Get the marshaller.
+     *
+     * @return The marshaller.
+     */
+    public Marshaller get(){
+      return marshaller;
+    }
+
+    /**
+     * Return the marshaller into the pool, or discard it if the pool is full.
+     */
+    @Override
+    public void close(){
+      entry.marshallers.offer(marshaller);
+    }
+  }
+
+  /**
+   * Unmarshaller handed out exclusively until it is closed.
+   */
+  public static final class PooledUnmarshaller implements AutoCloseable{
+
+    private final Entry entry;
+    private final Unmarshaller unmarshaller;
+
+    PooledUnmarshaller(Entry entry, Unmarshaller unmarshaller){
+      this.entry = entry;
+      this.unmarshaller = unmarshaller;
+    }
+
+    /**
+     * Get the unmarshaller.
+     *
+     * @return The unmarshaller.
+     */
+    public Unmarshaller get(){
+      return unmarshaller;
+    }
+
+    /**
+     * Return the unmarshaller into the pool, or discard it if the pool is
+     * full.
+     */
+    @Override
+    public void close(){
+      entry.unmarshallers.offer(unmarshaller);
+    }
+  }
+}
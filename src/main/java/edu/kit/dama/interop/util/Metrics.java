@@ -0,0 +1,333 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry for timing and throughput metrics recorded while exporting and
+ * importing bags. Work is measured in named phases, e.g. 'export.zip' or
+ * 'bag.verify.payload'. For each phase, the number of executions, the total
+ * time and the number of processed bytes are summed up and the latency and
+ * throughput of single executions are collected in histograms with
+ * logarithmic buckets, so that recording has constant cost and memory. In
+ * addition, plain named counters can be incremented. All operations are
+ * thread-safe. At the end of a run, a summary can be written as JSON file or
+ * be obtained via JMX after registering the registry as MXBean.
+ *
+ * @author jejkal
+ */
+public final class Metrics implements MetricsMXBean{
+
+  /**
+   * Name the registry is registered with at the platform MBean server.
+   */
+  public static final String OBJECT_NAME = "edu.kit.dama.interop:type=Metrics";
+
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+  private static Metrics defaultInstance = null;
+
+  private final Map<String, Phase> phases = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+  private volatile long startedAt = System.currentTimeMillis();
+  private volatile long startedNanos = System.nanoTime();
+
+  /**
+   * Timer measuring a single execution of a phase. The execution is recorded
+   * as soon as the timer is closed, which should happen using
+   * try-with-resources.
+   */
+  public static final class Timer implements AutoCloseable{
+
+    private final Phase phase;
+    private final long started = System.nanoTime();
+    private long bytes = 0;
+    private boolean closed = false;
+
+    Timer(Phase phase){
+      this.phase = phase;
+    }
+
+    /**
+     * Add the provided number of bytes to the amount of data processed in
+     * this execution.
+     *
+     * @param bytes The number of bytes.
+     *
+     * @return This timer.
+     */
+    public Timer addBytes(long bytes){
+      this.bytes += bytes;
+      return this;
+    }
+
+    /**
+     * Stop the timer and record the execution. Closing a timer more than once
+     * has no effect.
+     */
+    @Override
+    public void close(){
+      if(closed){
+        return;
+      }
+      closed = true;
+      phase.record(System.nanoTime() - started, bytes);
+    }
+  }
+
+  /**
+   * Summed up metrics of a single phase.
+   */
+  private static final class Phase{
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final Histogram latency = new Histogram();
+    private final Histogram throughput = new Histogram();
+
+    void record(long elapsed, long processed){
+      count.increment();
+      nanos.add(elapsed);
+      bytes.add(processed);
+      latency.record(TimeUnit.NANOSECONDS.toMicros(elapsed));
+      if(processed > 0 && elapsed > 0){
+        throughput.record((long) (processed * NANOS_PER_SECOND / elapsed));
+      }
+    }
+  }
+
+  /**
+   * Histogram of non-negative values using one bucket per power of two. The
+   * reported percentiles are the upper bounds of the buckets they fall into,
+   * limited by the maximum, and are therefore accurate within a factor of
+   * two.
+   */
+  private static final class Histogram{
+
+    private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(0);
+
+    void record(long value){
+      long v = Math.max(0, value);
+      buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(v));
+      count.increment();
+      sum.add(v);
+      min.accumulateAndGet(v, Math::min);
+      max.accumulateAndGet(v, Math::max);
+    }
+
+    long getCount(){
+      return count.sum();
+    }
+
+    double getMean(){
+      long n = count.sum();
+      return (n == 0) ? 0 : (double) sum.sum() / n;
+    }
+
+    long getMin(){
+      return (count.sum() == 0) ? 0 : min.get();
+    }
+
+    long getMax(){
+      return max.get();
+    }
+
+    long getPercentile(double percentile){
+      long n = count.sum();
+      if(n == 0){
+        return 0;
+      }
+      long rank = (long) Math.ceil(percentile / 100.0 * n);
+      long seen = 0;
+      for(int i = 0; i < buckets.length(); i++){
+        seen += buckets.get(i);
+        if(seen >= rank){
+          long upperBound = (i == 0) ? 0 : (i >= Long.SIZE - 1) ? Long.MAX_VALUE : (1L << i) - 1;
+          return Math.min(upperBound, getMax());
+        }
+      }
+      return getMax();
+    }
+  }
+
+  /**
+   * Get the shared registry instance.
+   *
+   * @return The shared registry.
+   */
+  public static synchronized Metrics getInstance(){
+    if(defaultInstance == null){
+      defaultInstance = new Metrics();
+    }
+    return defaultInstance;
+  }
+
+  /**
+   * Start measuring one execution of the provided phase.
+   *
+   * @param phase The name of the phase.
+   *
+   * @return The timer, which has to be closed at the end of the execution.
+   */
+  public Timer start(String phase){
+    return new Timer(phases.computeIfAbsent(phase, (k) -> new Phase()));
+  }
+
+  /**
+   * Add the provided value to the named counter.
+   *
+   * @param counter The name of the counter.
+   * @param delta The value to add.
+   */
+  public void count(String counter, long delta){
+    counters.computeIfAbsent(counter, (k) -> new LongAdder()).add(delta);
+  }
+
+  @Override
+  public void reset(){
+    phases.clear();
+    counters.clear();
+    startedAt = System.currentTimeMillis();
+    startedNanos = System.nanoTime();
+  }
+
+  @Override
+  public Map<String, Long> getCounters(){
+    Map<String, Long> result = new TreeMap<>();
+    counters.forEach((name, value) -> result.put(name, value.sum()));
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getPhaseCounts(){
+    Map<String, Long> result = new TreeMap<>();
+    phases.forEach((name, phase) -> result.put(name, phase.count.sum()));
+    return result;
+  }
+
+  @Override
+  public Map<String, Double> getPhaseSeconds(){
+    Map<String, Double> result = new TreeMap<>();
+    phases.forEach((name, phase) -> result.put(name, phase.nanos.sum() / NANOS_PER_SECOND));
+    return result;
+  }
+
+  @Override
+  public Map<String, Long> getPhaseBytes(){
+    Map<String, Long> result = new TreeMap<>();
+    phases.forEach((name, phase) -> result.put(name, phase.bytes.sum()));
+    return result;
+  }
+
+  @Override
+  public String getSummary(){
+    try{
+      return ProfileCache.getObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(createSummary());
+    } catch(IOException ex){
+      return "{}";
+    }
+  }
+
+  /**
+   * Create a summary of all metrics recorded since the registry was created
+   * or reset. For each phase, the number of executions, the total time, the
+   * number of bytes, the average throughput and the distributions of latency
+   * and throughput of single executions are contained.
+   *
+   * @return The summary as map suitable for JSON serialization.
+   */
+  public Map<String, Object> createSummary(){
+    Map<String, Object> summary = new LinkedHashMap<>();
+    summary.put("startedAt", Instant.ofEpochMilli(startedAt).toString());
+    summary.put("elapsedSeconds", (System.nanoTime() - startedNanos) / NANOS_PER_SECOND);
+    Map<String, Object> phaseSummaries = new TreeMap<>();
+    phases.forEach((name, phase) -> {
+      Map<String, Object> entry = new LinkedHashMap<>();
+      long nanos = phase.nanos.sum();
+      long bytes = phase.bytes.sum();
+      entry.put("count", phase.count.sum());
+      entry.put("totalSeconds", nanos / NANOS_PER_SECOND);
+      entry.put("bytes", bytes);
+      if(bytes > 0 && nanos > 0){
+        entry.put("megabytesPerSecond", bytes / BYTES_PER_MEGABYTE / (nanos / NANOS_PER_SECOND));
+      }
+      entry.put("latencyMillis", describe(phase.latency, 1000.0));
+      if(phase.throughput.getCount() > 0){
+        entry.put("throughputMegabytesPerSecond", describe(phase.throughput, BYTES_PER_MEGABYTE));
+      }
+      phaseSummaries.put(name, entry);
+    });
+    summary.put("phases", phaseSummaries);
+    summary.put("counters", getCounters());
+    return summary;
+  }
+
+  /**
+   * Write the summary of all metrics as JSON document to the provided file.
+   *
+   * @param destination The destination file.
+   *
+   * @throws IOException If writing the file fails.
+   */
+  public void writeSummary(Path destination) throws IOException{
+    ProfileCache.getObjectMapper().writerWithDefaultPrettyPrinter().writeValue(destination.toFile(), createSummary());
+  }
+
+  /**
+   * Register the shared registry at the platform MBean server using
+   * OBJECT_NAME. If it is already registered, nothing happens.
+   *
+   * @throws JMException If the registration fails.
+   */
+  public static void registerMBean() throws JMException{
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(OBJECT_NAME);
+    if(!server.isRegistered(name)){
+      server.registerMBean(getInstance(), name);
+    }
+  }
+
+  private static Map<String, Object> describe(Histogram histogram, double divisor){
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("min", histogram.getMin() / divisor);
+    result.put("mean", histogram.getMean() / divisor);
+    result.put("p50", histogram.getPercentile(50) / divisor);
+    result.put("p90", histogram.getPercentile(90) / divisor);
+    result.put("p99", histogram.getPercentile(99) / divisor);
+    result.put("max", histogram.getMax() / divisor);
+    return result;
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import java.util.Map;
+
+/**
+ * Management interface of the metrics registry, which allows to inspect
+ * recorded metrics of a running export or import via JMX.
+ *
+ * @author jejkal
+ */
+public interface MetricsMXBean{
+
+  /**
+   * Get the values of all counters.
+   *
+   * @return Map of counter name and value.
+   */
+  Map<String, Long> getCounters();
+
+  /**
+   * Get the number of executions of all phases.
+   *
+   * @return Map of phase name and number of executions.
+   */
+  Map<String, Long> getPhaseCounts();
+
+  /**
+   * Get the total time spent in all phases.
+   *
+   * @return Map of phase name and total time in seconds.
+   */
+  Map<String, Double> getPhaseSeconds();
+
+  /**
+   * Get the number of bytes processed by all phases.
+   *
+   * @return Map of phase name and number of bytes.
+   */
+  Map<String, Long> getPhaseBytes();
+
+  /**
+   * Get the summary of all metrics as JSON document.
+   *
+   * @return The summary.
+   */
+  String getSummary();
+
+  /**
+   * Discard all recorded metrics.
+   */
+  void reset();
+}
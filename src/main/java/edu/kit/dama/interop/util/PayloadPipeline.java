@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pipeline adding payload files to a bag concurrently. Each submitted file is
+ * copied into the bag and hashed by one of a fixed number of worker threads
+ * using {@link BagBuilder#addPayload(java.nio.file.Path, java.net.URI, java.lang.String)}.
+ * The number of pending files is limited, so that submitting blocks as soon as
+ * the workers cannot keep up. The result is deterministic as the builder keeps
+ * sorted manifests and exact size counters independent of the order in which
+ * files are finished. If the concurrency is 1, all files are added on the
+ * caller's thread.
+ *
+ * @author jejkal
+ */
+public class PayloadPipeline implements AutoCloseable{
+
+  private final BagBuilder builder;
+  private final ExecutorService workers;
+  private final Semaphore pending;
+  private final int maxPending;
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+  /**
+   * Create a new pipeline.
+   *
+   * @param builder The builder the payload is added to.
+   * @param concurrency The number of files copied and hashed concurrently.
+   */
+  public PayloadPipeline(BagBuilder builder, int concurrency){
+    this.builder = builder;
+    if(concurrency > 1){
+      final AtomicInteger counter = new AtomicInteger(0);
+      workers = Executors.newFixedThreadPool(concurrency, (r) -> {
+        Thread t = new Thread(r, "payload-worker-" + counter.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+      maxPending = concurrency * 2;
+      pending = new Semaphore(maxPending);
+    } else{
+      workers = null;
+      maxPending = 0;
+      pending = null;
+    }
+  }
+
+  /**
+   * Submit a payload file. Depending on the configured concurrency, the file
+   * is added directly or scheduled for being added by a worker thread.
+   *
+   * @param rootPath The root path where fileUri is located.
+   * @param fileUri The absolute path of the payload.
+   * @param inDataLocation The relative path within the bag payload directory.
+   *
+   * @throws Exception If adding this or any previously submitted file has
+   * failed.
+   */
+  public void submit(Path rootPath, URI fileUri, String inDataLocation) throws Exception{
+    checkFailure();
+    if(workers == null){
+      builder.addPayload(rootPath, fileUri, inDataLocation);
+      return;
+    }
+
+    pending.acquire();
+    try{
+      workers.execute(() -> {
+        try{
+          if(failure.get() == null){
+            builder.addPayload(rootPath, fileUri, inDataLocation);
+          }
+        } catch(Throwable t){
+          //also record errors, e.g. if direct buffer memory is exhausted, as the file would be missing otherwise
+          failure.compareAndSet(null, t);
+        } finally{
+          pending.release();
+        }
+      });
+    } catch(RuntimeException ex){
+      pending.release();
+      throw ex;
+    }
+  }
+
+  /**
+   * Wait until all submitted files are added to the bag.
+   *
+   * @throws Exception If adding any file has failed.
+   * @throws Error If adding any file has failed with an error.
+   */
+  public void await() throws Exception{
+    if(workers != null){
+      pending.acquire(maxPending);
+      pending.release(maxPending);
+    }
+    checkFailure();
+  }
+
+  /**
+   * Stop all worker threads. Files not added yet are discarded.
+   */
+  @Override
+  public void close(){
+    if(workers != null){
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * Rethrow the first failure of any worker.
+   *
+   * @throws Exception The first failure if it is an exception.
+   * @throws Error The first failure if it is an error.
+   */
+  private void checkFailure() throws Exception{
+    Throwable t = failure.get();
+    if(t instanceof Error){
+      throw (Error) t;
+    } else if(t instanceof Exception){
+      throw (Exception) t;
+    } else if(t != null){
+      throw new Exception(t);
+    }
+  }
+}
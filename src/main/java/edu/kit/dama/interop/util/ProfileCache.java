@@ -0,0 +1,363 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import gov.loc.repository.bagit.conformance.profile.BagitProfile;
+import gov.loc.repository.bagit.conformance.profile.BagitProfileDeserializer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Cache for BagIt profiles. Profiles are kept in memory and on disk, keyed by
+ * their URL. As long as a cached profile is younger than the configured time to
+ * live, it is used without accessing the network. Afterwards, it is
+ * revalidated using the ETag and Last-Modified headers obtained while
+ * downloading it, so that unchanged profiles are not transferred again. If a
+ * profile cannot be revalidated, e.g. because the network is not available,
+ * the cached copy is used. In offline mode, only cached profiles are used.
+ * Parsed profiles are shared by all callers and are parsed using a single
+ * shared object mapper.
+ *
+ * @author jejkal
+ */
+public class ProfileCache{
+
+  private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.util.MessageBundle");
+
+  /**
+   * Default cache directory.
+   */
+  public static final Path DEFAULT_CACHE_DIR = Paths.get(System.getProperty("user.home"), ".kitdm-bagit-tool", "profiles");
+  /**
+   * Default time to live of cached profiles in seconds.
+   */
+  public static final long DEFAULT_TTL = TimeUnit.HOURS.toSeconds(24);
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static ProfileCache defaultInstance = null;
+
+  static{
+    SimpleModule module = new SimpleModule();
+    module.addDeserializer(BagitProfile.class, new BagitProfileDeserializer());
+    MAPPER.registerModule(module);
+  }
+
+  /**
+   * A single cached profile.
+   */
+  private static final class CachedProfile{
+
+    private final byte[] data;
+    private final String etag;
+    private final String lastModified;
+    private volatile long validated;
+    private volatile BagitProfile parsed = null;
+
+    CachedProfile(byte[] data, String etag, String lastModified, long validated){
+      this.data = data;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.validated = validated;
+    }
+  }
+
+  private final Map<String, CachedProfile> profiles = new ConcurrentHashMap<>();
+  private final Map<String, Object> locks = new ConcurrentHashMap<>();
+  private Path cacheDir = DEFAULT_CACHE_DIR;
+  private long ttl = DEFAULT_TTL;
+  private boolean offline = false;
+
+  /**
+   * Get the shared cache instance.
+   *
+   * @return The shared cache.
+   */
+  public static synchronized ProfileCache getInstance(){
+    if(defaultInstance == null){
+      defaultInstance = new ProfileCache();
+    }
+    return defaultInstance;
+  }
+
+  /**
+   * Get the object mapper shared by all profile operations, which is able to
+   * deserialize BagitProfile instances.
+   *
+   * @return The object mapper.
+   */
+  public static ObjectMapper getObjectMapper(){
+    return MAPPER;
+  }
+
+  /**
+   * Set the directory profiles are cached in.
+   *
+   * @param cacheDir The cache directory or null to disable the disk cache.
+   *
+   * @return This ProfileCache instance.
+   */
+  public ProfileCache setCacheDir(Path cacheDir){
+    this.cacheDir = cacheDir;
+    return this;
+  }
+
+  /**
+   * Set the time a cached profile is used without revalidation.
+   *
+   * @param ttl The time to live in seconds.
+   *
+   * @return This ProfileCache instance.
+   */
+  public ProfileCache setTtl(long ttl){
+    this.ttl = ttl;
+    return this;
+  }
+
+  /**
+   * Enable or disable the offline mode. In offline mode, only cached profiles
+   * are used independent of their age.
+   *
+   * @param offline TRUE to enable the offline mode.
+   *
+   * @return This ProfileCache instance.
+   */
+  public ProfileCache setOffline(boolean offline){
+    this.offline = offline;
+    return this;
+  }
+
+  /**
+   * Get the parsed profile located at the provided URL.
+   *
+   * @param profileUrl The profile URL.
+   *
+   * @return The parsed profile, which is shared by all callers and must not be
+   * modified.
+   *
+   * @throws IOException If the profile is neither cached nor can be downloaded
+   * or if it cannot be parsed.
+   */
+  public BagitProfile getProfile(String profileUrl) throws IOException{
+    CachedProfile profile = getCachedProfile(profileUrl);
+    if(profile.parsed == null){
+      synchronized(profile){
+        if(profile.parsed == null){
+          profile.parsed = MAPPER.readValue(profile.data, BagitProfile.class);
+        }
+      }
+    }
+    return profile.parsed;
+  }
+
+  /**
+   * Get the raw content of the profile located at the provided URL.
+   *
+   * @param profileUrl The profile URL.
+   *
+   * @return The profile content.
+   *
+   * @throws IOException If the profile is neither cached nor can be
+   * downloaded.
+   */
+  public byte[] getProfileData(String profileUrl) throws IOException{
+    return getCachedProfile(profileUrl).data.clone();
+  }
+
+  /**
+   * Obtain a cached profile from memory, from disk or from the network.
+   *
+   * @param profileUrl The profile URL.
+   *
+   * @return The cached profile.
+   *
+   * @throws IOException If the profile is neither cached nor can be
+   * downloaded.
+   */
+  private CachedProfile getCachedProfile(String profileUrl) throws IOException{
+    CachedProfile cached = profiles.get(profileUrl);
+    if(cached != null && (offline || isFresh(cached))){
+      return cached;
+    }
+    //only one caller per URL accesses disk and network
+    synchronized(locks.computeIfAbsent(profileUrl, (key) -> new Object())){
+      cached = profiles.get(profileUrl);
+      if(cached == null){
+        cached = readFromDisk(profileUrl);
+      }
+      if(cached != null && (offline || isFresh(cached))){
+        profiles.put(profileUrl, cached);
+        return cached;
+      }
+      if(offline){
+        throw new IOException(StringUtils.substitute(MESSAGES.getString("profile_not_cached_offline"), profileUrl));
+      }
+
+      CachedProfile result;
+      try(Metrics.Timer timer = Metrics.getInstance().start("profile.download")){
+        result = download(profileUrl, cached);
+        if(result != cached){
+          timer.addBytes(result.data.length);
+        }
+      } catch(IOException ex){
+        if(cached == null){
+          throw ex;
+        }
+        AnsiUtil.printWarning(MESSAGES.getString("profile_revalidation_failed"), profileUrl, ex.getMessage());
+        result = cached;
+      }
+      profiles.put(profileUrl, result);
+      return result;
+    }
+  }
+
+  /**
+   * Check whether a cached profile can be used without revalidation.
+   *
+   * @param cached The cached profile.
+   *
+   * @return TRUE if the profile is younger than the time to live.
+   */
+  private boolean isFresh(CachedProfile cached){
+    return System.currentTimeMillis() - cached.validated < TimeUnit.SECONDS.toMillis(ttl);
+  }
+
+  /**
+   * Download or revalidate a profile.
+   *
+   * @param profileUrl The profile URL.
+   * @param cached The stale cached profile or null.
+   *
+   * @return The cached profile, if it is still valid, or the downloaded
+   * profile.
+   *
+   * @throws IOException If downloading fails.
+   */
+  private CachedProfile download(String profileUrl, CachedProfile cached) throws IOException{
+    AnsiUtil.printInfo(MESSAGES.getString("downloading_profile"), profileUrl);
+    URLConnection connection = new URL(profileUrl).openConnection();
+    if(connection instanceof HttpURLConnection){
+      HttpURLConnection http = (HttpURLConnection) connection;
+      if(cached != null && cached.etag != null){
+        http.setRequestProperty("If-None-Match", cached.etag);
+      }
+      if(cached != null && cached.lastModified != null){
+        http.setRequestProperty("If-Modified-Since", cached.lastModified);
+      }
+      int status = http.getResponseCode();
+      if(status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null){
+        http.disconnect();
+        AnsiUtil.printInfo(MESSAGES.getString("profile_not_modified"), profileUrl);
+        cached.validated = System.currentTimeMillis();
+        writeToDisk(profileUrl, cached);
+        return cached;
+      }
+      if(status != HttpURLConnection.HTTP_OK){
+        http.disconnect();
+        throw new IOException(StringUtils.substitute(MESSAGES.getString("profile_download_failed"), profileUrl, Integer.toString(status)));
+      }
+    }
+    byte[] data;
+    try(InputStream in = connection.getInputStream()){
+      data = IOUtils.toByteArray(in);
+    }
+    CachedProfile result = new CachedProfile(data, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"), System.currentTimeMillis());
+    writeToDisk(profileUrl, result);
+    return result;
+  }
+
+  /**
+   * Read a profile from the disk cache.
+   *
+   * @param profileUrl The profile URL.
+   *
+   * @return The cached profile or null if it is not cached on disk.
+   */
+  private CachedProfile readFromDisk(String profileUrl){
+    if(cacheDir == null){
+      return null;
+    }
+    String key = DigestUtils.sha1Hex(profileUrl);
+    Path dataFile = cacheDir.resolve(key + ".json");
+    Path infoFile = cacheDir.resolve(key + ".properties");
+    if(!Files.exists(dataFile) || !Files.exists(infoFile)){
+      return null;
+    }
+    try(InputStream in = Files.newInputStream(infoFile)){
+      Properties info = new Properties();
+      info.load(in);
+      if(!profileUrl.equals(info.getProperty("url"))){
+        return null;
+      }
+      return new CachedProfile(Files.readAllBytes(dataFile), info.getProperty("etag"), info.getProperty("lastModified"), Long.parseLong(info.getProperty("validated", "0")));
+    } catch(IOException | NumberFormatException ex){
+      AnsiUtil.printWarning(MESSAGES.getString("profile_cache_read_failed"), dataFile.toString(), ex.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Write a profile to the disk cache. Failures are reported but ignored.
+   *
+   * @param profileUrl The profile URL.
+   * @param profile The profile to write.
+   */
+  private void writeToDisk(String profileUrl, CachedProfile profile){
+    if(cacheDir == null){
+      return;
+    }
+    String key = DigestUtils.sha1Hex(profileUrl);
+    try{
+      Files.createDirectories(cacheDir);
+      Properties info = new Properties();
+      info.setProperty("url", profileUrl);
+      info.setProperty("validated", Long.toString(profile.validated));
+      if(profile.etag != null){
+        info.setProperty("etag", profile.etag);
+      }
+      if(profile.lastModified != null){
+        info.setProperty("lastModified", profile.lastModified);
+      }
+      //write to temporary files first, so that concurrent processes never read partial files
+      Path dataTemp = Files.createTempFile(cacheDir, key, ".tmp");
+      Files.write(dataTemp, profile.data);
+      Files.move(dataTemp, cacheDir.resolve(key + ".json"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      Path infoTemp = Files.createTempFile(cacheDir, key, ".tmp");
+      try(OutputStream out = Files.newOutputStream(infoTemp)){
+        info.store(out, null);
+      }
+      Files.move(infoTemp, cacheDir.resolve(key + ".properties"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch(IOException ex){
+      AnsiUtil.printWarning(MESSAGES.getString("profile_cache_write_failed"), cacheDir.toString(), ex.getMessage());
+    }
+  }
+}
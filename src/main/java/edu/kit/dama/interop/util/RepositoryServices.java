@@ -0,0 +1,173 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import edu.kit.dama.authorization.entities.impl.AuthorizationContext;
+import edu.kit.dama.commons.types.DigitalObjectId;
+import edu.kit.dama.mdm.core.IMetaDataManager;
+import edu.kit.dama.mdm.core.MetaDataManagement;
+import edu.kit.dama.mdm.dataorganization.service.core.DataOrganizer;
+import edu.kit.dama.mdm.dataorganization.service.core.DataOrganizerFactory;
+import edu.kit.dama.staging.entities.TransferClientProperties;
+import edu.kit.dama.staging.entities.ingest.IngestInformation;
+import edu.kit.dama.staging.services.impl.ingest.IngestInformationServiceLocal;
+
+/**
+ * Access to the services of the local KIT Data Manager repository used by
+ * export and import. By default, the services of the local installation are
+ * used. Each service can be replaced, e.g. by a stand-in for running exports
+ * and imports without a repository. Replacements must be installed before the
+ * first command is executed, as clients obtain their metadata manager once.
+ *
+ * @author jejkal
+ */
+public final class RepositoryServices{
+
+  /**
+   * Service preparing ingests and tracking their status.
+   */
+  public interface IngestService{
+
+    /**
+     * Prepare the ingest of data into the provided digital object.
+     *
+     * @param objectId The digital object id.
+     * @param properties The transfer properties, e.g. the staging access
+     * point.
+     * @param context The authorization context.
+     *
+     * @return The ingest information providing the staging URL.
+     *
+     * @throws Exception If preparing the ingest fails.
+     */
+    IngestInformation prepareIngest(DigitalObjectId objectId, TransferClientProperties properties, AuthorizationContext context) throws Exception;
+
+    /**
+     * Update the status of an ingest.
+     *
+     * @param ingestId The ingest id.
+     * @param status The new status id.
+     * @param errorMessage The error message or null.
+     * @param context The authorization context.
+     *
+     * @return The number of updated ingests.
+     *
+     * @throws Exception If updating the status fails.
+     */
+    int updateStatus(Long ingestId, int status, String errorMessage, AuthorizationContext context) throws Exception;
+
+    /**
+     * Get the current information of an ingest.
+     *
+     * @param ingestId The ingest id.
+     * @param context The authorization context.
+     *
+     * @return The ingest information or null if the ingest does not exist.
+     *
+     * @throws Exception If obtaining the information fails.
+     */
+    IngestInformation getIngestInformationById(Long ingestId, AuthorizationContext context) throws Exception;
+  }
+
+  /**
+   * Ingest service of the local repository installation.
+   */
+  private static final class LocalIngestService implements IngestService{
+
+    @Override
+    public IngestInformation prepareIngest(DigitalObjectId objectId, TransferClientProperties properties, AuthorizationContext context) throws Exception{
+      return IngestInformationServiceLocal.getSingleton().prepareIngest(objectId, properties, context);
+    }
+
+    @Override
+    public int updateStatus(Long ingestId, int status, String errorMessage, AuthorizationContext context) throws Exception{
+      return IngestInformationServiceLocal.getSingleton().updateStatus(ingestId, status, errorMessage, context);
+    }
+
+    @Override
+    public IngestInformation getIngestInformationById(Long ingestId, AuthorizationContext context) throws Exception{
+      return IngestInformationServiceLocal.getSingleton().getIngestInformationById(ingestId, context);
+    }
+  }
+
+  private static volatile IMetaDataManager metaDataManager = null;
+  private static volatile DataOrganizer dataOrganizer = null;
+  private static volatile IngestService ingestService = new LocalIngestService();
+
+  /**
+   * Hidden constructor.
+   */
+  private RepositoryServices(){
+  }
+
+  /**
+   * Get a metadata manager. Without replacement, a new manager of the local
+   * repository is returned, which has to be closed by the caller.
+   *
+   * @return The metadata manager.
+   */
+  public static IMetaDataManager getMetaDataManager(){
+    IMetaDataManager manager = metaDataManager;
+    return (manager != null) ? manager : MetaDataManagement.getMetaDataManagement().getMetaDataManager();
+  }
+
+  /**
+   * Get the data organizer.
+   *
+   * @return The data organizer.
+   */
+  public static DataOrganizer getDataOrganizer(){
+    DataOrganizer organizer = dataOrganizer;
+    return (organizer != null) ? organizer : DataOrganizerFactory.getInstance().getDataOrganizer();
+  }
+
+  /**
+   * Get the ingest service.
+   *
+   * @return The ingest service.
+   */
+  public static IngestService getIngestService(){
+    return ingestService;
+  }
+
+  /**
+   * Replace the metadata manager of the local repository. The provided
+   * manager is shared by all callers.
+   *
+   * @param manager The metadata manager or null to use the local repository.
+   */
+  public static void setMetaDataManager(IMetaDataManager manager){
+    metaDataManager = manager;
+  }
+
+  /**
+   * Replace the data organizer of the local repository.
+   *
+   * @param organizer The data organizer or null to use the local repository.
+   */
+  public static void setDataOrganizer(DataOrganizer organizer){
+    dataOrganizer = organizer;
+  }
+
+  /**
+   * Replace the ingest service of the local repository.
+   *
+   * @param service The ingest service or null to use the local repository.
+   */
+  public static void setIngestService(IngestService service){
+    ingestService = (service != null) ? service : new LocalIngestService();
+  }
+}
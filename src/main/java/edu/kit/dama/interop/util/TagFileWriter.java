@@ -0,0 +1,282 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import gov.loc.repository.bagit.domain.Bag;
+import gov.loc.repository.bagit.domain.FetchItem;
+import gov.loc.repository.bagit.domain.Manifest;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Writer for all BagIt tag files of a bag, i.e. bagit.txt, bag-info.txt, all
+ * payload manifests, fetch.txt and all tag manifests. In contrast to the
+ * BagWriter of the bagit library, payload files and additional tag files are
+ * never touched, which allows to finish a bag in place, e.g. if payload files
+ * are links, or to append the tag files to a serialized bag.
+ *
+ * @author jejkal
+ */
+final class TagFileWriter{
+
+  /**
+   * Destination of all written tag files.
+   */
+  interface Sink{
+
+    /**
+     * Write a single tag file.
+     *
+     * @param relativePath The path relative to the bag root, using '/' as
+     * separator.
+     * @param content The file content.
+     *
+     * @throws IOException If writing fails.
+     */
+    void write(String relativePath, byte[] content) throws IOException;
+
+    /**
+     * Write a single tag file whose content is produced while writing, e.g.
+     * a large manifest. By default, the content is collected in memory and
+     * written via {@link #write(java.lang.String, byte[])}.
+     *
+     * @param relativePath The path relative to the bag root, using '/' as
+     * separator.
+     * @param content The producer of the file content.
+     *
+     * @throws IOException If writing fails.
+     */
+    default void write(String relativePath, Content content) throws IOException{
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      content.writeTo(buffer);
+      write(relativePath, buffer.toByteArray());
+    }
+  }
+
+  /**
+   * Producer of the content of a tag file.
+   */
+  interface Content{
+
+    /**
+     * Write the content to the provided stream, which must not be closed.
+     *
+     * @param out The stream.
+     *
+     * @throws IOException If writing fails.
+     */
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  /**
+   * Hidden constructor.
+   */
+  private TagFileWriter(){
+  }
+
+  /**
+   * Write all tag files of the provided bag to the provided sink. The
+   * checksums of all written files are added to the written tag manifests
+   * together with the entries already contained in the tag manifests of the
+   * bag. The bag itself is not modified.
+   *
+   * @param bag The bag to write.
+   * @param sink The sink receiving all tag files.
+   *
+   * @throws IOException If writing any file fails.
+   */
+  static void writeTagFiles(Bag bag, Sink sink) throws IOException{
+    final Path rootDir = bag.getRootDir().toAbsolutePath();
+    final Charset charset = bag.getFileEncoding();
+    final Set<String> digestNames = new HashSet<>();
+    bag.getTagManifests().forEach((manifest) -> {
+      digestNames.add(manifest.getAlgorithm().getMessageDigestName());
+    });
+    final Map<String, Map<String, String>> written = new LinkedHashMap<>();
+
+    StringBuilder bagit = new StringBuilder();
+    bagit.append("BagIt-Version: ").append(bag.getVersion().toString()).append("\n");
+    bagit.append("Tag-File-Character-Encoding: ").append(charset.name()).append("\n");
+    written.put("bagit.txt", write(sink, "bagit.txt", bagit.toString(), charset, digestNames));
+
+    StringBuilder bagInfo = new StringBuilder();
+    bag.getMetadata().getAll().forEach((entry) -> {
+      bagInfo.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+    });
+    written.put("bag-info.txt", write(sink, "bag-info.txt", bagInfo.toString(), charset, digestNames));
+
+    for(Manifest manifest : bag.getPayLoadManifests()){
+      //manifests are streamed, as they may contain millions of entries
+      String name = "manifest-" + manifest.getAlgorithm().getBagitName() + ".txt";
+      written.put(name, write(sink, name, (writer) -> {
+        for(Entry<Path, String> entry : manifest.getFileToChecksumMap().entrySet()){
+          writer.append(entry.getValue()).append("  ").append(formatPath(rootDir, entry.getKey())).append("\n");
+        }
+      }, charset, digestNames));
+    }
+
+    List<FetchItem> fetchItems = bag.getItemsToFetch();
+    if(fetchItems != null && !fetchItems.isEmpty()){
+      written.put("fetch.txt", write(sink, "fetch.txt", (writer) -> {
+        synchronized(fetchItems){
+          for(FetchItem item : fetchItems){
+            writer.append(item.getUrl().toString()).append(" ");
+            writer.append(item.getLength() == null ? "-" : item.getLength().toString()).append(" ");
+            writer.append(formatPath(rootDir, item.getPath())).append("\n");
+          }
+        }
+      }, charset, digestNames));
+    }
+
+    for(Manifest manifest : bag.getTagManifests()){
+      final String digestName = manifest.getAlgorithm().getMessageDigestName();
+      Map<String, String> entries = new TreeMap<>();
+      manifest.getFileToChecksumMap().entrySet().forEach((entry) -> {
+        entries.put(formatPath(rootDir, entry.getKey()), entry.getValue());
+      });
+      written.entrySet().forEach((file) -> {
+        entries.put(file.getKey(), file.getValue().get(digestName));
+      });
+      StringBuilder tagManifest = new StringBuilder();
+      entries.entrySet().forEach((entry) -> {
+        tagManifest.append(entry.getValue()).append("  ").append(entry.getKey()).append("\n");
+      });
+      sink.write("tagmanifest-" + manifest.getAlgorithm().getBagitName() + ".txt", tagManifest.toString().getBytes(charset));
+    }
+  }
+
+  /**
+   * Format a path relative to the bag root as it is written to manifests and
+   * fetch.txt.
+   *
+   * @param rootDir The absolute bag root directory.
+   * @param path The path, either absolute or relative to the bag root.
+   *
+   * @return The relative path string using '/' as separator.
+   */
+  static String formatPath(Path rootDir, Path path){
+    Path relative = path.isAbsolute() ? rootDir.relativize(path) : path;
+    return relative.toString().replace("\\", "/").replace("\n", "%0A").replace("\r", "%0D");
+  }
+
+  /**
+   * Encode and write a single tag file.
+   *
+   * @param sink The sink.
+   * @param relativePath The path relative to the bag root.
+   * @param content The content.
+   * @param charset The charset used to encode content.
+   * @param digestNames The message digest names of all checksums to create.
+   *
+   * @return A map of message digest name and hex-encoded checksum of the
+   * encoded content.
+   *
+   * @throws IOException If writing fails.
+   */
+  private static Map<String, String> write(Sink sink, String relativePath, String content, Charset charset, Set<String> digestNames) throws IOException{
+    return write(sink, relativePath, (writer) -> {
+      writer.append(content);
+    }, charset, digestNames);
+  }
+
+  /**
+   * Encode and write a single tag file while creating its checksums.
+   *
+   * @param sink The sink.
+   * @param relativePath The path relative to the bag root.
+   * @param content The producer of the content.
+   * @param charset The charset used to encode content.
+   * @param digestNames The message digest names of all checksums to create.
+   *
+   * @return A map of message digest name and hex-encoded checksum of the
+   * encoded content.
+   *
+   * @throws IOException If writing fails.
+   */
+  private static Map<String, String> write(Sink sink, String relativePath, TextContent content, Charset charset, Set<String> digestNames) throws IOException{
+    final Map<String, MessageDigest> digests = new HashMap<>();
+    digestNames.forEach((digestName) -> {
+      digests.put(digestName, DigestUtils.getDigest(digestName));
+    });
+    sink.write(relativePath, (out) -> {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(new DigestingOutputStream(out, digests.values()), charset));
+      content.writeTo(writer);
+      //flush without closing the sink stream
+      writer.flush();
+    });
+    Map<String, String> checksums = new HashMap<>();
+    digests.entrySet().forEach((entry) -> {
+      checksums.put(entry.getKey(), Hex.encodeHexString(entry.getValue().digest()));
+    });
+    return checksums;
+  }
+
+  /**
+   * Producer of textual tag file content.
+   */
+  private interface TextContent{
+
+    void writeTo(Writer writer) throws IOException;
+  }
+
+  /**
+   * Output stream updating a set of message digests with all written bytes.
+   */
+  private static final class DigestingOutputStream extends FilterOutputStream{
+
+    private final Collection<MessageDigest> digests;
+
+    DigestingOutputStream(OutputStream out, Collection<MessageDigest> digests){
+      super(out);
+      this.digests = digests;
+    }
+
+    @Override
+    public void write(int b) throws IOException{
+      out.write(b);
+      for(MessageDigest digest : digests){
+        digest.update((byte) b);
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException{
+      out.write(b, off, len);
+      for(MessageDigest digest : digests){
+        digest.update(b, off, len);
+      }
+    }
+  }
+}
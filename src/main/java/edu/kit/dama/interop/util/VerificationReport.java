@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Report of all files of a bag whose checksums were verified, together with
+ * the place where each file was verified. Files can be verified while being
+ * downloaded, while being transferred to their destination or by reading them
+ * from disk. The report is thread-safe and sorted by path.
+ *
+ * @author jejkal
+ */
+public class VerificationReport{
+
+  private static final ResourceBundle MESSAGES = ResourceBundle.getBundle("edu.kit.dama.interop.util.MessageBundle");
+
+  /**
+   * Places where a file was verified.
+   */
+  public enum SOURCE{
+    /**
+     * The file was verified while being downloaded from its fetch URL.
+     */
+    DOWNLOAD,
+    /**
+     * The file was verified while being copied to its destination, e.g. from
+     * a serialized bag.
+     */
+    TRANSFER,
+    /**
+     * The file was read from disk after it was placed.
+     */
+    DISK;
+  }
+
+  private final Map<Path, SOURCE> entries = new ConcurrentSkipListMap<>();
+
+  /**
+   * Add a verified file.
+   *
+   * @param filePath The absolute file path in the bag.
+   * @param source The place where the file was verified.
+   */
+  public void add(Path filePath, SOURCE source){
+    entries.put(filePath, source);
+  }
+
+  /**
+   * Check whether the provided file was verified.
+   *
+   * @param filePath The absolute file path in the bag.
+   *
+   * @return TRUE if the file was verified.
+   */
+  public boolean contains(Path filePath){
+    return entries.containsKey(filePath);
+  }
+
+  /**
+   * Get all verified files and the place where they were verified.
+   *
+   * @return An unmodifiable map of file path and source sorted by path.
+   */
+  public Map<Path, SOURCE> getEntries(){
+    return Collections.unmodifiableMap(entries);
+  }
+
+  /**
+   * Get the number of verified files per source.
+   *
+   * @return A map of source and number of files, containing all sources.
+   */
+  public Map<SOURCE, Integer> getCounts(){
+    Map<SOURCE, Integer> counts = new EnumMap<>(SOURCE.class);
+    for(SOURCE source : SOURCE.values()){
+      counts.put(source, 0);
+    }
+    entries.values().forEach((source) -> {
+      counts.put(source, counts.get(source) + 1);
+    });
+    return counts;
+  }
+
+  /**
+   * Print a summary of this report.
+   */
+  public void print(){
+    Map<SOURCE, Integer> counts = getCounts();
+    AnsiUtil.printInfo(MESSAGES.getString("verification_report_summary"), Integer.toString(entries.size()), counts.get(SOURCE.DOWNLOAD).toString(), counts.get(SOURCE.TRANSFER).toString(), counts.get(SOURCE.DISK).toString());
+  }
+
+  /**
+   * Write this report to a text file. Each line contains the source and the
+   * path relative to the bag root separated by a tab.
+   *
+   * @param destination The destination file.
+   * @param rootDir The bag root directory used to relativize all paths.
+   *
+   * @throws IOException If writing the file fails.
+   */
+  public void write(Path destination, Path rootDir) throws IOException{
+    final Path root = rootDir.toAbsolutePath();
+    StringBuilder content = new StringBuilder();
+    entries.entrySet().forEach((entry) -> {
+      content.append(entry.getValue()).append("\t").append(TagFileWriter.formatPath(root, entry.getKey())).append("\n");
+    });
+    Files.write(destination, content.toString().getBytes(StandardCharsets.UTF_8));
+    AnsiUtil.printInfo(MESSAGES.getString("verification_report_written"), destination.toString());
+  }
+}
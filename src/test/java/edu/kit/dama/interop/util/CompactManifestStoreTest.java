@@ -0,0 +1,205 @@
+/*
+ * Copyright 2018 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.dama.interop.util;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the compact manifest storage comparing all operations with the
+ * sorted maps used for small bags.
+ *
+ * @author jejkal
+ */
+public class CompactManifestStoreTest{
+
+  private CompactManifestStore store;
+
+  @Before
+  public void setUp(){
+    store = new CompactManifestStore(CompactManifestStore.DEFAULT_MEMORY_BUDGET);
+  }
+
+  @After
+  public void tearDown() throws Exception{
+    store.close();
+  }
+
+  @Test
+  public void testPutGetRemove() throws Exception{
+    Map<Path, String> map = store.createMap("SHA-256");
+    Path path = Paths.get("data", "folder", "file.txt");
+    String checksum = DigestUtils.sha256Hex("content");
+    String otherChecksum = DigestUtils.sha256Hex("other content");
+
+    assertNull(map.put(path, checksum));
+    assertEquals(1, map.size());
+    assertTrue(map.containsKey(path));
+    assertEquals(checksum, map.get(path));
+    assertNull(map.get(Paths.get("data", "folder", "missing.txt")));
+    assertNull(map.get("data/folder/file.txt"));
+
+    assertEquals(checksum, map.put(path, otherChecksum));
+    assertEquals(1, map.size());
+    assertEquals(otherChecksum, map.get(path));
+
+    assertEquals(otherChecksum, map.remove(path));
+    assertEquals(0, map.size());
+    assertFalse(map.containsKey(path));
+    assertNull(map.get(path));
+    assertNull(map.remove(path));
+
+    assertNull(map.put(path, checksum));
+    assertEquals(checksum, map.get(path));
+    map.clear();
+    assertTrue(map.isEmpty());
+  }
+
+  @Test
+  public void testMapsShareOnlyThePathTable() throws Exception{
+    Map<Path, String> md5 = store.createMap("MD5");
+    Map<Path, String> sha256 = store.createMap("SHA-256");
+    Path path = Paths.get("data", "file.txt");
+    md5.put(path, DigestUtils.md5Hex("content"));
+
+    assertEquals(DigestUtils.md5Hex("content"), md5.get(path));
+    assertFalse(sha256.containsKey(path));
+    sha256.put(path, DigestUtils.sha256Hex("content"));
+    md5.remove(path);
+    assertEquals(DigestUtils.sha256Hex("content"), sha256.get(path));
+  }
+
+  @Test
+  public void testIterationOrderMatchesTreeMap() throws Exception{
+    Map<Path, String> map = store.createMap("SHA-256");
+    Map<Path, String> expected = new TreeMap<>();
+    String[] names = {"a", "a.txt", "a-b", "a_b", "A", "b", "ab", "a b", "z", "10", "9"};
+    Random random = new Random(42);
+    for(int i = 0; i < 2000; i++){
+      Path path = Paths.get("data");
+      int depth = 1 + random.nextInt(4);
+      for(int d = 0; d < depth; d++){
+        path = path.resolve(names[random.nextInt(names.length)] + ((d == depth - 1) ? Integer.toString(random.nextInt(50)) : ""));
+      }
+      String checksum = DigestUtils.sha256Hex(path.toString());
+      map.put(path, checksum);
+      expected.put(path, checksum);
+    }
+
+    assertEquals(expected.size(), map.size());
+    assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(map.entrySet()));
+  }
+
+  @Test
+  public void testRemoveViaIterator() throws Exception{
+    Map<Path, String> map = store.createMap("MD5");
+    for(int i = 0; i < 10; i++){
+      map.put(Paths.get("data", "file" + i), DigestUtils.md5Hex(Integer.toString(i)));
+    }
+    Iterator<Map.Entry<Path, String>> iterator = map.entrySet().iterator();
+    while(iterator.hasNext()){
+      if(iterator.next().getKey().toString().endsWith("5")){
+        iterator.remove();
+      }
+    }
+    assertEquals(9, map.size());
+    assertFalse(map.containsKey(Paths.get("data", "file5")));
+  }
+
+  @Test
+  public void testTableGrowth() throws Exception{
+    Map<Path, String> map = store.createMap("MD5");
+    int count = 50000;
+    for(int i = 0; i < count; i++){
+      map.put(Paths.get("data", "dir" + (i % 97), "file" + i), DigestUtils.md5Hex(Integer.toString(i)));
+    }
+
+    assertEquals(count, map.size());
+    for(int i = 0; i < count; i++){
+      assertEquals(DigestUtils.md5Hex(Integer.toString(i)), map.get(Paths.get("data", "dir" + (i % 97), "file" + i)));
+    }
+  }
+
+  @Test
+  public void testSpillPastBudget() throws Exception{
+    store.close();
+    //one block for names only, digests are spilled
+    store = new CompactManifestStore(1024 * 1024);
+    Map<Path, String> map = store.createMap("SHA-512");
+    List<Path> paths = new ArrayList<>();
+    for(int i = 0; i < 20000; i++){
+      Path path = Paths.get("data", "file" + i);
+      paths.add(path);
+      map.put(path, DigestUtils.sha512Hex(path.toString()));
+    }
+
+    assertTrue(store.getSpillSize() > 0);
+    for(Path path : paths){
+      assertEquals(DigestUtils.sha512Hex(path.toString()), map.get(path));
+    }
+
+    store.close();
+    //no direct memory at all
+    store = new CompactManifestStore(0);
+    map = store.createMap("MD5");
+    map.put(Paths.get("data", "file"), DigestUtils.md5Hex("content"));
+    assertTrue(store.getSpillSize() > 0);
+    assertEquals(DigestUtils.md5Hex("content"), map.get(Paths.get("data", "file")));
+  }
+
+  @Test
+  public void testIrregularValues() throws Exception{
+    Map<Path, String> map = store.createMap("MD5");
+    String upperCase = DigestUtils.md5Hex("content").toUpperCase(Locale.ENGLISH);
+    map.put(Paths.get("data", "upper"), upperCase);
+    map.put(Paths.get("data", "short"), "abc");
+    map.put(Paths.get("data", "nohex"), "zz" + DigestUtils.md5Hex("content").substring(2));
+    map.put(Paths.get("data", "null"), null);
+
+    assertEquals(upperCase, map.get(Paths.get("data", "upper")));
+    assertEquals("abc", map.get(Paths.get("data", "short")));
+    assertEquals("zz" + DigestUtils.md5Hex("content").substring(2), map.get(Paths.get("data", "nohex")));
+    assertTrue(map.containsKey(Paths.get("data", "null")));
+    assertNull(map.get(Paths.get("data", "null")));
+    assertEquals(4, map.size());
+
+    //regular value replacing an irregular one and vice versa
+    map.put(Paths.get("data", "upper"), DigestUtils.md5Hex("content"));
+    assertEquals(DigestUtils.md5Hex("content"), map.get(Paths.get("data", "upper")));
+    map.put(Paths.get("data", "upper"), "abc");
+    assertEquals("abc", map.get(Paths.get("data", "upper")));
+  }
+
+  @Test
+  public void testMaxDirectMemory(){
+    assertTrue(CompactManifestStore.getMaxDirectMemory() > 0);
+  }
+}